@@ -0,0 +1,211 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.structural.NativeStructuralIndexWorker;
+import org.exist.test.ExistEmbeddedServer;
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.JJJJ_Result;
+import org.openjdk.jcstress.infra.results.JJJ_Result;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that the operations of a {@link BTree} with latch coupling
+ * enabled are linearizable.
+ *
+ * The tests run against the B+-tree of the structural index of a temporary
+ * database, which is the tree the database itself uses with latch coupling.
+ * The keys of the tests start with a character, so they do not clash with
+ * the keys of the index, which start with a type byte.
+ *
+ * All tests share the tree, each test state uses its own keys, so that over
+ * time the tree grows and leaf splits happen concurrently with the operations
+ * under test.
+ */
+public class BTreeStressTest {
+
+    private static final AtomicLong KEYS = new AtomicLong();
+    private static final String KEY_PADDING = String.format("%064d", 0);
+    private static final BTree BTREE;
+
+    static {
+        try {
+            final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+            existEmbeddedServer.startDb();
+            final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+            try (final DBBroker broker = pool.getBroker()) {
+                BTREE = ((NativeStructuralIndexWorker) broker.getStructuralIndex()).getStorage();
+            }
+            if (!BTREE.isLatchCoupling()) {
+                throw new IllegalStateException("The structural index does not use latch coupling");
+            }
+            shutdownAfterMain(existEmbeddedServer);
+        } catch (final Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The jcstress fork does not exit the VM when its main thread has run
+     * all of its tests, so the database must be shut down then, otherwise
+     * the threads of the database keep the fork alive.
+     */
+    private static void shutdownAfterMain(final ExistEmbeddedServer existEmbeddedServer) {
+        final Thread main = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> "main".equals(thread.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No main thread"));
+
+        final Thread shutdown = new Thread(() -> {
+            try {
+                main.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            existEmbeddedServer.stopDb();
+        }, "btree-stress-test.shutdown");
+        shutdown.setDaemon(true);
+        shutdown.start();
+    }
+
+    private static Value nextKey() {
+        // pad the keys, so that they fill the pages quickly
+        return new Value(String.format("key-%016d-%s", KEYS.incrementAndGet(), KEY_PADDING));
+    }
+
+    private static long add(final Value key, final long pointer) {
+        try {
+            return BTREE.addValue(key, pointer);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final BTreeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long remove(final Value key) {
+        try {
+            return BTREE.removeValue(key);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final BTreeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long find(final Value key) {
+        try {
+            return BTREE.findValue(key);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final BTreeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "-1, 1", expect = Expect.ACCEPTABLE, desc = "Find before Insert")
+    @Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "Find after Insert")
+    @Outcome(expect = Expect.FORBIDDEN, desc = "Lost or corrupted Insert")
+    @State
+    public static class InsertFind {
+        final Value key = nextKey();
+
+        @Actor
+        public void insert() {
+            add(key, 1);
+        }
+
+        @Actor
+        public void find(final JJ_Result r) {
+            r.r1 = BTreeStressTest.find(key);
+        }
+
+        @Arbiter
+        public void arbiter(final JJ_Result r) {
+            r.r2 = BTreeStressTest.find(key);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "-1, -1, 1, 2", expect = Expect.ACCEPTABLE, desc = "Both Inserts are visible")
+    @Outcome(expect = Expect.FORBIDDEN, desc = "Lost Insert")
+    @State
+    public static class InsertInsert {
+        final Value key1 = nextKey();
+        final Value key2 = nextKey();
+        long previous1;
+        long previous2;
+
+        @Actor
+        public void insert1() {
+            previous1 = add(key1, 1);
+        }
+
+        @Actor
+        public void insert2() {
+            previous2 = add(key2, 2);
+        }
+
+        @Arbiter
+        public void arbiter(final JJJJ_Result r) {
+            r.r1 = previous1;
+            r.r2 = previous2;
+            r.r3 = find(key1);
+            r.r4 = find(key2);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "1, -1, 2", expect = Expect.ACCEPTABLE, desc = "Remove before Insert")
+    @Outcome(id = "2, 1, -1", expect = Expect.ACCEPTABLE, desc = "Insert before Remove")
+    @Outcome(expect = Expect.FORBIDDEN, desc = "Not linearizable")
+    @State
+    public static class InsertRemove {
+        final Value key = nextKey();
+
+        public InsertRemove() {
+            add(key, 1);
+        }
+
+        @Actor
+        public void remove(final JJJ_Result r) {
+            r.r1 = BTreeStressTest.remove(key);
+        }
+
+        @Actor
+        public void insert(final JJJ_Result r) {
+            r.r2 = add(key, 2);
+        }
+
+        @Arbiter
+        public void arbiter(final JJJ_Result r) {
+            r.r3 = find(key);
+        }
+    }
+}
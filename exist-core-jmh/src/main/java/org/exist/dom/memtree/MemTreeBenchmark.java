@@ -0,0 +1,101 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.memtree;
+
+import org.exist.dom.QName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+
+/**
+ * Compares building and walking a regular and a compact in-memory document.
+ *
+ * Run with <code>-prof gc</code> to compare the memory allocated by each.
+ */
+@State(Scope.Benchmark)
+public class MemTreeBenchmark {
+
+    private static final QName ROOT = new QName("root", XMLConstants.NULL_NS_URI);
+    private static final QName ITEM = new QName("item", XMLConstants.NULL_NS_URI);
+    private static final QName ID = new QName("id", XMLConstants.NULL_NS_URI);
+    private static final QName TYPE = new QName("type", XMLConstants.NULL_NS_URI);
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    @Param({"100000", "1000000"})
+    public int elements;
+
+    private DocumentImpl document;
+
+    @Setup
+    public void setUp() {
+        document = build(compact, elements);
+    }
+
+    @Benchmark
+    public DocumentImpl construct() {
+        return build(compact, elements);
+    }
+
+    @Benchmark
+    public void traverse(final Blackhole blackhole) {
+        Node item = document.getDocumentElement().getFirstChild();
+        while (item != null) {
+            blackhole.consume(((Element) item).getAttribute("id"));
+            blackhole.consume(item.getFirstChild().getNodeValue());
+            item = item.getNextSibling();
+        }
+    }
+
+    private static DocumentImpl build(final boolean compact, final int elements) {
+        final MemTreeBuilder builder = new MemTreeBuilder(null, compact);
+        builder.startDocument();
+        builder.startElement(ROOT, null);
+        for (int i = 0; i < elements; i++) {
+            builder.startElement(ITEM, null);
+            builder.addAttribute(ID, String.valueOf(i));
+            builder.addAttribute(TYPE, (i & 1) == 0 ? "even" : "odd");
+            builder.characters("item " + i);
+            builder.endElement();
+        }
+        builder.endElement();
+        builder.endDocument();
+        return builder.getDocument();
+    }
+
+    public static void main(final String args[]) {
+        // NOTE: just for running with the java debugger
+        final MemTreeBenchmark benchmark = new MemTreeBenchmark();
+        benchmark.compact = true;
+        benchmark.elements = 1000;
+        benchmark.setUp();
+        benchmark.construct();
+    }
+}
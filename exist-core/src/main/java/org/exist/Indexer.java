@@ -82,10 +82,12 @@ public class Indexer implements ContentHandler, LexicalHandler, ErrorHandler {
     public static final String CONFIGURATION_INDEX_ELEMENT_NAME = "index";
     public static final String SUPPRESS_WHITESPACE_ATTRIBUTE = "suppress-whitespace";
     public static final String PRESERVE_WS_MIXED_CONTENT_ATTRIBUTE = "preserve-whitespace-mixed-content";
+    public static final String SINGLE_PASS_STORE_ATTRIBUTE = "single-pass-store";
 
     public static final String PROPERTY_INDEXER_CONFIG = "indexer.config";
     public final static String PROPERTY_SUPPRESS_WHITESPACE = "indexer.suppress-whitespace";
     public static final String PROPERTY_PRESERVE_WS_MIXED_CONTENT = "indexer.preserve-whitespace-mixed-content";
+    public static final String PROPERTY_SINGLE_PASS_STORE = "indexer.single-pass-store";
 
     private final DBBroker broker;
     private final Txn transaction;
@@ -192,6 +194,17 @@ public class Indexer implements ContentHandler, LexicalHandler, ErrorHandler {
         }
     }
 
+    /**
+     * Prepare the indexer for storing the document in a single pass, without
+     * a preceding validation run. As the number of children of an element is
+     * not known in advance, each element is updated once its end tag has been
+     * seen.
+     */
+    public void setSinglePass() {
+        childCnt = null;
+        setValidating(false);
+    }
+
     /**
      * Prepare the indexer for parsing a new document. This will reset the
      * internal state of the Indexer object.
@@ -47,6 +47,7 @@ import java.io.InputStream;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.exist.storage.lock.Lock.LockMode.READ_LOCK;
 import static org.exist.storage.lock.Lock.LockMode.WRITE_LOCK;
@@ -797,6 +798,52 @@ public interface Collection extends Resource, Comparable<Collection>, AutoClosea
     void store(Txn transaction, DBBroker broker, IndexInfo info, Node node)
             throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException;
 
+    /**
+     * Stores an XML document into the Collection in a single pass.
+     *
+     * Unlike {@link #validateXMLResource(Txn, DBBroker, XmldbURI, InputSource)} followed by
+     * {@link #store(Txn, DBBroker, IndexInfo, InputSource)}, the source is parsed only once, and so
+     * does not need to be re-readable. The nodes are written under a new document id as they are
+     * parsed, and the document only replaces any existing document of the same name once the
+     * parse has succeeded; if the parse fails the partially stored document is discarded.
+     * Launches the prepare and finish triggers.
+     *
+     * @param transaction The database transaction
+     * @param broker      The database broker
+     * @param name        the name (without path) of the document
+     * @param source      The source of the document to store
+     * @throws PermissionDeniedException if user has not sufficient rights
+     * @throws LockException if broker is locked
+     * @throws IOException in case of I/O errors
+     * @throws TriggerException in case of eXist-db trigger error
+     * @throws EXistException general eXist-db exception
+     * @throws SAXException if the document could not be parsed
+     */
+    void storeXMLResource(Txn transaction, DBBroker broker, XmldbURI name, InputSource source)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException;
+
+    /**
+     * Stores an XML document into the Collection in a single pass.
+     *
+     * See {@link #storeXMLResource(Txn, DBBroker, XmldbURI, InputSource)}.
+     *
+     * @param transaction The database transaction
+     * @param broker      The database broker
+     * @param name        the name (without path) of the document
+     * @param source      The source of the document to store
+     * @param reader      The XML reader to use for reading the {@code source}, or null to use the default reader
+     * @param preparer    Called with the new document before it is parsed, e.g. to set its mime type, may be null
+     * @throws PermissionDeniedException if user has not sufficient rights
+     * @throws LockException if broker is locked
+     * @throws IOException in case of I/O errors
+     * @throws TriggerException in case of eXist-db trigger error
+     * @throws EXistException general eXist-db exception
+     * @throws SAXException if the document could not be parsed
+     */
+    void storeXMLResource(Txn transaction, DBBroker broker, XmldbURI name, InputSource source,
+            @Nullable XMLReader reader, @Nullable Consumer<DocumentImpl> preparer)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException;
+
     /**
      * Creates a Binary Document object
      *
@@ -41,11 +41,13 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Just a Delegate to a {@link Collection} which allows us to also hold a lock
@@ -394,6 +396,16 @@ public class LockedCollection implements Collection {
         collection.store(transaction, broker, info, node);
     }
 
+    @Override
+    public void storeXMLResource(final Txn transaction, final DBBroker broker, final XmldbURI name, final InputSource source) throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException {
+        collection.storeXMLResource(transaction, broker, name, source);
+    }
+
+    @Override
+    public void storeXMLResource(final Txn transaction, final DBBroker broker, final XmldbURI name, final InputSource source, @Nullable final XMLReader reader, @Nullable final Consumer<DocumentImpl> preparer) throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException {
+        collection.storeXMLResource(transaction, broker, name, source, reader, preparer);
+    }
+
     @Override
     public BinaryDocument validateBinaryResource(final Txn transaction, final DBBroker broker, final XmldbURI name) throws PermissionDeniedException, LockException, TriggerException, IOException {
         return collection.validateBinaryResource(transaction, broker, name);
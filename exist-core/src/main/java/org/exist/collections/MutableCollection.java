@@ -29,6 +29,7 @@ import org.exist.dom.persistent.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.logging.log4j.LogManager;
@@ -1263,8 +1264,21 @@ public class MutableCollection implements Collection {
 
             info.getTriggers().afterUpdateDocument(broker, transaction, document);
         }
-        
-        db.getNotificationService().notifyUpdate(document, (info.isCreating() ? UpdateListener.ADD : UpdateListener.UPDATE));
+
+        documentStored(broker, document, info.isCreating());
+    }
+
+    /**
+     * Notifies listeners about a stored document, and reloads the collection
+     * configuration if the document is a collection configuration file.
+     *
+     * @param broker   The database broker
+     * @param document The stored document
+     * @param creating true if the document was created, false if it was updated
+     */
+    private void documentStored(final DBBroker broker, final DocumentImpl document, final boolean creating)
+            throws EXistException {
+        broker.getBrokerPool().getNotificationService().notifyUpdate(document, (creating ? UpdateListener.ADD : UpdateListener.UPDATE));
         //Is it a collection configuration file ?
         final XmldbURI docName = document.getFileURI();
         //WARNING : there is no reason to lock the collection since setPath() is normally called in a safe way
@@ -1287,6 +1301,150 @@ public class MutableCollection implements Collection {
         }
     }
 
+    @Override
+    public void storeXMLResource(final Txn transaction, final DBBroker broker, final XmldbURI name, final InputSource source)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException {
+        storeXMLResource(transaction, broker, name, source, null, null);
+    }
+
+    @Override
+    public void storeXMLResource(final Txn transaction, final DBBroker broker, final XmldbURI name, final InputSource source,
+            @Nullable final XMLReader reader, @Nullable final Consumer<DocumentImpl> preparer)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException {
+        final CollectionConfiguration colconf = getConfiguration(broker);
+        final XMLReader xmlReader = reader != null ? reader : getReader(broker, true, colconf);
+        try {
+            storeXMLResourceInternal(transaction, broker, name, colconf, preparer, info -> {
+                info.setReader(xmlReader, null);
+                try {
+                    xmlReader.parse(source);
+                } catch(final SAXException e) {
+                    throw new SAXException("The XML parser reported a problem: " + e.getMessage(), e);
+                } catch(final IOException e) {
+                    throw new EXistException(e);
+                }
+            });
+        } finally {
+            if (reader == null) {
+                releaseReader(broker, xmlReader);
+            }
+        }
+    }
+
+    /**
+     * Stores an XML document in a single pass of the parser. Launches the prepare and finish triggers.
+     *
+     * The nodes are written under a new document id while the document is parsed, and the new document
+     * is only added to the collection, replacing any old document of the same name, once the parse has
+     * succeeded. Should the parse fail, the partially written document is discarded again, leaving the
+     * old document untouched.
+     *
+     * @param transaction The database transaction
+     * @param broker      The database broker
+     * @param name        the name (without path) of the document
+     * @param config      The collection configuration
+     * @param preparer    Called with the new document before it is parsed, may be null
+     * @param parserFn    A function which parses the XML document
+     */
+    private void storeXMLResourceInternal(final Txn transaction, final DBBroker broker, final XmldbURI name,
+            final CollectionConfiguration config, @Nullable final Consumer<DocumentImpl> preparer,
+            final Consumer2E<IndexInfo, SAXException, EXistException> parserFn)
+            throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException,
+            IOException {
+
+        //Make the necessary operations if we process a collection configuration document
+        checkConfigurationDocument(transaction, broker, name);
+
+        final Database db = broker.getBrokerPool();
+
+        if (db.isReadOnly()) {
+            throw new IOException("Database is read-only");
+        }
+
+        ManagedDocumentLock documentWriteLock = null;
+        final DocumentImpl document;
+        final IndexInfo info;
+
+        db.getProcessMonitor().startJob(ProcessMonitor.ACTION_STORE_DOC, name);
+        try {
+            try(final ManagedCollectionLock collectionLock = lockManager.acquireCollectionWriteLock(path)) {
+
+                documentWriteLock = lockManager.acquireDocumentWriteLock(getURI().append(name.lastSegment()));
+
+                final DocumentImpl oldDoc = documents.get(name.lastSegmentString());
+                checkPermissionsForAddDocument(broker, oldDoc);
+                checkCollectionConflict(name);
+
+                // always use a new id, the old document must stay intact until the new one has been parsed
+                document = new DocumentImpl((BrokerPool) db, this, broker.getNextResourceId(transaction), name);
+                manageDocumentInformation(oldDoc, document);
+                if (oldDoc != null) {
+                    updateModificationTime(document);
+                }
+                if (preparer != null) {
+                    preparer.accept(document);
+                }
+
+                final Indexer indexer = new Indexer(broker, transaction);
+                info = new IndexInfo(indexer, config, documentWriteLock);
+                info.setCreating(oldDoc == null);
+                info.setOldDocPermissions(oldDoc != null ? oldDoc.getPermissions() : null);
+                indexer.setDocument(document, config);
+                indexer.setSinglePass();
+
+                final DocumentTriggers trigger = new DocumentTriggers(broker, transaction, indexer, this, broker.isTriggersEnabled() ? config : null);
+                trigger.setValidating(false);
+                info.setTriggers(trigger);
+
+                if (oldDoc == null) {
+                    trigger.beforeCreateDocument(broker, transaction, getURI().append(name));
+                } else {
+                    trigger.beforeUpdateDocument(broker, transaction, oldDoc);
+                }
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Storing document " + getURI().append(name) + " in a single pass");
+                }
+
+                try {
+                    parserFn.accept(info);
+                } catch (final SAXException | EXistException | RuntimeException e) {
+                    LOG.debug("Discarding document {} after failed parse", document.getURI());
+                    broker.discardXMLResource(transaction, document);
+                    throw e;
+                }
+
+                // the new document is complete: it replaces the old document
+                if (oldDoc != null) {
+                    if (oldDoc.getResourceType() == DocumentImpl.BINARY_FILE) {
+                        broker.removeBinaryResource(transaction, (BinaryDocument) oldDoc);
+                    } else {
+                        broker.discardXMLResource(transaction, oldDoc);
+                    }
+                }
+                addDocument(transaction, broker, document, oldDoc);
+            }
+
+            broker.storeXMLResource(transaction, document);
+            broker.flush();
+            broker.closeDocument();
+            LOG.debug("document stored.");
+        } finally {
+            if (documentWriteLock != null) {
+                documentWriteLock.close();
+            }
+            db.getProcessMonitor().endJob();
+        }
+
+        if (info.isCreating()) {
+            info.getTriggers().afterCreateDocument(broker, transaction, document);
+        } else {
+            info.getTriggers().afterUpdateDocument(broker, transaction, document);
+        }
+
+        documentStored(broker, document, info.isCreating());
+    }
+
     @Override
     public IndexInfo validateXMLResource(final Txn transaction, final DBBroker broker, final XmldbURI name, final String data) throws EXistException, PermissionDeniedException, TriggerException, SAXException, LockException, IOException {
         return validateXMLResource(transaction, broker, name, new InputSource(new StringReader(data)));
@@ -0,0 +1,144 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections.triggers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
+import org.exist.xmldb.XmldbURI;
+
+/**
+ * Collects the deferred 'after' events of a {@link XQueryTrigger} for one transaction,
+ * and fires the trigger once for all of them when the transaction commits.
+ *
+ * A new trigger instance is created for each operation on a collection, so the events
+ * are gathered by transaction and trigger configuration rather than by trigger instance.
+ */
+final class DeferredTriggerEvents implements TxnListener {
+
+    private static final Logger LOG = LogManager.getLogger(DeferredTriggerEvents.class);
+
+    private static final ConcurrentMap<Key, DeferredTriggerEvents> PENDING = new ConcurrentHashMap<>();
+
+    private final BrokerPool pool;
+    private final Key key;
+    private final XQueryTrigger trigger;
+    private final Map<QName, List<XmldbURI[]>> events = new LinkedHashMap<>();
+
+    private DeferredTriggerEvents(final BrokerPool pool, final Key key, final XQueryTrigger trigger) {
+        this.pool = pool;
+        this.key = key;
+        this.trigger = trigger;
+    }
+
+    /**
+     * Get the deferred events of a trigger for a transaction.
+     *
+     * @param pool the database instance
+     * @param transaction the transaction which caused the events
+     * @param trigger the trigger, used to fire the events if there are none for the transaction yet
+     * @param triggerKey identifies the configuration of the trigger
+     *
+     * @return the deferred events
+     */
+    static DeferredTriggerEvents forTransaction(final BrokerPool pool, final Txn transaction, final XQueryTrigger trigger,
+            final String triggerKey) {
+        return PENDING.computeIfAbsent(new Key(transaction.getId(), triggerKey), key -> {
+            final DeferredTriggerEvents deferredEvents = new DeferredTriggerEvents(pool, key, trigger);
+            transaction.registerListener(deferredEvents);
+            return deferredEvents;
+        });
+    }
+
+    synchronized void add(final QName functionName, final XmldbURI src, final XmldbURI dst) {
+        events.computeIfAbsent(functionName, k -> new ArrayList<>()).add(new XmldbURI[] { src, dst });
+    }
+
+    @Override
+    public void commit() {
+        PENDING.remove(key);
+
+        final Map<QName, List<XmldbURI[]>> committedEvents;
+        synchronized (this) {
+            if (events.isEmpty()) {
+                return;
+            }
+            committedEvents = new LinkedHashMap<>(events);
+            events.clear();
+        }
+
+        // the transaction which caused the events has been committed, so the trigger needs one of its own
+        try (final DBBroker broker = pool.getBroker();
+                final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            trigger.executeDeferred(broker, transaction, committedEvents);
+            transaction.commit();
+        } catch (final EXistException | TriggerException | RuntimeException e) {
+            // never let the trigger fail the commit, which has already been written
+            LOG.error("Failed to fire deferred trigger for: " + key.triggerKey + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void abort() {
+        PENDING.remove(key);
+    }
+
+    private static final class Key {
+        private final long transactionId;
+        private final String triggerKey;
+
+        Key(final long transactionId, final String triggerKey) {
+            this.transactionId = transactionId;
+            this.triggerKey = triggerKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return transactionId == other.transactionId && triggerKey.equals(other.triggerKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(transactionId, triggerKey);
+        }
+    }
+}
@@ -66,6 +66,14 @@ import org.exist.xquery.value.StringValue;
  * <code>xxx:event</code> : the kind of triggered event
  * xxx is the namespace prefix within the XQuery, can be set by the variable "bindingPrefix"
  * 
+ * If the parameter named "deferred" is set to "yes", the 'after' events of a transaction are
+ * not passed to the trigger functions one at a time. Instead, each of the <code>trigger:after-*</code>
+ * functions is called just once when the transaction commits, with the URIs of all of its events
+ * as a sequence. The functions are then called in a transaction of their own, and can no longer
+ * abort the transaction which caused the events. The 'before' events are never deferred.
+ * 
+ * The compiled XQuery is kept in the XQuery pool between events.
+ * 
  * @author <a href="mailto:pierrick.brihaye@free.fr">Pierrick Brihaye</a>
  * @author <a href="mailto:adam.retter@devon.gov.uk">Adam Retter</a>
  * @author <a href="mailto:gazdovsky@gmail.com">Evgeny Gazdovsky</a>
@@ -134,6 +142,9 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 	private String bindingPrefix = null;
 	private XQuery service;
 
+	/** If true, the 'after' events of a transaction are passed to the trigger together when it commits */
+	private boolean deferred = false;
+
     public final static String PREPARE_EXCEPTION_MESSAGE = "Error during trigger prepare";
 	
 	/**
@@ -184,6 +195,12 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 					strQuery = (String) paramValue;
  				}
 
+ 				//should the 'after' events be deferred until the transaction commits
+ 				else if("deferred".equals(paramName)) {
+					final String value = ((String) paramValue).trim();
+					deferred = "yes".equals(value) || "true".equals(value);
+ 				}
+
  				//make any other parameters available as external variables for the query
  				else {
                     //TODO could be enhanced to setup a sequence etc
@@ -235,6 +252,77 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		return querySource;
 	}
 	
+	/**
+	 * Borrows the compiled Trigger XQuery from the XQuery pool,
+	 * or compiles it if there is no compiled copy in the pool.
+	 *
+	 * The compiled XQuery must be given back with
+	 * {@link #returnCompiledQuery(DBBroker, Source, CompiledXQuery)}.
+	 *
+	 * @param broker the database broker
+	 * @param query the source of the Trigger's XQuery
+	 *
+	 * @return the compiled XQuery
+	 */
+	private CompiledXQuery borrowCompiledQuery(final DBBroker broker, final Source query) throws XPathException, IOException, PermissionDeniedException {
+		final CompiledXQuery compiledQuery = broker.getBrokerPool().getXQueryPool().borrowCompiledXQuery(broker, query);
+		if (compiledQuery != null) {
+			compiledQuery.getContext().prepareForReuse();
+			return compiledQuery;
+		}
+
+		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
+		if (query instanceof DBSource) {
+			context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI_PREFIX + ((DBSource)query).getDocumentPath().removeLastSegment().toString());
+		}
+		return service.compile(broker, context, query);
+	}
+
+	private void returnCompiledQuery(final DBBroker broker, final Source query, final CompiledXQuery compiledQuery) {
+		compiledQuery.getContext().runCleanupTasks();
+		broker.getBrokerPool().getXQueryPool().returnCompiledXQuery(query, compiledQuery);
+	}
+
+	private void declareEventVariables(final XQueryContext context, final String eventType, final int event,
+			final XmldbURI src, final XmldbURI dst, final boolean isCollection) throws XPathException {
+		context.declareVariable(bindingPrefix + "type", eventType);
+		context.declareVariable(bindingPrefix + "event", new StringValue(eventToString(event)));
+
+		if (isCollection)
+			{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src));}
+		else
+			{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src.removeLastSegment()));}
+
+		context.declareVariable(bindingPrefix + "uri", new AnyURIValue(src));
+		if (dst == null)
+			{context.declareVariable(bindingPrefix + "new-uri", Sequence.EMPTY_SEQUENCE);}
+		else
+			{context.declareVariable(bindingPrefix + "new-uri", new AnyURIValue(dst));}
+
+		// For backward compatibility
+		context.declareVariable(bindingPrefix + "eventType", eventType);
+		context.declareVariable(bindingPrefix + "triggerEvent", new StringValue(eventToString(event)));
+
+		if (isCollection)
+			{context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src));}
+		else {
+			context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src.removeLastSegment()));
+			context.declareVariable(bindingPrefix + "documentName", new AnyURIValue(src));
+		}
+
+		declareUserDefinedVariables(context);
+	}
+
+	private void declareUserDefinedVariables(final XQueryContext context) throws XPathException {
+		//declare user defined parameters as external variables
+		for (Object o : userDefinedVariables.keySet()) {
+			final String varName = (String) o;
+			final String varValue = userDefinedVariables.getProperty(varName);
+
+			context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
+		}
+	}
+
 	private void prepare(int event, DBBroker broker, Txn transaction,
 			XmldbURI src, XmldbURI dst, boolean isCollection) throws TriggerException {
 		
@@ -249,65 +337,38 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		}
 		TriggerStatePerThread.setTransaction(transaction);
 		
-		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
-         //TODO : further initialisations ?
-        CompiledXQuery compiledQuery;
-        try
-        {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
-
-        	//declare external variables
-        	context.declareVariable(bindingPrefix + "type", EVENT_TYPE_PREPARE);
-        	context.declareVariable(bindingPrefix + "event", new StringValue(eventToString(event)));
-        	
-        	if (isCollection)
-        		{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src));}
-        	else
-        		{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src.removeLastSegment()));}
-
-        	context.declareVariable(bindingPrefix + "uri", new AnyURIValue(src));
-        	if (dst == null)
-        		{context.declareVariable(bindingPrefix + "new-uri", Sequence.EMPTY_SEQUENCE);}
-        	else 
-        		{context.declareVariable(bindingPrefix + "new-uri", new AnyURIValue(dst));}
-        	
-        	// For backward compatibility
-        	context.declareVariable(bindingPrefix + "eventType", EVENT_TYPE_PREPARE);
-        	context.declareVariable(bindingPrefix + "triggerEvent", new StringValue(eventToString(event)));
-
-        	if (isCollection)
-        		{context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src));}
-        	else {
-        		context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src.removeLastSegment()));
-        		context.declareVariable(bindingPrefix + "documentName", new AnyURIValue(src));
-        	}
-        	
-        	//declare user defined parameters as external variables
-            for (Object o : userDefinedVariables.keySet()) {
-                final String varName = (String) o;
-                final String varValue = userDefinedVariables.getProperty(varName);
-
-                context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
-            }
-        	
-        } catch(final XPathException | IOException | PermissionDeniedException e) {
-    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
-    		TriggerStatePerThread.setTransaction(null);
-        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
-	    }
-
-        //execute the XQuery
+        CompiledXQuery compiledQuery = null;
         try {
-        	//TODO : should we provide another contextSet ?
-	        final NodeSet contextSet = NodeSet.EMPTY_SET;
-			service.execute(broker, compiledQuery, contextSet);
-			//TODO : should we have a special processing ?
-			LOG.debug("Trigger fired for prepare");
-        } catch(final XPathException | PermissionDeniedException e) {
-    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
-    		TriggerStatePerThread.setTransaction(null);
-        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+	        try
+	        {
+	        	//compile the XQuery, or reuse a compiled copy from the pool
+	        	compiledQuery = borrowCompiledQuery(broker, query);
+
+	        	//declare external variables
+	        	declareEventVariables(compiledQuery.getContext(), EVENT_TYPE_PREPARE, event, src, dst, isCollection);
+	        	
+	        } catch(final XPathException | IOException | PermissionDeniedException e) {
+	    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+	    		TriggerStatePerThread.setTransaction(null);
+	        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+		    }
+
+	        //execute the XQuery
+	        try {
+	        	//TODO : should we provide another contextSet ?
+		        final NodeSet contextSet = NodeSet.EMPTY_SET;
+				service.execute(broker, compiledQuery, contextSet);
+				//TODO : should we have a special processing ?
+				LOG.debug("Trigger fired for prepare");
+	        } catch(final XPathException | PermissionDeniedException e) {
+	    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+	    		TriggerStatePerThread.setTransaction(null);
+	        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+	        }
+        } finally {
+        	if (compiledQuery != null) {
+        		returnCompiledQuery(broker, query, compiledQuery);
+        	}
         }
     }
     
@@ -322,52 +383,15 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		if(!TriggerStatePerThread.verifyUniqueTriggerPerThreadBeforeFinish(this, src))
 			{return;}
 		
-        final XQueryContext context = new XQueryContext(broker.getBrokerPool());
         CompiledXQuery compiledQuery = null;
         try {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
+        	//compile the XQuery, or reuse a compiled copy from the pool
+        	compiledQuery = borrowCompiledQuery(broker, query);
         	
         	//declare external variables
-        	context.declareVariable(bindingPrefix + "type", EVENT_TYPE_FINISH);
-        	context.declareVariable(bindingPrefix + "event", new StringValue(eventToString(event)));
-        	
-        	if (isCollection)
-        		{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src));}
-        	else
-        		{context.declareVariable(bindingPrefix + "collection", new AnyURIValue(src.removeLastSegment()));}
-    		
-        	context.declareVariable(bindingPrefix + "uri", new AnyURIValue(src));
-        	if (dst == null)
-        		{context.declareVariable(bindingPrefix + "new-uri", Sequence.EMPTY_SEQUENCE);}
-        	else 
-        		{context.declareVariable(bindingPrefix + "new-uri", new AnyURIValue(dst));}
-        	
-        	// For backward compatibility
-        	context.declareVariable(bindingPrefix + "eventType", EVENT_TYPE_FINISH);
-        	context.declareVariable(bindingPrefix + "triggerEvent", new StringValue(eventToString(event)));
-        	if (isCollection)
-        		{context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src));}
-        	else {
-        		context.declareVariable(bindingPrefix + "collectionName", new AnyURIValue(src.removeLastSegment()));
-        		context.declareVariable(bindingPrefix + "documentName", new AnyURIValue(src));
-        	}
-        	
-        	//declare user defined parameters as external variables
-            for (Object o : userDefinedVariables.keySet()) {
-                final String varName = (String) o;
-                final String varValue = userDefinedVariables.getProperty(varName);
+        	declareEventVariables(compiledQuery.getContext(), EVENT_TYPE_FINISH, event, src, dst, isCollection);
 
-                context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
-            }
-        	
-        } catch(final XPathException | IOException | PermissionDeniedException e) {
-        	//Should never be reached
-        	LOG.error(e);
-	    }
-
-        //execute the XQuery
-        try {
+	        //execute the XQuery
         	//TODO : should we provide another contextSet ?
 	        final NodeSet contextSet = NodeSet.EMPTY_SET;	        
 			service.execute(broker, compiledQuery, contextSet);
@@ -375,9 +399,13 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
         } catch (final XPathException e) {
         	//Should never be reached
 			LOG.error("Error during trigger finish", e);
-        } catch (final PermissionDeniedException e) {
+        } catch (final IOException | PermissionDeniedException e) {
         	//Should never be reached
         	LOG.error(e);
+        } finally {
+        	if (compiledQuery != null) {
+        		returnCompiledQuery(broker, query, compiledQuery);
+        	}
         }
         
 		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
@@ -401,23 +429,18 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		}
 		TriggerStatePerThread.setTransaction(transaction);
 		
-		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
-        if (query instanceof DBSource) {
-            context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI_PREFIX + ((DBSource)query).getDocumentPath().removeLastSegment().toString());
-        }
+		return getScript(broker, query);
+	}
 
-        CompiledXQuery compiledQuery;
+	private CompiledXQuery getScript(final DBBroker broker, final Source query) throws TriggerException {
+        CompiledXQuery compiledQuery = null;
         try {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
+        	//compile the XQuery, or reuse a compiled copy from the pool
+        	compiledQuery = borrowCompiledQuery(broker, query);
+        	final XQueryContext context = compiledQuery.getContext();
 
         	//declare user defined parameters as external variables
-            for (Object o : userDefinedVariables.keySet()) {
-                final String varName = (String) o;
-                final String varValue = userDefinedVariables.getProperty(varName);
-
-                context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
-            }
+        	declareUserDefinedVariables(context);
         	
         	//reset & prepareForExecution for execution
         	compiledQuery.reset();
@@ -430,68 +453,87 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
         	return compiledQuery;
         } catch(final XPathException | IOException | PermissionDeniedException e) {
             LOG.warn(e.getMessage(), e);
+            if (compiledQuery != null) {
+            	returnCompiledQuery(broker, query, compiledQuery);
+            }
     		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
     		TriggerStatePerThread.setTransaction(null);
         	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
 	    }
     }
+
+	/**
+	 * Calls a function of the Trigger's XQuery.
+	 *
+	 * @param broker the database broker
+	 * @param compiledQuery the compiled Trigger XQuery
+	 * @param functionName the name of the function to call
+	 * @param args the arguments of the function, the function is not called if it is not declared with this arity
+	 */
+	private void callFunction(final DBBroker broker, final CompiledXQuery compiledQuery, final QName functionName,
+			final List<Expression> args) throws XPathException {
+		final XQueryContext context = compiledQuery.getContext();
+		final UserDefinedFunction function = context.resolveFunction(functionName, args.size());
+		if (function == null) {
+			return;
+		}
+
+		final ProcessMonitor pm = broker.getBrokerPool().getProcessMonitor();
+
+		context.getProfiler().traceQueryStart();
+		pm.queryStarted(context.getWatchDog());
+		try {
+			final FunctionCall call = new FunctionCall(context, function);
+			call.setArguments(args);
+			call.analyze(new AnalyzeContextInfo());
+
+			final Sequence contextSequence;
+			final ContextItemDeclaration cid = call.getContext().getContextItemDeclartion();
+			if(cid != null) {
+				contextSequence = cid.eval(null);
+			} else {
+				contextSequence = NodeSet.EMPTY_SET;
+			}
+			call.eval(contextSequence);
+		} finally {
+			context.getProfiler().traceQueryEnd(context);
+			pm.queryCompleted(context.getWatchDog());
+		}
+	}
 	
 	private void execute(boolean isBefore, DBBroker broker, Txn transaction, QName functionName, XmldbURI src, XmldbURI dst) throws TriggerException {
+		if (!isBefore && deferred) {
+			defer(broker, transaction, functionName, src, dst);
+			return;
+		}
+
 		final CompiledXQuery compiledQuery = getScript(isBefore, broker, transaction, src);
 		
 		if (compiledQuery == null) {return;}
 		
-		ProcessMonitor pm = null;
-		
 		final XQueryContext context = compiledQuery.getContext();
         //execute the XQuery
         try {
-            int nParams = 1;
-            if (dst != null)
-                nParams = 2;
-
-            final UserDefinedFunction function = context.resolveFunction(functionName, nParams);
-            if (function != null) {
-                final List<Expression> args = new ArrayList<>(nParams);
-                if (isBefore) {
-                    args.add(new LiteralValue(context, new AnyURIValue(src)));
-                    if (dst != null)
-                        args.add(new LiteralValue(context, new AnyURIValue(dst)));
-                } else {
-                    if (dst != null)
-                        args.add(new LiteralValue(context, new AnyURIValue(dst)));
-                    args.add(new LiteralValue(context, new AnyURIValue(src)));
-                }
-
-	    		pm = broker.getBrokerPool().getProcessMonitor();
-	    		
-	            context.getProfiler().traceQueryStart();
-	            pm.queryStarted(context.getWatchDog());
-	            
-	            final FunctionCall call = new FunctionCall(context, function);
-	            call.setArguments(args);
-	            call.analyze(new AnalyzeContextInfo());
-
-				final Sequence contextSequence;
-				final ContextItemDeclaration cid = call.getContext().getContextItemDeclartion();
-				if(cid != null) {
-					contextSequence = cid.eval(null);
-				} else {
-					contextSequence = NodeSet.EMPTY_SET;
-				}
-	    		call.eval(contextSequence);
-    		}
+            final List<Expression> args = new ArrayList<>(2);
+            if (isBefore) {
+                args.add(new LiteralValue(context, new AnyURIValue(src)));
+                if (dst != null)
+                    args.add(new LiteralValue(context, new AnyURIValue(dst)));
+            } else {
+                if (dst != null)
+                    args.add(new LiteralValue(context, new AnyURIValue(dst)));
+                args.add(new LiteralValue(context, new AnyURIValue(src)));
+            }
+
+            callFunction(broker, compiledQuery, functionName, args);
         } catch(final XPathException e) {
     		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
     		TriggerStatePerThread.setTransaction(null);
         	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
         } finally {
-        	if (pm != null) {
-        		context.getProfiler().traceQueryEnd(context);
-        		pm.queryCompleted(context.getWatchDog());
-        	}
     		compiledQuery.reset();
     		context.reset();
+    		returnCompiledQuery(broker, compiledQuery.getSource(), compiledQuery);
         }
 
         if (!isBefore) {
@@ -502,6 +544,103 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
         	{LOG.debug("Trigger fired 'before'");}
 	}
 
+	/**
+	 * Records an 'after' event of the transaction, instead of firing the trigger for it.
+	 * The events are passed to the trigger once the transaction commits, see
+	 * {@link #executeDeferred(DBBroker, Txn, Map)}.
+	 */
+	private void defer(final DBBroker broker, final Txn transaction, final QName functionName, final XmldbURI src, final XmldbURI dst) {
+		if (getQuerySource(broker) == null) {
+			return;
+		}
+
+		// avoid infinite recursion by allowing just one trigger per thread
+		if (!TriggerStatePerThread.verifyUniqueTriggerPerThreadBeforeFinish(this, src)) {
+			return;
+		}
+
+		try {
+			DeferredTriggerEvents.forTransaction(broker.getBrokerPool(), transaction, this, deferredKey())
+					.add(functionName, src, dst);
+		} finally {
+			TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+			TriggerStatePerThread.setTransaction(null);
+		}
+		LOG.debug("Trigger deferred 'after'");
+	}
+
+	/**
+	 * Identifies this trigger's configuration, so that the events of the
+	 * trigger instances for one transaction can be gathered together.
+	 */
+	private String deferredKey() {
+		return collection.getURI() + "#" + (urlQuery != null ? urlQuery : strQuery);
+	}
+
+	/**
+	 * Fires the trigger once for all of the deferred 'after' events of a transaction.
+	 *
+	 * Each of the trigger functions is called once, with the URIs of all of its
+	 * events as a sequence: <code>$uri</code> for the functions with a single parameter,
+	 * or <code>$new-uri</code> and <code>$uri</code> in the same order for the functions
+	 * with two parameters.
+	 *
+	 * @param broker the database broker
+	 * @param transaction the transaction to execute the Trigger XQuery in
+	 * @param events the URIs of the events for each of the trigger functions, in the order they occurred
+	 *
+	 * @throws TriggerException if the Trigger XQuery cannot be compiled or executed
+	 */
+	void executeDeferred(final DBBroker broker, final Txn transaction, final Map<QName, List<XmldbURI[]>> events) throws TriggerException {
+		final Source query = getQuerySource(broker);
+		if (query == null) {
+			return;
+		}
+
+		// avoid infinite recursion by allowing just one trigger per thread
+		if (!TriggerStatePerThread.verifyUniqueTriggerPerThreadBeforePrepare(this, collection.getURI())) {
+			return;
+		}
+		TriggerStatePerThread.setTransaction(transaction);
+
+		try {
+			final CompiledXQuery compiledQuery = getScript(broker, query);
+			final XQueryContext context = compiledQuery.getContext();
+			try {
+				for (final Map.Entry<QName, List<XmldbURI[]>> entry : events.entrySet()) {
+					final SequenceConstructor srcs = new SequenceConstructor(context);
+					final SequenceConstructor dsts = new SequenceConstructor(context);
+					boolean hasDst = false;
+					for (final XmldbURI[] event : entry.getValue()) {
+						srcs.add(new LiteralValue(context, new AnyURIValue(event[0])));
+						if (event[1] != null) {
+							dsts.add(new LiteralValue(context, new AnyURIValue(event[1])));
+							hasDst = true;
+						}
+					}
+
+					final List<Expression> args = new ArrayList<>(2);
+					if (hasDst) {
+						args.add(dsts);
+					}
+					args.add(srcs);
+
+					callFunction(broker, compiledQuery, entry.getKey(), args);
+				}
+			} catch (final XPathException e) {
+				throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+			} finally {
+				compiledQuery.reset();
+				context.reset();
+				returnCompiledQuery(broker, query, compiledQuery);
+			}
+		} finally {
+			TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+			TriggerStatePerThread.setTransaction(null);
+		}
+		LOG.debug("Trigger fired for " + events.size() + " deferred events");
+	}
+
 //	public void startDocument() throws SAXException
 //	{
 //		originalOutputHandler = getOutputHandler();
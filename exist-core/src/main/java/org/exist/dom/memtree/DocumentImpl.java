@@ -113,6 +113,12 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     protected String[] attrValue;
     protected int nextAttr = 0;
 
+    // attribute values of a compact document, as pointers into attrCharacters
+    protected int[] attrValueStart;
+    protected int[] attrValueLen;
+    protected char[] attrCharacters = null;
+    protected int nextAttrChar = 0;
+
     // namespaces
     protected int[] namespaceParent = null;
     protected QName[] namespaceCode = null;
@@ -134,6 +140,11 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     protected XQueryContext context;
     protected final boolean explicitlyCreated;
     protected final long docId;
+    protected final boolean compact;
+
+    // node ids of a compact document, computed all at once when the first one is needed
+    private volatile DerivedNodeIds derivedNodeIds = null;
+
     private Database db = null;
     protected NamePool namePool;
 
@@ -141,9 +152,21 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
 
     public DocumentImpl(final XQueryContext context, final boolean explicitlyCreated) {
+        this(context, explicitlyCreated, context != null && context.isCompactMemTree());
+    }
+
+    /**
+     * @param context the XQuery context
+     * @param explicitlyCreated true if the document was created by a document constructor
+     * @param compact true if the document should not keep a node id for each of its nodes
+     *     until one of them is needed, and keep its attribute values in a character buffer
+     *     instead of one String per attribute
+     */
+    public DocumentImpl(final XQueryContext context, final boolean explicitlyCreated, final boolean compact) {
         super(null, 0);
         this.context = context;
         this.explicitlyCreated = explicitlyCreated;
+        this.compact = compact;
         this.docId = createDocId();
         if(context == null) {
             namePool = new NamePool();
@@ -174,15 +197,18 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         next = new int[NODE_SIZE];
         Arrays.fill(next, -1);
         nodeName = new QName[NODE_SIZE];
-        nodeId = new NodeId[NODE_SIZE];
         alpha = new int[NODE_SIZE];
         alphaLen = new int[NODE_SIZE];
         Arrays.fill(alphaLen, -1);
-        attrName = new QName[ATTR_SIZE];
-        attrParent = new int[ATTR_SIZE];
-        attrValue = new String[ATTR_SIZE];
-        attrType = new int[ATTR_SIZE];
-        attrNodeId = new NodeId[NODE_SIZE];
+        // a compact document allocates its attribute arrays with the first attribute
+        if(!compact) {
+            nodeId = new NodeId[NODE_SIZE];
+            attrName = new QName[ATTR_SIZE];
+            attrParent = new int[ATTR_SIZE];
+            attrValue = new String[ATTR_SIZE];
+            attrType = new int[ATTR_SIZE];
+            attrNodeId = new NodeId[NODE_SIZE];
+        }
         treeLevel[0] = 0;
         nodeKind[0] = Node.DOCUMENT_NODE;
         document = this;
@@ -192,6 +218,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         size = 0;
         nextChar = 0;
         nextAttr = 0;
+        nextAttrChar = 0;
         nextReferenceIdx = 0;
         references = null;
     }
@@ -332,7 +359,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
             final QName prevQn = attrName[attrN];
             if(prevQn.equals(qname)) {
                 if(replaceAttribute) {
-                    attrValue[attrN] = value;
+                    setAttributeValue(attrN, value);
                     attrType[attrN] = type;
                     return attrN;
                 } else {
@@ -341,13 +368,14 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 }
             }
         }
-        if(nextAttr == attrName.length) {
+        if((attrName == null) || (nextAttr == attrName.length)) {
             growAttributes();
         }
-        final QName attrQname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), ElementValue.ATTRIBUTE);
+        final QName attrQname = qname.getNameType() == ElementValue.ATTRIBUTE ? qname :
+            new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), ElementValue.ATTRIBUTE);
         attrParent[nextAttr] = nodeNum;
         attrName[nextAttr] = namePool.getSharedName(attrQname);
-        attrValue[nextAttr] = value;
+        setAttributeValue(nextAttr, value);
         attrType[nextAttr] = type;
         if(alpha[nodeNum] < 0) {
             alpha[nodeNum] = nextAttr;
@@ -413,9 +441,11 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         System.arraycopy(nodeName, 0, newNodeName, 0, size);
         nodeName = newNodeName;
 
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(nodeId, 0, newNodeId, 0, size);
-        nodeId = newNodeId;
+        if(nodeId != null) {
+            final NodeId[] newNodeId = new NodeId[newSize];
+            System.arraycopy(nodeId, 0, newNodeId, 0, size);
+            nodeId = newNodeId;
+        }
 
         final int[] newAlpha = new int[newSize];
         System.arraycopy(alpha, 0, newAlpha, 0, size);
@@ -428,6 +458,15 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     private void growAttributes() {
+        if(attrName == null) {
+            attrName = new QName[ATTR_SIZE];
+            attrParent = new int[ATTR_SIZE];
+            attrType = new int[ATTR_SIZE];
+            attrValueStart = new int[ATTR_SIZE];
+            attrValueLen = new int[ATTR_SIZE];
+            return;
+        }
+
         final int size = attrName.length;
         final int newSize = (size * 3) / 2;
 
@@ -439,17 +478,27 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         System.arraycopy(attrParent, 0, newAttrParent, 0, size);
         attrParent = newAttrParent;
 
-        final String[] newAttrValue = new String[newSize];
-        System.arraycopy(attrValue, 0, newAttrValue, 0, size);
-        attrValue = newAttrValue;
-
         final int[] newAttrType = new int[newSize];
         System.arraycopy(attrType, 0, newAttrType, 0, size);
         attrType = newAttrType;
 
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(attrNodeId, 0, newNodeId, 0, size);
-        attrNodeId = newNodeId;
+        if(compact) {
+            final int[] newAttrValueStart = new int[newSize];
+            System.arraycopy(attrValueStart, 0, newAttrValueStart, 0, size);
+            attrValueStart = newAttrValueStart;
+
+            final int[] newAttrValueLen = new int[newSize];
+            System.arraycopy(attrValueLen, 0, newAttrValueLen, 0, size);
+            attrValueLen = newAttrValueLen;
+        } else {
+            final String[] newAttrValue = new String[newSize];
+            System.arraycopy(attrValue, 0, newAttrValue, 0, size);
+            attrValue = newAttrValue;
+
+            final NodeId[] newNodeId = new NodeId[newSize];
+            System.arraycopy(attrNodeId, 0, newNodeId, 0, size);
+            attrNodeId = newNodeId;
+        }
     }
 
     private void growReferences() {
@@ -482,6 +531,108 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         }
     }
 
+    /**
+     * Get the value of an attribute.
+     *
+     * @param attr the number of the attribute
+     *
+     * @return the value of the attribute
+     */
+    public String getAttributeValue(final int attr) {
+        if(!compact) {
+            return attrValue[attr];
+        }
+        final int len = attrValueLen[attr];
+        return len < 0 ? null : new String(attrCharacters, attrValueStart[attr], len);
+    }
+
+    void setAttributeValue(final int attr, final String value) {
+        if(!compact) {
+            attrValue[attr] = value;
+            return;
+        }
+        if(value == null) {
+            attrValueStart[attr] = 0;
+            attrValueLen[attr] = -1;
+            return;
+        }
+
+        // a replaced value is not reclaimed, it stays in the buffer until the document is discarded
+        final int len = value.length();
+        if(attrCharacters == null) {
+            attrCharacters = new char[len > CHAR_BUF_SIZE ? len : CHAR_BUF_SIZE];
+        } else if((nextAttrChar + len) >= attrCharacters.length) {
+            int newLen = (attrCharacters.length * 3) / 2;
+            if(newLen < (nextAttrChar + len)) {
+                newLen = nextAttrChar + len;
+            }
+            final char[] nc = new char[newLen];
+            System.arraycopy(attrCharacters, 0, nc, 0, attrCharacters.length);
+            attrCharacters = nc;
+        }
+        attrValueStart[attr] = nextAttrChar;
+        attrValueLen[attr] = len;
+        value.getChars(0, len, attrCharacters, nextAttrChar);
+        nextAttrChar += len;
+    }
+
+    /**
+     * Get the node id of a node. The node ids are only available
+     * once the reference nodes of the document have been expanded.
+     *
+     * @param nodeNum the number of the node
+     *
+     * @return the node id of the node
+     */
+    public NodeId getNodeIdFor(final int nodeNum) {
+        if(!compact) {
+            return nodeId[nodeNum];
+        }
+        return deriveNodeIds().nodeIds[nodeNum];
+    }
+
+    /**
+     * Get the node id of an attribute. The node ids are only available
+     * once the reference nodes of the document have been expanded.
+     *
+     * @param attr the number of the attribute
+     *
+     * @return the node id of the attribute
+     */
+    public NodeId getAttributeNodeIdFor(final int attr) {
+        if(!compact) {
+            return attrNodeId[attr];
+        }
+        return deriveNodeIds().attrNodeIds[attr];
+    }
+
+    /**
+     * Returns the node ids of a compact document, computing the ids of all of its
+     * nodes in one pass, in the same way as {@link #computeNodeIds()}, when they are
+     * first needed or nodes have been added since.
+     */
+    private DerivedNodeIds deriveNodeIds() {
+        DerivedNodeIds derived = derivedNodeIds;
+        if(derived == null || derived.nodeIds.length != size || derived.attrNodeIds.length != nextAttr) {
+            final NodeId[] ids = new NodeId[size];
+            final NodeId[] attrIds = new NodeId[nextAttr];
+            computeNodeIds(ids, attrIds);
+            derived = new DerivedNodeIds(ids, attrIds);
+            derivedNodeIds = derived;
+        }
+        return derived;
+    }
+
+    private static class DerivedNodeIds {
+        final NodeId[] nodeIds;
+        final NodeId[] attrNodeIds;
+
+        DerivedNodeIds(final NodeId[] nodeIds, final NodeId[] attrNodeIds) {
+            this.nodeIds = nodeIds;
+            this.attrNodeIds = attrNodeIds;
+        }
+    }
+
     public NodeImpl getAttribute(final int nodeNum) throws DOMException {
         return new AttrImpl(this, nodeNum);
     }
@@ -724,7 +875,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_ID_TYPE) &&
-                    id.equals(document.attrValue[attr])) {
+                    id.equals(document.getAttributeValue(attr))) {
                     return true;
                 }
                 ++attr;
@@ -738,7 +889,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(-1 < attr) {
             while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNumber)) {
                 if((document.attrType[attr] == AttrImpl.ATTR_IDREF_TYPE) &&
-                    id.equals(document.attrValue[attr])) {
+                    id.equals(document.getAttributeValue(attr))) {
                     return new AttrImpl(this, attr);
                 }
                 ++attr;
@@ -1004,7 +1155,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
     @Override
     public Element getElementById(final String elementId) {
-        return null;
+        return (Element) selectById(elementId);
     }
 
     @Override
@@ -1065,7 +1216,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 if(-1 < attr) {
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
                         final QName attrQName = document.attrName[attr];
-                        receiver.attribute(attrQName, attrValue[attr]);
+                        receiver.attribute(attrQName, document.getAttributeValue(attr));
                         ++attr;
                     }
                 }
@@ -1087,7 +1238,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 break;
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                receiver.attribute(attrQName, document.getAttributeValue(nr));
                 break;
             case Node.COMMENT_NODE:
                 receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
@@ -1148,7 +1299,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 computeNodeIds();
                 return this;
             }
-            final MemTreeBuilder builder = new MemTreeBuilder(context);
+            final MemTreeBuilder builder = new MemTreeBuilder(context, compact);
             final DocumentBuilderReceiver receiver = new DocumentBuilderReceiver(builder);
             try {
                 builder.startDocument();
@@ -1171,6 +1322,9 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
     public NodeImpl getNodeById(final NodeId id) {
         expand();
+        if(compact) {
+            return findNodeById(id);
+        }
         for(int i = 0; i < size; i++) {
             if(id.equals(nodeId[i])) {
                 return getNode(i);
@@ -1179,39 +1333,73 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         return null;
     }
 
+    /**
+     * Finds a node of a compact document by walking down
+     * the tree along the ancestors of the node id.
+     */
+    private NodeImpl findNodeById(final NodeId id) {
+        final NodeIdFactory nodeFactory = getDatabase().getNodeFactory();
+        if(id.equals(nodeFactory.documentNodeId())) {
+            return this;
+        }
+        NodeId nextId = nodeFactory.createInstance();
+        int nodeNum = getFirstChildFor(0);
+        while(nodeNum > 0) {
+            if(id.equals(nextId)) {
+                return getNode(nodeNum);
+            }
+            if(nodeKind[nodeNum] == Node.ELEMENT_NODE && id.isDescendantOf(nextId)) {
+                nextId = nextId.newChild();
+                final int attrs = getAttributesCountFor(nodeNum);
+                for(int i = 0; i < attrs; i++) {
+                    nextId = nextId.nextSibling();
+                }
+                nodeNum = getFirstChildFor(nodeNum);
+            } else {
+                nodeNum = getNextSiblingFor(nodeNum);
+                nextId = nextId.nextSibling();
+            }
+        }
+        return null;
+    }
+
     private void computeNodeIds() throws EXistException {
-        if(nodeId[0] != null) {
+        if(compact || nodeId[0] != null) {
             return;
         }
+        computeNodeIds(nodeId, attrNodeId);
+    }
+
+    private void computeNodeIds(final NodeId[] ids, final NodeId[] attrIds) {
         final NodeIdFactory nodeFactory = getDatabase().getNodeFactory();
-        nodeId[0] = nodeFactory.documentNodeId();
+        ids[0] = nodeFactory.documentNodeId();
         if(size == 1) {
             return;
         }
         NodeId nextId = nodeFactory.createInstance();
         NodeImpl next = (NodeImpl) getFirstChild();
         while(next != null) {
-            computeNodeIds(nextId, next.nodeNumber);
+            computeNodeIds(nextId, next.nodeNumber, ids, attrIds);
             next = (NodeImpl) next.getNextSibling();
             nextId = nextId.nextSibling();
         }
     }
 
-    private void computeNodeIds(final NodeId id, final int nodeNum) {
-        nodeId[nodeNum] = id;
+    private void computeNodeIds(final NodeId id, final int nodeNum, final NodeId[] ids, final NodeId[] attrIds) {
+        ids[nodeNum] = id;
         if(nodeKind[nodeNum] == Node.ELEMENT_NODE) {
             NodeId nextId = id.newChild();
             int attr = document.alpha[nodeNum];
             if(-1 < attr) {
                 while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNum)) {
-                    attrNodeId[attr] = nextId;
+                    attrIds[attr] = nextId;
                     nextId = nextId.nextSibling();
                     ++attr;
                 }
             }
             int nextNode = getFirstChildFor(nodeNum);
             while(nextNode > nodeNum) {
-                computeNodeIds(nextId, nextNode);
+                computeNodeIds(nextId, nextNode, ids, attrIds);
                 nextNode = document.next[nextNode];
                 if(nextNode > nodeNum) {
                     nextId = nextId.nextSibling();
@@ -1240,6 +1428,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         attrNodeId = newDoc.attrNodeId;
         attrParent = newDoc.attrParent;
         attrValue = newDoc.attrValue;
+        attrValueStart = newDoc.attrValueStart;
+        attrValueLen = newDoc.attrValueLen;
+        attrCharacters = newDoc.attrCharacters;
+        nextAttrChar = newDoc.nextAttrChar;
         attrType = newDoc.attrType;
         nextAttr = newDoc.nextAttr;
         namespaceParent = newDoc.namespaceParent;
@@ -1249,6 +1441,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         documentRootNode = newDoc.documentRootNode;
         references = newDoc.references;
         nextReferenceIdx = newDoc.nextReferenceIdx;
+        derivedNodeIds = null;
     }
 
     /**
@@ -1316,7 +1509,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                     attribs = new AttrList();
                     while((attr < document.nextAttr) && (document.attrParent[attr] == nr)) {
                         final QName attrQName = document.attrName[attr];
-                        attribs.addAttribute(attrQName, attrValue[attr]);
+                        attribs.addAttribute(attrQName, document.getAttributeValue(attr));
                         ++attr;
                     }
                 }
@@ -1328,7 +1521,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 break;
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
-                receiver.attribute(attrQName, attrValue[nr]);
+                receiver.attribute(attrQName, document.getAttributeValue(nr));
                 break;
             case Node.COMMENT_NODE:
                 receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
@@ -66,7 +66,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
                 return null;
             }
             doc.expand();
-            return doc.nodeId[currentNode];
+            return doc.getNodeIdFor(currentNode);
         }
         return null;
     }
@@ -230,7 +230,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             final QName qname = doc.attrName[attrStart + i];
 
             if((namespaceURI == null || namespaceURI.equals(qname.getNamespaceURI())) && localName.equals(qname.getLocalPart())) {
-                return doc.attrValue[attrStart + i];
+                return doc.getAttributeValue(attrStart + i);
             }
         }
         return null;
@@ -297,7 +297,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
         }
         doc.expand();
         final int attr = doc.alpha[currentNode];
-        return doc.attrNodeId[attr + index];
+        return doc.getAttributeNodeIdFor(attr + index);
     }
 
     @Override
@@ -342,7 +342,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
             throw new ArrayIndexOutOfBoundsException();
         }
         final int attr = doc.alpha[currentNode];
-        return doc.attrValue[attr + index];
+        return doc.getAttributeValue(attr + index);
     }
 
     @Override
@@ -43,6 +43,7 @@ import java.util.Arrays;
 public class MemTreeBuilder {
 
     private final XQueryContext context;
+    private final boolean compact;
     private DocumentImpl doc;
     private short level = 1;
     private int[] prevNodeInLevel;
@@ -54,8 +55,17 @@ public class MemTreeBuilder {
 
 
     public MemTreeBuilder(final XQueryContext context) {
+        this(context, context != null && context.isCompactMemTree());
+    }
+
+    /**
+     * @param context the XQuery context
+     * @param compact true to build compact documents, see {@link DocumentImpl#DocumentImpl(XQueryContext, boolean, boolean)}
+     */
+    public MemTreeBuilder(final XQueryContext context, final boolean compact) {
         super();
         this.context = context;
+        this.compact = compact;
         prevNodeInLevel = new int[15];
         Arrays.fill(prevNodeInLevel, -1);
         prevNodeInLevel[0] = 0;
@@ -85,7 +95,7 @@ public class MemTreeBuilder {
      * Start building the document.
      */
     public void startDocument() {
-        this.doc = new DocumentImpl(context, false);
+        this.doc = new DocumentImpl(context, false, compact);
     }
 
 
@@ -95,7 +105,7 @@ public class MemTreeBuilder {
      * @param explicitCreation DOCUMENT ME!
      */
     public void startDocument(final boolean explicitCreation) {
-        this.doc = new DocumentImpl(context, explicitCreation);
+        this.doc = new DocumentImpl(context, explicitCreation, compact);
     }
 
 
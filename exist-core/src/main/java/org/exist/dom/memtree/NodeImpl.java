@@ -249,7 +249,7 @@ public abstract class NodeImpl<T extends NodeImpl> implements INode<DocumentImpl
     @Override
     public NodeId getNodeId() {
         expand();
-        return document.nodeId[nodeNumber];
+        return document.getNodeIdFor(nodeNumber);
     }
 
     public void expand() throws DOMException {
@@ -910,7 +910,8 @@ public abstract class NodeImpl<T extends NodeImpl> implements INode<DocumentImpl
 
     @Override
     public boolean isSameNode(final Node other) {
-        throw unsupported();
+        // This function is used by Saxon when it navigates a wrapped in-memory document.
+        return equals(other);
     }
 
     @Override
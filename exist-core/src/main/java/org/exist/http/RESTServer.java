@@ -51,6 +51,7 @@ import javax.xml.transform.TransformerConfigurationException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.EXistException;
+import org.exist.Indexer;
 import org.exist.Namespaces;
 import org.exist.collections.Collection;
 import org.exist.collections.IndexInfo;
@@ -98,6 +99,7 @@ import org.exist.xmldb.XmldbURI;
 import org.exist.xqj.Marshaller;
 import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.Constants;
+import org.exist.xquery.ItemStream;
 import org.exist.xquery.NameTest;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
@@ -242,6 +244,9 @@ public class RESTServer {
      *
      * <li>_start: a start offset into the result set.</li>
      *
+     * <li>_stream: if set to "yes", the query results are written as they are
+     * produced, see {@link RESTServerParameter#Stream}.</li>
+     *
      * <li>_wrap: if set to "yes", the query results will be wrapped into a
      * exist:result element.</li>
      *
@@ -305,6 +310,7 @@ public class RESTServer {
         boolean wrap = true;
         boolean source = false;
         boolean cache = false;
+        boolean stream = false;
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
 
         String query = null;
@@ -356,6 +362,9 @@ public class RESTServer {
         if ((option = getParameter(request, Cache)) != null) {
             cache = "yes".equals(option);
         }
+        if ((option = getParameter(request, Stream)) != null) {
+            stream = "yes".equals(option);
+        }
         if ((option = getParameter(request, Indent)) != null) {
             outputProperties.setProperty(OutputKeys.INDENT, option);
         }
@@ -392,7 +401,7 @@ public class RESTServer {
             // query parameter specified, search method does all the rest of the work
             try {
                 search(broker, transaction, query, path, namespaces, variables, howmany, start, typed, outputProperties,
-                        wrap, cache, request, response);
+                        wrap, cache, stream, request, response);
 
             } catch (final XPathException e) {
                 if (MimeType.XML_TYPE.getName().equals(mimeType)) {
@@ -739,6 +748,7 @@ public class RESTServer {
             ElementImpl variables = null;
             boolean enclose = true;
             boolean cache = false;
+            boolean stream = false;
             String query = null;
 
             try {
@@ -804,6 +814,10 @@ public class RESTServer {
                             cache = "yes".equals(option);
                         }
 
+                        if ((option = root.getAttribute(Stream.xmlKey())) != null) {
+                            stream = "yes".equals(option);
+                        }
+
                         if ((option = root.getAttribute(Session.xmlKey())) != null
                                 && option.length() > 0) {
                             outputProperties.setProperty(
@@ -861,7 +875,7 @@ public class RESTServer {
                         try {
                             search(broker, transaction, query, path, nsExtractor.getNamespaces(), variables,
                                     howmany, start, typed, outputProperties,
-                                    enclose, cache, request, response);
+                                    enclose, cache, stream, request, response);
                         } catch (final XPathException e) {
                             if (MimeType.XML_TYPE.getName().equals(mimeType)) {
                                 writeXPathException(response, HttpServletResponse.SC_BAD_REQUEST,
@@ -1089,6 +1103,14 @@ public class RESTServer {
                 contentType = mime.getName();
             }
 
+            if (mime.isXMLType() && broker.getConfiguration().getProperty(Indexer.PROPERTY_SINGLE_PASS_STORE, false)) {
+                // parsed only once, so the request body does not need to be cached
+                final String mimeType = contentType;
+                collection.storeXMLResource(transaction, broker, docUri, new InputSource(request.getInputStream()), null, doc -> doc.setMimeType(mimeType));
+                response.setStatus(HttpServletResponse.SC_CREATED);
+                return;
+            }
+
             try(final FilterInputStreamCache cache = FilterInputStreamCacheFactory.getCacheInstance(() -> (String) broker.getConfiguration().getProperty(Configuration.BINARY_CACHE_CLASS_PROPERTY), request.getInputStream());
                 final InputStream cfis = new CachingFilterInputStream(cache)) {
 
@@ -1267,6 +1289,7 @@ public class RESTServer {
      * @param outputProperties the serialization properties
      * @param wrap true to wrap the result of the XQuery in an exist:result
      * @param cache whether to cache the results
+     * @param stream whether to write the results as they are produced
      * @param request the request
      * @param response the response
      *
@@ -1278,7 +1301,7 @@ public class RESTServer {
         final String path, final List<Namespace> namespaces,
         final ElementImpl variables, final int howmany, final int start,
         final boolean typed, final Properties outputProperties,
-        final boolean wrap, final boolean cache,
+        final boolean wrap, final boolean cache, final boolean stream,
         final HttpServletRequest request,
         final HttpServletResponse response) throws BadRequestException,
         PermissionDeniedException, XPathException {
@@ -1348,6 +1371,12 @@ public class RESTServer {
             }
 
             try {
+                if (stream && !cache && !"json".equals(outputProperties.getProperty(SERIALIZATION_METHOD_PROPERTY, "xml"))) {
+                    xquery.execute(broker, compiled, null, outputProperties, items ->
+                            writeResultStream(response, broker, items, howmany, start, typed, outputProperties, wrap, compilationTime));
+                    return;
+                }
+
                 final long executeStart = System.currentTimeMillis();
                 final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
                 final long executionTime = System.currentTimeMillis() - executeStart;
@@ -2102,6 +2131,50 @@ public class RESTServer {
 
     }
 
+    /**
+     * Writes the items of the stream to the response as they are retrieved.
+     * The response has no content length, so that the servlet container
+     * sends it in chunks once its buffer is full. Writing blocks while the
+     * client does not read, which in turn holds back the evaluation of
+     * further items.
+     */
+    private void writeResultStream(final HttpServletResponse response,
+        final DBBroker broker, final ItemStream items, final int howmany,
+        final int start, final boolean typed, final Properties outputProperties,
+        final boolean wrap, final long compilationTime) throws XPathException {
+
+        outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
+        try {
+            final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
+            if (!response.containsHeader("Content-Type")) {
+                String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
+                if (mimeType != null) {
+                    final int semicolon = mimeType.indexOf(';');
+                    if (semicolon != Constants.STRING_NOT_FOUND) {
+                        mimeType = mimeType.substring(0, semicolon);
+                    }
+                    if (wrap) {
+                        mimeType = "application/xml";
+                    }
+                    response.setContentType(mimeType + "; charset=" + encoding);
+                }
+            }
+            if (wrap) {
+                outputProperties.setProperty("method", "xml");
+            }
+            final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+            final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
+            serializer.serialize(items, start, howmany, wrap, typed, compilationTime);
+
+            writer.flush();
+            writer.close();
+
+        } catch (final SAXException | IOException e) {
+            LOG.warn(e.getMessage(), e);
+            throw new XPathException("Error while serializing xml: " + e.toString(), e);
+        }
+    }
+
     private void writeResultXML(final HttpServletResponse response,
         final DBBroker broker, final Sequence results, final int howmany,
         final int start, final boolean typed, final Properties outputProperties,
@@ -224,6 +224,28 @@ enum RESTServerParameter {
      */
     Cache,
 
+    /**
+     * Can be used in either the Query String of a GET request
+     * or in the body of a POST request when supplying an XPath or XQuery,
+     * it causes the results of the query to be written to the response
+     * as they are produced, instead of after the whole query was evaluated.
+     * 
+     * Evaluation stops once the items selected by Start and HowMany/Max
+     * have been written, if the body of the query is a FLWOR expression
+     * which can be pipelined. As the number of results is not known
+     * in advance, the exist:result wrapper only has the start and
+     * compilation-time attributes, and an error which occurs after
+     * the first results were sent can not change the response status.
+     * 
+     * The parameter is ignored if the Cache parameter is set, or for the
+     * "json" method.
+     * 
+     * Contexts: GET, POST
+     * 
+     * The value of the parameter should be either "yes" or "no".
+     */
+    Stream,
+
     /**
      * Can be used in the Query String of a GET request
      * to indicate that an XML result should be indented.
@@ -210,6 +210,17 @@ public class IndexController {
         }
     }
 
+    /**
+     * Notify all the workers that a reindex has stored all its documents.
+     *
+     * @see IndexWorker#reindexFinished()
+     */
+    public void reindexFinished() {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            indexWorker.reindexFinished();
+        }
+    }
+
     /**
      * Re-index all nodes below the specified root node, using the given mode.
      *
@@ -185,6 +185,14 @@ public interface IndexWorker {
      */
     void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException;
 
+    /**
+     * Called once a reindex has stored all the documents of the collections it
+     * dropped with {@link #removeCollection(Collection, DBBroker, boolean)}.
+     * Indexes which defer work while reindexing complete it here.
+     */
+    default void reindexFinished() {
+    }
+
     /** 
      * Checking index could be delegated to a worker. Use this method to do so.
      * @param broker The broker that will perform the operation
@@ -0,0 +1,194 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jetty;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.thread.ExecutionStrategy;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ReservedThreadExecutor;
+import org.exist.EXistException;
+import org.exist.storage.BrokerPool;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Jetty thread pool which can dispatch requests on virtual threads.
+ *
+ * When {@link #setVirtualThreads(boolean)} is enabled and the JVM supports
+ * virtual threads, every job which handles a request, such as a REST or
+ * XML-RPC request, runs on its own virtual thread rather than on a pooled
+ * platform thread. Jetty's own jobs, i.e. the acceptors, the selectors and
+ * the reserved threads, stay on the platform threads of the pool, as they
+ * are long running and must not compete with requests for carrier threads.
+ * Otherwise this behaves exactly as {@link QueuedThreadPool}.
+ *
+ * With virtual threads the number of concurrent requests is no longer bounded
+ * by the pool, but by the brokers of the database, so the pool is low on
+ * threads when few brokers are left to lease.
+ *
+ * Virtual threads are detected reflectively, so that eXist-db
+ * can still be built for, and run on, older JVMs.
+ */
+@ManagedObject("eXist-db thread pool")
+public class ExistThreadPool extends QueuedThreadPool {
+
+    private static final Logger LOG = LogManager.getLogger(ExistThreadPool.class);
+
+    // the acceptor and the reserved thread are private classes, and the selector is started by a lambda
+    private static final String ACCEPTOR_CLASS_NAME = AbstractConnector.class.getName() + "$Acceptor";
+    private static final String SELECTOR_CLASS_NAME = ManagedSelector.class.getName() + "$";
+    private static final String RESERVED_THREAD_CLASS_NAME = ReservedThreadExecutor.class.getName() + "$";
+
+    private boolean virtualThreads = false;
+    @Nullable private volatile ExecutorService virtualThreadExecutor = null;
+
+    public ExistThreadPool() {
+        super();
+    }
+
+    public ExistThreadPool(final int maxThreads, final int minThreads, final int idleTimeout) {
+        super(maxThreads, minThreads, idleTimeout);
+    }
+
+    /**
+     * Whether jobs should run on virtual threads.
+     *
+     * @param virtualThreads true to run jobs on virtual threads, when supported by the JVM
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    @ManagedAttribute("whether virtual threads were requested")
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @ManagedAttribute("whether jobs are running on virtual threads")
+    public boolean isUsingVirtualThreads() {
+        return virtualThreadExecutor != null;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (virtualThreads) {
+            virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor == null) {
+                LOG.warn("Virtual threads are not supported by this JVM ({}), falling back to platform threads", System.getProperty("java.version"));
+            } else {
+                LOG.info("Jetty jobs will be run on virtual threads");
+            }
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+
+        final ExecutorService executor = virtualThreadExecutor;
+        if (executor != null) {
+            virtualThreadExecutor = null;
+            executor.shutdown();
+            if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public void execute(final Runnable job) {
+        final ExecutorService executor = virtualThreadExecutor;
+        if (executor != null && isRequestJob(job)) {
+            executor.execute(job);
+        } else {
+            super.execute(job);
+        }
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        if (super.isLowOnThreads()) {
+            return true;
+        }
+
+        if (virtualThreadExecutor != null && BrokerPool.isConfigured()) {
+            try {
+                final BrokerPool pool = BrokerPool.getInstance();
+                return pool.getMax() - pool.countActiveBrokers() <= getLowThreadsThreshold();
+            } catch (final EXistException e) {
+                // the database is shutting down
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether a job may handle a request, rather than being one of Jetty's own jobs.
+     *
+     * Non-blocking jobs are callbacks which Jetty runs without dispatching, and the
+     * producers of the selectors are {@link ExecutionStrategy}s, neither handles a request.
+     *
+     * @param job the job
+     *
+     * @return true if the job may handle a request
+     */
+    static boolean isRequestJob(final Runnable job) {
+        if (job instanceof ExecutionStrategy || Invocable.getInvocationType(job) == Invocable.InvocationType.NON_BLOCKING) {
+            return false;
+        }
+
+        final String className = job.getClass().getName();
+        return !(className.startsWith(ACCEPTOR_CLASS_NAME)
+                || className.startsWith(SELECTOR_CLASS_NAME)
+                || className.startsWith(RESERVED_THREAD_CLASS_NAME));
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @return the executor, or null if the JVM does not support virtual threads
+     */
+    private static @Nullable ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            LOG.warn("Unable to create virtual thread executor: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An explicit owner of broker leases.
+ *
+ * By default a broker leased from {@link BrokerPool#get(java.util.Optional)}
+ * is bound to the thread which leased it, and nested leases on that thread
+ * share the broker. Code which moves the work of a request between threads,
+ * e.g. a continuation of an asynchronous servlet, can instead lease brokers
+ * to a scope: while the scope is bound to a thread, the leases of that thread
+ * belong to the scope, so that a broker leased on one thread can be used and
+ * released on another thread bound to the same scope.
+ *
+ * A scope is bound to at most one thread at a time.
+ *
+ * <pre>{@code
+ * try (final BrokerLeaseScope scope = BrokerLeaseScope.open("request-42")) {
+ *     final DBBroker broker = pool.getBroker();
+ *     ...
+ * }
+ *
+ * // later, on another thread
+ * try (final BrokerLeaseScope.Binding binding = scope.bind()) {
+ *     pool.getActiveBroker().close();
+ * }
+ * }</pre>
+ */
+@ThreadSafe
+public final class BrokerLeaseScope implements AutoCloseable {
+
+    private static final ThreadLocal<BrokerLeaseScope> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    private final AtomicReference<Thread> boundThread = new AtomicReference<>();
+    private Binding openBinding;
+
+    private BrokerLeaseScope(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a new scope and binds it to the current thread until it is closed.
+     *
+     * @param name the name of the scope, used for reporting
+     *
+     * @return the scope
+     *
+     * @throws IllegalStateException if the current thread is already bound to a scope
+     */
+    public static BrokerLeaseScope open(final String name) {
+        final BrokerLeaseScope scope = new BrokerLeaseScope(name);
+        scope.openBinding = scope.bind();
+        return scope;
+    }
+
+    /**
+     * Binds this scope to the current thread.
+     *
+     * @return the binding, which must be closed on the same thread
+     *
+     * @throws IllegalStateException if the scope is bound to another thread,
+     *     or the current thread is already bound to a scope
+     */
+    public Binding bind() {
+        final Thread thread = Thread.currentThread();
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("Thread '" + thread.getName() + "' is already bound to the broker lease scope '" + CURRENT.get().name + "'");
+        }
+        if (!boundThread.compareAndSet(null, thread)) {
+            throw new IllegalStateException("Broker lease scope '" + name + "' is bound to thread '" + boundThread.get().getName() + "'");
+        }
+        CURRENT.set(this);
+        return new Binding(thread);
+    }
+
+    /**
+     * Unbinds this scope from the thread which opened it.
+     *
+     * Brokers still leased to the scope remain leased, and can
+     * be released by binding the scope to another thread.
+     */
+    @Override
+    public void close() {
+        if (openBinding != null) {
+            openBinding.close();
+            openBinding = null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the thread which this scope is bound to, or null if it is not bound
+     */
+    @Nullable
+    public Thread getBoundThread() {
+        return boundThread.get();
+    }
+
+    /**
+     * @return the scope bound to the current thread, or null
+     */
+    @Nullable
+    static BrokerLeaseScope current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BrokerLeaseScope(" + name + ")";
+    }
+
+    /**
+     * The binding of a {@link BrokerLeaseScope} to a thread.
+     */
+    public final class Binding implements AutoCloseable {
+        private final Thread thread;
+
+        private Binding(final Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Unbinds the scope from the thread.
+         *
+         * @throws IllegalStateException if called from another thread
+         */
+        @Override
+        public void close() {
+            if (Thread.currentThread() != thread) {
+                throw new IllegalStateException("Broker lease scope '" + name + "' must be unbound from the thread '" + thread.getName() + "'");
+            }
+            if (CURRENT.get() == BrokerLeaseScope.this) {
+                CURRENT.remove();
+                boundThread.compareAndSet(thread, null);
+            }
+        }
+    }
+}
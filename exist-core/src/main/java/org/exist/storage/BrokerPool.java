@@ -59,11 +59,13 @@ import org.exist.security.internal.SecurityManagerImpl;
 import org.exist.storage.blob.BlobStore;
 import org.exist.storage.blob.BlobStoreImplService;
 import org.exist.storage.blob.BlobStoreService;
+import org.exist.storage.btree.Paged;
 import org.exist.storage.journal.JournalManager;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.sync.Sync;
+import org.exist.storage.sync.FuzzyCheckpointer;
 import org.exist.storage.sync.SyncTask;
 import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.TransactionManager;
@@ -74,6 +76,7 @@ import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQuery;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -87,6 +90,9 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
@@ -208,9 +214,23 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     private final Deque<DBBroker> inactiveBrokers = new ArrayDeque<>();
 
     /**
-     * The number of active brokers for the database instance
+     * The active brokers for the database instance, keyed by their lease owner,
+     * which is either a {@link BrokerLeaseScope} or a {@link Thread}, see {@link #leaseOwner()}
      */
-    private final Map<Thread, DBBroker> activeBrokers = new ConcurrentHashMap<>();
+    private final Map<Object, DBBroker> activeBrokers = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the leasing of brokers: {@link #inactiveBrokers}, {@link #brokersCount} and service mode.
+     *
+     * An explicit lock is used rather than the monitor of the pool, so that threads
+     * waiting for a broker do not pin the carrier of a virtual thread.
+     */
+    private final ReentrantLock brokersLock = new ReentrantLock(true);
+
+    /**
+     * Signalled whenever a broker is leased or released, or service mode changes
+     */
+    private final Condition brokersChanged = brokersLock.newCondition();
 
 
     /**
@@ -250,6 +270,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     @ConfigurationFieldAsAttribute("pageSize")
     private final int pageSize;
 
+    private final Paged.IOMode pageIOMode;
+
     private FileLockService dataLock;
 
     /**
@@ -262,6 +284,12 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private TransactionManager transactionManager = null;
 
+    /**
+     * Writes fuzzy checkpoints whilst the database is in use, if enabled.
+     */
+    private FuzzyCheckpointer fuzzyCheckpointer = null;
+    private Thread fuzzyCheckpointerThread = null;
+
     /**
      * The Blob Store of the database instance.
      */
@@ -416,6 +444,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.diskSpaceMin = 1024L * 1024L * conf.getProperty(BrokerPool.DISK_SPACE_MIN_PROPERTY, DEFAULT_DISK_SPACE_MIN);
 
         this.pageSize = conf.getProperty(PROPERTY_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+        this.pageIOMode = conf.getProperty(PROPERTY_PAGE_IO, DEFAULT_PAGE_IO);
 
         //Configuration is valid, save it
         this.conf = conf;
@@ -691,6 +720,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                     status.process(Event.READY);
 
+                    if(isRecoveryEnabled() && conf.getProperty(PROPERTY_RECOVERY_FUZZY_CHECKPOINT, false)) {
+                        final long pageWriterInterval = conf.getProperty(PROPERTY_RECOVERY_PAGE_WRITER_INTERVAL, DEFAULT_PAGE_WRITER_INTERVAL);
+                        LOG.info("database instance '" + instanceName + "' will write fuzzy checkpoints every " + pageWriterInterval + " ms");
+                        fuzzyCheckpointer = new FuzzyCheckpointer(this, pageWriterInterval);
+                        fuzzyCheckpointerThread = newInstanceThread(this, "fuzzy-checkpointer", fuzzyCheckpointer);
+                        fuzzyCheckpointerThread.setDaemon(true);
+                        fuzzyCheckpointerThread.start();
+                    }
+
                     statusReporter.setStatus(SIGNAL_STARTED);
                 } catch(final Throwable t) {
                     transactionManager.shutdown();
@@ -785,7 +823,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             LOG.debug("ForceRestart = " + forceRestart);
         }
         if(journalManager.isPresent()) {
-            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart);
+            final int redoThreads = conf.getProperty(PROPERTY_RECOVERY_REDO_THREADS, DEFAULT_RECOVERY_REDO_THREADS);
+            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart, redoThreads);
             return recovery.recover();
         } else {
             throw new IllegalStateException("Cannot run recovery without a JournalManager");
@@ -800,6 +839,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return pageSize;
     }
 
+    public Paged.IOMode getPageIOMode() {
+        return pageIOMode;
+    }
+
     /**
      * Returns the class loader used when this BrokerPool was configured.
      *
@@ -855,8 +898,40 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return activeBrokers.size();
     }
 
+    /**
+     * Returns the active brokers by the thread which is using them.
+     *
+     * Brokers leased to a {@link BrokerLeaseScope} which is not
+     * currently bound to a thread are not included.
+     *
+     * @return the active brokers
+     */
     public Map<Thread, DBBroker> getActiveBrokers() {
-        return new HashMap<>(activeBrokers);
+        final Map<Thread, DBBroker> brokers = new HashMap<>();
+        for (final Entry<Object, DBBroker> entry : activeBrokers.entrySet()) {
+            final Thread thread = leaseThread(entry.getKey());
+            if (thread != null) {
+                brokers.put(thread, entry.getValue());
+            }
+        }
+        return brokers;
+    }
+
+    /**
+     * Returns the owner of the broker leases made by the current thread.
+     *
+     * @return the {@link BrokerLeaseScope} bound to the current thread, or the current thread
+     */
+    private static Object leaseOwner() {
+        final BrokerLeaseScope scope = BrokerLeaseScope.current();
+        return scope != null ? scope : Thread.currentThread();
+    }
+
+    private static @Nullable Thread leaseThread(final Object leaseOwner) {
+        if (leaseOwner instanceof BrokerLeaseScope) {
+            return ((BrokerLeaseScope) leaseOwner).getBoundThread();
+        }
+        return (Thread) leaseOwner;
     }
 
     /**
@@ -1126,15 +1201,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     public DBBroker getActiveBroker() { //throws EXistException {
         //synchronized(this) {
         //Try to get an active broker
-        final DBBroker broker = activeBrokers.get(Thread.currentThread());
+        final DBBroker broker = activeBrokers.get(leaseOwner());
         if(broker == null) {
             final StringBuilder sb = new StringBuilder();
-            sb.append("Broker was not obtained for thread '");
-            sb.append(Thread.currentThread());
+            sb.append("Broker was not obtained for '");
+            sb.append(leaseOwner());
             sb.append("'.");
             sb.append(System.getProperty("line.separator"));
 
-            for(final Entry<Thread, DBBroker> entry : activeBrokers.entrySet()) {
+            for(final Entry<Object, DBBroker> entry : activeBrokers.entrySet()) {
                 sb.append(entry.getKey());
                 sb.append(" = ");
                 sb.append(entry.getValue());
@@ -1185,8 +1260,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             throw new EXistException("database instance '" + instanceName + "' is not available");
         }
 
+        final Object leaseOwner = leaseOwner();
+
         //Try to get an active broker
-        DBBroker broker = activeBrokers.get(Thread.currentThread());
+        DBBroker broker = activeBrokers.get(leaseOwner);
         //Use it...
         //TOUNDERSTAND (pb) : why not pop a broker from the inactive ones rather than maintaining reference counters ?
         // WM: a thread may call this more than once in the sequence of operations, i.e. calls to get/release can
@@ -1212,17 +1289,13 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         //No active broker : get one ASAP
 
-        while(serviceModeUser != null && subject.isPresent() && !subject.equals(Optional.ofNullable(serviceModeUser))) {
-            try {
+        brokersLock.lock();
+        try {
+            while(serviceModeUser != null && subject.isPresent() && !subject.equals(Optional.ofNullable(serviceModeUser))) {
                 LOG.debug("Db instance is in service mode. Waiting for db to become available again ...");
-                wait();
-            } catch(final InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOG.error("Interrupt detected");
+                brokersChanged.awaitUninterruptibly();
             }
-        }
 
-        synchronized(this) {
             //Are there any available brokers ?
             if(inactiveBrokers.isEmpty()) {
                 //There are no available brokers. If allowed...
@@ -1234,18 +1307,14 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                     //... or wait until there is one available
                     while(inactiveBrokers.isEmpty()) {
                         LOG.debug("waiting for a broker to become available");
-                        try {
-                            this.wait();
-                        } catch(final InterruptedException e) {
-                            //nothing to be done!
-                        }
+                        brokersChanged.awaitUninterruptibly();
                     }
             }
             broker = inactiveBrokers.pop();
             broker.prepare();
 
             //activate the broker
-            activeBrokers.put(Thread.currentThread(), broker);
+            activeBrokers.put(leaseOwner, broker);
 
             if(LOG.isTraceEnabled()) {
                 LOG.trace("+++ " + Thread.currentThread() + Stacktrace.top(Thread.currentThread().getStackTrace(), Stacktrace.DEFAULT_STACK_TOP));
@@ -1268,8 +1337,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
             //Inform the other threads that we have a new-comer
             // TODO: do they really need to be informed here???????
-            this.notifyAll();
+            brokersChanged.signalAll();
             return broker;
+        } finally {
+            brokersLock.unlock();
         }
     }
 
@@ -1302,7 +1373,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             return;
         }
 
-        synchronized(this) {
+        final Object leaseOwner = leaseOwner();
+        brokersLock.lock();
+        try {
             //Broker is no more used : inactivate it
             for(final DBBroker inactiveBroker : inactiveBrokers) {
                 if(broker == inactiveBroker) {
@@ -1311,12 +1384,12 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
             }
 
-            if(activeBrokers.remove(Thread.currentThread()) == null) {
+            if(activeBrokers.remove(leaseOwner) == null) {
                 LOG.error("release() has been called from the wrong thread for broker " + broker.getId());
                 // Cleanup the state of activeBrokers
-                for(final Entry<Thread, DBBroker> activeBroker : activeBrokers.entrySet()) {
+                for(final Entry<Object, DBBroker> activeBroker : activeBrokers.entrySet()) {
                     if(activeBroker.getValue() == broker) {
-                        final String msg = "release() has been called from '" + Thread.currentThread() + "', but occupied at '" + activeBroker.getKey() + "'.";
+                        final String msg = "release() has been called from '" + leaseOwner + "', but occupied at '" + activeBroker.getKey() + "'.";
                         final EXistException ex = new EXistException(msg);
                         LOG.error(msg, ex);
                         activeBrokers.remove(activeBroker.getKey());
@@ -1375,7 +1448,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
             }
             //Inform the other threads that someone is gone
-            this.notifyAll();
+            brokersChanged.signalAll();
+        } finally {
+            brokersLock.unlock();
         }
     }
 
@@ -1384,17 +1459,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             throw new PermissionDeniedException("Only users of group dba can switch the db to service mode");
         }
 
-        serviceModeUser = user;
-        synchronized(this) {
+        brokersLock.lock();
+        try {
+            serviceModeUser = user;
             if(activeBrokers.size() != 0) {
                 while(!inServiceMode) {
-                    try {
-                        wait();
-                    } catch(final InterruptedException e) {
-                        //nothing to be done
-                    }
+                    brokersChanged.awaitUninterruptibly();
                 }
             }
+        } finally {
+            brokersLock.unlock();
         }
 
         inServiceMode = true;
@@ -1411,10 +1485,13 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         if(!user.equals(serviceModeUser)) {
             throw new PermissionDeniedException("The db has been locked by a different user");
         }
-        serviceModeUser = null;
-        inServiceMode = false;
-        synchronized(this) {
-            this.notifyAll();
+        brokersLock.lock();
+        try {
+            serviceModeUser = null;
+            inServiceMode = false;
+            brokersChanged.signalAll();
+        } finally {
+            brokersLock.unlock();
         }
     }
 
@@ -1506,7 +1583,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
 
         LOG.debug("Triggering sync: " + syncEvent);
-        synchronized(this) {
+        brokersLock.lock();
+        try {
             //Are there available brokers ?
             // TOUNDERSTAND (pb) : the trigger is ignored !
             // WM: yes, it seems wrong!!
@@ -1532,6 +1610,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 this.syncEvent = syncEvent;
                 syncRequired = true;
             }
+        } finally {
+            brokersLock.unlock();
         }
     }
 
@@ -1598,11 +1678,24 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             //Shutdown the scheduler
             scheduler.shutdown(true);
 
+            //Stop writing fuzzy checkpoints, a final sharp checkpoint is written below
+            if (fuzzyCheckpointer != null) {
+                fuzzyCheckpointer.shutdown();
+                try {
+                    fuzzyCheckpointerThread.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                fuzzyCheckpointer = null;
+                fuzzyCheckpointerThread = null;
+            }
+
             try {
                 statusReporter = new StatusReporter(SIGNAL_SHUTDOWN);
                 statusObservers.forEach(statusReporter::addObserver);
 
-                synchronized (this) {
+                brokersLock.lock();
+                try {
                     final Thread statusThread = newInstanceThread(this, "shutdown-status-reporter", statusReporter);
                     statusThread.start();
 
@@ -1628,7 +1721,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                         while (activeBrokers.size() > 0) {
                             try {
                                 //Wait until they become inactive...
-                                this.wait(1000);
+                                brokersChanged.await(1000, TimeUnit.MILLISECONDS);
                             } catch (final InterruptedException e) {
                                 //nothing to be done
                             }
@@ -1714,6 +1807,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                     if (shutdownListener != null) {
                         shutdownListener.shutdown(instanceName, instancesCount());
                     }
+                } finally {
+                    brokersLock.unlock();
                 }
             } finally {
                 // clear instance variables, just to be sure they will be garbage collected
@@ -1812,10 +1907,13 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         if(syncRequired) {
             return;
         }
-        synchronized(this) {
+        brokersLock.lock();
+        try {
             syncEvent = Sync.MAJOR;
             syncRequired = true;
             checkpoint = true;
+        } finally {
+            brokersLock.unlock();
         }
     }
 
@@ -1895,8 +1993,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return (Path)conf.getProperty(BrokerPool.PROPERTY_DATA_DIR);
     }
 
-    private final List<TriggerProxy<? extends DocumentTrigger>> documentTriggers = new ArrayList<>();
-    private final List<TriggerProxy<? extends CollectionTrigger>> collectionTriggers = new ArrayList<>();
+    // triggers may be registered while they are being fired, e.g. by an XQuery extension module
+    private final List<TriggerProxy<? extends DocumentTrigger>> documentTriggers = new CopyOnWriteArrayList<>();
+    private final List<TriggerProxy<? extends CollectionTrigger>> collectionTriggers = new CopyOnWriteArrayList<>();
 
     @Override
     public List<TriggerProxy<? extends DocumentTrigger>> getDocumentTriggers() {
@@ -21,6 +21,9 @@
  */
 package org.exist.storage;
 
+import org.exist.storage.btree.Paged;
+import org.exist.storage.dom.DOMFile;
+
 /**
  * Just static Constants used by {@link BrokerPool}
  *
@@ -86,8 +89,16 @@ public interface BrokerPoolConstants {
     String RECOVERY_GROUP_COMMIT_ATTRIBUTE = "group-commit";
     String PROPERTY_RECOVERY_FORCE_RESTART = "db-connection.recovery.force-restart";
     String RECOVERY_FORCE_RESTART_ATTRIBUTE = "force-restart";
+    String PROPERTY_RECOVERY_FUZZY_CHECKPOINT = "db-connection.recovery.fuzzy-checkpoint";
+    String RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE = "fuzzy-checkpoint";
+    String PROPERTY_RECOVERY_PAGE_WRITER_INTERVAL = "db-connection.recovery.page-writer-interval";
+    String RECOVERY_PAGE_WRITER_INTERVAL_ATTRIBUTE = "page-writer-interval";
+    String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
+    String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
 
     String PROPERTY_PAGE_SIZE = "db-connection.page-size";
+    String PROPERTY_PAGE_IO = "db-connection.page-io";
+    String PROPERTY_DOM_COMPRESSION = "db-connection.dom-compression";
 
     /**
      * Default values
@@ -97,5 +108,9 @@ public interface BrokerPoolConstants {
     //TODO : move this default setting to org.exist.collections.CollectionCache ?
     int DEFAULT_COLLECTION_BUFFER_SIZE = 64;
     int DEFAULT_PAGE_SIZE = 4096;
+    Paged.IOMode DEFAULT_PAGE_IO = Paged.IOMode.RANDOM_ACCESS;
+    String DEFAULT_DOM_COMPRESSION = DOMFile.COMPRESSION_NONE;
     short DEFAULT_DISK_SPACE_MIN = 64; // 64 MB
+    long DEFAULT_PAGE_WRITER_INTERVAL = 1000;
+    int DEFAULT_RECOVERY_REDO_THREADS = 4;
 }
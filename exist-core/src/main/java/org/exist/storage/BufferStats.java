@@ -36,12 +36,18 @@ public class BufferStats {
 	private int used = 0;
 	private int pageFails = 0;
 	private int pageHits = 0;
+	private int pageEvictions = 0;
 
 	public BufferStats(int size, int used, int hits, int fails) {
+		this(size, used, hits, fails, 0);
+	}
+
+	public BufferStats(int size, int used, int hits, int fails, int evictions) {
 		this.size = size;
 		this.used = used;
 		this.pageHits = hits;
 		this.pageFails = fails;
+		this.pageEvictions = evictions;
 	}
 
 	public int getPageFails() {
@@ -52,6 +58,10 @@ public class BufferStats {
 		return pageHits;
 	}
 
+	public int getPageEvictions() {
+		return pageEvictions;
+	}
+
 	public int getSize() {
 		return size;
 	}
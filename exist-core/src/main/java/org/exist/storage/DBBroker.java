@@ -553,6 +553,24 @@ public abstract class DBBroker implements AutoCloseable {
     public abstract void removeXMLResource(Txn transaction,
         @EnsureLocked(mode=LockMode.WRITE_LOCK) DocumentImpl document, boolean freeDocId) throws PermissionDeniedException, IOException;
 
+    /**
+     * Removes the nodes, index entries and metadata of an XML document and recycles
+     * its id, without firing any triggers. This is used to discard a document which
+     * was stored in a single pass, either because its parse failed or because it
+     * replaced the document.
+     *
+     * The document does not need to be complete, its pending index entries are
+     * flushed before they are removed.
+     *
+     * @param transaction the transaction
+     * @param document the document
+     *
+     * @throws IOException If an error occurs whilst removing the document from disk
+     * @throws PermissionDeniedException If the current user does not have appropriate permissions
+     */
+    public abstract void discardXMLResource(Txn transaction,
+        @EnsureLocked(mode=LockMode.WRITE_LOCK) DocumentImpl document) throws PermissionDeniedException, IOException;
+
     public enum IndexMode {
         STORE,
         REPAIR,
@@ -26,7 +26,12 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
+import org.exist.storage.cache.BTreeCache;
+import org.exist.storage.cache.BTreeCacheable;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.Cacheable;
+import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.SegmentedClockCache;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
 
@@ -77,6 +82,56 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     public static final String  SHRINK_THRESHOLD_ATTRIBUTE     		 	= "cacheShrinkThreshold";
     public static final String  SHRINK_THRESHOLD_PROPERTY      			= "db-connection.cache-shrink-threshold";
 
+    public static final String  CACHE_POLICY_ATTRIBUTE                 = "cachePolicy";
+    public static final String  PROPERTY_CACHE_POLICY                  = "db-connection.cache-policy";
+    public static final CachePolicy DEFAULT_CACHE_POLICY               = CachePolicy.LRU;
+
+    /**
+     * The replacement policy of the page caches created by
+     * {@link #newBTreeCache(String, int, double, double)} and
+     * {@link #newDataCache(String, int, double, double)}.
+     */
+    public enum CachePolicy {
+        /**
+         * Least recently used, see {@link LRUCache}. The inner pages of
+         * a B+-tree are kept in preference to the leaf pages, see {@link BTreeCache}.
+         */
+        LRU("lru"),
+
+        /**
+         * Scan resistant and safe for concurrent readers, see {@link SegmentedClockCache}.
+         */
+        SEGMENTED_CLOCK("segmented-clock");
+
+        private final String configValue;
+
+        CachePolicy(final String configValue) {
+            this.configValue = configValue;
+        }
+
+        public String getConfigValue() {
+            return configValue;
+        }
+
+        /**
+         * Get the cache policy from its configuration value.
+         *
+         * @param configValue the value from the configuration
+         *
+         * @return the cache policy
+         *
+         * @throws IllegalArgumentException if there is no cache policy for the value
+         */
+        public static CachePolicy fromConfigValue(final String configValue) {
+            for (final CachePolicy cachePolicy : values()) {
+                if (cachePolicy.configValue.equals(configValue)) {
+                    return cachePolicy;
+                }
+            }
+            throw new IllegalArgumentException("No such cache policy: " + configValue);
+        }
+    }
+
     /** Caches maintained by this class. */
     private List<Cache>         caches                          = new ArrayList<>();
 
@@ -108,6 +163,8 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
     private String              instanceName;
 
+    private final CachePolicy   cachePolicy;
+
     public DefaultCacheManager( BrokerPool pool )
     {
         this.instanceName = pool.getId();
@@ -126,6 +183,8 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
         shrinkThreshold = configuration.getInteger( SHRINK_THRESHOLD_PROPERTY );
 
+        cachePolicy = configuration.getProperty( PROPERTY_CACHE_POLICY, DEFAULT_CACHE_POLICY );
+
         totalMem        = cacheSize * 1024L * 1024L;
 
         final Boolean checkMaxCache = (Boolean)configuration.getProperty( PROPERTY_CACHE_CHECK_MAX_SIZE );
@@ -154,12 +213,65 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
         LOG.info( "Cache settings: " + nf.format( totalMem / 1024L ) + "k; totalPages: " + nf.format( totalPageCount ) +
                 "; maxCacheSize: " + nf.format( maxCacheSize ) +
-                "; cacheShrinkThreshold: " + nf.format( shrinkThreshold )
+                "; cacheShrinkThreshold: " + nf.format( shrinkThreshold ) +
+                "; cachePolicy: " + cachePolicy.getConfigValue()
         );
 
         registerMBean();
     }
 
+    /**
+     * Creates a cache for the pages of a B+-tree, according to the configured {@link CachePolicy}.
+     * The cache still has to be registered by {@link #registerCache(Cache)}.
+     *
+     * @param <T> the type of the pages
+     * @param name the name of the cache
+     * @param size the initial size of the cache in pages
+     * @param growthFactor the factor by which the cache grows, see {@link Cache#getGrowthFactor()}
+     * @param growthThreshold the fraction of the cache size which may be thrashed before it grows
+     *
+     * @return the new cache
+     */
+    public <T extends BTreeCacheable> Cache<T> newBTreeCache(final String name, final int size,
+            final double growthFactor, final double growthThreshold) {
+        switch (cachePolicy) {
+            case SEGMENTED_CLOCK:
+                return new SegmentedClockCache<>(name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE);
+
+            case LRU:
+            default:
+                return new BTreeCache<>(name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE);
+        }
+    }
+
+    /**
+     * Creates a cache for data pages, according to the configured {@link CachePolicy}.
+     * The cache still has to be registered by {@link #registerCache(Cache)}.
+     *
+     * @param <T> the type of the pages
+     * @param name the name of the cache
+     * @param size the initial size of the cache in pages
+     * @param growthFactor the factor by which the cache grows, see {@link Cache#getGrowthFactor()}
+     * @param growthThreshold the fraction of the cache size which may be thrashed before it grows
+     *
+     * @return the new cache
+     */
+    public <T extends Cacheable> Cache<T> newDataCache(final String name, final int size,
+            final double growthFactor, final double growthThreshold) {
+        switch (cachePolicy) {
+            case SEGMENTED_CLOCK:
+                return new SegmentedClockCache<>(name, size, growthFactor, growthThreshold, Cache.CacheType.DATA);
+
+            case LRU:
+            default:
+                return new LRUCache<>(name, size, growthFactor, growthThreshold, Cache.CacheType.DATA);
+        }
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
     @Override
     public void registerCache( Cache cache )
     {
@@ -87,6 +87,7 @@ import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -126,9 +127,13 @@ public class NativeBroker extends DBBroker {
     //Note : no ID for symbols ? Too bad...
 
     public static final String PAGE_SIZE_ATTRIBUTE = "pageSize";
+    public static final String PAGE_IO_ATTRIBUTE = "page-io";
+    public static final String DOM_COMPRESSION_ATTRIBUTE = "dom-compression";
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -173,6 +178,12 @@ public class NativeBroker extends DBBroker {
 
     private final Path dataDir;
 
+    /**
+     * Number of worker threads used by {@link #reindexCollection(Txn, XmldbURI)},
+     * 1 means the collection is reindexed sequentially on this broker.
+     */
+    private final int reindexThreads;
+
     private final byte prepend;
 
     private final Runtime run = Runtime.getRuntime();
@@ -212,6 +223,8 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        this.reindexThreads = Math.max(1, config.getInteger(PROPERTY_REINDEX_THREADS));
+
         this.indexConfiguration = (IndexSpec) config.getProperty(Indexer.PROPERTY_INDEXER_CONFIG);
         this.xmlSerializer = new NativeSerializer(this, config);
 
@@ -1871,12 +1884,18 @@ public class NativeBroker extends DBBroker {
                 return;
             }
 
-            LOG.info("Start indexing collection {}", collection.getURI().toString());
-            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, IndexMode.STORE);
+            if (reindexThreads > 1) {
+                LOG.info("Start indexing collection {} using {} threads", collection.getURI().toString(), reindexThreads);
+                new ParallelReindex(this, dataDir, reindexThreads).reindex(transaction, collection);
+            } else {
+                LOG.info("Start indexing collection {}", collection.getURI().toString());
+                pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
+                reindexCollection(transaction, collection, IndexMode.STORE);
+            }
         } catch(final PermissionDeniedException | IOException e) {
             LOG.error("An error occurred during reindex: {}", e.getMessage(), e);
         } finally {
+            getIndexController().reindexFinished();
             pool.getProcessMonitor().endJob();
             LOG.info("Finished indexing collection {} in {} ms.", fqUri, System.currentTimeMillis() - start);
         }
@@ -1922,6 +1941,55 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    /**
+     * Walks the collection tree below the given collection, optionally dropping
+     * the index of each collection, and reports each document found to the consumer.
+     * Used by {@link ParallelReindex} to partition the documents between its workers.
+     *
+     * @param transaction the transaction
+     * @param collection the collection to start from
+     * @param dropIndex true if the collection indexes should be dropped
+     * @param documents receives the id and URI of each document
+     */
+    void collectReindexDocuments(final Txn transaction,
+            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final boolean dropIndex,
+            final ObjIntConsumer<XmldbURI> documents) throws PermissionDeniedException, IOException, LockException {
+        if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
+            throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
+        }
+
+        if(dropIndex) {
+            dropCollectionIndex(transaction, collection, true);
+        }
+
+        for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            documents.accept(doc.getURI(), doc.getDocId());
+        }
+
+        for (final Iterator<XmldbURI> i = collection.collectionIterator(this); i.hasNext(); ) {
+            final XmldbURI childUri = collection.getURI().append(i.next());
+            try(final Collection child = openCollection(childUri, LockMode.READ_LOCK)) {
+                if (child == null) {
+                    throw new IOException("Collection '" + childUri + "' not found");
+                }
+                collectReindexDocuments(transaction, child, dropIndex, documents);
+            }
+        }
+    }
+
+    /**
+     * Reindexes a document on behalf of a resumed {@link ParallelReindex}. Index entries
+     * which may have been written before the reindex was interrupted are removed first.
+     *
+     * @param transaction the transaction
+     * @param doc the document to reindex
+     */
+    void resumeReindexXMLResource(final Txn transaction, @EnsureLocked(mode=LockMode.WRITE_LOCK) final DocumentImpl doc) {
+        dropIndex(transaction, doc);
+        reindexXMLResource(transaction, doc, IndexMode.STORE);
+    }
+
     private void dropCollectionIndex(final Txn transaction,
             @EnsureLocked(mode=LockMode.WRITE_LOCK) final Collection collection)
             throws PermissionDeniedException, IOException, LockException {
@@ -2781,6 +2849,27 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    @Override
+    public void discardXMLResource(final Txn transaction, @EnsureLocked(mode=LockMode.WRITE_LOCK) final DocumentImpl document) throws PermissionDeniedException, IOException {
+        if(isReadOnly()) {
+            throw new IOException(DATABASE_IS_READ_ONLY);
+        }
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Discarding document {} ({}) ...", document.getFileURI(), document.getDocId());
+        }
+
+        // write out what the indexer has buffered for the document, so that it is removed below
+        flush();
+        closeDocument();
+
+        dropIndex(transaction, document);
+        if(document.getChildCount() > 0) {
+            dropDomNodes(transaction, document);
+        }
+        removeResourceMetadata(transaction, document);
+        collectionsDb.freeResourceId(document.getDocId());
+    }
+
     private void dropIndex(final Txn transaction, @EnsureLocked(mode=LockMode.WRITE_LOCK) final DocumentImpl document) {
         final StreamListener listener = getIndexController().getStreamListener(document, ReindexMode.REMOVE_ALL_NODES);
         listener.startIndexDocument(transaction);
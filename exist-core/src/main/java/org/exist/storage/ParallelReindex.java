@@ -0,0 +1,350 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xmldb.XmldbURI;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Reindexes a collection tree using a pool of worker threads.
+ *
+ * The collection tree is first walked sequentially by the calling broker, which drops
+ * the collection indexes and collects the documents to reindex. The documents are then
+ * handed out to the workers, each of which uses its own broker, and therefore its own
+ * {@link org.exist.indexing.IndexController} and stream listener chain, and reindexes
+ * each document in its own transaction.
+ *
+ * Progress is reported through the {@link ProcessMonitor}. The ids of reindexed documents
+ * are recorded in a checkpoint file of the collection in the data directory once the
+ * indexes have been synced, so that an interrupted reindex of the same collection resumes
+ * with the documents which have not been reindexed yet. The checkpoint file is removed
+ * when the reindex completes.
+ */
+final class ParallelReindex {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelReindex.class);
+
+    private static final String CHECKPOINT_FILE_PREFIX = "reindex-";
+    private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+
+    /**
+     * Number of reindexed documents after which the indexes are synced
+     * and the checkpoint file is updated.
+     */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    private final NativeBroker broker;
+    private final BrokerPool pool;
+    private final Path dataDir;
+    private final int threads;
+
+    ParallelReindex(final NativeBroker broker, final Path dataDir, final int threads) {
+        this.broker = broker;
+        this.pool = broker.getBrokerPool();
+        this.dataDir = dataDir;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the checkpoint file of a reindex of the collection, so that
+     * interrupted reindexes of different collections do not discard each other.
+     *
+     * @param dataDir the data directory
+     * @param collection the collection being reindexed
+     * @return the checkpoint file
+     */
+    static Path getCheckpointFile(final Path dataDir, final Collection collection) {
+        return dataDir.resolve(CHECKPOINT_FILE_PREFIX + collection.getId() + CHECKPOINT_FILE_SUFFIX);
+    }
+
+    /**
+     * Reindex the collection and all of its descendants.
+     *
+     * @param transaction the transaction used for dropping the collection indexes
+     * @param collection the collection to reindex
+     */
+    void reindex(final Txn transaction, final Collection collection) throws PermissionDeniedException, IOException, LockException {
+        final Path checkpointFile = getCheckpointFile(dataDir, collection);
+        final Checkpoint checkpoint = Checkpoint.open(checkpointFile, collection.getURI());
+        if (checkpoint.isResumed()) {
+            LOG.info("Resuming reindex of collection {}, {} documents were already reindexed", collection.getURI(), checkpoint.size());
+        }
+
+        final List<XmldbURI> documentUris = new ArrayList<>();
+        final IntArrayList documentIds = new IntArrayList();
+        broker.collectReindexDocuments(transaction, collection, !checkpoint.isResumed(), (uri, docId) -> {
+            documentUris.add(uri);
+            documentIds.add(docId);
+        });
+
+        final Progress progress = new Progress(collection.getURI(), documentUris.size());
+        final ProcessMonitor.Monitor monitor = new ProcessMonitor.Monitor();
+        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, progress, monitor);
+
+        final Subject subject = broker.getCurrentSubject();
+        final AtomicInteger next = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(pool, "reindex"));
+        boolean complete = true;
+        try {
+            final List<Future<Boolean>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    boolean ok = true;
+                    try (final DBBroker workerBroker = pool.get(Optional.of(subject))) {
+                        final TransactionManager transact = pool.getTransactionManager();
+                        int idx;
+                        while (monitor.proceed() && (idx = next.getAndIncrement()) < documentUris.size()) {
+                            final int docId = documentIds.getInt(idx);
+                            if (!checkpoint.isCompleted(docId)) {
+                                if (reindexDocument((NativeBroker) workerBroker, transact, documentUris.get(idx), checkpoint.isResumed())) {
+                                    checkpoint.completed(docId, workerBroker);
+                                } else {
+                                    // not recorded, so that a resumed reindex tries the document again
+                                    ok = false;
+                                }
+                            }
+                            progress.increment();
+                        }
+                    }
+                    return ok && monitor.proceed();
+                }));
+            }
+            for (final Future<Boolean> worker : workers) {
+                try {
+                    complete &= worker.get();
+                } catch (final ExecutionException e) {
+                    LOG.error("Reindex worker failed: {}", e.getCause().getMessage(), e.getCause());
+                    complete = false;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            monitor.stop();
+            complete = false;
+        } finally {
+            executor.shutdown();
+            checkpoint.close(broker, complete);
+        }
+
+        if (!complete) {
+            LOG.warn("Reindex of collection {} did not complete, it will resume from {} on the next reindex", collection.getURI(), checkpointFile);
+        }
+    }
+
+    private static boolean reindexDocument(final NativeBroker workerBroker, final TransactionManager transact,
+            final XmldbURI documentUri, final boolean resumed) {
+        try (final LockedDocument lockedDoc = workerBroker.getXMLResource(documentUri, resumed ? LockMode.WRITE_LOCK : LockMode.READ_LOCK);
+             final Txn transaction = transact.beginTransaction()) {
+            if (lockedDoc != null) {
+                if (resumed) {
+                    workerBroker.resumeReindexXMLResource(transaction, lockedDoc.getDocument());
+                } else {
+                    workerBroker.reindexXMLResource(transaction, lockedDoc.getDocument(), DBBroker.IndexMode.STORE);
+                }
+            }
+            transaction.commit();
+            return true;
+        } catch (final PermissionDeniedException | EXistException e) {
+            LOG.error("Error while reindexing document {}: {}", documentUri, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Progress of a parallel reindex, reported as the info of the
+     * {@link ProcessMonitor} job.
+     */
+    private static final class Progress {
+        private final XmldbURI collectionUri;
+        private final int total;
+        private final AtomicInteger done = new AtomicInteger();
+
+        Progress(final XmldbURI collectionUri, final int total) {
+            this.collectionUri = collectionUri;
+            this.total = total;
+        }
+
+        void increment() {
+            done.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return collectionUri + " (" + done.get() + " of " + total + " documents)";
+        }
+    }
+
+    /**
+     * Records the ids of reindexed documents in the checkpoint file.
+     *
+     * The first line of the file holds the URI of the collection being reindexed,
+     * followed by one document id per line. Ids are only appended after the
+     * indexes have been synced, so every recorded document is durably indexed.
+     */
+    static final class Checkpoint {
+        private final Path file;
+        private final boolean resumed;
+        private final IntSet completed;
+        private IntArrayList pending = new IntArrayList();
+
+        private Checkpoint(final Path file, final boolean resumed, final IntSet completed) {
+            this.file = file;
+            this.resumed = resumed;
+            this.completed = completed;
+        }
+
+        static Checkpoint open(final Path file, final XmldbURI collectionUri) throws IOException {
+            final IntSet completed = new IntOpenHashSet();
+            if (Files.exists(file)) {
+                try (final BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+                    final String uri = reader.readLine();
+                    if (collectionUri.toString().equals(uri)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (!line.isEmpty()) {
+                                try {
+                                    completed.add(Integer.parseInt(line));
+                                } catch (final NumberFormatException e) {
+                                    // incomplete last line, the document is reindexed again
+                                }
+                            }
+                        }
+                        return new Checkpoint(file, true, completed);
+                    }
+                    LOG.warn("Discarding checkpoint of interrupted reindex of collection {}, that collection should be reindexed again", uri);
+                }
+            }
+
+            Files.write(file, (collectionUri.toString() + '\n').getBytes(UTF_8));
+            return new Checkpoint(file, false, completed);
+        }
+
+        boolean isResumed() {
+            return resumed;
+        }
+
+        int size() {
+            return completed.size();
+        }
+
+        boolean isCompleted(final int docId) {
+            return completed.contains(docId);
+        }
+
+        /**
+         * Marks a document as reindexed. Every {@link #CHECKPOINT_INTERVAL} documents
+         * the indexes are synced and the pending ids are written to the file.
+         *
+         * @param docId the id of the reindexed document
+         * @param broker the broker of the calling worker
+         */
+        void completed(final int docId, final DBBroker broker) throws IOException {
+            final IntArrayList toWrite;
+            synchronized (this) {
+                pending.add(docId);
+                if (pending.size() < CHECKPOINT_INTERVAL) {
+                    return;
+                }
+                toWrite = pending;
+                pending = new IntArrayList();
+            }
+            write(broker, toWrite);
+        }
+
+        /**
+         * Close the checkpoint, removing the file if the reindex is complete.
+         *
+         * @param broker the broker
+         * @param complete true if all documents have been reindexed
+         */
+        void close(final DBBroker broker, final boolean complete) throws IOException {
+            if (complete) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            final IntArrayList toWrite;
+            synchronized (this) {
+                toWrite = pending;
+                pending = new IntArrayList();
+            }
+            write(broker, toWrite);
+        }
+
+        private void write(final DBBroker broker, final IntArrayList docIds) throws IOException {
+            if (docIds.isEmpty()) {
+                return;
+            }
+
+            broker.sync(Sync.MAJOR);
+
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < docIds.size(); i++) {
+                builder.append(docIds.getInt(i)).append('\n');
+            }
+            synchronized (this) {
+                try (final FileChannel channel = FileChannel.open(file, CREATE, WRITE, APPEND)) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            }
+        }
+    }
+}
@@ -32,9 +32,14 @@
  */
 package org.exist.storage;
 
+import java.lang.ref.WeakReference;
 import java.text.NumberFormat;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.github.benmanes.caffeine.cache.Cache;
@@ -48,6 +53,9 @@ import org.exist.source.Source;
 import org.exist.util.Configuration;
 import org.exist.util.Holder;
 import org.exist.xquery.*;
+import org.exist.xquery.Module;
+
+import javax.annotation.Nullable;
 
 /**
  * Global pool for compiled XQuery expressions.
@@ -61,6 +69,15 @@ import org.exist.xquery.*;
  * used for a pre-defined timeout (default is {@link #DEFAULT_TIMEOUT}); these
  * settings can be configured in conf.xml.
  *
+ * Compiled library modules are added to the pool as soon as they have been
+ * compiled, see {@link #shareModule(Source, ExternalModule, XQueryContext)}, so that
+ * a query which imports the same module from the same source does not have to
+ * compile it again. Like compiled queries, a pooled module is only ever used by one
+ * query at a time: it belongs to the query which compiled or last borrowed it, and
+ * can only be borrowed by another query while that query is waiting in the pool or
+ * has been discarded. A pooled query which lost one of its modules to another query
+ * is no longer valid, and is compiled again when it is needed.
+ *
  * @author <a href="mailto:adam@evolvedbinary.com">Adam Retter</a>
  */
 @ThreadSafe
@@ -90,6 +107,18 @@ public class XQueryPool implements BrokerPoolService {
      */
     private Cache<Source, Deque<CompiledXQuery>> cache;
 
+    /**
+     * Source -> Deque of compiled library modules
+     */
+    private Cache<Source, Deque<PooledModule>> moduleCache;
+
+    /**
+     * The root contexts of the compiled queries which are waiting in the pool.
+     * Guarded by {@link #moduleLock}, as are the pooled modules.
+     */
+    private final Set<XQueryContext> idleContexts = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Object moduleLock = new Object();
+
     @Override
     public void configure(final Configuration configuration) {
         final Integer maxStSz = (Integer) configuration.getProperty(PROPERTY_MAX_STACK_SIZE);
@@ -116,6 +145,16 @@ public class XQueryPool implements BrokerPoolService {
         }
 
         this.cache = Caffeine.newBuilder()
+                .maximumSize(maxPoolSize)
+                .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
+                .<Source, Deque<CompiledXQuery>>removalListener((key, value, cause) -> {
+                    if (cause.wasEvicted() && value != null) {
+                        value.forEach(this::releaseModules);
+                    }
+                })
+                .build();
+
+        this.moduleCache = Caffeine.newBuilder()
                 .maximumSize(maxPoolSize)
                 .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
                 .build();
@@ -136,6 +175,13 @@ public class XQueryPool implements BrokerPoolService {
             return;
         }
 
+        // from now on, other queries may borrow the library modules of the query
+        if (compiledXQuery.getContext() != null) {
+            synchronized (moduleLock) {
+                idleContexts.add(compiledXQuery.getContext());
+            }
+        }
+
         cache.asMap().compute(source, (key, value) -> {
             final Deque<CompiledXQuery> deque;
             if (value != null) {
@@ -179,11 +225,15 @@ public class XQueryPool implements BrokerPoolService {
                 return null;
             }
 
-            if (!isCompiledQueryValid(broker, source, firstCompiledXQuery)) {
+            if (!isCompiledQueryValid(broker, source, firstCompiledXQuery) || !leaseModules(firstCompiledXQuery)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(source.getKey() + " is invalid, removing from XQuery Pool...");
                 }
 
+                // the imported modules may still be valid and can be reused by the next compilation
+                releaseModules(firstCompiledXQuery);
+                value.forEach(this::releaseModules);
+
                 // query is invalid, returning null will remove the entry from the cache
                 return null;
             }
@@ -235,10 +285,275 @@ public class XQueryPool implements BrokerPoolService {
         return true;
     }
 
+    /**
+     * Adds a library module to the pool, as soon as it has been compiled.
+     *
+     * The module belongs to the query which compiled it, and can only be borrowed by
+     * another query once that query has been returned to the pool or discarded.
+     *
+     * @param source The source of the library module.
+     * @param module The compiled library module.
+     * @param owner The root context of the query which compiled the module.
+     */
+    public void shareModule(final Source source, final ExternalModule module, final XQueryContext owner) {
+        synchronized (moduleLock) {
+            final Deque<PooledModule> deque = moduleCache.get(source, key -> new ArrayDeque<>(maxQueryStackSize));
+            deque.removeIf(pooled -> pooled.get() == null);
+            if (deque.size() < maxQueryStackSize) {
+                deque.offerFirst(new PooledModule(module, owner));
+            }
+        }
+    }
+
+    /**
+     * Borrows a compiled library module from the XQuery pool.
+     *
+     * The module, and all of the modules which it imports, must still be valid,
+     * must not be used by another query which is not waiting in the pool, and
+     * must not clash with a different instance of one of those modules which
+     * is already known to the importing query. All of them then belong to the
+     * importing query.
+     *
+     * @param broker A database broker.
+     * @param source The source of the library module.
+     * @param importingContext The context of the query which imports the module.
+     *
+     * @return The compiled module identified by the source, or null if
+     *     there is no suitable compiled module in the XQuery pool.
+     */
+    public @Nullable ExternalModule borrowModule(final DBBroker broker, final Source source,
+            final XQueryContext importingContext) {
+        if (broker == null || source == null) {
+            return null;
+        }
+
+        final XQueryContext owner = importingContext.getRootContext();
+        synchronized (moduleLock) {
+            final Deque<PooledModule> deque = moduleCache.getIfPresent(source);
+            if (deque == null) {
+                return null;
+            }
+
+            for (final Iterator<PooledModule> i = deque.iterator(); i.hasNext(); ) {
+                final ExternalModule module = i.next().get();
+                if (module == null || !module.moduleIsValid(broker)) {
+                    // the module was discarded with its query, or its source changed
+                    i.remove();
+                    continue;
+                }
+
+                final Set<PooledModule> leased = leasableModules(broker, module, owner);
+                if (leased != null) {
+                    leased.forEach(pooled -> pooled.lease(owner));
+                    return module;
+                }
+            }
+
+            if (deque.isEmpty()) {
+                moduleCache.asMap().remove(source, deque);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Determines if a library module, and all of the modules which it imports, may be
+     * borrowed by a query.
+     *
+     * @param broker A database broker.
+     * @param module The library module.
+     * @param owner The root context of the query which wants to borrow the module.
+     *
+     * @return The pooled modules to lease to the query, or null if the module cannot be borrowed.
+     */
+    private @Nullable Set<PooledModule> leasableModules(final DBBroker broker, final ExternalModule module,
+            final XQueryContext owner) {
+        final Set<PooledModule> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final ExternalModule imported : importedModules(module)) {
+            final PooledModule pooled = pooledModule(imported);
+            if (pooled == null || !pooled.isAvailableTo(owner)) {
+                // the module is unknown to the pool, or still used by another query
+                return null;
+            }
+
+            if (!imported.moduleIsValid(broker) || !((ModuleContext) imported.getContext()).isSelfContained()) {
+                return null;
+            }
+
+            final Module known = owner.getRootModule(imported.getNamespaceURI());
+            if (known != null && known != imported) {
+                // the query already has its own instance of one of the imported modules
+                return null;
+            }
+            leased.add(pooled);
+        }
+        return leased;
+    }
+
+    /**
+     * Lets a compiled XQuery which is borrowed from the pool use its library modules again.
+     *
+     * @param compiledXQuery The compiled XQuery.
+     *
+     * @return true if all of the pooled modules of the query still belong to it,
+     *     false if another query has borrowed one of them.
+     */
+    private boolean leaseModules(final CompiledXQuery compiledXQuery) {
+        final XQueryContext context = compiledXQuery.getContext();
+        if (context == null) {
+            return true;
+        }
+
+        synchronized (moduleLock) {
+            for (final ExternalModule module : importedModules(context)) {
+                final PooledModule pooled = pooledModule(module);
+                if (pooled != null && pooled.getOwner() != context) {
+                    return false;
+                }
+            }
+            idleContexts.remove(context);
+            return true;
+        }
+    }
+
+    /**
+     * Releases the library modules of a compiled XQuery which will no longer be used,
+     * so that they can be borrowed by any other query.
+     *
+     * @param compiledXQuery The compiled XQuery which is discarded.
+     */
+    private void releaseModules(final CompiledXQuery compiledXQuery) {
+        final XQueryContext context = compiledXQuery.getContext();
+        if (context == null) {
+            return;
+        }
+
+        synchronized (moduleLock) {
+            idleContexts.remove(context);
+            for (final ExternalModule module : importedModules(context)) {
+                final PooledModule pooled = pooledModule(module);
+                if (pooled != null && pooled.getOwner() == context) {
+                    pooled.release();
+                }
+            }
+        }
+    }
+
+    private @Nullable PooledModule pooledModule(final ExternalModule module) {
+        if (module.getSource() == null) {
+            return null;
+        }
+        final Deque<PooledModule> deque = moduleCache.getIfPresent(module.getSource());
+        if (deque == null) {
+            return null;
+        }
+        for (final PooledModule pooled : deque) {
+            if (pooled.get() == module) {
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the library modules imported by a query, transitively.
+     *
+     * @param context the root context of the query
+     *
+     * @return all of the library modules which the query imports.
+     */
+    private static Set<ExternalModule> importedModules(final XQueryContext context) {
+        final Set<ExternalModule> imported = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Iterator<Module> i = context.getModules(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (module != null && !module.isInternalModule()) {
+                imported.addAll(importedModules((ExternalModule) module));
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Collects a library module and the library modules which it imports, transitively.
+     *
+     * @param module the library module
+     *
+     * @return the module itself and all of the library modules it imports.
+     */
+    private static Set<ExternalModule> importedModules(final ExternalModule module) {
+        final Set<ExternalModule> imported = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<ExternalModule> pending = new ArrayDeque<>();
+        pending.push(module);
+        while (!pending.isEmpty()) {
+            final ExternalModule current = pending.pop();
+            if (imported.add(current)) {
+                for (final Iterator<Module> i = current.getContext().getModules(); i.hasNext(); ) {
+                    final Module importedModule = i.next();
+                    if (importedModule != null && !importedModule.isInternalModule()) {
+                        pending.push((ExternalModule) importedModule);
+                    }
+                }
+            }
+        }
+        return imported;
+    }
+
     /**
      * Removes all entries from the XQuery Pool.
      */
     public void clear() {
         cache.invalidateAll();
+        synchronized (moduleLock) {
+            moduleCache.invalidateAll();
+            idleContexts.clear();
+        }
+    }
+
+    /**
+     * A compiled library module in the pool.
+     *
+     * While the module belongs to a query, it is only weakly referenced, so that it is
+     * garbage collected with a query which is discarded without being returned to the pool.
+     */
+    private final class PooledModule {
+        private final WeakReference<ExternalModule> module;
+
+        // the module, while it does not belong to any query
+        private @Nullable ExternalModule released = null;
+
+        // the root context of the query which the module belongs to
+        private @Nullable WeakReference<XQueryContext> owner;
+
+        PooledModule(final ExternalModule module, final XQueryContext owner) {
+            this.module = new WeakReference<>(module);
+            this.owner = new WeakReference<>(owner);
+        }
+
+        @Nullable ExternalModule get() {
+            return released != null ? released : module.get();
+        }
+
+        @Nullable XQueryContext getOwner() {
+            return owner != null ? owner.get() : null;
+        }
+
+        boolean isAvailableTo(final XQueryContext context) {
+            final XQueryContext currentOwner = getOwner();
+            return currentOwner == null || currentOwner == context || idleContexts.contains(currentOwner);
+        }
+
+        void lease(final XQueryContext context) {
+            owner = new WeakReference<>(context);
+            released = null;
+        }
+
+        void release() {
+            released = module.get();
+            owner = null;
+            if (released != null) {
+                // detach the module from the discarded query
+                ((ModuleContext) released.getContext()).updateParentContext(null);
+            }
+        }
     }
 }
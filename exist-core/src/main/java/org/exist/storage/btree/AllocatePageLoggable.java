@@ -0,0 +1,82 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.nio.ByteBuffer;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.txn.Txn;
+
+/**
+ * Records the allocation of a page from the free page map of a {@link Paged} file.
+ */
+public class AllocatePageLoggable extends BTAbstractLoggable {
+
+    protected long pageNum;
+
+    public AllocatePageLoggable(final Txn transaction, final byte fileId, final long pageNum) {
+        super(BTree.LOG_ALLOCATE_PAGE, fileId, transaction);
+        this.pageNum = pageNum;
+    }
+
+    public AllocatePageLoggable(final DBBroker broker, final long transactionId) {
+        super(BTree.LOG_ALLOCATE_PAGE, broker, transactionId);
+    }
+
+    @Override
+    public void redo() throws LogException {
+        getStorage().redoAllocatePage(this);
+    }
+
+    /**
+     * The page is not returned to the free page map, as it may
+     * already be linked into the file by the time the transaction
+     * is undone. It is lost rather than risking to reuse it.
+     */
+    @Override
+    public void undo() throws LogException {
+        // do nothing
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        super.write(out);
+        out.putLong(pageNum);
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        super.read(in);
+        pageNum = in.getLong();
+    }
+
+    @Override
+    public int getLogSize() {
+        return super.getLogSize() + 8;
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - allocate page: " + pageNum;
+    }
+}
@@ -49,6 +49,10 @@ public abstract class BTAbstractLoggable extends AbstractLoggable {
         return broker.getStorage(fileId);
     }
 
+    public byte getFileId() {
+        return fileId;
+    }
+
     @Override
     public void read(final ByteBuffer in) {
         fileId = in.get();
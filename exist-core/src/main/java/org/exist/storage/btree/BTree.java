@@ -88,10 +88,14 @@ import org.exist.util.FileUtils;
 import org.exist.util.Lockable;
 import org.exist.xquery.TerminatedException;
 
+import javax.annotation.Nullable;
 import java.io.*;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 /**
@@ -105,6 +109,11 @@ import java.util.stream.Collectors;
  *  
  *  Both, branch and leaf nodes are represented by the inner class 
  *  {@link org.exist.storage.btree.BTree.BTreeNode}.
+ *
+ *  By default the tree is not thread-safe and callers have to serialize access
+ *  through the lock returned by {@link #getLockName()}. After
+ *  {@link #enableLatchCoupling()} has been called, the tree synchronizes
+ *  itself: see {@link #enableLatchCoupling()} for the protocol.
  */
 public class BTree extends Paged implements Lockable {
 
@@ -119,6 +128,15 @@ public class BTree extends Paged implements Lockable {
 
     protected final static int MIN_SPACE_PER_KEY = 32;
 
+    /** Number of latches shared by the leaf pages, must be a power of two */
+    private final static int LEAF_LATCH_STRIPES = 64;
+
+    /**
+     * Bytes written for a key of a leaf page besides the key itself:
+     * the length of the key, the length of the prefix it shares with the previous key and its pointer
+     */
+    private final static int LEAF_ENTRY_OVERHEAD = Short.BYTES + Byte.BYTES + Long.BYTES;
+
     /** Log entry type for an insert value operation */
     public final static byte LOG_INSERT_VALUE = 0x20;
     /** Log entry type for creation of a new BTree node */
@@ -132,6 +150,10 @@ public class BTree extends Paged implements Lockable {
     /** Log entry type for removing a value */
     public final static byte LOG_REMOVE_VALUE = 0x25;
     public final static byte LOG_SET_LINK = 0x26;
+    /** Log entry type for the allocation of a page from the free page map */
+    public final static byte LOG_ALLOCATE_PAGE = 0x27;
+    /** Log entry type for the release of a page to the free page map */
+    public final static byte LOG_FREE_PAGE = 0x28;
 
     static {
         // register the log entry types used for the BTree
@@ -142,6 +164,8 @@ public class BTree extends Paged implements Lockable {
         LogEntryTypes.addEntryType(LOG_UPDATE_PAGE, UpdatePageLoggable::new);
         LogEntryTypes.addEntryType(LOG_SET_PARENT, SetParentLoggable::new);
         LogEntryTypes.addEntryType(LOG_SET_LINK, SetPageLinkLoggable::new);
+        LogEntryTypes.addEntryType(LOG_ALLOCATE_PAGE, AllocatePageLoggable::new);
+        LogEntryTypes.addEntryType(LOG_FREE_PAGE, FreePageLoggable::new);
     }
 
     private final BrokerPool pool;
@@ -161,6 +185,18 @@ public class BTree extends Paged implements Lockable {
 
     private double splitFactor = -1;
 
+    /** True if concurrent access is synchronized by latches, see {@link #enableLatchCoupling()} */
+    private volatile boolean latchCoupling = false;
+
+    /**
+     * Guards the structure of the tree. Held shared by readers and by writers
+     * which only modify a single leaf, held exclusively by structure modifications.
+     */
+    private final ReentrantReadWriteLock treeLatch = new ReentrantReadWriteLock();
+
+    /** Latches on the leaf pages, striped by page number */
+    private final ReentrantReadWriteLock[] leafLatches = new ReentrantReadWriteLock[LEAF_LATCH_STRIPES];
+
     protected BTree(final BrokerPool pool, final byte fileId, final short fileVersion, final boolean recoveryEnabled,
             final DefaultCacheManager cacheManager) throws DBException {
         super(pool, fileVersion);
@@ -224,11 +260,48 @@ public class BTree extends Paged implements Lockable {
     }
 
     protected void initCache() {
-        this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
-            0, Cache.CacheType.BTREE);
+        this.cache = cacheManager.newBTreeCache(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
+            0);
         cacheManager.registerCache(cache);
     }
 
+    /**
+     * Allows the tree to be used by several threads concurrently without
+     * an external lock. Must be called before the tree is shared between threads.
+     *
+     * Concurrency is controlled by latch coupling:
+     * <ul>
+     *     <li>Readers, and writers which only modify a single leaf, hold a shared
+     *     latch on the tree. Under that latch branch pages are never modified, so
+     *     they are traversed without further latching.</li>
+     *     <li>Leaf pages are latched shared for reading and exclusive for
+     *     modification. A range scan latches each leaf in turn as it follows
+     *     the chain of leaf pages.</li>
+     *     <li>An insert which may cause its leaf to be split releases all
+     *     latches and is retried with an exclusive latch on the tree, as are
+     *     {@link #remove(Txn, IndexQuery, BTreeCallback)}, {@link #flush()}
+     *     and the maintenance methods.</li>
+     * </ul>
+     *
+     * A {@link BTreeCallback} passed to one of the query methods must not
+     * modify the tree it is called from.
+     *
+     * The structural index enables latch coupling, as its tree only holds keys and pointers.
+     * {@link org.exist.storage.dom.DOMFile} and {@link org.exist.storage.index.BFile} keep data
+     * pages next to the tree which the latches do not cover, so they are still guarded by their
+     * file locks.
+     */
+    public void enableLatchCoupling() {
+        for (int i = 0; i < LEAF_LATCH_STRIPES; i++) {
+            leafLatches[i] = new ReentrantReadWriteLock();
+        }
+        this.latchCoupling = true;
+    }
+
+    public boolean isLatchCoupling() {
+        return latchCoupling;
+    }
+
     protected void setSplitFactor(final double factor) {
         if (factor > 1.0) {
             throw new IllegalArgumentException("splitFactor should be <= 1 > 0");
@@ -253,7 +326,30 @@ public class BTree extends Paged implements Lockable {
     }
 
     public long addValue(final Txn transaction, final Value value, final long pointer) throws IOException, BTreeException {
-        return getRootNode().addValue(transaction, value, pointer);
+        if (latchCoupling && value != null) {
+            checkNotLatchedShared();
+            treeLatch.readLock().lock();
+            try {
+                final BTreeNode leaf = latchLeaf(value, true);
+                try {
+                    if (leaf.canAddWithoutSplit(value)) {
+                        return leaf.addValue(transaction, value, pointer);
+                    }
+                } finally {
+                    unlatchLeaf(leaf, true);
+                }
+            } finally {
+                treeLatch.readLock().unlock();
+            }
+            // the leaf may have to be split: retry exclusively
+        }
+
+        final Lock latch = latchTree(true);
+        try {
+            return getRootNode().addValue(transaction, value, pointer);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     /**
@@ -270,6 +366,21 @@ public class BTree extends Paged implements Lockable {
     }
 
     public long removeValue(final Txn transaction, final Value value) throws IOException, BTreeException {
+        if (latchCoupling) {
+            // leaves are never merged, so a removal never changes the structure of the tree
+            checkNotLatchedShared();
+            treeLatch.readLock().lock();
+            try {
+                final BTreeNode leaf = latchLeaf(value, true);
+                try {
+                    return leaf.removeValue(transaction, value);
+                } finally {
+                    unlatchLeaf(leaf, true);
+                }
+            } finally {
+                treeLatch.readLock().unlock();
+            }
+        }
         return getRootNode().removeValue(transaction, value);
     }
 
@@ -302,7 +413,12 @@ public class BTree extends Paged implements Lockable {
             data2[data2.length - 1] += 1;
             query = new IndexQuery(query.getOperator(), val1, new Value(data2));
         }
-        getRootNode().remove(transaction, query, callback);
+        final Lock latch = latchTree(true);
+        try {
+            getRootNode().remove(transaction, query, callback);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     protected void removeSequential(final Txn transaction, final BTreeNode page, final IndexQuery query,
@@ -344,6 +460,19 @@ public class BTree extends Paged implements Lockable {
      * @throws BTreeException if an error occurss with the tree
      */
     public long findValue(final Value value) throws IOException, BTreeException {
+        if (latchCoupling) {
+            treeLatch.readLock().lock();
+            try {
+                final BTreeNode leaf = latchLeaf(value, false);
+                try {
+                    return leaf.findValue(value);
+                } finally {
+                    unlatchLeaf(leaf, false);
+                }
+            } finally {
+                treeLatch.readLock().unlock();
+            }
+        }
         return getRootNode().findValue(value);
     }
 
@@ -367,7 +496,12 @@ public class BTree extends Paged implements Lockable {
             data2[data2.length - 1] += 1;
             query = new IndexQuery(query.getOperator(), val1, new Value(data2));
         }
-        getRootNode().query(query, callback);
+        final Lock latch = latchTree(false);
+        try {
+            getRootNode().query(query, callback);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     /**
@@ -386,24 +520,40 @@ public class BTree extends Paged implements Lockable {
      */
     public void query(final IndexQuery query, final Value prefix, final BTreeCallback callback)
             throws IOException, BTreeException, TerminatedException {
-        getRootNode().query(query, prefix, callback);
+        final Lock latch = latchTree(false);
+        try {
+            getRootNode().query(query, prefix, callback);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     protected void scanSequential(BTreeNode page, final IndexQuery query, final Value keyPrefix, final BTreeCallback callback) throws TerminatedException {
+        final boolean latched = latchCoupling;
         while (page != null) {
-            for (int i = 0; i < page.nKeys; i++) {
-                if (keyPrefix != null && page.keys[i].comparePrefix(keyPrefix) > 0) {
-                    return;
-                }
-                final boolean test = query.testValue(page.keys[i]);
-                if (query.getOperator() != IndexQuery.NEQ && !test) {
-                    return;
+            if (latched) {
+                page = latchShared(page);
+            }
+            final long next;
+            try {
+                for (int i = 0; i < page.nKeys; i++) {
+                    if (keyPrefix != null && page.keys[i].comparePrefix(keyPrefix) > 0) {
+                        return;
+                    }
+                    final boolean test = query.testValue(page.keys[i]);
+                    if (query.getOperator() != IndexQuery.NEQ && !test) {
+                        return;
+                    }
+                    if (test) {
+                        callback.indexInfo(page.keys[i], page.ptrs[i]);
+                    }
                 }
-                if (test) {
-                    callback.indexInfo(page.keys[i], page.ptrs[i]);
+                next = page.pageHeader.getNextPage();
+            } finally {
+                if (latched) {
+                    unlatchShared(page);
                 }
             }
-            final long next = page.pageHeader.getNextPage();
             if (next != Page.NO_PAGE) {
                 page = getBTreeNode(next);
             } else {
@@ -423,8 +573,12 @@ public class BTree extends Paged implements Lockable {
      */
     private BTreeNode createBTreeNode(final Txn transaction, final byte status, final BTreeNode parent, final boolean reuseDeleted) {
         try {
-            final Page page = getFreePage(reuseDeleted);
+            final Page page = getFreePage(reuseDeleted, parent != null ? parent.page.getPageNum() : Page.NO_PAGE);
             final BTreeNode node = new BTreeNode(page, true);
+            if (transaction != null && isRecoveryEnabled() && reuseDeleted) {
+                // the page may have been taken from the free page map
+                writeToLog(new AllocatePageLoggable(transaction, fileId, page.getPageNum()), node);
+            }
             if (transaction != null && isRecoveryEnabled() && status == LEAF) {
                 final Loggable loggable = new CreateBTNodeLoggable(transaction, fileId, 
                     status, page.getPageNum(), parent != null ? parent.page.getPageNum() : Page.NO_PAGE);
@@ -449,21 +603,39 @@ public class BTree extends Paged implements Lockable {
      */
     private BTreeNode getBTreeNode(final long pageNum) {
         try {
-            BTreeNode node = cache.get(pageNum);
-            if (node == null) {
-                final Page page = getPage(pageNum);
-                node = new BTreeNode(page, false);
-                node.read();
+            if (latchCoupling) {
+                // the lookup and the load of a missing node must be atomic, see enableLatchCoupling()
+                synchronized (cache) {
+                    return cachedNode(pageNum, false);
+                }
             }
-            final int increment = node.pageHeader.getStatus() == BRANCH ? 2 : 1;
-            cache.add(node, increment);
-            return node;
+            return cachedNode(pageNum, false);
         } catch (final IOException e) {
             LOG.error("Failed to get BTree node on page " + pageNum, e);
             return null;
         }
     }
 
+    /**
+     * Get a node from the cache, reading it from its page if it is not cached.
+     *
+     * @param pageNum the page number
+     * @param root true if the node is the root node, which is cached like a branch node
+     * @return The BTree node
+     * @throws IOException if an I/O error occurs
+     */
+    private BTreeNode cachedNode(final long pageNum, final boolean root) throws IOException {
+        BTreeNode node = cache.get(pageNum);
+        if (node == null) {
+            final Page page = getPage(pageNum);
+            node = new BTreeNode(page, false);
+            node.read();
+        }
+        final int increment = root || node.pageHeader.getStatus() == BRANCH ? 2 : 1;
+        cache.add(node, increment);
+        return node;
+    }
+
     /**
      * Set the root node of the tree.
      * 
@@ -494,14 +666,12 @@ public class BTree extends Paged implements Lockable {
      */
     protected BTreeNode getRootNode() {
         try {
-            BTreeNode node = cache.get(fileHeader.getRootPage());
-            if (node == null) {
-                final Page page = getPage(fileHeader.getRootPage());
-                node = new BTreeNode(page, false);
-                node.read();
+            if (latchCoupling) {
+                synchronized (cache) {
+                    return cachedNode(fileHeader.getRootPage(), true);
+                }
             }
-            cache.add(node, 2);
-            return node;
+            return cachedNode(fileHeader.getRootPage(), true);
         } catch (final IOException e) {
             LOG.warn("Failed to get root btree node", e);
             return null;
@@ -517,32 +687,180 @@ public class BTree extends Paged implements Lockable {
      * @throws BTreeException if an error occurss with the tree
      */
     public void dump(final Writer writer) throws IOException, BTreeException {
-        final BTreeNode root = getRootNode();
-        LOG.debug("ROOT = " + root.page.getPageNum());
-        root.dump(writer);
+        final Lock latch = latchTree(true);
+        try {
+            final BTreeNode root = getRootNode();
+            LOG.debug("ROOT = " + root.page.getPageNum());
+            root.dump(writer);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     public TreeMetrics treeStatistics() throws IOException {
-        final TreeMetrics metrics = new TreeMetrics(FileUtils.fileName(getFile()));
-        final BTreeNode root = getRootNode();
-        root.treeStatistics(metrics);
-        return metrics;
+        final Lock latch = latchTree(true);
+        try {
+            final TreeMetrics metrics = new TreeMetrics(FileUtils.fileName(getFile()));
+            final BTreeNode root = getRootNode();
+            root.treeStatistics(metrics);
+            return metrics;
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     @Override
     public boolean flush() throws DBException {
-        boolean flushed = cache.flush();
-        flushed = flushed | super.flush();
-        return flushed;
+        final Lock latch = latchTree(true);
+        try {
+            boolean flushed = cache.flush();
+            flushed = flushed | super.flush();
+            return flushed;
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     @Override
 	public void close() throws DBException {
-        if (!isReadOnly()) {
-            flush();
+        final Lock latch = latchTree(true);
+        try {
+            if (!isReadOnly()) {
+                flush();
+            }
+            super.close();
+            cacheManager.deregisterCache(cache);
+        } finally {
+            unlatchTree(latch);
+        }
+    }
+
+    /**
+     * Acquires the tree latch if latch coupling is enabled.
+     *
+     * @param exclusive true to acquire the latch exclusively
+     *
+     * @return the latch which has been acquired, or null if latch coupling is disabled
+     */
+    private @Nullable Lock latchTree(final boolean exclusive) {
+        if (!latchCoupling) {
+            return null;
+        }
+        final Lock latch;
+        if (exclusive) {
+            checkNotLatchedShared();
+            latch = treeLatch.writeLock();
+        } else {
+            latch = treeLatch.readLock();
+        }
+        latch.lock();
+        return latch;
+    }
+
+    private void unlatchTree(@Nullable final Lock latch) {
+        if (latch != null) {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * A shared latch cannot be upgraded. This happens if a query callback
+     * tries to modify the tree it is called from, which would otherwise deadlock.
+     */
+    private void checkNotLatchedShared() {
+        if (treeLatch.getReadHoldCount() > 0) {
+            throw new IllegalStateException("B+-tree " + FileUtils.fileName(getFile()) +
+                    " must not be modified whilst it is being read by the same thread");
+        }
+    }
+
+    private ReadWriteLock leafLatch(final long pageNum) {
+        return leafLatches[(int) (pageNum & (LEAF_LATCH_STRIPES - 1))];
+    }
+
+    /**
+     * Descends from the root to the leaf which covers the key, and latches it.
+     * Must be called whilst holding the tree latch shared, so that the branch
+     * pages do not change.
+     *
+     * @param key the key
+     * @param exclusive true to latch the leaf for modification
+     *
+     * @return the latched leaf, which is pinned in the cache when latched exclusively
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws BTreeException if an error occurs with the tree
+     */
+    private BTreeNode latchLeaf(final Value key, final boolean exclusive) throws IOException, BTreeException {
+        while (true) {
+            BTreeNode node = getRootNode();
+            while (node.pageHeader.getStatus() == BRANCH) {
+                int idx = node.searchKey(key);
+                idx = idx < 0 ? - (idx + 1) : idx + 1;
+                node = node.getChildNode(idx);
+                if (node == null) {
+                    throw new BTreeException("Failed to read child page whilst searching " + FileUtils.fileName(getFile()));
+                }
+            }
+            if (node.pageHeader.getStatus() != LEAF) {
+                throw new BTreeException("Invalid Page Type In latchLeaf: " +
+                        node.pageHeader.getStatus() + "; " + node.page.getPageInfo());
+            }
+
+            final ReadWriteLock leafLatch = leafLatch(node.page.getPageNum());
+            final Lock latch = exclusive ? leafLatch.writeLock() : leafLatch.readLock();
+            latch.lock();
+            synchronized (cache) {
+                // the node may have been evicted before we latched it, in which case
+                // another thread may already be working on a newer copy of the page
+                if (cache.get(node.page.getPageNum()) == node) {
+                    if (exclusive) {
+                        node.pinned = true;
+                    }
+                    return node;
+                }
+            }
+            latch.unlock();
+        }
+    }
+
+    private void unlatchLeaf(final BTreeNode leaf, final boolean exclusive) {
+        final ReadWriteLock leafLatch = leafLatch(leaf.page.getPageNum());
+        if (exclusive) {
+            synchronized (cache) {
+                leaf.pinned = false;
+            }
+            leafLatch.writeLock().unlock();
+        } else {
+            leafLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Latches a leaf shared, re-reading it if the given copy has been evicted
+     * from the cache in the meantime.
+     *
+     * @param leaf the leaf
+     *
+     * @return the latched leaf
+     */
+    private BTreeNode latchShared(BTreeNode leaf) {
+        final long pageNum = leaf.page.getPageNum();
+        final Lock latch = leafLatch(pageNum).readLock();
+        while (true) {
+            latch.lock();
+            synchronized (cache) {
+                if (cache.get(pageNum) == leaf) {
+                    return leaf;
+                }
+            }
+            latch.unlock();
+            leaf = getBTreeNode(pageNum);
         }
-        super.close();
-        cacheManager.deregisterCache(cache);
+    }
+
+    private void unlatchShared(final BTreeNode leaf) {
+        leafLatch(leaf.page.getPageNum()).readLock().unlock();
     }
 
     protected void dumpValue(final Writer writer, final Value value, final int status) throws IOException {
@@ -557,15 +875,20 @@ public class BTree extends Paged implements Lockable {
 
     public void rawScan(final IndexQuery query, final BTreeCallback callback) throws IOException,
             TerminatedException {
-        final long pages = getFileHeader().getTotalCount();
-        for (int i = 1; i < pages; i++) {
-            final Page page = getPage(i);
-            page.read();
-            if (page.getPageHeader().getStatus() == LEAF) {
-                final BTreeNode node = new BTreeNode(page, false);
-                node.read();
-                node.scanRaw(query, callback);
+        final Lock latch = latchTree(true);
+        try {
+            final long pages = getFileHeader().getTotalCount();
+            for (int i = 1; i < pages; i++) {
+                final Page page = getPage(i);
+                page.read();
+                if (page.getPageHeader().getStatus() == LEAF) {
+                    final BTreeNode node = new BTreeNode(page, false);
+                    node.read();
+                    node.scanRaw(query, callback);
+                }
             }
+        } finally {
+            unlatchTree(latch);
         }
     }
 
@@ -653,9 +976,14 @@ public class BTree extends Paged implements Lockable {
     }
 
     public void scanSequential(final PrintStream out) throws TerminatedException, IOException, DBException {
-        final TreeInfo info = scanTree(false);
-        out.println("Sequential scan...");
-        scanSequential(out, info.firstPage, (value, pointer) -> true);
+        final Lock latch = latchTree(true);
+        try {
+            final TreeInfo info = scanTree(false);
+            out.println("Sequential scan...");
+            scanSequential(out, info.firstPage, (value, pointer) -> true);
+        } finally {
+            unlatchTree(latch);
+        }
     }
 
     /**
@@ -667,6 +995,15 @@ public class BTree extends Paged implements Lockable {
      * @throws TerminatedException if the callback is terminated
      */
     public void rebuild() throws TerminatedException, IOException, DBException {
+        final Lock latch = latchTree(true);
+        try {
+            rebuildTree();
+        } finally {
+            unlatchTree(latch);
+        }
+    }
+
+    private void rebuildTree() throws TerminatedException, IOException, DBException {
         final TreeInfo info  = scanTree(true);
         if (info.leafPages == 1) {
             final BTreeNode root = getBTreeNode(info.firstPage);
@@ -875,6 +1212,35 @@ public class BTree extends Paged implements Lockable {
         }
     }
 
+    protected void redoAllocatePage(final AllocatePageLoggable loggable) throws LogException {
+        try {
+            reuseDeleted(getPage(loggable.pageNum));
+        } catch (final IOException e) {
+            throw new LogException(e.getMessage(), e);
+        }
+    }
+
+    protected void redoFreePage(final FreePageLoggable loggable) throws LogException {
+        try {
+            final Page page = getPage(loggable.pageNum);
+            page.read();
+            // the page is not free if it has been reused after it was released
+            if (page.getPageHeader().getStatus() == UNUSED) {
+                unlinkPages(page);
+            }
+        } catch (final IOException e) {
+            throw new LogException(e.getMessage(), e);
+        }
+    }
+
+    protected void undoFreePage(final FreePageLoggable loggable) throws LogException {
+        try {
+            reuseDeleted(getPage(loggable.pageNum));
+        } catch (final IOException e) {
+            throw new LogException(e.getMessage(), e);
+        }
+    }
+
     protected void redoSetPageLink(final SetPageLinkLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
         if (requiresRedo(loggable, node.page)) {
@@ -934,6 +1300,9 @@ public class BTree extends Paged implements Lockable {
 
         private boolean allowUnload = true;
 
+        /** true whilst the node is latched for modification, guarded by the monitor of the cache */
+        private boolean pinned = false;
+
         public BTreeNode(final Page page, final boolean newPage) {
             this.page = page;
             this.pageHeader = (BTreePageHeader) page.getPageHeader();
@@ -997,7 +1366,7 @@ public class BTree extends Paged implements Lockable {
 
         @Override
         public boolean allowUnload() {
-            return allowUnload;
+            return allowUnload && !pinned;
         }
 
         @Override
@@ -1204,6 +1573,23 @@ public class BTree extends Paged implements Lockable {
             return totalLen;
         }
 
+        /**
+         * Conservatively checks whether the value can be added to this
+         * leaf without causing a page split. Inserting a key never grows
+         * the prefix-compressed size of its successor, so the new key,
+         * its pointer and its length fields are an upper bound.
+         *
+         * @param value the value to be added
+         *
+         * @return true if the insert is guaranteed not to split the page
+         */
+        private boolean canAddWithoutSplit(final Value value) {
+            if (searchKey(value) >= 0) {
+                return true;
+            }
+            return getDataLen() + value.getLength() + LEAF_ENTRY_OVERHEAD <= fileHeader.getWorkSize();
+        }
+
         private boolean mustSplit() {
             if (pageHeader.getValueCount() != nKeys) {
                 throw new RuntimeException("Wrong value count");
@@ -1769,6 +2155,20 @@ public class BTree extends Paged implements Lockable {
          */
         private void query(final IndexQuery query, final BTreeCallback callback)
                 throws IOException, BTreeException, TerminatedException {
+            if (latchCoupling && pageHeader.getStatus() == LEAF) {
+                final BTreeNode leaf = latchShared(this);
+                try {
+                    leaf.queryNode(query, callback);
+                } finally {
+                    unlatchShared(leaf);
+                }
+            } else {
+                queryNode(query, callback);
+            }
+        }
+
+        private void queryNode(final IndexQuery query, final BTreeCallback callback)
+                throws IOException, BTreeException, TerminatedException {
             if (query != null
                     && query.getOperator() != IndexQuery.ANY
                     && query.getOperator() != IndexQuery.TRUNC_LEFT) {
@@ -1986,6 +2386,20 @@ public class BTree extends Paged implements Lockable {
          */
         private void query(final IndexQuery query, final Value keyPrefix, final BTreeCallback callback)
                 throws IOException, BTreeException, TerminatedException {
+            if (latchCoupling && pageHeader.getStatus() == LEAF) {
+                final BTreeNode leaf = latchShared(this);
+                try {
+                    leaf.queryNode(query, keyPrefix, callback);
+                } finally {
+                    unlatchShared(leaf);
+                }
+            } else {
+                queryNode(query, keyPrefix, callback);
+            }
+        }
+
+        private void queryNode(final IndexQuery query, final Value keyPrefix, final BTreeCallback callback)
+                throws IOException, BTreeException, TerminatedException {
             if (query != null
                     && query.getOperator() != IndexQuery.ANY
                     && query.getOperator() != IndexQuery.TRUNC_LEFT) {
@@ -2638,7 +3052,8 @@ public class BTree extends Paged implements Lockable {
             cache.getBuffers(),
             cache.getUsedBuffers(),
             cache.getHits(),
-            cache.getFails());
+            cache.getFails(),
+            cache.getEvictions());
     }
 
     public void printStatistics() {
@@ -0,0 +1,252 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A bitmap of the free pages of a {@link Paged} file.
+ *
+ * A set bit marks a free page. A second level summary bitmap has one bit
+ * for every word of the first level which is set if that word contains any
+ * free page, so that finding the next free page skips 64 allocated pages
+ * per clear summary bit, or 4096 per empty summary word. Freeing and
+ * allocating a page is O(1).
+ *
+ * Free pages are searched for starting at a hint, so that pages allocated
+ * one after another are taken from the same run of free pages and stay
+ * sequential on disk.
+ *
+ * The words of the first level are exposed via {@link #getWord(int)} and
+ * {@link #setWord(int, long)} for persisting the map, see {@link Paged}.
+ */
+@NotThreadSafe
+public final class FreePageMap {
+
+    private static final int ADDRESS_BITS = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS;
+    private static final int BIT_INDEX_MASK = BITS_PER_WORD - 1;
+
+    private long[] words;
+    private long[] summary;
+    private int wordsInUse = 0;
+    private long freeCount = 0;
+
+    public FreePageMap() {
+        this(BITS_PER_WORD * BITS_PER_WORD);
+    }
+
+    /**
+     * @param initialCapacity the number of pages the map can hold before it has to grow
+     */
+    public FreePageMap(final long initialCapacity) {
+        final int nWords = Math.max(1, wordIndex(Math.max(0, initialCapacity - 1)) + 1);
+        this.words = new long[nWords];
+        this.summary = new long[wordIndex(nWords - 1) + 1];
+    }
+
+    private static int wordIndex(final long bitIndex) {
+        return (int) (bitIndex >>> ADDRESS_BITS);
+    }
+
+    private void ensureCapacity(final int wordIndex) {
+        if (wordIndex >= words.length) {
+            final int nWords = Math.max(wordIndex + 1, words.length * 2);
+            words = Arrays.copyOf(words, nWords);
+            summary = Arrays.copyOf(summary, wordIndex(nWords - 1) + 1);
+        }
+        if (wordIndex >= wordsInUse) {
+            wordsInUse = wordIndex + 1;
+        }
+    }
+
+    private void updateSummary(final int wordIndex) {
+        if (words[wordIndex] == 0) {
+            summary[wordIndex(wordIndex)] &= ~(1L << wordIndex);
+        } else {
+            summary[wordIndex(wordIndex)] |= 1L << wordIndex;
+        }
+    }
+
+    /**
+     * Marks a page as free.
+     *
+     * @param pageNum the page number
+     *
+     * @return true if the page was not free before
+     */
+    public boolean free(final long pageNum) {
+        checkPageNum(pageNum);
+        final int wordIndex = wordIndex(pageNum);
+        ensureCapacity(wordIndex);
+        final long mask = 1L << (pageNum & BIT_INDEX_MASK);
+        if ((words[wordIndex] & mask) != 0) {
+            return false;
+        }
+        words[wordIndex] |= mask;
+        updateSummary(wordIndex);
+        freeCount++;
+        return true;
+    }
+
+    /**
+     * Marks a page as allocated.
+     *
+     * @param pageNum the page number
+     *
+     * @return true if the page was free before
+     */
+    public boolean allocate(final long pageNum) {
+        checkPageNum(pageNum);
+        final int wordIndex = wordIndex(pageNum);
+        if (wordIndex >= wordsInUse) {
+            return false;
+        }
+        final long mask = 1L << (pageNum & BIT_INDEX_MASK);
+        if ((words[wordIndex] & mask) == 0) {
+            return false;
+        }
+        words[wordIndex] &= ~mask;
+        updateSummary(wordIndex);
+        freeCount--;
+        return true;
+    }
+
+    public boolean isFree(final long pageNum) {
+        checkPageNum(pageNum);
+        final int wordIndex = wordIndex(pageNum);
+        return wordIndex < wordsInUse && (words[wordIndex] & (1L << (pageNum & BIT_INDEX_MASK))) != 0;
+    }
+
+    /**
+     * Finds the first free page at or after the given page.
+     *
+     * @param fromPageNum the page number to start searching at
+     *
+     * @return the page number of the free page, or {@link Paged.Page#NO_PAGE}
+     */
+    public long nextFree(final long fromPageNum) {
+        if (fromPageNum < 0) {
+            return nextFree(0);
+        }
+        int wordIndex = wordIndex(fromPageNum);
+        if (wordIndex >= wordsInUse) {
+            return Paged.Page.NO_PAGE;
+        }
+        final long word = words[wordIndex] & (-1L << (fromPageNum & BIT_INDEX_MASK));
+        if (word != 0) {
+            return ((long) wordIndex << ADDRESS_BITS) + Long.numberOfTrailingZeros(word);
+        }
+
+        // consult the summary for the next word which contains a free page
+        wordIndex++;
+        if (wordIndex >= wordsInUse) {
+            return Paged.Page.NO_PAGE;
+        }
+        int summaryIndex = wordIndex(wordIndex);
+        long summaryWord = summary[summaryIndex] & (-1L << (wordIndex & BIT_INDEX_MASK));
+        while (summaryWord == 0) {
+            if (++summaryIndex >= summary.length) {
+                return Paged.Page.NO_PAGE;
+            }
+            summaryWord = summary[summaryIndex];
+        }
+        wordIndex = (summaryIndex << ADDRESS_BITS) + Long.numberOfTrailingZeros(summaryWord);
+        if (wordIndex >= wordsInUse) {
+            return Paged.Page.NO_PAGE;
+        }
+        return ((long) wordIndex << ADDRESS_BITS) + Long.numberOfTrailingZeros(words[wordIndex]);
+    }
+
+    /**
+     * Finds a free page, preferring the first free page at or after
+     * the hint and wrapping around to the start of the map otherwise.
+     *
+     * @param nearPageNum the hint, or {@link Paged.Page#NO_PAGE} for no preference
+     *
+     * @return the page number of the free page, or {@link Paged.Page#NO_PAGE}
+     */
+    public long findFree(final long nearPageNum) {
+        if (freeCount == 0) {
+            return Paged.Page.NO_PAGE;
+        }
+        if (nearPageNum > 0) {
+            final long pageNum = nextFree(nearPageNum);
+            if (pageNum != Paged.Page.NO_PAGE) {
+                return pageNum;
+            }
+        }
+        return nextFree(0);
+    }
+
+    /**
+     * @return the number of free pages
+     */
+    public long getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return the number of words needed to persist the map
+     */
+    public int getWordCount() {
+        return wordsInUse;
+    }
+
+    public long getWord(final int wordIndex) {
+        return wordIndex < wordsInUse ? words[wordIndex] : 0;
+    }
+
+    /**
+     * Replaces a word of the map, used when loading a persisted map.
+     *
+     * @param wordIndex the index of the word
+     * @param word the free page bits of the pages {@code wordIndex * 64} to {@code wordIndex * 64 + 63}
+     */
+    public void setWord(final int wordIndex, final long word) {
+        if (word == 0 && wordIndex >= wordsInUse) {
+            return;
+        }
+        ensureCapacity(wordIndex);
+        freeCount += Long.bitCount(word) - Long.bitCount(words[wordIndex]);
+        words[wordIndex] = word;
+        updateSummary(wordIndex);
+    }
+
+    /**
+     * Marks all pages as allocated.
+     */
+    public void clear() {
+        Arrays.fill(words, 0);
+        Arrays.fill(summary, 0);
+        wordsInUse = 0;
+        freeCount = 0;
+    }
+
+    private static void checkPageNum(final long pageNum) {
+        if (pageNum < 0 || pageNum > ((long) Integer.MAX_VALUE << ADDRESS_BITS)) {
+            throw new IllegalArgumentException("Illegal page num: " + pageNum);
+        }
+    }
+}
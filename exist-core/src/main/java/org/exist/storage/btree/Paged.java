@@ -72,6 +72,7 @@
  */
 package org.exist.storage.btree;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.BrokerPool;
@@ -85,6 +86,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
@@ -95,9 +97,66 @@ import java.util.Arrays;
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
  *  its subclasses.
+ *
+ *  Pages are read and written either through the file pointer of a
+ *  {@link RandomAccessFile} ({@link IOMode#RANDOM_ACCESS}), or with
+ *  positional reads and writes on its {@link FileChannel}
+ *  ({@link IOMode#POSITIONAL}), which do not contend on the file pointer
+ *  and so allow concurrent readers of the same file.
+ *
+ *  Free pages are tracked in a {@link FreePageMap}, which is persisted in a
+ *  chain of {@link #FREE_SPACE_MAP} pages referenced from the tail of the
+ *  file header. Files written by older versions keep their free pages in a
+ *  linked list starting at {@link FileHeader#getFirstFreePage()}; the list
+ *  is converted into the map once, when such a file is opened.
  */
 public abstract class Paged implements AutoCloseable {
 
+    /**
+     * The mode used for page I/O.
+     */
+    public enum IOMode {
+        /**
+         * Pages are accessed by seeking the shared file pointer
+         * of a {@link RandomAccessFile}.
+         */
+        RANDOM_ACCESS("random-access"),
+
+        /**
+         * Pages are accessed by positional reads and writes on a {@link FileChannel},
+         * using a per-thread page buffer.
+         */
+        POSITIONAL("positional");
+
+        private final String configValue;
+
+        IOMode(final String configValue) {
+            this.configValue = configValue;
+        }
+
+        public String getConfigValue() {
+            return configValue;
+        }
+
+        /**
+         * Get the I/O mode from its configuration value.
+         *
+         * @param configValue the value from the configuration
+         *
+         * @return the I/O mode
+         *
+         * @throws IllegalArgumentException if there is no I/O mode for the value
+         */
+        public static IOMode fromConfigValue(final String configValue) {
+            for (final IOMode ioMode : values()) {
+                if (ioMode.configValue.equals(configValue)) {
+                    return ioMode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown page I/O mode: " + configValue);
+        }
+    }
+
     public static final int LENGTH_VERSION_ID = 2;  //sizeof short
     public static final int LENGTH_HEADER_SIZE = 2;  //sizeof short
     public static final int LENGTH_PAGE_COUNT = 8; //sizeof long
@@ -121,10 +180,19 @@ public abstract class Paged implements AutoCloseable {
     public static final int OFFSET_RECORD_COUNT = OFFSET_MAX_KEY_SIZE + LENGTH_MAX_KEY_SIZE; //43
     public static final int OFFSET_REMAINDER = OFFSET_RECORD_COUNT + LENGTH_RECORD_COUNT; //51
 
+    // the free page map is referenced from the end of the header page, which is not used by the subclasses
+    public static final int LENGTH_FREE_PAGE_MAP_MAGIC = 4; //sizeof int
+    public static final int LENGTH_FREE_PAGE_MAP_ROOT = 8; //sizeof long
+    public static final int OFFSET_FREE_PAGE_MAP_MAGIC_FROM_END = LENGTH_FREE_PAGE_MAP_MAGIC + LENGTH_FREE_PAGE_MAP_ROOT; //12
+    public static final int OFFSET_FREE_PAGE_MAP_ROOT_FROM_END = LENGTH_FREE_PAGE_MAP_ROOT; //8
+
+    private static final int FREE_PAGE_MAP_MAGIC = 0x46504d31; //"FPM1"
+
     protected final static Logger LOG = LogManager.getLogger(Paged.class);
 
     protected final static byte DELETED = 127;
     protected final static byte OVERFLOW = 126;
+    protected final static byte FREE_SPACE_MAP = 125;
     protected final static byte UNUSED = 0;
 
     protected static int PAGE_SIZE = 4096;
@@ -134,7 +202,17 @@ public abstract class Paged implements AutoCloseable {
     private final byte[] tempPageData;
     private final byte[] tempHeaderData;
 
+    private final IOMode ioMode;
+    private final ThreadLocal<byte[]> pageBuffer;
+
+    // guarded by fileHeader
+    private final FreePageMap freePages = new FreePageMap();
+    private final LongArrayList freePageMapPages = new LongArrayList();
+    private boolean freePageMapDirty = false;
+    private long nextFit = 0;
+
     private RandomAccessFile raf;
+    private FileChannel channel;
     private Path file;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
@@ -144,6 +222,8 @@ public abstract class Paged implements AutoCloseable {
         this.fileHeader = createFileHeader(pool.getPageSize());
         this.tempPageData = new byte[fileHeader.pageSize];
         this.tempHeaderData = new byte[fileHeader.pageHeaderSize];
+        this.ioMode = pool.getPageIOMode();
+        this.pageBuffer = ioMode == IOMode.POSITIONAL ? ThreadLocal.withInitial(() -> new byte[fileHeader.pageSize]) : null;
     }
 
     public final static void setPageSize(final int pageSize) {
@@ -158,6 +238,10 @@ public abstract class Paged implements AutoCloseable {
         return readOnly;
     }
 
+    public final IOMode getIOMode() {
+        return ioMode;
+    }
+
     /**
      * Close the underlying files.
      *
@@ -223,6 +307,12 @@ public abstract class Paged implements AutoCloseable {
     public boolean flush() throws DBException {
         boolean flushed = false;
         try {
+            synchronized (fileHeader) {
+                if (freePageMapDirty && !readOnly) {
+                    writeFreePageMap();
+                    flushed = true;
+                }
+            }
             if(fileHeader.isDirty() && !readOnly) {
                 fileHeader.write();
                 flushed = true;
@@ -285,34 +375,64 @@ public abstract class Paged implements AutoCloseable {
      * @throws IOException if an I/O error occurs
      */
     protected final Page getFreePage(final boolean reuseDeleted) throws IOException {
-        final Page page;
+        return getFreePage(reuseDeleted, Page.NO_PAGE);
+    }
+
+    /**
+     * Returns a free page, either by reusing a deleted page or by appending
+     * a new one to secondary storage.
+     *
+     * A deleted page is preferably taken from at or after the given page, so
+     * that related pages are placed close to each other. Without a hint, the
+     * search continues after the page that was allocated last, so that pages
+     * allocated in a row fill a run of free pages sequentially.
+     *
+     * @param reuseDeleted true if deleted pages should be reused
+     * @param near the page number near which the page should be placed,
+     *     or {@link Page#NO_PAGE} for no preference
+     * @return a free page
+     * @throws IOException if an I/O error occurs
+     */
+    protected final Page getFreePage(final boolean reuseDeleted, final long near) throws IOException {
+        Page page = null;
+        boolean grown = false;
         synchronized (fileHeader) {
-            long pageNum = fileHeader.firstFreePage;
-            if (reuseDeleted && pageNum != Page.NO_PAGE) {
-                // Steal a deleted page
-                page = new Page(pageNum);
-                page.read();
-                fileHeader.firstFreePage = page.header.nextPage;
-                if (fileHeader.firstFreePage == Page.NO_PAGE) {
-                    fileHeader.setLastFreePage(Page.NO_PAGE);
+            if (reuseDeleted) {
+                long pageNum = freePages.findFree(near == Page.NO_PAGE ? nextFit : near);
+                while (pageNum != Page.NO_PAGE) {
+                    freePages.allocate(pageNum);
+                    freePageMapDirty = true;
+                    final Page candidate = new Page(pageNum);
+                    candidate.read();
+                    if (candidate.header.getStatus() == UNUSED) {
+                        page = candidate;
+                        break;
+                    }
+                    // the persisted map is older than the page, e.g. after a crash: the page is in use
+                    LOG.debug("Page " + pageNum + " of " + FileUtils.fileName(file) + " is marked as free but is in use");
+                    pageNum = freePages.findFree(pageNum + 1);
                 }
-            } else {
+            }
+            if (page == null) {
                 // Grow the file
-                pageNum = fileHeader.totalCount;
+                final long pageNum = fileHeader.totalCount;
                 if(pageNum == Integer.MAX_VALUE) {
                     throw new IOException("page limit reached: " + pageNum);
                 }
                 fileHeader.setTotalCount(pageNum + 1);
                 page = new Page(pageNum);
                 page.read();
+                grown = true;
             }
+            nextFit = page.pageNum + 1;
         }
         // Cleanly initialize The Page Header
         page.header.setNextPage(Page.NO_PAGE);
         page.header.setStatus(UNUSED);
-        fileHeader.setDirty(true);
-        // write out the file header
-        fileHeader.write();
+        if (grown) {
+            // write out the file header
+            fileHeader.write();
+        }
         return page;
     }
 
@@ -356,6 +476,7 @@ public abstract class Paged implements AutoCloseable {
                         "File version is: " + fileHeader.getVersion() +
                         "; db requires version: " + requiredVersion);
                 }
+                readFreePageMap();
                 return true;
             } else {
                 return false;
@@ -374,19 +495,27 @@ public abstract class Paged implements AutoCloseable {
      * @throws IOException Description of the Exception
      */
     public void printFreeSpaceList(final PrintStream out) throws IOException {
-        long pageNum = fileHeader.firstFreePage;
-        out.println("first free page: " + pageNum);
-        Page next;
-        out.println("free pages for " + FileUtils.fileName(getFile()));
-        while (pageNum != Page.NO_PAGE) {
-            next = getPage(pageNum);
-            next.read();
-            out.print(pageNum + ";");
-            pageNum = next.header.nextPage;
+        synchronized (fileHeader) {
+            out.println("free pages for " + FileUtils.fileName(getFile()) + ": " + freePages.getFreeCount());
+            for (long pageNum = freePages.nextFree(0); pageNum != Page.NO_PAGE; pageNum = freePages.nextFree(pageNum + 1)) {
+                out.print(pageNum + ";");
+            }
         }
         out.println();
     }
 
+    /**
+     * Gets the number of free pages, i.e. deleted pages
+     * which may be reused.
+     *
+     * @return the number of free pages
+     */
+    public long getFreePageCount() {
+        synchronized (fileHeader) {
+            return freePages.getFreeCount();
+        }
+    }
+
     /**
      * setFile sets the file object for this Paged.
      *
@@ -401,7 +530,7 @@ public abstract class Paged implements AutoCloseable {
             if ((!Files.exists(file)) || Files.isWritable(file)) {
                 try {
                     raf = new RandomAccessFile(file.toFile(), "rw");
-                    final FileChannel channel = raf.getChannel();   
+                    channel = raf.getChannel();
                     final FileLock lock = channel.tryLock();
                     if (lock == null) {
                         readOnly = true;
@@ -411,11 +540,13 @@ public abstract class Paged implements AutoCloseable {
                     //No way : switch to read-only mode
                     readOnly = true;
                     raf = new RandomAccessFile(file.toFile(), "r");
+                    channel = raf.getChannel();
                     LOG.warn(e);
                 }
             } else {
                 readOnly = true;
                 raf = new RandomAccessFile(file.toFile(), "r");
+                channel = raf.getChannel();
             }
         } catch (final IOException e) {
             LOG.warn("An exception occurred while opening database file " +
@@ -426,26 +557,22 @@ public abstract class Paged implements AutoCloseable {
     /**
      * Unlinks a set of pages starting at the specified page.
      *
+     * The page is cleared and marked as free.
+     *
      * @param page The starting Page to unlink
      * @throws IOException If an exception occurs
      */
     protected void unlinkPages(final Page page) throws IOException {
         //Mmmmh... is this null test accurate ? -pb
         if (page != null) {
-            // Walk the chain and add it to the unused list
             page.header.setStatus(UNUSED);
+            page.header.setNextPage(Page.NO_PAGE);
             page.header.lsn = Lsn.LSN_INVALID;
             synchronized (fileHeader) {
-                if (fileHeader.firstFreePage == Page.NO_PAGE) {
-                    fileHeader.setFirstFreePage(page.pageNum);
-                    page.header.setNextPage(Page.NO_PAGE);
-                } else {
-                    final long firstFreePage = fileHeader.firstFreePage;
-                    fileHeader.setFirstFreePage(page.pageNum);
-                    page.header.setNextPage(firstFreePage);
-                }
                 page.remove();
-                fileHeader.setDirty(true);
+                ensurePageCount(page.pageNum);
+                freePages.free(page.pageNum);
+                freePageMapDirty = true;
             }
         }
     }
@@ -462,60 +589,123 @@ public abstract class Paged implements AutoCloseable {
     }
 
     /**
-     * Clears the {@link FileHeader#firstFreePage} and
-     *  {@link FileHeader#lastFreePage}.
-     *
-     * This is needed in recovery, as the free page list
-     * may have become corrupted.
-     *
-     * Unfortunately this means we loose some space
-     * that we will never recover, but it does mean
-     * we are more likely to correctly recover.
+     * Marks a page which is being reused without {@link #getFreePage(boolean)},
+     * e.g. when it is recreated during recovery, as allocated.
      *
+     * @param page the page
      * @throws IOException if an exception occurs
      */
-    protected void dropFreePageList() throws IOException {
-        boolean updated = false;
-        if (fileHeader.getFirstFreePage() != Page.NO_PAGE) {
-            fileHeader.setFirstFreePage(Page.NO_PAGE);
-            updated = true;
-        }
-        if (fileHeader.getLastFreePage() != Page.NO_PAGE) {
-            fileHeader.setLastFreePage(Page.NO_PAGE);
-            updated = true;
+    protected void reuseDeleted(final Page page) throws IOException {
+        if (page != null) {
+            synchronized (fileHeader) {
+                if (freePages.allocate(page.pageNum)) {
+                    freePageMapDirty = true;
+                }
+                ensurePageCount(page.pageNum);
+            }
         }
+    }
 
-        if (updated) {
-            fileHeader.write();
+    /**
+     * Makes sure that the file header accounts for the page, which may
+     * not be the case during recovery if the header was not written
+     * before the database failure.
+     */
+    private void ensurePageCount(final long pageNum) {
+        if (pageNum >= fileHeader.totalCount) {
+            fileHeader.setTotalCount(pageNum + 1);
         }
     }
 
-    protected void reuseDeleted(final Page page) throws IOException {
-        if (page != null && fileHeader.getFirstFreePage() != Page.NO_PAGE) {
-
-            long firstFreePageNum = fileHeader.getFirstFreePage();
-            if (firstFreePageNum == page.pageNum) {
-                fileHeader.setFirstFreePage(page.header.getNextPage());
-                fileHeader.write();
-                return;
+    /**
+     * Reads the free page map. A file without a free page map
+     * is upgraded by moving the pages of its free page list into a new map.
+     *
+     * @throws IOException if an exception occurs
+     */
+    private void readFreePageMap() throws IOException {
+        synchronized (fileHeader) {
+            freePages.clear();
+            freePageMapPages.clear();
+            if (fileHeader.freePageMap) {
+                int wordIndex = 0;
+                long pageNum = fileHeader.freePageMapRoot;
+                while (pageNum != Page.NO_PAGE) {
+                    final Page page = getPage(pageNum);
+                    final byte[] data = page.read();
+                    if (page.header.getStatus() != FREE_SPACE_MAP) {
+                        // start over with an empty map: free pages are lost, but no page in use can be handed out
+                        LOG.warn("Page " + pageNum + " of " + FileUtils.fileName(file) +
+                                " is not part of the free page map. Dropping the free page map.");
+                        freePages.clear();
+                        freePageMapPages.clear();
+                        freePageMapDirty = true;
+                        break;
+                    }
+                    freePageMapPages.add(pageNum);
+                    for (int i = 0; i + Long.BYTES <= data.length; i += Long.BYTES) {
+                        freePages.setWord(wordIndex++, ByteConversion.byteToLong(data, i));
+                    }
+                    pageNum = page.header.getNextPage();
+                }
+            } else {
+                // walk the free page list of a file written by an older version, guarding against a cycle
+                long pageNum = fileHeader.firstFreePage;
+                for (long i = 0; pageNum != Page.NO_PAGE && i < fileHeader.totalCount; i++) {
+                    freePages.free(pageNum);
+                    final Page page = getPage(pageNum);
+                    page.read();
+                    pageNum = page.header.getNextPage();
+                }
+                LOG.info("Moved " + freePages.getFreeCount() + " pages from the free page list of " +
+                        FileUtils.fileName(file) + " to a free page map");
+                fileHeader.setFirstFreePage(Page.NO_PAGE);
+                fileHeader.setLastFreePage(Page.NO_PAGE);
+                fileHeader.freePageMap = true;
+                freePageMapDirty = true;
+                if (!readOnly) {
+                    writeFreePageMap();
+                    fileHeader.write();
+                }
             }
+        }
+    }
 
-            Page firstFreePage = getPage(firstFreePageNum);
-            firstFreePage.read();
-            firstFreePageNum = firstFreePage.header.getNextPage();
-
-            while (firstFreePageNum != Page.NO_PAGE) {
-                if (firstFreePageNum == page.pageNum) {
-                    firstFreePage.header.setNextPage(page.header.getNextPage());
-                    firstFreePage.header.setDirty(true);
-                    firstFreePage.write(null);
-                    return;
-                }
-                firstFreePage = getPage(firstFreePageNum);
-                firstFreePage.read();
-                firstFreePageNum = firstFreePage.header.getNextPage();
+    /**
+     * Writes the free page map to its pages. Pages for the map
+     * are appended to the file as it grows.
+     *
+     * The caller must hold the lock on the file header and
+     * must write the file header afterwards.
+     *
+     * @throws IOException if an exception occurs
+     */
+    private void writeFreePageMap() throws IOException {
+        final int wordsPerPage = fileHeader.workSize / Long.BYTES;
+        // appending a page to the map may itself grow the map
+        while ((long) freePageMapPages.size() * wordsPerPage * Long.SIZE < fileHeader.totalCount) {
+            final long pageNum = fileHeader.totalCount;
+            if (pageNum == Integer.MAX_VALUE) {
+                throw new IOException("page limit reached: " + pageNum);
             }
+            fileHeader.setTotalCount(pageNum + 1);
+            freePageMapPages.add(pageNum);
         }
+
+        final byte[] data = new byte[wordsPerPage * Long.BYTES];
+        for (int i = 0; i < freePageMapPages.size(); i++) {
+            for (int j = 0; j < wordsPerPage; j++) {
+                ByteConversion.longToByte(freePages.getWord(i * wordsPerPage + j), data, j * Long.BYTES);
+            }
+            final Page page = getPage(freePageMapPages.getLong(i));
+            page.header.setStatus(FREE_SPACE_MAP);
+            page.header.setDataLen(data.length);
+            page.header.setNextPage(i + 1 < freePageMapPages.size() ? freePageMapPages.getLong(i + 1) : Page.NO_PAGE);
+            page.header.setLsn(Lsn.LSN_INVALID);
+            page.write(data);
+        }
+        fileHeader.setFreePageMapRoot(freePageMapPages.isEmpty() ? Page.NO_PAGE : freePageMapPages.getLong(0));
+        freePageMapDirty = false;
     }
 
     /**
@@ -575,6 +765,8 @@ public abstract class Paged implements AutoCloseable {
         private long recordCount;
         private long totalCount;
         private int workSize;
+        private boolean freePageMap = true;
+        private long freePageMapRoot = Page.NO_PAGE;
 
         private final byte[] buf;
 
@@ -601,7 +793,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         /**
-         * The first free page in unused secondary space
+         * The first free page in unused secondary space. Only used by files
+         * written before the free page map, see {@link FreePageMap}
          *
          * @return The firstFreePage value
          */
@@ -619,7 +812,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         /**
-         * The last free page in unused secondary space
+         * The last free page in unused secondary space. Only used by files
+         * written before the free page map, see {@link FreePageMap}
          *
          * @return The lastFreePage value
          */
@@ -730,6 +924,8 @@ public abstract class Paged implements AutoCloseable {
             pageHeaderSize = buf[OFFSET_PAGE_HEADER_SIZE];
             maxKeySize = ByteConversion.byteToShort(buf, OFFSET_MAX_KEY_SIZE);
             recordCount = ByteConversion.byteToLong(buf, OFFSET_RECORD_COUNT);
+            freePageMap = ByteConversion.byteToInt(buf, buf.length - OFFSET_FREE_PAGE_MAP_MAGIC_FROM_END) == FREE_PAGE_MAP_MAGIC;
+            freePageMapRoot = freePageMap ? ByteConversion.byteToLong(buf, buf.length - OFFSET_FREE_PAGE_MAP_ROOT_FROM_END) : Page.NO_PAGE;
             return OFFSET_REMAINDER;
         }
 
@@ -744,6 +940,10 @@ public abstract class Paged implements AutoCloseable {
             buf[OFFSET_PAGE_HEADER_SIZE] = pageHeaderSize;
             ByteConversion.shortToByte(maxKeySize, buf, OFFSET_MAX_KEY_SIZE);
             ByteConversion.longToByte(recordCount, buf, OFFSET_RECORD_COUNT);
+            if (freePageMap) {
+                ByteConversion.intToByte(FREE_PAGE_MAP_MAGIC, buf, buf.length - OFFSET_FREE_PAGE_MAP_MAGIC_FROM_END);
+                ByteConversion.longToByte(freePageMapRoot, buf, buf.length - OFFSET_FREE_PAGE_MAP_ROOT_FROM_END);
+            }
             return OFFSET_REMAINDER;
         }
 
@@ -766,6 +966,25 @@ public abstract class Paged implements AutoCloseable {
             dirty = true;
         }
 
+        /**
+         * The first page of the free page map
+         *
+         * @return The first page of the free page map, or {@link Page#NO_PAGE}
+         */
+        public final long getFreePageMapRoot() {
+            return freePageMapRoot;
+        }
+
+        /**
+         * The first page of the free page map
+         *
+         * @param freePageMapRoot The new first page of the free page map
+         */
+        public final void setFreePageMapRoot(final long freePageMapRoot) {
+            this.freePageMapRoot = freePageMapRoot;
+            dirty = true;
+        }
+
         /**
          * The size of the FileHeader. Usually 1 OS Page
          *
@@ -944,6 +1163,9 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public byte[] read() throws IOException {
+            if (ioMode == IOMode.POSITIONAL) {
+                return readPositional();
+            }
             try {
                 if (raf.getFilePointer() != offset) {
                     raf.seek(offset);
@@ -962,6 +1184,32 @@ public abstract class Paged implements AutoCloseable {
             }
         }
 
+        /**
+         * Reads the page with a single positional read into the page buffer of the
+         * calling thread, so that it does not contend on the file pointer.
+         */
+        private byte[] readPositional() throws IOException {
+            try {
+                final byte[] pageData = pageBuffer.get();
+                final ByteBuffer buf = ByteBuffer.wrap(pageData);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, offset + buf.position()) < 0) {
+                        // page is beyond the end of the file, i.e. a new page
+                        Arrays.fill(pageData, buf.position(), pageData.length, (byte)0);
+                        break;
+                    }
+                }
+                // Read in the header
+                header.read(pageData, 0);
+                // Copy out the working data
+                final int dataPos = fileHeader.pageHeaderSize;
+                return Arrays.copyOfRange(pageData, dataPos, dataPos + header.dataLen);
+            } catch(final Exception e) {
+                LOG.warn("error while reading page: " + getPageInfo(), e);
+                throw new IOException(e.getMessage());
+            }
+        }
+
         public void setPageNum(final long pageNum) {
             this.pageNum = pageNum;
             offset = fileHeader.headerSize + (pageNum * fileHeader.pageSize);
@@ -972,25 +1220,33 @@ public abstract class Paged implements AutoCloseable {
         }
 
         private final void write(final byte[] data) throws IOException {
+            final byte[] pageData = ioMode == IOMode.POSITIONAL ? pageBuffer.get() : tempPageData;
             if(data == null) {
                 // Removed page: fill with 0
-                Arrays.fill(tempPageData, (byte)0);
+                Arrays.fill(pageData, (byte)0);
                 header.setLsn(Lsn.LSN_INVALID);
             }
             // Write out the header
-            header.write(tempPageData, 0);
+            header.write(pageData, 0);
             header.dirty = false;
             if (data != null) {
                 if (data.length > fileHeader.workSize) {
                     throw new IOException("page: " + getPageInfo() + ": data length too large: " + data.length);
                 } else {
-                    System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
+                    System.arraycopy(data, 0, pageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
+            if (ioMode == IOMode.POSITIONAL) {
+                final ByteBuffer buf = ByteBuffer.wrap(pageData);
+                while (buf.hasRemaining()) {
+                    channel.write(buf, offset + buf.position());
+                }
+            } else {
+                if (raf.getFilePointer() != offset) {
+                    raf.seek(offset);
+                }
+                raf.write(pageData);
             }
-            raf.write(tempPageData);
         }
 
         @Override
@@ -58,6 +58,9 @@ public class Accounting {
     /** total cache misses during the lifetime of the cache */
     private int misses = 0;
     
+    /** total pages replaced during the lifetime of the cache */
+    private int evictions = 0;
+    
     /** the current size of the cache */
     private int totalSize = 0;
     
@@ -126,6 +129,7 @@ public class Accounting {
      * @param cacheable object
      */
     public void replacedPage(Cacheable cacheable) {
+        ++evictions;
         if (System.currentTimeMillis() - checkPeriodStart > checkPeriod) {
             map.clear();
             thrashing = 0;
@@ -142,6 +146,16 @@ public class Accounting {
             {map.put(cacheable.getKey(), DUMMY);}
     }
     
+    /**
+     * Returns the number of pages replaced during the
+     * lifetime of the cache.
+     *
+     * @return number of replaced pages
+     */
+    public int getEvictions() {
+        return evictions;
+    }
+    
     /**
      * Return the current amount of trashing.
      * @return current amount of trashing
@@ -172,6 +186,7 @@ public class Accounting {
     public void stats() {
         LOG.debug("hits: " + hits 
                 + "; misses: " + misses 
+                + "; evictions: " + evictions 
                 + "; thrashing: " + getThrashing() 
                 + "; thrashing period: " + checkPeriod);
     }
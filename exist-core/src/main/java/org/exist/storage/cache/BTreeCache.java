@@ -48,6 +48,41 @@ public class BTreeCache<T extends BTreeCacheable> extends LRUCache<T> {
         }
     }
 
+    /**
+     * Resizing may be requested by the cache manager on behalf of another
+     * cache, so it synchronizes on this cache like the users of a
+     * {@link org.exist.storage.btree.BTree} with latch coupling enabled.
+     */
+    @Override
+    public synchronized void resize(final int newSize) {
+        super.resize(newSize);
+    }
+
+    /**
+     * Pages which must not be unloaded are currently being modified, they are
+     * neither written nor dropped when the cache shrinks.
+     *
+     * @param newSize the new size of the cache
+     */
+    @Override
+    protected void shrink(final int newSize) {
+        final SequencedLongHashMap<T> newMap = new SequencedLongHashMap<>(newSize);
+        for (SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
+            final T cached = next.getValue();
+            if (cached.allowUnload()) {
+                if (cached.isDirty()) {
+                    cached.sync(false);
+                }
+            } else {
+                newMap.put(cached.getKey(), cached);
+            }
+        }
+        map = newMap;
+        max = newSize;
+        accounting.reset();
+        accounting.setTotalSize(max);
+    }
+
     private void removeNext(final T item) {
         boolean removed = false;
         boolean mustRemoveInner = false;
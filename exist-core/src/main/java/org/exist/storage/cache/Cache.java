@@ -166,6 +166,14 @@ public interface Cache<T extends Cacheable> {
      */
     int getFails();
 
+    /**
+     * Get the number of times where an object has been
+     * evicted from the cache to make room for another one.
+     *
+     * @return number of evictions
+     */
+    int getEvictions();
+
     /**
      * Get the load factor if the cache
      *
@@ -155,6 +155,11 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		return accounting.getMisses();
 	}
  
+	@Override
+	public int getEvictions() {
+		return accounting.getEvictions();
+	}
+
     public int getThrashing() {
         return accounting.getThrashing();
     }
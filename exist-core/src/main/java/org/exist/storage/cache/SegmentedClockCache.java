@@ -0,0 +1,370 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.CacheManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A page cache which is safe for concurrent readers and resistant to
+ * sequential scans.
+ *
+ * Entries are kept in two segments, each of which is replaced by the CLOCK
+ * (second chance) algorithm. New entries enter the probationary segment and are
+ * promoted to the protected segment only if they are accessed again before the
+ * clock hand reaches them. A scan which touches many pages once will therefore
+ * only replace pages of the probationary segment. Entries added with a reference
+ * count greater than one, e.g. the inner pages of a B+-tree, are placed in the
+ * protected segment directly.
+ *
+ * Lookups take no lock and only mark the entry as referenced. Adding,
+ * removing and evicting entries happens whilst holding the monitor of the cache,
+ * so callers may synchronize on the cache to make a lookup followed by an add atomic.
+ * All structural operations are O(1), apart from eviction which skips over
+ * entries which must not be unloaded.
+ *
+ * @param <T> The type that implements {@link Cacheable}
+ */
+@ThreadSafe
+public class SegmentedClockCache<T extends Cacheable> implements Cache<T> {
+    private final static Logger LOG = LogManager.getLogger(SegmentedClockCache.class);
+
+    /** The fraction of the cache which may be used by the protected segment */
+    private final static double PROTECTED_RATIO = 0.8;
+
+    /** Used as the key to exclude from eviction, when there is none */
+    private final static long NO_KEY = Long.MIN_VALUE;
+
+    private final String name;
+    private final CacheType type;
+    private final double growthFactor;
+    private final ConcurrentHashMap<Long, Entry<T>> map;
+
+    @GuardedBy("this") private final Segment<T> probation = new Segment<>();
+    @GuardedBy("this") private final Segment<T> protectedSegment = new Segment<>();
+    @GuardedBy("this") private final Accounting accounting;
+    @GuardedBy("this") private int hitsOld = -1;
+
+    private volatile int max;
+    private volatile CacheManager cacheManager = null;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SegmentedClockCache(final String name, final int size, final double growthFactor, final double growthThreshold, final CacheType type) {
+        this.name = name;
+        this.max = size;
+        this.growthFactor = growthFactor;
+        this.accounting = new Accounting(growthThreshold);
+        this.accounting.setTotalSize(max);
+        this.map = new ConcurrentHashMap<>(size * 2);
+        this.type = type;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public CacheType getType() {
+        return type;
+    }
+
+    @Override
+    public void add(final T item) {
+        add(item, 1);
+    }
+
+    @Override
+    public synchronized void add(final T item, final int initialRefCount) {
+        final long key = item.getKey();
+        final Entry<T> existing = map.get(key);
+        if (existing != null) {
+            existing.item = item;
+            existing.referenced = true;
+            return;
+        }
+
+        if (map.size() >= max) {
+            if (evict(key)) {
+                accounting.replacedPage(item);
+                if (growthFactor > 1.0 && cacheManager != null && accounting.resizeNeeded()) {
+                    cacheManager.requestMem(this);
+                }
+            } else if (LOG.isDebugEnabled()) {
+                LOG.debug("Unable to remove entry from cache " + name + ", all entries are in use");
+            }
+        }
+
+        final Entry<T> entry = new Entry<>(item);
+        map.put(key, entry);
+        if (initialRefCount > 1) {
+            addProtected(entry);
+        } else {
+            probation.addLast(entry);
+        }
+    }
+
+    @Override
+    public T get(final T item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public T get(final long key) {
+        final Entry<T> entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.referenced = true;
+        return entry.item;
+    }
+
+    @Override
+    public synchronized void remove(final T item) {
+        final Entry<T> entry = map.remove(item.getKey());
+        if (entry != null) {
+            segmentOf(entry).remove(entry);
+        }
+    }
+
+    @Override
+    public synchronized boolean hasDirtyItems() {
+        for (final Entry<T> entry : map.values()) {
+            if (entry.item.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean flush() {
+        boolean flushed = false;
+        for (final Entry<T> entry : map.values()) {
+            final T cacheable = entry.item;
+            if (cacheable.isDirty()) {
+                flushed = flushed | cacheable.sync(false);
+            }
+        }
+        return flushed;
+    }
+
+    @Override
+    public int getBuffers() {
+        return max;
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    @Override
+    public synchronized void resize(final int newSize) {
+        this.max = newSize;
+        while (map.size() > newSize) {
+            if (!evict(NO_KEY)) {
+                break;
+            }
+        }
+        while (protectedSegment.size > maxProtected()) {
+            demote();
+        }
+        accounting.reset();
+        accounting.setTotalSize(newSize);
+    }
+
+    @Override
+    public void setCacheManager(final CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        return map.size();
+    }
+
+    @Override
+    public int getHits() {
+        return hits.intValue();
+    }
+
+    @Override
+    public int getFails() {
+        return misses.intValue();
+    }
+
+    @Override
+    public int getEvictions() {
+        return evictions.intValue();
+    }
+
+    @Override
+    public synchronized int getLoad() {
+        final int currentHits = getHits();
+        if (hitsOld == -1) {
+            hitsOld = currentHits;
+            return Integer.MAX_VALUE;
+        }
+        final int load = currentHits - hitsOld;
+        hitsOld = currentHits;
+        return load;
+    }
+
+    private int maxProtected() {
+        return (int) (max * PROTECTED_RATIO);
+    }
+
+    private Segment<T> segmentOf(final Entry<T> entry) {
+        return entry.isProtected ? protectedSegment : probation;
+    }
+
+    @GuardedBy("this")
+    private void addProtected(final Entry<T> entry) {
+        entry.isProtected = true;
+        protectedSegment.addLast(entry);
+        while (protectedSegment.size > maxProtected()) {
+            demote();
+        }
+    }
+
+    /**
+     * Moves the next entry which is not referenced from the
+     * protected segment to the probationary segment.
+     */
+    @GuardedBy("this")
+    private void demote() {
+        while (true) {
+            final Entry<T> entry = protectedSegment.head;
+            protectedSegment.remove(entry);
+            if (entry.referenced) {
+                entry.referenced = false;
+                protectedSegment.addLast(entry);
+            } else {
+                entry.isProtected = false;
+                probation.addLast(entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evicts one entry, preferably from the probationary segment.
+     *
+     * @param excludeKey the key of an entry which must not be evicted
+     *
+     * @return true if an entry was evicted, false if all entries are in use
+     */
+    @GuardedBy("this")
+    private boolean evict(final long excludeKey) {
+        return evictFrom(probation, excludeKey) || evictFrom(protectedSegment, excludeKey);
+    }
+
+    @GuardedBy("this")
+    private boolean evictFrom(final Segment<T> segment, final long excludeKey) {
+        // each entry is visited at most twice: once to clear its reference, once to evict it
+        for (int i = segment.size * 2; i > 0 && segment.head != null; i--) {
+            final Entry<T> entry = segment.head;
+            final T cached = entry.item;
+            segment.remove(entry);
+            if (!cached.allowUnload() || cached.getKey() == excludeKey) {
+                segment.addLast(entry);
+            } else if (entry.referenced) {
+                entry.referenced = false;
+                if (segment == probation) {
+                    addProtected(entry);
+                } else {
+                    segment.addLast(entry);
+                }
+            } else {
+                cached.sync(true);
+                map.remove(cached.getKey());
+                evictions.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry<T> {
+        volatile T item;
+        volatile boolean referenced = false;
+
+        // guarded by the monitor of the cache
+        boolean isProtected = false;
+        Entry<T> prev = null;
+        Entry<T> next = null;
+
+        Entry(final T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * A doubly linked list of entries. The head is the
+     * position of the clock hand.
+     */
+    private static final class Segment<T> {
+        Entry<T> head = null;
+        Entry<T> tail = null;
+        int size = 0;
+
+        void addLast(final Entry<T> entry) {
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            size++;
+        }
+
+        void remove(final Entry<T> entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            size--;
+        }
+    }
+}
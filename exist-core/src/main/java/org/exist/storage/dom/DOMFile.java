@@ -35,8 +35,14 @@ import javax.xml.stream.XMLStreamReader;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.exist.storage.btree.Paged.Page.NO_PAGE;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Reference2LongMap;
 import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.AttrImpl;
@@ -60,11 +66,11 @@ import org.exist.storage.btree.BTree;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.FreePageLoggable;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
@@ -112,6 +118,11 @@ import org.w3c.dom.Node;
  * The upper two bits of the tuple id are used to indicate the type of the record
  * (see {@link org.exist.storage.dom.ItemId}).
  * 
+ * If the file has been created with compression enabled, a data page is larger
+ * than a page on disk and is kept decompressed in the page cache. It is compressed
+ * with LZ4 when written. The compressed data starts in the page itself and continues
+ * in a chain of {@link #CONTINUATION} pages if it does not fit.
+ * 
  * @author <a href="mailto:wolfgang@exist-db.org">Wolfgang Meier</a>
  */
 public class DOMFile extends BTree implements Lockable {
@@ -145,6 +156,7 @@ public class DOMFile extends BTree implements Lockable {
     public final static byte LOG_ADD_MOVED_REC = 0x1B;
     public final static byte LOG_UPDATE_HEADER = 0x1C;
     public final static byte LOG_UPDATE_LINK = 0x1D;
+    public final static byte LOG_WRITE_CONTINUATION = 0x1E;
 
     static {
         // register log entry types for this db file
@@ -162,6 +174,7 @@ public class DOMFile extends BTree implements Lockable {
         LogEntryTypes.addEntryType(LOG_ADD_MOVED_REC, AddMovedValueLoggable::new);
         LogEntryTypes.addEntryType(LOG_UPDATE_HEADER, UpdateHeaderLoggable::new);
         LogEntryTypes.addEntryType(LOG_UPDATE_LINK, UpdateLinkLoggable::new);
+        LogEntryTypes.addEntryType(LOG_WRITE_CONTINUATION, WriteContinuationLoggable::new);
     }
 
     public final static short FILE_FORMAT_VERSION_ID = 10;
@@ -169,6 +182,7 @@ public class DOMFile extends BTree implements Lockable {
     private final LockManager lockManager;
 
     //Page types
+    public final static byte CONTINUATION = 22;
     public final static byte LOB = 21;
     public final static byte RECORD = 20;
     //Data length for overflow pages
@@ -176,9 +190,27 @@ public class DOMFile extends BTree implements Lockable {
 
     public final static long DATA_SYNC_PERIOD = 4200;
 
+    public final static String COMPRESSION_NONE = "none";
+    public final static String COMPRESSION_LZ4 = "lz4";
+
+    /**
+     * Number of pages on disk a data page of a compressed file may occupy
+     * when it is decompressed.
+     */
+    public final static int COMPRESSED_PAGE_FACTOR = 4;
+
+    //Length of the compressed data, stored in front of it
+    private final static int LENGTH_COMPRESSED_LENGTH = 4; //sizeof int
+
     private final Cache<DOMPage> dataCache;
 
-    private final BTreeFileHeader fileHeader;
+    private final DOMFileHeader fileHeader;
+
+    // size of the data of a DOMPage, which exceeds the work size of the file if the pages are compressed
+    private int dataPageSize;
+
+    private LZ4Compressor compressor = null;
+    private LZ4FastDecompressor decompressor = null;
 
     private Object owner = null;
 
@@ -193,24 +225,47 @@ public class DOMFile extends BTree implements Lockable {
         this.lockManager = pool.getLockManager();
         this.pages = new Reference2LongOpenHashMap<>(64);
         this.pages.defaultReturnValue(NO_PAGE);
-        fileHeader = (BTreeFileHeader)getFileHeader();
+        fileHeader = (DOMFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, Cache.CacheType.DATA);
+        dataCache = cacheManager.newDataCache(getFileName(), 256, 0.0, 1.0);
         cacheManager.registerCache(dataCache);
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
+        final String compression = config.getProperty(BrokerPool.PROPERTY_DOM_COMPRESSION, BrokerPool.DEFAULT_DOM_COMPRESSION);
         if (exists()) {
             open();
+            if (!compression.equals(fileHeader.isCompressed() ? COMPRESSION_LZ4 : COMPRESSION_NONE)) {
+                LOG.info("Data file " + FileUtils.fileName(file) + " keeps the page compression it was created with: " +
+                        (fileHeader.isCompressed() ? COMPRESSION_LZ4 : COMPRESSION_NONE) + ". Back up and restore the database to change it.");
+            }
         } else {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Creating data file: " + FileUtils.fileName(file));
             }
+            if (COMPRESSION_LZ4.equals(compression)) {
+                fileHeader.setDataPageSize(Math.min(fileHeader.getWorkSize() * COMPRESSED_PAGE_FACTOR, Short.MAX_VALUE));
+            }
             create();
         }
+        dataPageSize = fileHeader.isCompressed() ? fileHeader.getDataPageSize() : fileHeader.getWorkSize();
+        if (fileHeader.isCompressed()) {
+            final LZ4Factory factory = LZ4Factory.fastestInstance();
+            compressor = factory.fastCompressor();
+            decompressor = factory.fastDecompressor();
+        }
         config.setProperty(getConfigKeyForFile(), this);
     }
 
+    /**
+     * Returns true if the data pages of this file are compressed.
+     *
+     * @return true if the data pages are compressed
+     */
+    public boolean isCompressed() {
+        return fileHeader.isCompressed();
+    }
+
     /**
      * Set the current page.
      * 
@@ -340,7 +395,7 @@ public class DOMFile extends BTree implements Lockable {
         }
 
         // overflow value?
-        if (value.length + LENGTH_TID + LENGTH_DATA_LENGTH > fileHeader.getWorkSize()) {
+        if (value.length + LENGTH_TID + LENGTH_DATA_LENGTH > dataPageSize) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Creating overflow page");
             }
@@ -544,7 +599,7 @@ public class DOMFile extends BTree implements Lockable {
         }
         // check if we need an overflow page
         boolean isOverflow = false;
-        if (LENGTH_TID + LENGTH_DATA_LENGTH + value.length > fileHeader.getWorkSize()) {
+        if (LENGTH_TID + LENGTH_DATA_LENGTH + value.length > dataPageSize) {
             final OverflowDOMPage overflowPage = new OverflowDOMPage();
             LOG.debug("Creating overflow page: " + overflowPage.getPageNum());
             overflowPage.write(transaction, value);
@@ -572,7 +627,7 @@ public class DOMFile extends BTree implements Lockable {
         //Can we insert in the middle of the page?
         if (rec.offset < dataLength) {
             //New value fits into the page
-            if (dataLength + LENGTH_TID + LENGTH_DATA_LENGTH + value.length <= fileHeader.getWorkSize()
+            if (dataLength + LENGTH_TID + LENGTH_DATA_LENGTH + value.length <= dataPageSize
                 && rec.getPage().getPageHeader().hasRoom()) {
                 final int end = rec.offset + LENGTH_TID + LENGTH_DATA_LENGTH + value.length;
                 System.arraycopy(rec.getPage().data, rec.offset, rec.getPage().data, end,
@@ -584,7 +639,7 @@ public class DOMFile extends BTree implements Lockable {
                 rec = splitDataPage(transaction, rec);
                 //Still not enough free space: create a new page
                 if (rec.offset + LENGTH_TID + LENGTH_DATA_LENGTH + 
-                        value.length > fileHeader.getWorkSize() ||
+                        value.length > dataPageSize ||
                         !rec.getPage().getPageHeader().hasRoom()) {
                     final DOMPage newPage = new DOMPage();
                     final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
@@ -639,7 +694,7 @@ public class DOMFile extends BTree implements Lockable {
             }
         //The value doesn't fit into page : create new page
         } else if (dataLength + LENGTH_TID + LENGTH_DATA_LENGTH + value.length > 
-            fileHeader.getWorkSize() || !rec.getPage().getPageHeader().hasRoom()) {
+            dataPageSize || !rec.getPage().getPageHeader().hasRoom()) {
             final DOMPage newPage = new DOMPage();
             final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
             LOG.debug("Creating new page: " + newPage.getPageNum());
@@ -757,7 +812,7 @@ public class DOMFile extends BTree implements Lockable {
                 rec.getPage().getPageNum(), rec.offset, oldData, oldDataLen);
             writeToLog(loggable, rec.getPage().page);
         }
-        rec.getPage().data = new byte[fileHeader.getWorkSize()];
+        rec.getPage().data = new byte[dataPageSize];
         System.arraycopy(oldData, 0, rec.getPage().data, 0, rec.offset);
         //The old rec.page now contains a copy of the data up to the split point
         rec.getPage().len = rec.offset;
@@ -786,7 +841,7 @@ public class DOMFile extends BTree implements Lockable {
             //This is already a link, so we just copy it
             if (ItemId.isLink(tupleID)) {
                 /* No room in the old page, append a new one */
-                if (rec.getPage().len + LENGTH_TID + LENGTH_FORWARD_LOCATION > fileHeader.getWorkSize()) {
+                if (rec.getPage().len + LENGTH_TID + LENGTH_FORWARD_LOCATION > dataPageSize) {
                     final DOMPage newPage = new DOMPage();
                     final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
                     if (transaction != null && isRecoveryEnabled()) {
@@ -837,7 +892,7 @@ public class DOMFile extends BTree implements Lockable {
             final short realLen = (vlen == OVERFLOW ? LENGTH_OVERFLOW_LOCATION : vlen);
             //Check if we have room in the current split page
             if (nextSplitPage.len + LENGTH_TID + LENGTH_DATA_LENGTH +
-                    LENGTH_ORIGINAL_LOCATION + realLen > fileHeader.getWorkSize()) {
+                    LENGTH_ORIGINAL_LOCATION + realLen > dataPageSize) {
                 //Not enough room in the split page: append a new page
                 final DOMPage newPage = new DOMPage();
                 final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
@@ -929,7 +984,7 @@ public class DOMFile extends BTree implements Lockable {
             // been relocated before.
             if (!ItemId.isRelocated(tupleID)) {
                 // the link doesn't fit into the old page. Append a new page
-                if (rec.getPage().len + LENGTH_TID + LENGTH_FORWARD_LOCATION > fileHeader.getWorkSize()) {
+                if (rec.getPage().len + LENGTH_TID + LENGTH_FORWARD_LOCATION > dataPageSize) {
                     final DOMPage newPage = new DOMPage();
                     final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
                     if (transaction != null && isRecoveryEnabled()) {
@@ -979,7 +1034,11 @@ public class DOMFile extends BTree implements Lockable {
                 firstSplitPage = null;
             }
             try {
-                unlinkPages(nextSplitPage.page);
+                if (transaction != null && isRecoveryEnabled()) {
+                    final Loggable loggable = new FreePageLoggable(transaction, fileId, nextSplitPage.getPageNum());
+                    writeToLog(loggable, nextSplitPage.page);
+                }
+                unlinkDataPage(nextSplitPage);
             } catch (final IOException e) {
                 LOG.warn("Failed to remove empty split page: " + e.getMessage(), e);
             }
@@ -1240,7 +1299,7 @@ public class DOMFile extends BTree implements Lockable {
 
     @Override
     public FileHeader createFileHeader(final int pageSize) {
-        return new BTreeFileHeader(1024, pageSize);
+        return new DOMFileHeader(1024, pageSize);
     }
 
     @Override
@@ -1248,6 +1307,49 @@ public class DOMFile extends BTree implements Lockable {
         super.unlinkPages(page);
     }
 
+    /**
+     * Unlinks a data page together with the continuation pages
+     * holding the rest of its compressed data.
+     *
+     * @param page the data page
+     * @throws IOException if an I/O error occurs
+     */
+    private void unlinkDataPage(final DOMPage page) throws IOException {
+        final long continuation = page.page.getPageHeader().getNextPage();
+        unlinkPages(page.page);
+        if (fileHeader.isCompressed()) {
+            unlinkContinuationPages(continuation);
+        }
+    }
+
+    private void unlinkContinuationPages(final long pageNum) throws IOException {
+        for (final long continuation : getContinuationPages(pageNum)) {
+            unlinkPages(continuation);
+        }
+    }
+
+    /**
+     * Returns the chain of continuation pages starting at the given page.
+     *
+     * @param pageNum the first continuation page, or {@link Page#NO_PAGE}
+     * @return the page numbers of the chain
+     * @throws IOException if an I/O error occurs
+     */
+    private long[] getContinuationPages(long pageNum) throws IOException {
+        final LongArrayList pages = new LongArrayList();
+        while (pageNum != NO_PAGE) {
+            final Page page = getPage(pageNum);
+            page.read();
+            if (page.getPageHeader().getStatus() != CONTINUATION) {
+                LOG.warn("Page " + pageNum + " is not a continuation page: " + page.getPageHeader().getStatus());
+                break;
+            }
+            pages.add(pageNum);
+            pageNum = page.getPageHeader().getNextPage();
+        }
+        return pages.toLongArray();
+    }
+
     @Override
     public PageHeader createPageHeader() {
         return new DOMFilePageHeader();
@@ -1421,7 +1523,7 @@ public class DOMFile extends BTree implements Lockable {
 
     public BufferStats getDataBufferStats() {
         return new BufferStats(dataCache.getBuffers(), dataCache.getUsedBuffers(), 
-            dataCache.getHits(), dataCache.getFails());
+            dataCache.getHits(), dataCache.getFails(), dataCache.getEvictions());
     }
 
 
@@ -1793,7 +1895,7 @@ public class DOMFile extends BTree implements Lockable {
             pageHeader.setDataLength(0);
             pageHeader.setNextTupleID(ItemId.UNKNOWN_ID);
             pageHeader.setRecordCount((short) 0);
-            unlinkPages(page.page);
+            unlinkDataPage(page);
             page.setDirty(true);
             dataCache.remove(page);
         } catch (final IOException ioe) {
@@ -1839,7 +1941,7 @@ public class DOMFile extends BTree implements Lockable {
                 currentPageHeader.setNextTupleID(ItemId.UNKNOWN_ID);
                 currentPageHeader.setRecordCount((short) 0);
                 currentPage.len = 0;
-                unlinkPages(currentPage.page);
+                unlinkDataPage(currentPage);
                 currentPage.setDirty(true);
                 dataCache.remove(currentPage);
             } catch (final IOException e) {
@@ -2234,13 +2336,13 @@ public class DOMFile extends BTree implements Lockable {
         final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
         if (newPageHeader.getLsn().equals(Lsn.LSN_INVALID) || requiresRedo(loggable, newPage)) {
             try {
-                dropFreePageList();
+                reuseDeleted(newPage.page);
                 newPageHeader.setStatus(RECORD);
                 newPageHeader.setDataLength(0);
                 newPageHeader.setNextTupleID(ItemId.UNKNOWN_ID);
                 newPageHeader.setRecordCount((short) 0);
                 newPage.len = 0;
-                newPage.data = new byte[fileHeader.getWorkSize()];
+                newPage.data = new byte[dataPageSize];
                 newPageHeader.setPrevDataPage(NO_PAGE);
                 if (loggable.nextTID != ItemId.UNKNOWN_ID) {
                     newPageHeader.setNextTupleID(loggable.nextTID);
@@ -2276,7 +2378,7 @@ public class DOMFile extends BTree implements Lockable {
             pageHeader.setNextTupleID(ItemId.UNKNOWN_ID);
             pageHeader.setRecordCount((short) 0);
             page.len = 0;
-            unlinkPages(page.page);
+            unlinkDataPage(page);
             page.setDirty(true);
             dataCache.remove(page);
         } catch (final IOException e) {
@@ -2459,7 +2561,7 @@ public class DOMFile extends BTree implements Lockable {
                     "; tid: " + ItemId.getId(loggable.tid) + "; required: " + required +
                     "; offset: " + offset + "; end: " + end +
                     "; len: " + (pageHeader.getDataLength() - offset) +
-                    "; avail: " + page.data.length + "; work: " + fileHeader.getWorkSize());
+                    "; avail: " + page.data.length + "; work: " + dataPageSize);
             }
         }
         //save TID
@@ -2504,7 +2606,7 @@ public class DOMFile extends BTree implements Lockable {
         try {
             final DOMPage newPage = getDOMPage(loggable.pageNum);
             final DOMFilePageHeader newPageHeader = newPage.getPageHeader();
-            dropFreePageList();
+            reuseDeleted(newPage.page);
             if (loggable.prevPage == NO_PAGE) {
                 newPageHeader.setPrevDataPage(NO_PAGE);
             } else {
@@ -2546,7 +2648,7 @@ public class DOMFile extends BTree implements Lockable {
                 pageHeader.setNextTupleID(ItemId.UNKNOWN_ID);
                 pageHeader.setRecordCount((short) 0);
                 page.len = 0;
-                unlinkPages(page.page);
+                unlinkDataPage(page);
                 page.setDirty(true);
                 dataCache.remove(page);
             } catch (final IOException e) {
@@ -2560,7 +2662,7 @@ public class DOMFile extends BTree implements Lockable {
         try {
             final DOMPage page = getDOMPage(loggable.pageNum);
             final DOMFilePageHeader pageHeader = page.getPageHeader();
-            dropFreePageList();
+            reuseDeleted(page.page);
             pageHeader.setStatus(RECORD);
             pageHeader.setNextDataPage(loggable.nextPage);
             pageHeader.setPrevDataPage(loggable.prevPage);
@@ -2583,7 +2685,7 @@ public class DOMFile extends BTree implements Lockable {
             final PageHeader pageHeader = page.getPageHeader();
             if ((!pageHeader.getLsn().equals(Lsn.LSN_INVALID)) && requiresRedo(loggable, page)) {
 
-                dropFreePageList();
+                reuseDeleted(page);
                 pageHeader.setStatus(RECORD);
                 if (loggable.nextPage == NO_PAGE) {
                     pageHeader.setNextPage(NO_PAGE);
@@ -2630,7 +2732,7 @@ public class DOMFile extends BTree implements Lockable {
             final Page page = getPage(loggable.pageNum);
             page.read();
             final PageHeader pageHeader = page.getPageHeader();
-            dropFreePageList();
+            reuseDeleted(page);
             pageHeader.setStatus(RECORD);
             if (loggable.nextPage == NO_PAGE) {
                 pageHeader.setNextPage(NO_PAGE);
@@ -2736,7 +2838,7 @@ public class DOMFile extends BTree implements Lockable {
         final DOMFilePageHeader pageHeader = page.getPageHeader();
         if ((!pageHeader.getLsn().equals(Lsn.LSN_INVALID)) && requiresRedo(loggable, page)) {
             final byte[] oldData = page.data;
-            page.data = new byte[fileHeader.getWorkSize()];
+            page.data = new byte[dataPageSize];
             System.arraycopy(oldData, 0, page.data, 0, loggable.splitOffset);
             page.len = loggable.splitOffset;
             if (page.len < 0) {
@@ -2752,7 +2854,8 @@ public class DOMFile extends BTree implements Lockable {
     protected void undoSplitPage(final SplitPageLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
         final DOMFilePageHeader pageHeader = page.getPageHeader();
-        page.data = loggable.oldData;
+        page.data = new byte[dataPageSize];
+        System.arraycopy(loggable.oldData, 0, page.data, 0, loggable.oldLen);
         page.len = loggable.oldLen;
         if (page.len < 0) {
             LOG.error("page length < 0");
@@ -2819,6 +2922,50 @@ public class DOMFile extends BTree implements Lockable {
         dataCache.add(page);
     }
 
+    /**
+     * Keeps the continuation pages which the data page refers to and frees those of
+     * the logged pages which it does not refer to any more, or not yet, as the database
+     * failed before the page was written. A logged page is only freed if it has not been
+     * reused for the continuation of another page since.
+     */
+    protected void redoWriteContinuation(final WriteContinuationLoggable loggable) {
+        try {
+            final PageHeader dataPageHeader;
+            final DOMPage cached = dataCache.get(loggable.pageNum);
+            if (cached != null) {
+                dataPageHeader = cached.getPageHeader();
+            } else {
+                final Page page = getPage(loggable.pageNum);
+                page.read();
+                dataPageHeader = page.getPageHeader();
+            }
+
+            final LongSet chain = new LongOpenHashSet();
+            if (dataPageHeader.getStatus() == RECORD) {
+                for (final long continuation : getContinuationPages(dataPageHeader.getNextPage())) {
+                    reuseDeleted(getPage(continuation));
+                    chain.add(continuation);
+                }
+            }
+            unlinkUnusedContinuationPages(loggable.newPages, chain, loggable.getLsn());
+            unlinkUnusedContinuationPages(loggable.oldPages, chain, loggable.getLsn());
+        } catch (final IOException e) {
+            LOG.error("Failed to redo " + loggable.dump() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void unlinkUnusedContinuationPages(final long[] pages, final LongSet chain, final Lsn lsn) throws IOException {
+        for (final long pageNum : pages) {
+            if (!chain.contains(pageNum)) {
+                final Page page = getPage(pageNum);
+                page.read();
+                if (page.getPageHeader().getStatus() == CONTINUATION && page.getPageHeader().getLsn().compareTo(lsn) <= 0) {
+                    unlinkPages(page);
+                }
+            }
+        }
+    }
+
     protected void redoAddMovedValue(final AddMovedValueLoggable loggable) {
         final DOMPage page = getDOMPage(loggable.pageNum);
         final DOMFilePageHeader pageHeader = page.getPageHeader();
@@ -2913,6 +3060,45 @@ public class DOMFile extends BTree implements Lockable {
         dataCache.add(page, 2);
     }
 
+    protected final class DOMFileHeader extends BTreeFileHeader {
+
+        public final static int LENGTH_DATA_PAGE_SIZE = 4; //sizeof int
+
+        // size of a decompressed data page, 0 if the data pages are not compressed
+        private int dataPageSize = 0;
+
+        public DOMFileHeader(final long pageCount, final int pageSize) {
+            super(pageCount, pageSize);
+        }
+
+        @Override
+        public int read(final byte[] buf) throws IOException {
+            int offset = super.read(buf);
+            dataPageSize = ByteConversion.byteToInt(buf, offset);
+            return offset + LENGTH_DATA_PAGE_SIZE;
+        }
+
+        @Override
+        public int write(final byte[] buf) throws IOException {
+            int offset = super.write(buf);
+            ByteConversion.intToByte(dataPageSize, buf, offset);
+            return offset + LENGTH_DATA_PAGE_SIZE;
+        }
+
+        public boolean isCompressed() {
+            return dataPageSize > 0;
+        }
+
+        public int getDataPageSize() {
+            return dataPageSize;
+        }
+
+        public void setDataPageSize(final int dataPageSize) {
+            this.dataPageSize = dataPageSize;
+            setDirty(true);
+        }
+    }
+
     protected final class DOMFilePageHeader extends BTreePageHeader {
 
         protected int dataLength = 0;
@@ -3013,7 +3199,7 @@ public class DOMFile extends BTree implements Lockable {
         }
 
         public void setDataLength(final int dataLength) {
-            if (dataLength > fileHeader.getWorkSize()) {
+            if (dataLength > dataPageSize) {
                 LOG.error("data too long for file header !");
                 //TODO  :throw exception ? -pb
             }
@@ -3060,7 +3246,7 @@ public class DOMFile extends BTree implements Lockable {
         public DOMPage() {
             this.page = createNewPage();
             pageHeader = (DOMFilePageHeader) page.getPageHeader();
-            data = new byte[fileHeader.getWorkSize()];
+            data = new byte[dataPageSize];
             len = 0;
         }
 
@@ -3203,10 +3389,13 @@ public class DOMFile extends BTree implements Lockable {
                 pageHeader = (DOMFilePageHeader) page.getPageHeader();
                 len = pageHeader.getDataLength();
                 if (data.length == 0) {
-                    data = new byte[fileHeader.getWorkSize()];
+                    data = new byte[dataPageSize];
                     len = 0;
                     return;
                 }
+                if (fileHeader.isCompressed()) {
+                    data = decompress(data);
+                }
             } catch (final IOException ioe) {
                 LOG.error(ioe);
                 ioe.printStackTrace();
@@ -3214,6 +3403,45 @@ public class DOMFile extends BTree implements Lockable {
             saved = true;
         }
 
+        /**
+         * Reads the compressed data of the page, which starts with the data
+         * read from the page itself, and decompresses it.
+         */
+        private byte[] decompress(final byte[] stored) throws IOException {
+            final byte[] decompressed = new byte[dataPageSize];
+            if (pageHeader.getStatus() != RECORD || stored.length < LENGTH_COMPRESSED_LENGTH) {
+                // not a data page (yet), e.g. a free page read during recovery
+                len = 0;
+                return decompressed;
+            }
+            final int compressedLength = ByteConversion.byteToInt(stored, 0);
+            if (len == 0 || compressedLength == 0) {
+                return decompressed;
+            }
+            final byte[] compressed;
+            if (LENGTH_COMPRESSED_LENGTH + compressedLength == stored.length) {
+                compressed = stored;
+            } else {
+                compressed = new byte[LENGTH_COMPRESSED_LENGTH + compressedLength];
+                System.arraycopy(stored, 0, compressed, 0, stored.length);
+                int pos = stored.length;
+                long next = pageHeader.getNextPage();
+                while (pos < compressed.length) {
+                    if (next == NO_PAGE) {
+                        throw new IOException("Compressed data of page " + page.getPageNum() + " is incomplete: " +
+                                pos + " of " + compressed.length + " bytes");
+                    }
+                    final Page continuation = getPage(next);
+                    final byte[] chunk = continuation.read();
+                    System.arraycopy(chunk, 0, compressed, pos, Math.min(chunk.length, compressed.length - pos));
+                    pos += chunk.length;
+                    next = continuation.getPageHeader().getNextPage();
+                }
+            }
+            decompressor.decompress(compressed, LENGTH_COMPRESSED_LENGTH, decompressed, 0, len);
+            return decompressed;
+        }
+
         public void write() {
             if (page == null) {
                 return;
@@ -3224,7 +3452,11 @@ public class DOMFile extends BTree implements Lockable {
                     return;
                 }
                 pageHeader.setDataLength(len);
-                writeValue(page, data);
+                if (fileHeader.isCompressed()) {
+                    writeCompressed();
+                } else {
+                    writeValue(page, data);
+                }
                 setDirty(false);
             } catch (final IOException ioe) {
                 LOG.error(ioe);
@@ -3232,6 +3464,73 @@ public class DOMFile extends BTree implements Lockable {
             }
         }
 
+        /**
+         * Compresses the data of the page and writes it to the page and, if
+         * it does not fit, to a chain of new continuation pages. The previous
+         * continuation pages are freed after the page has been written.
+         */
+        private void writeCompressed() throws IOException {
+            if (pageHeader.getStatus() != RECORD) {
+                // the page has been removed
+                return;
+            }
+            final byte[] compressed = new byte[LENGTH_COMPRESSED_LENGTH + compressor.maxCompressedLength(len)];
+            final int compressedLength = len == 0 ? 0 :
+                    compressor.compress(data, 0, len, compressed, LENGTH_COMPRESSED_LENGTH);
+            ByteConversion.intToByte(compressedLength, compressed, 0);
+            final int storedLength = LENGTH_COMPRESSED_LENGTH + compressedLength;
+            final int workSize = fileHeader.getWorkSize();
+
+            final long[] oldContinuations = getContinuationPages(pageHeader.getNextPage());
+            final Page[] continuations = new Page[storedLength > workSize ? (storedLength - 1) / workSize : 0];
+            final long[] newContinuations = new long[continuations.length];
+            for (int i = 0; i < continuations.length; i++) {
+                continuations[i] = getFreePage(true, page.getPageNum());
+                newContinuations[i] = continuations[i].getPageNum();
+            }
+            final Lsn lsn = journalContinuations(newContinuations, oldContinuations);
+
+            // write the continuation pages from last to first, so that each knows its successor
+            long next = NO_PAGE;
+            for (int i = continuations.length - 1; i >= 0; i--) {
+                final int offset = (i + 1) * workSize;
+                final PageHeader continuationHeader = continuations[i].getPageHeader();
+                continuationHeader.setStatus(CONTINUATION);
+                continuationHeader.setNextPage(next);
+                continuationHeader.setLsn(lsn);
+                writeValue(continuations[i], new Value(compressed, offset, Math.min(workSize, storedLength - offset)));
+                next = continuations[i].getPageNum();
+            }
+            pageHeader.setNextPage(next);
+            writeValue(page, new Value(compressed, 0, Math.min(workSize, storedLength)));
+            for (final long oldContinuation : oldContinuations) {
+                unlinkPages(oldContinuation);
+            }
+        }
+
+        /**
+         * Journals the continuation pages which replace the current ones, and flushes the journal
+         * so that the entry is on disk before the page refers to the new pages.
+         *
+         * @return the LSN of the journal entry, or the LSN of the page if nothing was journaled
+         */
+        private Lsn journalContinuations(final long[] newContinuations, final long[] oldContinuations) {
+            if ((newContinuations.length == 0 && oldContinuations.length == 0) || !isRecoveryEnabled()
+                    || logManager.get().isInRecovery()) {
+                return pageHeader.getLsn();
+            }
+            final WriteContinuationLoggable loggable =
+                    new WriteContinuationLoggable(page.getPageNum(), newContinuations, oldContinuations);
+            try {
+                logManager.get().journal(loggable);
+                logManager.get().flush(true, false);
+                return loggable.getLsn();
+            } catch (final JournalException e) {
+                LOG.error(e.getMessage(), e);
+                return pageHeader.getLsn();
+            }
+        }
+
         public String dumpPage() {
             return "Contents of page " + page.getPageNum() + ": " + hexDump(data);
         }
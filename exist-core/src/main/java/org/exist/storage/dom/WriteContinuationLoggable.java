@@ -0,0 +1,106 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.dom;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogException;
+
+/**
+ * Records the continuation pages allocated for the compressed data of a data page
+ * when it is written, together with the continuation pages it used before.
+ *
+ * The pages are allocated when the page is flushed, outside of any transaction, so the
+ * entry is only ever redone: recovery keeps the chain which the data page refers to on
+ * disk and frees the other pages, which would otherwise be lost.
+ */
+public class WriteContinuationLoggable extends AbstractLoggable {
+
+    // continuation pages are not allocated on behalf of a transaction
+    private static final long NO_TRANSACTION = -1;
+
+    protected long pageNum;
+    protected long[] newPages;
+    protected long[] oldPages;
+    private DOMFile domDb = null;
+
+    public WriteContinuationLoggable(final long pageNum, final long[] newPages, final long[] oldPages) {
+        super(DOMFile.LOG_WRITE_CONTINUATION, NO_TRANSACTION);
+        this.pageNum = pageNum;
+        this.newPages = newPages;
+        this.oldPages = oldPages;
+    }
+
+    public WriteContinuationLoggable(final DBBroker broker, final long transactId) {
+        super(DOMFile.LOG_WRITE_CONTINUATION, transactId);
+        this.domDb = ((NativeBroker) broker).getDOMFile();
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        out.putInt((int) pageNum);
+        writePages(out, newPages);
+        writePages(out, oldPages);
+    }
+
+    private static void writePages(final ByteBuffer out, final long[] pages) {
+        out.putShort((short) pages.length);
+        for (final long page : pages) {
+            out.putInt((int) page);
+        }
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        pageNum = in.getInt();
+        newPages = readPages(in);
+        oldPages = readPages(in);
+    }
+
+    private static long[] readPages(final ByteBuffer in) {
+        final long[] pages = new long[in.getShort()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = in.getInt();
+        }
+        return pages;
+    }
+
+    @Override
+    public int getLogSize() {
+        return 8 + 4 * (newPages.length + oldPages.length);
+    }
+
+    @Override
+    public void redo() throws LogException {
+        domDb.redoWriteContinuation(this);
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - continuation pages of page " + pageNum + ": " + Arrays.toString(newPages) +
+                ", replacing: " + Arrays.toString(oldPages);
+    }
+}
@@ -37,7 +37,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -146,7 +145,7 @@ public class BFile extends BTree {
         super(pool, fileId, fileVersion, recoveryEnabled, cacheManager, file);
         lockManager = pool.getLockManager();
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, Cache.CacheType.DATA);
+        dataCache = cacheManager.newDataCache(FileUtils.fileName(file), 64, cacheGrowth, thresholdData);
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
         maxValueSize = fileHeader.getWorkSize() / 2;
@@ -381,7 +380,7 @@ public class BFile extends BTree {
             return null;
         }
         return new BufferStats(dataCache.getBuffers(), dataCache.getUsedBuffers(), 
-            dataCache.getHits(), dataCache.getFails());
+            dataCache.getHits(), dataCache.getFails(), dataCache.getEvictions());
     }
 
     @Override
@@ -1031,7 +1030,7 @@ public class BFile extends BTree {
     }
 
     protected void redoCreatePage(final CreatePageLoggable loggable) {
-        createPageHelper(loggable, loggable.newPage, false);
+        createPageHelper(loggable, loggable.newPage);
     }
 
     protected void undoCreatePage(final CreatePageLoggable loggable) {
@@ -1105,7 +1104,7 @@ public class BFile extends BTree {
     }
 
     protected void undoRemovePage(final RemoveEmptyPageLoggable loggable) {
-        createPageHelper(loggable, loggable.page, false);
+        createPageHelper(loggable, loggable.page);
     }
 
     protected void redoCreateOverflow(final OverflowCreateLoggable loggable) {
@@ -1115,7 +1114,7 @@ public class BFile extends BTree {
                 final Page page = getPage(loggable.pageNum);
                 byte[] data = page.read();
                 if (page.getPageHeader().getLsn().equals(Lsn.LSN_INVALID) || requiresRedo(loggable, page)) {
-                    dropFreePageList();
+                    reuseDeleted(page);
                     final BFilePageHeader ph = (BFilePageHeader) page.getPageHeader();
                     ph.setStatus(MULTI_PAGE);
                     ph.setNextInChain(0L);
@@ -1150,7 +1149,7 @@ public class BFile extends BTree {
     }
 
     protected void redoCreateOverflowPage(final OverflowCreatePageLoggable loggable) {
-        createPageHelper(loggable, loggable.newPage, false);
+        createPageHelper(loggable, loggable.newPage);
         if (loggable.prevPage != Page.NO_PAGE) {
             try {
                 final SinglePage page = getSinglePageForRedo(null, loggable.prevPage);
@@ -1297,7 +1296,7 @@ public class BFile extends BTree {
     }
 
     protected void undoRemoveOverflow(final OverflowRemoveLoggable loggable) {
-        final DataPage page = createPageHelper(loggable, loggable.pageNum, false);
+        final DataPage page = createPageHelper(loggable, loggable.pageNum);
         final BFilePageHeader ph = page.getPageHeader();
         ph.setStatus(loggable.status);
         ph.setDataLength(loggable.length);
@@ -1378,18 +1377,14 @@ public class BFile extends BTree {
         }
     }
 
-    private DataPage createPageHelper(final Loggable loggable, final long newPage, final boolean reuseDeleted) {
+    private DataPage createPageHelper(final Loggable loggable, final long newPage) {
         try {
             DataPage dp = (DataPage) dataCache.get(newPage);
             if (dp == null) {
                 final Page page = getPage(newPage);
                 byte[] data = page.read();
                 if (page.getPageHeader().getLsn().equals(Lsn.LSN_INVALID) || (loggable != null && requiresRedo(loggable, page)) ) {
-                    if (reuseDeleted) {
-                        reuseDeleted(page);
-                    } else {
-                        dropFreePageList();
-                    }
+                    reuseDeleted(page);
                     final BFilePageHeader ph = (BFilePageHeader) page.getPageHeader();
                     ph.setStatus(RECORD);
                     ph.setDataLength(0);
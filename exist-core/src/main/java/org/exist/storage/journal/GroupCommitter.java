@@ -0,0 +1,323 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for the journal.
+ *
+ * Committing transactions write their commit record into the journal buffer
+ * and then park in {@link #awaitFlushed(Lsn)}. A single flusher thread
+ * collects waiters until either {@link #maxBatchSize} transactions are
+ * waiting or {@link #maxLatencyNanos} has elapsed since the first
+ * waiter arrived, it then flushes (and if configured, fsyncs) the journal
+ * once for the whole group and wakes every waiter whose commit record is
+ * now on disk.
+ *
+ * If a flush fails, every commit of that group is failed, even if a later
+ * flush succeeds: the records of a failed fsync may never have reached the disk.
+ * Only the most recent failure is kept; consecutive failed groups are merged
+ * into a single failed range.
+ */
+@ThreadSafe
+public final class GroupCommitter implements Runnable {
+
+    private static final Logger LOG = LogManager.getLogger(GroupCommitter.class);
+
+    private final Supplier<Lsn> flusher;
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    @GuardedBy("lock") private Lsn requestedLsn = Lsn.LSN_INVALID;
+    @GuardedBy("lock") private Lsn flushedLsn = Lsn.LSN_INVALID;
+    @GuardedBy("lock") private Lsn failedLsn = Lsn.LSN_INVALID;
+    @GuardedBy("lock") private Lsn failedFromLsn = Lsn.LSN_INVALID;
+    @GuardedBy("lock") private RuntimeException failure = null;
+    @GuardedBy("lock") private int enqueued = 0;
+    @GuardedBy("lock") private boolean shutdown = false;
+
+    private final LongAdder commitCount = new LongAdder();
+    private final LongAdder groupCount = new LongAdder();
+    private final LongAdder failedGroupCount = new LongAdder();
+    private final LongAdder totalFlushTime = new LongAdder();
+    private volatile int maxGroupSize = 0;
+    private volatile long maxFlushTime = 0;
+
+    /**
+     * @param flusher a function which flushes the journal to disk and returns the last LSN that was written.
+     * @param maxBatchSize the maximum number of commits to collect before flushing.
+     * @param maxLatency the maximum time to wait for further commits to join a group, in milliseconds.
+     */
+    public GroupCommitter(final Supplier<Lsn> flusher, final int maxBatchSize, final long maxLatency) {
+        this.flusher = flusher;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLatency));
+    }
+
+    /**
+     * Blocks the calling thread until the journal
+     * has been flushed up to at least {@code lsn}.
+     *
+     * @param lsn the LSN of the record that must be on disk.
+     *
+     * @throws JournalException if the group committer has been shutdown, the thread
+     *     was interrupted, or the flush failed.
+     */
+    public void awaitFlushed(final Lsn lsn) throws JournalException {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new JournalException("Journal group committer is shut down");
+            }
+
+            if (lsn.compareTo(requestedLsn) > 0) {
+                requestedLsn = lsn;
+            }
+            commitCount.increment();
+            if (++enqueued == 1 || enqueued >= maxBatchSize) {
+                pending.signal();
+            }
+
+            while (flushedLsn.compareTo(lsn) < 0 && failedLsn.compareTo(lsn) < 0) {
+                flushed.await();
+            }
+
+            // NOTE: checked after the loop, as a later flush may have succeeded before this thread woke up
+            if (failure != null && lsn.compareTo(failedFromLsn) > 0 && lsn.compareTo(failedLsn) <= 0) {
+                throw new JournalException("Failed to flush journal for group commit: " + failure.getMessage(), failure);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JournalException("Interrupted whilst waiting for journal group commit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final int groupSize;
+            lock.lock();
+            try {
+                while (!shutdown && requestedLsn.compareTo(handledLsn()) <= 0) {
+                    pending.await();
+                }
+                if (shutdown && requestedLsn.compareTo(handledLsn()) <= 0) {
+                    return;
+                }
+
+                // give other committing transactions the chance to join the group
+                long remaining = maxLatencyNanos;
+                while (!shutdown && enqueued < maxBatchSize && remaining > 0) {
+                    remaining = pending.awaitNanos(remaining);
+                }
+
+                groupSize = enqueued;
+                enqueued = 0;
+            } catch (final InterruptedException e) {
+                LOG.warn("Journal group committer interrupted, flushing outstanding commits");
+                flushGroup(0);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            flushGroup(groupSize);
+        }
+    }
+
+    private void flushGroup(final int groupSize) {
+        final long start = System.nanoTime();
+        Lsn lsn = null;
+        RuntimeException error = null;
+        try {
+            lsn = flusher.get();
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to flush journal for group commit: " + e.getMessage(), e);
+            error = e;
+        }
+        final long flushTime = System.nanoTime() - start;
+
+        groupCount.increment();
+        totalFlushTime.add(flushTime);
+        if (groupSize > maxGroupSize) {
+            maxGroupSize = groupSize;
+        }
+        if (flushTime > maxFlushTime) {
+            maxFlushTime = flushTime;
+        }
+
+        lock.lock();
+        try {
+            if (error != null) {
+                // the failed commits are not retried, and flushedLsn is not advanced as they were not forced
+                failedGroupCount.increment();
+                if (failure == null || failedLsn.compareTo(flushedLsn) < 0) {
+                    // a group has been flushed since the previous failure, start a new failed range
+                    failedFromLsn = handledLsn();
+                }
+                failedLsn = requestedLsn;
+                failure = error;
+            } else if (lsn.compareTo(flushedLsn) > 0) {
+                flushedLsn = lsn;
+            }
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the highest LSN which has either been flushed, or whose flush has failed.
+     */
+    @GuardedBy("lock")
+    private Lsn handledLsn() {
+        return failedLsn.compareTo(flushedLsn) > 0 ? failedLsn : flushedLsn;
+    }
+
+    /**
+     * Shutdown the group committer.
+     *
+     * Any outstanding commits will be flushed by the flusher
+     * thread before it exits.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a snapshot of the group commit statistics.
+     *
+     * @return the statistics.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(commitCount.sum(), groupCount.sum(), failedGroupCount.sum(), maxGroupSize,
+                TimeUnit.NANOSECONDS.toMicros(totalFlushTime.sum()), TimeUnit.NANOSECONDS.toMicros(maxFlushTime));
+    }
+
+    public static class Statistics {
+        private final long commitCount;
+        private final long groupCount;
+        private final long failedGroupCount;
+        private final int maxGroupSize;
+        private final long totalFlushTime;
+        private final long maxFlushTime;
+
+        /**
+         * @param commitCount the number of commits which have waited on a group commit
+         * @param groupCount the number of groups that have been flushed
+         * @param failedGroupCount the number of groups whose flush failed
+         * @param maxGroupSize the largest number of commits flushed in a single group
+         * @param totalFlushTime the total time spent flushing (and syncing) the journal in microseconds
+         * @param maxFlushTime the longest time spent flushing (and syncing) the journal for a single group in microseconds
+         */
+        @ConstructorProperties({"commitCount", "groupCount", "failedGroupCount", "maxGroupSize", "totalFlushTime", "maxFlushTime"})
+        public Statistics(final long commitCount, final long groupCount, final long failedGroupCount, final int maxGroupSize, final long totalFlushTime, final long maxFlushTime) {
+            this.commitCount = commitCount;
+            this.groupCount = groupCount;
+            this.failedGroupCount = failedGroupCount;
+            this.maxGroupSize = maxGroupSize;
+            this.totalFlushTime = totalFlushTime;
+            this.maxFlushTime = maxFlushTime;
+        }
+
+        /**
+         * Returns the number of commits which have waited on a group commit.
+         *
+         * @return the number of commits
+         */
+        public long getCommitCount() {
+            return commitCount;
+        }
+
+        /**
+         * Returns the number of groups that have been flushed.
+         * The average group size is {@code commitCount / groupCount}.
+         *
+         * @return the number of groups
+         */
+        public long getGroupCount() {
+            return groupCount;
+        }
+
+        /**
+         * Returns the number of groups whose flush failed.
+         *
+         * @return the number of failed groups
+         */
+        public long getFailedGroupCount() {
+            return failedGroupCount;
+        }
+
+        /**
+         * Returns the largest number of commits flushed in a single group.
+         *
+         * @return the largest group size
+         */
+        public int getMaxGroupSize() {
+            return maxGroupSize;
+        }
+
+        /**
+         * Returns the total time spent flushing (and syncing) the journal in microseconds.
+         * The average fsync latency is {@code totalFlushTime / groupCount}.
+         *
+         * @return the total flush time
+         */
+        public long getTotalFlushTime() {
+            return totalFlushTime;
+        }
+
+        /**
+         * Returns the longest time spent flushing (and syncing)
+         * the journal for a single group in microseconds.
+         *
+         * @return the maximum flush time
+         */
+        public long getMaxFlushTime() {
+            return maxFlushTime;
+        }
+    }
+}
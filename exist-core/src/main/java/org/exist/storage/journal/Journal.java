@@ -33,6 +33,10 @@ import java.text.DateFormat;
 import java.util.Optional;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.jpountz.xxhash.XXHash64;
 import net.jpountz.xxhash.XXHashFactory;
 import org.apache.logging.log4j.LogManager;
@@ -43,6 +47,9 @@ import org.exist.config.annotation.ConfigurationFieldAsAttribute;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.lock.FileLock;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TxnAbort;
+import org.exist.storage.txn.TxnCommit;
 import org.exist.storage.txn.TxnStart;
 import org.exist.util.ByteConversion;
 import org.exist.util.FileUtils;
@@ -119,11 +126,15 @@ public final class Journal implements Closeable {
     public static final String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public static final String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public static final String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size";
+    public static final String RECOVERY_GROUP_COMMIT_BATCH_SIZE_ATTRIBUTE = "group-commit-batch-size";
+    public static final String RECOVERY_GROUP_COMMIT_LATENCY_ATTRIBUTE = "group-commit-latency";
 
     public static final String PROPERTY_RECOVERY_SIZE_MIN = "db-connection.recovery.size-min";
     public static final String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public static final String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public static final String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public static final String PROPERTY_RECOVERY_GROUP_COMMIT_BATCH_SIZE = "db-connection.recovery.group-commit-batch-size";
+    public static final String PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY = "db-connection.recovery.group-commit-latency";
 
     public static final String LOG_FILE_SUFFIX = "log";
     public static final String BAK_FILE_SUFFIX = ".bak";
@@ -160,6 +171,16 @@ public final class Journal implements Closeable {
      */
     private static final int DEFAULT_MIN_SIZE = 1;  // MB
 
+    /**
+     * default maximum number of commits flushed together when group commit is enabled
+     */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH_SIZE = 64;
+
+    /**
+     * default maximum time (in milliseconds) to wait for further commits to join a group
+     */
+    public static final long DEFAULT_GROUP_COMMIT_LATENCY = 2;
+
     /**
      * We use a 1 megabyte buffer.
      */
@@ -231,6 +252,16 @@ public final class Journal implements Closeable {
      */
     private Lsn lastSyncLsn = Lsn.LSN_INVALID;
 
+    /**
+     * the LSN of the last fuzzy checkpoint written to the journal
+     */
+    private Lsn lastFuzzyCheckpointLsn = Lsn.LSN_INVALID;
+
+    /**
+     * the transactions which have been started but not yet committed or aborted
+     */
+    private final LongSet activeTransactions = new LongOpenHashSet();
+
     /**
      * set to true while recovery is in progress
      */
@@ -370,8 +401,17 @@ public final class Journal implements Closeable {
             throw new JournalException("Buffer overflow while writing log record: " + entry.dump(), e);
         }
 
+        if (entry instanceof TxnStart) {
+            activeTransactions.add(entry.getTransactionId());
+        } else if (entry instanceof TxnCommit || entry instanceof TxnAbort) {
+            activeTransactions.remove(entry.getTransactionId());
+        } else if (entry instanceof Checkpoint) {
+            // a checkpoint is only written when no transaction is running
+            activeTransactions.clear();
+        }
+
         // NOTE: we don't track operations on txnStart or checkpoints!
-        if (!(entry instanceof TxnStart || entry instanceof Checkpoint)) {
+        if (!(entry instanceof TxnStart || entry instanceof Checkpoint || entry instanceof FuzzyCheckpoint)) {
             pool.getTransactionManager().trackOperation(entry.getTransactionId());
         }
     }
@@ -403,27 +443,46 @@ public final class Journal implements Closeable {
      * @param forceSync force changes to disk even if syncMode doesn't require it.
      */
     public synchronized void flushToLog(final boolean fsync, final boolean forceSync) {
+        try {
+            syncToLog(fsync, forceSync);
+        } catch (final IOException e) {
+            LOG.error("Could not sync Journal to disk: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Flush the current buffer to disk. If fsync is true, a sync will
+     * be called on the file to force all changes to disk.
+     *
+     * Unlike {@link #flushToLog(boolean, boolean)}, a failure to write or sync
+     * the journal is reported to the caller, so that commits which depend
+     * on the records being on disk can be failed.
+     *
+     * @param fsync     forces all changes to disk if true and syncMode is set to SYNC_ON_COMMIT.
+     * @param forceSync force changes to disk even if syncMode doesn't require it.
+     *
+     * @throws IOException if the buffer could not be written, or the journal could not be synced to disk.
+     */
+    public synchronized void syncToLog(final boolean fsync, final boolean forceSync) throws IOException {
         if (inRecovery) {
             return;
         }
 
-        flushBuffer();
-
         try {
+            writeBuffer();
+
             if (forceSync || (fsync && syncOnCommit && currentLsn.compareTo(lastSyncLsn) > 0)) {
                 sync();
                 lastSyncLsn = currentLsn;
             }
-        } catch (final IOException e) {
-            LOG.error("Could not sync Journal to disk: " + e.getMessage(), e);
-        }
-
-        try {
-            if (channel != null && channel.size() >= journalSizeLimit) {
-                pool.triggerCheckpoint();
+        } finally {
+            try {
+                if (channel != null && channel.size() >= journalSizeLimit) {
+                    pool.triggerCheckpoint();
+                }
+            } catch (final IOException e) {
+                LOG.warn("Failed to trigger checkpoint!", e);
             }
-        } catch (final IOException e) {
-            LOG.warn("Failed to trigger checkpoint!", e);
         }
     }
 
@@ -435,6 +494,19 @@ public final class Journal implements Closeable {
      * Flush the buffer to disk.
      */
     private void flushBuffer() {
+        try {
+            writeBuffer();
+        } catch (final IOException e) {
+            LOG.warn("Flushing log file failed!", e);
+        }
+    }
+
+    /**
+     * Write the buffer to the journal file.
+     *
+     * @throws IOException if the buffer could not be written.
+     */
+    private void writeBuffer() throws IOException {
         if (currentBuffer == null || channel == null) {
             return; // the db has probably been shut down already or not fully initialized
         }
@@ -442,15 +514,12 @@ public final class Journal implements Closeable {
             try {
                 if (currentBuffer.position() > 0) {
                     currentBuffer.flip();
-                    final int size = currentBuffer.remaining();
                     while (currentBuffer.hasRemaining()) {
                         channel.write(currentBuffer);
                     }
 
                     lastLsnWritten = currentLsn;
                 }
-            } catch (final IOException e) {
-                LOG.warn("Flushing log file failed!", e);
             } finally {
                 currentBuffer.clear();
             }
@@ -495,6 +564,41 @@ public final class Journal implements Closeable {
         }
     }
 
+    /**
+     * Prepare a fuzzy checkpoint. The LSN of the last entry written so far becomes the
+     * redo LSN of the checkpoint, and the transactions which are running at this point
+     * are recorded in it. Both are taken under the monitor of the journal, so no entry can
+     * be written in between.
+     *
+     * The caller has to write all the pages changed up to the redo LSN to disk before
+     * the checkpoint is written with {@link #fuzzyCheckpoint(FuzzyCheckpoint)}.
+     *
+     * @param txnId The transaction id
+     * @return the checkpoint, or null if nothing has been written to the journal since the last fuzzy checkpoint
+     */
+    public synchronized @Nullable FuzzyCheckpoint prepareFuzzyCheckpoint(final long txnId) {
+        if (currentLsn.equals(Lsn.LSN_INVALID) || currentLsn.equals(lastFuzzyCheckpointLsn)) {
+            return null;
+        }
+        return new FuzzyCheckpoint(txnId, currentLsn, activeTransactions.toLongArray());
+    }
+
+    /**
+     * Write a fuzzy checkpoint record to the journal and sync it.
+     * Unlike {@link #checkpoint(long, boolean)}, this never switches
+     * the journal files, as running transactions may still have to be
+     * undone from the current file.
+     *
+     * @param checkpoint the checkpoint obtained from {@link #prepareFuzzyCheckpoint(long)}
+     * @throws JournalException if the checkpoint could not be written to the journal.
+     */
+    public synchronized void fuzzyCheckpoint(final FuzzyCheckpoint checkpoint) throws JournalException {
+        LOG.debug("Fuzzy checkpoint reached");
+        writeToLog(checkpoint);
+        flushToLog(true, true);
+        lastFuzzyCheckpointLsn = checkpoint.getLsn();
+    }
+
     /**
      * Set the file number of the last file used.
      *
@@ -693,6 +797,15 @@ public final class Journal implements Closeable {
         this.inRecovery = inRecovery;
     }
 
+    /**
+     * Returns true while the database is in the recovery phase.
+     *
+     * @return true when the database is in recovery, false otherwise.
+     */
+    public boolean isInRecovery() {
+        return inRecovery;
+    }
+
     /**
      * Translate a file number into a file name.
      *
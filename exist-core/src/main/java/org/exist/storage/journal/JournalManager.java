@@ -39,14 +39,21 @@ import org.exist.storage.BrokerPool;
 import org.exist.storage.BrokerPoolService;
 import org.exist.storage.BrokerPoolServiceException;
 import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.util.Configuration;
 import org.exist.util.ReadOnlyException;
 
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import static org.exist.util.ThreadUtils.newInstanceThread;
+
 /**
  * Journal Manager just adds some light-weight
  * wrapping around {@link Journal}.
@@ -58,7 +65,11 @@ public class JournalManager implements BrokerPoolService {
 
     private Path journalDir;
     private boolean groupCommits;
+    private int groupCommitBatchSize;
+    private long groupCommitLatency;
     private Journal journal;
+    @Nullable private GroupCommitter groupCommitter;
+    @Nullable private Thread groupCommitterThread;
     private boolean journallingDisabled = false;
     private boolean initialized = false;
 
@@ -69,8 +80,10 @@ public class JournalManager implements BrokerPoolService {
         this.journalDir = (Path) Optional.ofNullable(configuration.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR))
                 .orElse(configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR));
         this.groupCommits = configuration.getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false);
+        this.groupCommitBatchSize = configuration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_BATCH_SIZE, Journal.DEFAULT_GROUP_COMMIT_BATCH_SIZE);
+        this.groupCommitLatency = configuration.getProperty(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY, Journal.DEFAULT_GROUP_COMMIT_LATENCY);
         if (LOG.isDebugEnabled()) {
-            LOG.debug("GroupCommits = " + groupCommits);
+            LOG.debug("GroupCommits = " + groupCommits + ", batch-size = " + groupCommitBatchSize + ", latency = " + groupCommitLatency + "ms");
         }
     }
 
@@ -81,6 +94,13 @@ public class JournalManager implements BrokerPoolService {
                 this.journal = new Journal(pool, journalDir);
                 this.journal.initialize();
                 this.initialized = true;
+
+                if (groupCommits) {
+                    this.groupCommitter = new GroupCommitter(this::flushGroup, groupCommitBatchSize, groupCommitLatency);
+                    this.groupCommitterThread = newInstanceThread(pool, "journal.group-commit", groupCommitter);
+                    groupCommitterThread.setDaemon(true);
+                    groupCommitterThread.start();
+                }
             } catch(final EXistException | ReadOnlyException e) {
                 throw new BrokerPoolServiceException(e);
             }
@@ -107,7 +127,12 @@ public class JournalManager implements BrokerPoolService {
     }
 
     /**
-     * Write a group of entrys to the journal
+     * Write the final entry of a group of entries (i.e. a transaction commit or abort)
+     * to the journal, and wait until it has been flushed to disk.
+     *
+     * When group commit is enabled, the entry is written to the journal buffer and the
+     * calling thread parks until the {@link GroupCommitter} has flushed the group
+     * of entries which it is part of.
      *
      * @see Journal#writeToLog(Loggable)
      * @see Journal#flushToLog(boolean)
@@ -116,15 +141,51 @@ public class JournalManager implements BrokerPoolService {
      *
      * @throws JournalException of the journal group cannot be written
      */
-    public synchronized void journalGroup(final Loggable loggable) throws JournalException {
-        if(!journallingDisabled) {
-            journal.writeToLog(loggable);
-            if (!groupCommits) {
+    public void journalGroup(final Loggable loggable) throws JournalException {
+        if(journallingDisabled) {
+            return;
+        }
+
+        if (groupCommitter == null) {
+            synchronized (this) {
+                journal.writeToLog(loggable);
                 journal.flushToLog(true);
             }
+        } else {
+            synchronized (this) {
+                journal.writeToLog(loggable);
+            }
+            // NOTE: must not hold the monitor whilst waiting, as the group committer needs it to flush
+            groupCommitter.awaitFlushed(loggable.getLsn());
         }
     }
 
+    /**
+     * Flushes the journal on behalf of the {@link GroupCommitter}.
+     *
+     * @return the last LSN written to the journal.
+     *
+     * @throws UncheckedIOException if the journal could not be written or synced,
+     *     so that the group committer fails every commit of the group.
+     */
+    private synchronized Lsn flushGroup() {
+        try {
+            journal.syncToLog(true, false);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not sync Journal to disk: " + e.getMessage(), e);
+        }
+        return journal.lastWrittenLsn();
+    }
+
+    /**
+     * Get statistics about group commits.
+     *
+     * @return the group commit statistics, or {@link Optional#empty()} if group commit is not enabled.
+     */
+    public Optional<GroupCommitter.Statistics> getGroupCommitStatistics() {
+        return Optional.ofNullable(groupCommitter).map(GroupCommitter::getStatistics);
+    }
+
     /**
      * @see Journal#checkpoint(long, boolean)
      *
@@ -154,6 +215,39 @@ public class JournalManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * @see Journal#prepareFuzzyCheckpoint(long)
+     *
+     * Prepare a fuzzy checkpoint, which may be taken while transactions are running.
+     *
+     * @param transactionId The id of the transaction for the checkpoint
+     *
+     * @return the checkpoint, or null if journalling is disabled or nothing has been
+     *     written to the journal since the last fuzzy checkpoint
+     */
+    public synchronized @Nullable FuzzyCheckpoint prepareFuzzyCheckpoint(final long transactionId) {
+        if(journallingDisabled) {
+            return null;
+        }
+        return journal.prepareFuzzyCheckpoint(transactionId);
+    }
+
+    /**
+     * @see Journal#fuzzyCheckpoint(FuzzyCheckpoint)
+     *
+     * Write a fuzzy checkpoint. The journal listeners are not notified, as they
+     * expect the database to be in a stable state after a checkpoint.
+     *
+     * @param checkpoint the checkpoint obtained from {@link #prepareFuzzyCheckpoint(long)}
+     *
+     * @throws JournalException of the journal checkpoint cannot be written
+     */
+    public synchronized void fuzzyCheckpoint(final FuzzyCheckpoint checkpoint) throws JournalException {
+        if(!journallingDisabled) {
+            journal.fuzzyCheckpoint(checkpoint);
+        }
+    }
+
     /**
      * @param fsync true to use fsync
      * @param forceSync true to force an fsync
@@ -176,10 +270,25 @@ public class JournalManager implements BrokerPoolService {
      * @param transactionId The id of the transaction for the shutdown
      * @param checkpoint Whether to write a checkpoint before shutdown
      */
-    public synchronized void shutdown(final long transactionId, final boolean checkpoint) {
-        if(initialized) {
-            journal.shutdown(transactionId, checkpoint);
-            initialized = false;
+    public void shutdown(final long transactionId, final boolean checkpoint) {
+        // NOTE: must not hold the monitor here, as the group committer needs it to flush outstanding commits
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
+
+            // wait for the outstanding commits to be flushed before the journal is closed
+            try {
+                groupCommitterThread.join();
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted whilst waiting for the journal group committer to finish");
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (initialized) {
+                journal.shutdown(transactionId, checkpoint);
+                initialized = false;
+            }
         }
     }
 
@@ -192,6 +301,15 @@ public class JournalManager implements BrokerPoolService {
         return journal.lastWrittenLsn();
     }
 
+    /**
+     * @see Journal#isInRecovery()
+     *
+     * @return true when the database is in recovery, false otherwise.
+     */
+    public boolean isInRecovery() {
+        return journal.isInRecovery();
+    }
+
 
 
     public RecoveryManager.JournalRecoveryAccessor getRecoveryAccessor(final RecoveryManager recoveryManager) {
@@ -27,6 +27,7 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import org.exist.storage.DBBroker;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.storage.txn.TxnAbort;
 import org.exist.storage.txn.TxnCommit;
 import org.exist.storage.txn.TxnStart;
@@ -44,6 +45,7 @@ public class LogEntryTypes {
     public final static byte TXN_COMMIT = 1;
     public final static byte CHECKPOINT = 2;
     public final static byte TXN_ABORT = 3;
+    public final static byte FUZZY_CHECKPOINT = 4;
 
     private final static Int2ObjectMap<BiFunction<DBBroker, Long, Loggable>> entryTypes = new Int2ObjectOpenHashMap<>();
 
@@ -53,6 +55,7 @@ public class LogEntryTypes {
         entryTypes.put(TXN_COMMIT, TxnCommit::new);
         entryTypes.put(CHECKPOINT, Checkpoint::new);
         entryTypes.put(TXN_ABORT, TxnAbort::new);
+        entryTypes.put(FUZZY_CHECKPOINT, FuzzyCheckpoint::new);
     }
 
     /**
@@ -96,14 +96,30 @@ public class LockTable {
 
     /**
      * Table of threads attempting to acquire a lock
+     *
+     * A thread is only present whilst it has an outstanding attempt,
+     * so that the table does not grow with the number of threads
+     * which have ever used a lock, e.g. when running on virtual threads.
      */
     private final Map<Thread, Entry> attempting = new ConcurrentHashMap<>(60);
 
     /**
      * Table of threads which have acquired lock(s)
+     *
+     * A thread is only present whilst it holds at least one lock.
      */
     private final Map<Thread, Entries> acquired = new ConcurrentHashMap<>(60);
 
+    /**
+     * The attempt entry of the current thread, reused between attempts
+     */
+    private final ThreadLocal<Entry> threadAttemptEntry = ThreadLocal.withInitial(Entry::new);
+
+    /**
+     * The acquired entries of the current thread, reused whilst the thread is alive
+     */
+    private final ThreadLocal<Entries> threadAcquiredEntries = ThreadLocal.withInitial(Entries::new);
+
 
     LockTable(final Configuration configuration) {
         this.disableEvents = LockManager.getLegacySystemPropertyOrConfigPropertyBool(PROP_DISABLE, configuration, CONFIGURATION_DISABLED, false);
@@ -171,13 +187,7 @@ public class LockTable {
         switch (lockEventType) {
             case Attempt:
 
-                Entry entry = attempting.get(currentThread);
-                if (entry == null) {
-                    // happens once per thread!
-                    entry = new Entry();
-                    attempting.put(currentThread, entry);
-                }
-
+                final Entry entry = threadAttemptEntry.get();
                 entry.id = id;
                 entry.lockType = lockType;
                 entry.lockMode = lockMode;
@@ -190,6 +200,7 @@ public class LockTable {
                 }
                 // write count last to ensure reader-thread visibility of above fields
                 entry.count = 1;
+                attempting.put(currentThread, entry);
 
                 notifyListeners(lockEventType, timestamp, groupId, entry);
 
@@ -197,7 +208,7 @@ public class LockTable {
 
 
             case AttemptFailed:
-                final Entry attemptFailedEntry = attempting.get(currentThread);
+                final Entry attemptFailedEntry = attempting.remove(currentThread);
                 if (attemptFailedEntry == null || attemptFailedEntry.count == 0) {
                     LOG.error("No entry found when trying to remove failed `attempt` for: id={}, thread={}", id, currentThread.getName());
                     break;
@@ -212,7 +223,7 @@ public class LockTable {
 
 
             case Acquired:
-                final Entry attemptEntry = attempting.get(currentThread);
+                final Entry attemptEntry = attempting.remove(currentThread);
                 if (attemptEntry == null || attemptEntry.count == 0) {
                     LOG.error("No entry found when trying to remove `attempt` to promote to `acquired` for: id={}, thread={}", id, currentThread.getName());
 
@@ -221,21 +232,14 @@ public class LockTable {
 
                 // we now either add or merge the `attemptEntry` with the `acquired` table
                 Entries acquiredEntries = acquired.get(currentThread);
-
                 if (acquiredEntries == null) {
-                    final Entry acquiredEntry = new Entry(attemptEntry);
-
-                    acquiredEntries = new Entries(acquiredEntry);
+                    acquiredEntries = threadAcquiredEntries.get();
                     acquired.put(currentThread, acquiredEntries);
-
-                    notifyListeners(lockEventType, timestamp, groupId, acquiredEntry);
-
-                } else {
-
-                    final Entry acquiredEntry = acquiredEntries.merge(attemptEntry);
-                    notifyListeners(lockEventType, timestamp, groupId, acquiredEntry);
                 }
 
+                final Entry acquiredEntry = acquiredEntries.merge(attemptEntry);
+                notifyListeners(lockEventType, timestamp, groupId, acquiredEntry);
+
                 // mark attempt as unused
                 attemptEntry.count = 0;
 
@@ -255,6 +259,11 @@ public class LockTable {
                     break;
                 }
 
+                // only the current thread modifies its entries, so they cannot be re-populated concurrently
+                if (entries.isEmpty()) {
+                    acquired.remove(currentThread);
+                }
+
                 notifyListeners(lockEventType, timestamp, groupId, releasedEntry);
 
                 break;
@@ -271,8 +280,13 @@ public class LockTable {
         private final StampedLock entriesLock = new StampedLock();
         @GuardedBy("entriesLock") private final ObjectLinkedOpenHashSet<Entry> entries = new ObjectLinkedOpenHashSet<>();
 
-        public Entries(final Entry entry) {
-            entries.add(entry);
+        public boolean isEmpty() {
+            final long stamp = entriesLock.readLock();
+            try {
+                return entries.isEmpty();
+            } finally {
+                entriesLock.unlockRead(stamp);
+            }
         }
 
         public Entry merge(final Entry attemptEntry) {
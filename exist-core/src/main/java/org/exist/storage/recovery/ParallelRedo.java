@@ -0,0 +1,316 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.blob.BlobLoggable;
+import org.exist.storage.btree.BTAbstractLoggable;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.index.AbstractBFileLoggable;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.exist.util.ThreadUtils.newInstanceThread;
+
+/**
+ * Replays the journal entries of the redo pass of a recovery run on several threads.
+ *
+ * At runtime a journalled file is only changed by the thread which holds its lock,
+ * so the entries are partitioned by the file they change: all the entries for one file
+ * are replayed in journal order by the same worker thread, which preserves the LSN order
+ * for every page of the file, whilst the entries for different files are replayed
+ * concurrently. Entries which cannot be attributed to a file are replayed by the
+ * calling thread once all the workers have caught up.
+ *
+ * With a single thread, every entry is replayed by the calling thread.
+ */
+final class ParallelRedo implements AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelRedo.class);
+
+    private static final int PARTITION_CONTROL = -1;
+    private static final int PARTITION_UNKNOWN = -2;
+    private static final int PARTITION_BLOB_STORE = 0x100;
+
+    private static final int QUEUE_SIZE = 4096;
+    private static final long REPORT_INTERVAL = 10_000;
+    private static final Runnable SHUTDOWN = () -> {};
+
+    private final BrokerPool pool;
+    private final int threads;
+    private final List<Worker> workers = new ArrayList<>();
+    private final Int2ObjectMap<Worker> partitions = new Int2ObjectOpenHashMap<>();
+    private final AtomicReference<RedoException> failure = new AtomicReference<>();
+
+    private final LongAdder redone = new LongAdder();
+    private final long start = System.currentTimeMillis();
+    private long nextReport = start + REPORT_INTERVAL;
+
+    /**
+     * @param pool the database instance.
+     * @param threads the maximum number of threads to replay entries on.
+     */
+    ParallelRedo(final BrokerPool pool, final int threads) {
+        this.pool = pool;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Replay a journal entry. The entry may be replayed
+     * after this method has returned.
+     *
+     * @param loggable the journal entry.
+     *
+     * @throws RedoException if replaying this or an earlier entry has failed.
+     * @throws LogException if the thread was interrupted.
+     */
+    void redo(final Loggable loggable) throws LogException {
+        checkFailure();
+
+        final int partition = partitionOf(loggable);
+        if (threads == 1 || partition == PARTITION_CONTROL) {
+            redoEntry(loggable);
+        } else if (partition == PARTITION_UNKNOWN) {
+            // we do not know what this entry changes, so it may not overtake any other entry
+            await();
+            redoEntry(loggable);
+        } else {
+            worker(partition).submit(() -> redoEntry(loggable));
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now >= nextReport) {
+            LOG.info("Redo in progress: " + this);
+            nextReport = now + REPORT_INTERVAL;
+        }
+    }
+
+    /**
+     * Wait until all the entries passed to {@link #redo(Loggable)} have been replayed.
+     *
+     * @throws RedoException if replaying an entry has failed.
+     * @throws LogException if the thread was interrupted.
+     */
+    void await() throws LogException {
+        final CountDownLatch latch = new CountDownLatch(workers.size());
+        for (final Worker worker : workers) {
+            worker.submit(latch::countDown);
+        }
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogException("Interrupted whilst waiting for redo to complete", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Get the number of entries that have been replayed so far.
+     *
+     * @return the number of entries.
+     */
+    long getRedoneCount() {
+        return redone.sum();
+    }
+
+    /**
+     * Get the number of threads used for replaying entries.
+     *
+     * @return the number of threads, including the calling thread.
+     */
+    int getThreadCount() {
+        return workers.size() + 1;
+    }
+
+    /**
+     * Stops the worker threads, any entries which have
+     * not been replayed yet are replayed first.
+     */
+    @Override
+    public void close() {
+        for (final Worker worker : workers) {
+            try {
+                worker.submit(SHUTDOWN);
+                worker.thread.join();
+            } catch (final LogException | InterruptedException e) {
+                LOG.warn("Interrupted whilst stopping redo worker: " + worker.thread.getName());
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            for (final Int2ObjectMap.Entry<Worker> partition : partitions.int2ObjectEntrySet()) {
+                LOG.debug("Redo partition " + partitionName(partition.getIntKey()) + " was replayed by " +
+                        partition.getValue().thread.getName());
+            }
+        }
+    }
+
+    /**
+     * Reports the progress and throughput of the redo run.
+     */
+    @Override
+    public String toString() {
+        final long count = redone.sum();
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        return "replayed " + count + " journal entries in " + elapsed + "ms (" + (count * 1000 / elapsed) +
+                " entries/s) on " + getThreadCount() + " threads";
+    }
+
+    private void redoEntry(final Loggable loggable) {
+        if (failure.get() != null) {
+            // recovery is aborted, skip the remaining entries
+            return;
+        }
+        try {
+            loggable.redo();
+            redone.increment();
+        } catch (final Exception | Error e) {
+            // do not let a failure stop the worker thread, the calling thread may be waiting for it
+            failure.compareAndSet(null, new RedoException(loggable, e));
+        }
+    }
+
+    private void checkFailure() throws RedoException {
+        final RedoException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private Worker worker(final int partition) {
+        Worker worker = partitions.get(partition);
+        if (worker == null) {
+            // the calling thread replays unknown entries, so it counts as one of the threads
+            if (workers.size() < threads - 1) {
+                worker = new Worker(workers.size());
+                workers.add(worker);
+                worker.thread.start();
+            } else {
+                worker = workers.get(partitions.size() % workers.size());
+            }
+            partitions.put(partition, worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Determines the file which a journal entry changes.
+     *
+     * @param loggable the journal entry.
+     *
+     * @return the id of the file, or one of the pseudo partitions.
+     */
+    static int partitionOf(final Loggable loggable) {
+        if (loggable instanceof BTAbstractLoggable) {
+            return ((BTAbstractLoggable) loggable).getFileId() & 0xFF;
+        } else if (loggable instanceof AbstractBFileLoggable) {
+            return ((AbstractBFileLoggable) loggable).getFileId() & 0xFF;
+        } else if (loggable instanceof BlobLoggable) {
+            return PARTITION_BLOB_STORE;
+        }
+
+        final byte type = loggable.getLogType();
+        if (type >= DOMFile.LOG_CREATE_PAGE && type <= DOMFile.LOG_WRITE_CONTINUATION) {
+            return NativeBroker.DOM_DBX_ID;
+        } else if (type >= LogEntryTypes.TXN_START && type <= LogEntryTypes.FUZZY_CHECKPOINT) {
+            // transaction and checkpoint records do not change any file
+            return PARTITION_CONTROL;
+        }
+        return PARTITION_UNKNOWN;
+    }
+
+    private static String partitionName(final int partition) {
+        return partition == PARTITION_BLOB_STORE ? "blob store" : "file " + partition;
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private final Thread thread;
+
+        Worker(final int id) {
+            this.thread = newInstanceThread(pool, "recovery-redo-" + id, this);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(final Runnable task) throws LogException {
+            try {
+                queue.put(task);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LogException("Interrupted whilst queueing journal entry for redo", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Runnable task;
+                try {
+                    task = queue.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == SHUTDOWN) {
+                    return;
+                }
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Thrown when replaying a journal entry has failed.
+     */
+    static final class RedoException extends LogException {
+        private final transient Loggable loggable;
+
+        RedoException(final Loggable loggable, final Throwable cause) {
+            super("Failed to redo journal entry: " + cause.getMessage(), cause);
+            this.loggable = loggable;
+        }
+
+        /**
+         * Get the journal entry which could not be replayed.
+         *
+         * @return the journal entry.
+         */
+        Loggable getLoggable() {
+            return loggable;
+        }
+    }
+}
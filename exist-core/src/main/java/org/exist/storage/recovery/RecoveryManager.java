@@ -31,16 +31,20 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.DBBroker;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.ProcessMonitor;
 import org.exist.storage.blob.BlobStore;
 import org.exist.storage.journal.*;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.util.FileUtils;
 import org.exist.util.ProgressBar;
 import com.evolvedbinary.j8fu.function.SupplierE;
@@ -60,11 +64,24 @@ public class RecoveryManager {
     private final DBBroker broker;
     private final JournalRecoveryAccessor journalRecovery;
     private final boolean restartOnError;
+    private final int redoThreads;
 
     public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError) {
+        this(broker, journalManager, restartOnError, 1);
+    }
+
+    /**
+     * @param broker the database broker
+     * @param journalManager the journal manager
+     * @param restartOnError true if the database should be started even if recovery fails
+     * @param redoThreads the maximum number of threads to replay the journal on
+     */
+    public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError,
+            final int redoThreads) {
         this.broker = broker;
         this.journalRecovery = journalManager.getRecoveryAccessor(this);
         this.restartOnError = restartOnError;
+        this.redoThreads = redoThreads;
 	}
 
 	/**
@@ -120,6 +137,7 @@ public class RecoveryManager {
     				reader.positionFirst();
     				final Long2ObjectMap<Loggable> txnsStarted = new Long2ObjectOpenHashMap<>();
 	    			Checkpoint lastCheckpoint = null;
+	    			FuzzyCheckpoint lastFuzzyCheckpoint = null;
 	    			Lsn lastLsn = Lsn.LSN_INVALID;
 	                Loggable next;
 	                try {
@@ -136,6 +154,10 @@ public class RecoveryManager {
 				            } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
 				            	txnsStarted.clear();
 	        					lastCheckpoint = (Checkpoint) next;
+	        					lastFuzzyCheckpoint = null;
+				            } else if (next.getLogType() == LogEntryTypes.FUZZY_CHECKPOINT) {
+				            	// transactions may still be running at a fuzzy checkpoint, so keep them
+				            	lastFuzzyCheckpoint = (FuzzyCheckpoint) next;
 				            }
 	        				lastLsn = next.getLsn();
 	        			}
@@ -151,13 +173,22 @@ public class RecoveryManager {
 	    			if ((lastCheckpoint == null || !lastCheckpoint.getLsn().equals(lastLsn)) &&
 	    					txnsStarted.size() > 0) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
-	    				// starting recovery: reposition the log reader to the last checkpoint
-						if (lastCheckpoint == null)
-						    {reader.positionFirst();}
-						else {
-						    reader.position(lastCheckpoint.getLsn());
-						    next = reader.nextEntry();
-						}
+	    				// starting recovery: reposition the log reader to the last checkpoint,
+	    				// or after the redo LSN of a later fuzzy checkpoint, everything up to
+	    				// which is already on disk
+	    				if (lastFuzzyCheckpoint != null && lastFuzzyCheckpoint.getRedoLsn().getFileNumber() == lastNum
+	    						&& (lastCheckpoint == null || lastFuzzyCheckpoint.getRedoLsn().compareTo(lastCheckpoint.getLsn()) > 0)) {
+	    					LOG.info("Redoing from fuzzy checkpoint written at " + lastFuzzyCheckpoint.getDateString());
+	    					reader.position(lastFuzzyCheckpoint.getRedoLsn());
+	    					next = reader.nextEntry();
+	    				} else if (lastCheckpoint == null) {
+	    					lastFuzzyCheckpoint = null;
+	    					reader.positionFirst();
+	    				} else {
+	    					lastFuzzyCheckpoint = null;
+	    					reader.position(lastCheckpoint.getLsn());
+	    					next = reader.nextEntry();
+	    				}
 	                    recoveryRun = true;
                         try {
                             LOG.info("Running recovery...");
@@ -173,7 +204,7 @@ public class RecoveryManager {
                                     throw new LogException("Unable to Open the Blob Store for Recovery: " + e.getMessage(), e);
                                 }
 
-                                doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                                doRecovery(txnsStarted.size(), last, reader, lastLsn, lastFuzzyCheckpoint);
 
                             } catch (final IOException e) {
                                 LOG.error("Error whilst closing the Blob Store after recovery: " + e.getMessage(), e);
@@ -241,10 +272,12 @@ public class RecoveryManager {
      * @param last
      * @param reader
      * @param lastLsn
+     * @param fuzzyCheckpoint the fuzzy checkpoint the reader has been positioned at, or null
      *
      * @throws LogException
      */
-    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final Lsn lastLsn) throws LogException {
+    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final Lsn lastLsn,
+            @Nullable final FuzzyCheckpoint fuzzyCheckpoint) throws LogException {
         if (LOG.isInfoEnabled()) {
             LOG.info("Running recovery ...");
         }
@@ -253,6 +286,12 @@ public class RecoveryManager {
         try {
             // map to track running transactions
             final Long2ObjectMap<Loggable> runningTxns = new Long2ObjectOpenHashMap<>();
+            if (fuzzyCheckpoint != null) {
+                // transactions which were running at the redo LSN started before the reader's position
+                for (final long txnId : fuzzyCheckpoint.getActiveTransactions()) {
+                    runningTxns.put(txnId, fuzzyCheckpoint);
+                }
+            }
 
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
@@ -260,28 +299,46 @@ public class RecoveryManager {
             final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(last));
             Loggable next = null;
             int redoCnt = 0;
-            try {
-                while ((next = reader.nextEntry()) != null) {
-                    SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
-                            "Found a checkpoint during recovery run! This should not ever happen.");
-                    if (next.getLogType() == LogEntryTypes.TXN_START) {
-                        // new transaction starts: add it to the transactions table
-                        runningTxns.put(next.getTransactionId(), next);
-                    } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
-                        // transaction committed: remove it from the transactions table
-                        runningTxns.remove(next.getTransactionId());
-                        redoCnt++;
-                    } else if (next.getLogType() == LogEntryTypes.TXN_ABORT) {
-                        // transaction aborted: remove it from the transactions table
-                        runningTxns.remove(next.getTransactionId());
+            final ProcessMonitor processMonitor = broker.getBrokerPool().getProcessMonitor();
+            try (final ParallelRedo parallelRedo = new ParallelRedo(broker.getBrokerPool(), redoThreads)) {
+                if (processMonitor != null) {
+                    processMonitor.startJob(ProcessMonitor.ACTION_RECOVERY, parallelRedo, new ProcessMonitor.Monitor());
+                }
+                try {
+                    while ((next = reader.nextEntry()) != null) {
+                        SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
+                                "Found a checkpoint during recovery run! This should not ever happen.");
+                        if (next.getLogType() == LogEntryTypes.TXN_START) {
+                            // new transaction starts: add it to the transactions table
+                            runningTxns.put(next.getTransactionId(), next);
+                        } else if (next.getLogType() == LogEntryTypes.TXN_COMMIT) {
+                            // transaction committed: remove it from the transactions table
+                            runningTxns.remove(next.getTransactionId());
+                            redoCnt++;
+                        } else if (next.getLogType() == LogEntryTypes.TXN_ABORT) {
+                            // transaction aborted: remove it from the transactions table
+                            runningTxns.remove(next.getTransactionId());
+                        }
+            //            LOG.debug("Redo: " + next.dump());
+                        // redo the log entry, entries for different files may be replayed concurrently
+                        parallelRedo.redo(next);
+                        progress.set(next.getLsn().getOffset());
+                        if (next.getLsn().equals(lastLsn))
+                            {break;} // last readable entry reached. Stop here.
+                    }
+                    // the undo pass may only start once every entry has been replayed
+                    parallelRedo.await();
+                } finally {
+                    if (processMonitor != null) {
+                        processMonitor.endJob();
                     }
-        //            LOG.debug("Redo: " + next.dump());
-                    // redo the log entry
-                    next.redo();
-                    progress.set(next.getLsn().getOffset());
-                    if (next.getLsn().equals(lastLsn))
-                        {break;} // last readable entry reached. Stop here.
                 }
+                LOG.info("Redo " + parallelRedo);
+            } catch (final ParallelRedo.RedoException e) {
+                LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
+                    "Before starting again, make sure to run a check via the emergency export tool.", e.getCause());
+                LOG.info("Log entry that caused the exception: " + e.getLoggable().dump());
+                throw new LogException("Recovery aborted. ");
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
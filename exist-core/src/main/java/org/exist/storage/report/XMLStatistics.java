@@ -113,6 +113,7 @@ public class XMLStatistics {
         addValue("used", String.valueOf(index.getUsed()));
         addValue("hits", String.valueOf(index.getPageHits()));
         addValue("fails", String.valueOf(index.getPageFails()));
+        addValue("evictions", String.valueOf(index.getPageEvictions()));
         this.contentHandler.endElement(NAMESPACE, "buffer", PREFIX + ":buffer");
         atts.addAttribute("", "type", "type", "CDATA", "data");
         this.contentHandler.startElement(NAMESPACE, "buffer", PREFIX + ":buffer", atts);
@@ -121,6 +122,7 @@ public class XMLStatistics {
         addValue("used", String.valueOf(data.getUsed()));
         addValue("hits", String.valueOf(data.getPageHits()));
         addValue("fails", String.valueOf(data.getPageFails()));
+        addValue("evictions", String.valueOf(data.getPageEvictions()));
         this.contentHandler.endElement(NAMESPACE, "buffer", PREFIX + ":buffer");
         this.contentHandler.endElement(NAMESPACE, "file", PREFIX + ":file");
     }
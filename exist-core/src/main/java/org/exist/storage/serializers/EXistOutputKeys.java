@@ -47,6 +47,12 @@ public class EXistOutputKeys {
     public final static String ADD_EXIST_ID = "add-exist-id";
 
     public final static String XINCLUDE_PATH = "xinclude-path";
+
+    /**
+     * transform:transform only: let Saxon navigate the input node in place
+     * instead of serializing it. Set to "no" to always serialize.
+     */
+    public final static String WRAP_SOURCE = "wrap-source";
     
     /**
      * Enforce XHTML namespace on elements with no namespace
@@ -71,6 +71,7 @@ import org.exist.util.serializer.SAXSerializer;
 import org.exist.util.serializer.SerializerPool;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.Constants;
+import org.exist.xquery.ItemStream;
 import org.exist.xquery.Option;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -944,6 +945,65 @@ public abstract class Serializer implements XMLReader {
 		receiver.endDocument();
 	}
         
+    /**
+     * Serialize the items of the given stream to SAX as they are retrieved, starting with
+     * item start. Items before start are retrieved but not serialized, and no items are
+     * retrieved after the last one to serialize. If parameter wrap is set to true, output
+     * a wrapper element to enclose the serialized items. As the number of items is not
+     * known before they are written, the wrapper has the following form:
+     *
+     * &lt;exist:result start="value of start" compilation-time="compilation time"&gt;
+     *
+     * @param stream The stream of items to serialize
+     * @param start The position in the stream to start serialization from
+     * @param count The maximum number of items to serialize, or a value less than 1 for all items
+     * @param wrap Indicates whether the output should be wrapped
+     * @param typed Indicates whether the output types should be wrapped
+     * @param compilationTime The time taken to compile the query which produced the stream
+     *
+     * @return the number of serialized items
+     *
+     * @throws SAXException If an error occurs during serialization
+     */
+    public int toSAX(final ItemStream stream, final int start, final int count, final boolean wrap, final boolean typed, final long compilationTime) throws SAXException {
+        try {
+            setStylesheetFromProperties(null);
+        } catch (final TransformerConfigurationException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+        setXSLHandler(null, false);
+        final AttrList attrs = new AttrList();
+        attrs.addAttribute(ATTR_START_QNAME, Integer.toString(start));
+        attrs.addAttribute(ATTR_COMPILATION_TIME_QNAME, Long.toString(compilationTime));
+
+        receiver.startDocument();
+        if (wrap) {
+            receiver.startPrefixMapping("exist", Namespaces.EXIST_NS);
+            receiver.startElement(ELEM_RESULT_QNAME, attrs);
+        }
+
+        int serialized = 0;
+        try {
+            int position = 1;
+            Item item;
+            while ((count < 1 || serialized < count) && (item = stream.next()) != null) {
+                if (position++ >= start) {
+                    itemToSAX(item, typed, wrap);
+                    serialized++;
+                }
+            }
+        } catch (final XPathException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+
+        if (wrap) {
+            receiver.endElement(ELEM_RESULT_QNAME);
+            receiver.endPrefixMapping("exist");
+        }
+        receiver.endDocument();
+        return serialized;
+    }
+
     /**
 	 * Serialize the items in the given sequence to SAX, starting with item start. If parameter
 	 * wrap is set to true, output a wrapper element to enclose the serialized items. The
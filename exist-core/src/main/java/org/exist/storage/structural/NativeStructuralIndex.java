@@ -24,7 +24,6 @@ package org.exist.storage.structural;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -37,11 +36,8 @@ import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.storage.index.BTreeStore;
-import org.exist.storage.lock.LockManager;
-import org.exist.storage.lock.ManagedLock;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
-import org.exist.util.LockException;
 import org.w3c.dom.Element;
 
 public class NativeStructuralIndex extends AbstractIndex implements RawBackupSupport {
@@ -54,10 +50,12 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
 
     public static final byte STRUCTURAL_INDEX_ID = 1;
 
-    /** The datastore for this node index */
+    /**
+     * The datastore for this node index. It only holds keys and pointers, so it synchronizes
+     * itself by latch coupling instead of being locked as a whole by its users.
+     */
     protected BTreeStore btree;
 
-    protected LockManager lockManager;
     protected SymbolTable symbols;
 
     public NativeStructuralIndex() {
@@ -67,7 +65,6 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
     @Override
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
         super.configure(pool, dataDir, config);
-        lockManager = pool.getLockManager();
         symbols = pool.getSymbols();
     }
 
@@ -78,6 +75,7 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         try {
             btree = new BTreeStore(pool, STRUCTURAL_INDEX_ID, FILE_FORMAT_VERSION_ID, false,
                     file, pool.getCacheManager());
+            btree.enableLatchCoupling();
         } catch (final DBException e) {
             LOG.error("Failed to initialize structural index: " + e.getMessage(), e);
             throw new DatabaseConfigurationException(e.getMessage(), e);
@@ -95,11 +93,8 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         if (btree == null) {
             return;
         }
-        try(final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(btree.getLockName())) {
+        try {
             btree.flush();
-        } catch (final LockException e) {
-            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(btree.getFile()) + "'", e);
-            //TODO : throw an exception ? -pb
         } catch (final DBException e) {
             LOG.error(e.getMessage(), e);
             //TODO : throw an exception ? -pb
@@ -45,7 +45,6 @@ import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 
-import org.exist.storage.lock.ManagedLock;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
@@ -57,7 +56,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.exist.security.PermissionDeniedException;
 
@@ -118,10 +116,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final byte[] toKey = computeKey(type, qname, range.end + 1);
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
 
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+            try {
                 index.btree.query(query, callback);
-            } catch (final LockException e) {
-                NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: " + e.getMessage(), e);
             } catch (final TerminatedException e) {
                 NativeStructuralIndex.LOG.warn("Query was terminated while searching structural index: " + e.getMessage(), e);
             } catch (final Exception e) {
@@ -195,29 +191,25 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet, int contextId, Expression parent) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
         final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, qname, contextId, result, parent);
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
-            for (final NodeProxy ancestor : contextSet) {
-                final DocumentImpl doc = ancestor.getOwnerDocument();
-                final NodeId ancestorId = ancestor.getNodeId();
-                callback.setAncestor(doc, ancestor);
-                final byte[] fromKey;
-                final byte[] toKey;
-                if (ancestorId == NodeId.DOCUMENT_NODE) {
-                    fromKey = computeKey(type, qname, doc.getDocId());
-                    toKey = computeKey(type, qname, doc.getDocId() + 1);
-                } else {
-                    fromKey = computeKey(type, qname, doc.getDocId(), ancestorId);
-                    toKey = computeKey(type, qname, doc.getDocId(), ancestorId.nextSibling());
-                }
-                final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-                try {
-                    index.btree.query(query, callback);
-                } catch (final Exception e) {
-                    NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
-                }
+        for (final NodeProxy ancestor : contextSet) {
+            final DocumentImpl doc = ancestor.getOwnerDocument();
+            final NodeId ancestorId = ancestor.getNodeId();
+            callback.setAncestor(doc, ancestor);
+            final byte[] fromKey;
+            final byte[] toKey;
+            if (ancestorId == NodeId.DOCUMENT_NODE) {
+                fromKey = computeKey(type, qname, doc.getDocId());
+                toKey = computeKey(type, qname, doc.getDocId() + 1);
+            } else {
+                fromKey = computeKey(type, qname, doc.getDocId(), ancestorId);
+                toKey = computeKey(type, qname, doc.getDocId(), ancestorId.nextSibling());
+            }
+            final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
+            try {
+                index.btree.query(query, callback);
+            } catch (final Exception e) {
+                NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
             }
-        } catch (final LockException e) {
-            NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: " + e.getMessage(), e);
         }
         result.updateNoSort();
         return result;
@@ -226,7 +218,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet,
                                           int contextId) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+        try {
             for (final NodeProxy descendant : contextSet) {
                 NodeId parentId;
                 if (axis == Constants.ANCESTOR_SELF_AXIS || axis == Constants.SELF_AXIS)
@@ -255,8 +247,6 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                     parentId = parentId.getParentId();
                 }
             }
-        } catch (final LockException e) {
-            NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: " + e.getMessage(), e);
         } catch (final Exception e) {
             NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
         }
@@ -272,28 +262,24 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final DocumentImpl doc = ancestor.getOwnerDocument();
             final NodeId ancestorId = ancestor.getNodeId();
             final List<QName> qnames = getQNamesForDoc(doc);
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
-	            for (final QName qname : qnames) {
-	            	if (test.getName() == null || test.matches(qname)) {
-	            		callback.setAncestor(doc, ancestor);
-	            		byte[] fromKey, toKey;
-	                    if (ancestorId == NodeId.DOCUMENT_NODE) {
-	                        fromKey = computeKey(type, qname, doc.getDocId());
-	                        toKey = computeKey(type, qname, doc.getDocId() + 1);
-	                    } else {
-	                        fromKey = computeKey(type, qname, doc.getDocId(), ancestorId);
-	                        toKey = computeKey(type, qname, doc.getDocId(), ancestorId.nextSibling());
-	                    }
-	                    final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-	                    try {
-	                        index.btree.query(query, callback);
-	                    } catch (final Exception e) {
-	                        NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
-	                    }
-	            	}
-	            }
-            } catch (final LockException e) {
-                NativeStructuralIndex.LOG.warn("Lock problem while searching structural index: " + e.getMessage(), e);
+            for (final QName qname : qnames) {
+            	if (test.getName() == null || test.matches(qname)) {
+            		callback.setAncestor(doc, ancestor);
+            		byte[] fromKey, toKey;
+                    if (ancestorId == NodeId.DOCUMENT_NODE) {
+                        fromKey = computeKey(type, qname, doc.getDocId());
+                        toKey = computeKey(type, qname, doc.getDocId() + 1);
+                    } else {
+                        fromKey = computeKey(type, qname, doc.getDocId(), ancestorId);
+                        toKey = computeKey(type, qname, doc.getDocId(), ancestorId.nextSibling());
+                    }
+                    final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
+                    try {
+                        index.btree.query(query, callback);
+                    } catch (final Exception e) {
+                        NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
+                    }
+            	}
             }
         }
 //        result.updateNoSort();
@@ -493,15 +479,13 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         try {
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
                 final QName qname = entry.getKey();
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+                try {
                     final List<NodeProxy> nodes = entry.getValue();
                     for (final NodeProxy proxy : nodes) {
                         final NodeId nodeId = proxy.getNodeId();
                         final byte[] key = computeKey(qname.getNameType(), qname, document.getDocId(), nodeId);
                         index.btree.removeValue(new Value(key));
                     }
-                } catch (final LockException e) {
-                    NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
                 } catch (final Exception e) {
                     NativeStructuralIndex.LOG.warn("Exception caught while writing to structural index: " + e.getMessage(), e);
                 }
@@ -519,10 +503,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final byte[] fromKey = computeKey(qname.getNameType(), qname, docToRemove.getDocId());
             final byte[] toKey = computeKey(qname.getNameType(), qname, docToRemove.getDocId() + 1);
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-            try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            try {
                 index.btree.remove(query, null);
-            } catch (final LockException e) {
-                NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
             } catch (final Exception e) {
                 NativeStructuralIndex.LOG.warn("Exception caught while removing structural index for document " +
                     docToRemove.getURI() + ": " + e.getMessage(), e);
@@ -535,10 +517,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         final byte[] fromKey = computeDocKey(doc.getDocId());
         final byte[] toKey = computeDocKey(doc.getDocId() + 1);
         final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+        try {
             index.btree.remove(query, null);
-        } catch (final LockException e) {
-            NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
         } catch (final Exception e) {
             NativeStructuralIndex.LOG.warn("Exception caught while reading structural index for document " +
                 doc.getURI() + ": " + e.getMessage(), e);
@@ -552,14 +532,12 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         final byte[] fromKey = computeDocKey(doc.getDocId());
         final byte[] toKey = computeDocKey(doc.getDocId() + 1);
         final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
-        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+        try {
             index.btree.query(query, (value, pointer) -> {
                 final QName qname = readQName(value.getData());
                 qnames.add(qname);
                 return true;
             });
-        } catch (final LockException e) {
-            NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
         } catch (final Exception e) {
             NativeStructuralIndex.LOG.warn("Exception caught while reading structural index for document " +
                 doc.getURI() + ": " + e.getMessage(), e);
@@ -609,7 +587,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 final byte[] toKey = computeKey(qname.getNameType(), qname, doc.getDocId() + 1);
                 final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
 
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+                try {
                     index.btree.query(query, (value, pointer) -> {
                         Occurrences oc = occurrences.get(name);
                         if (oc == null) {
@@ -623,8 +601,6 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                         }
                         return true;
                     });
-                } catch (final LockException e) {
-                    NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
                 } catch (final Exception e) {
                     NativeStructuralIndex.LOG.warn("Exception caught while reading structural index for document " +
                             doc.getURI() + ": " + e.getMessage(), e);
@@ -670,7 +646,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         try {
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
                 final QName qname = entry.getKey();
-                try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+                try {
                     final List<NodeProxy> nodes = entry.getValue();
                     for (final NodeProxy proxy : nodes) {
                         final NodeId nodeId = proxy.getNodeId();
@@ -681,10 +657,6 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                     if (index.btree.findValue(docKey) == -1) {
                         index.btree.addValue(docKey, 0);
                     }
-                } catch (final LockException e) {
-                    NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
-                // } catch (ReadOnlyException e) {
-                //    NativeStructuralIndex.LOG.warn("Read-only error: " + e.getMessage(), e);
                 } catch (final Exception e) {
                     NativeStructuralIndex.LOG.warn("Exception caught while writing to structural index: " + e.getMessage(), e);
                 }
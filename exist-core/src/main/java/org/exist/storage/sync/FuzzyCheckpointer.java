@@ -0,0 +1,187 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.sync;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.index.CollectionStore;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes fuzzy checkpoints while transactions are running.
+ *
+ * A {@link SyncTask} can only checkpoint the database when no broker is
+ * active, on a busy server this may be a long time, and the journal which
+ * has to be replayed after a crash grows until it happens. The fuzzy
+ * checkpointer instead runs every {@link #interval} milliseconds, and
+ * without waiting for the database to become idle:
+ *
+ * <ol>
+ *     <li>takes the current end of the journal as the redo LSN,</li>
+ *     <li>flushes the journalled files one at a time, each whilst holding
+ *     only that file's own lock, so that writers to the other file can
+ *     continue,</li>
+ *     <li>writes a {@link FuzzyCheckpoint} recording the redo LSN and the
+ *     transactions which were running.</li>
+ * </ol>
+ *
+ * Changes to a journalled file are logged and applied whilst holding the
+ * file's lock, so once a file has been flushed, every change to it up to
+ * the redo LSN is on disk and recovery can start redoing after it.
+ */
+@ThreadSafe
+public final class FuzzyCheckpointer implements Runnable {
+
+    private static final Logger LOG = LogManager.getLogger(FuzzyCheckpointer.class);
+
+    private final BrokerPool pool;
+    private final long interval;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeup = lock.newCondition();
+
+    @GuardedBy("lock") private boolean shutdown = false;
+
+    /**
+     * @param pool the database instance.
+     * @param interval the time to wait between two checkpoints, in milliseconds.
+     */
+    public FuzzyCheckpointer(final BrokerPool pool, final long interval) {
+        this.pool = pool;
+        this.interval = Math.max(1, interval);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(interval);
+                while (!shutdown && remaining > 0) {
+                    remaining = wakeup.awaitNanos(remaining);
+                }
+                if (shutdown) {
+                    return;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                checkpoint();
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to write fuzzy checkpoint: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes a fuzzy checkpoint now.
+     *
+     * @return true if a checkpoint was written, false if nothing has been logged
+     *     since the last checkpoint or the checkpoint had to be abandoned.
+     */
+    public boolean checkpoint() {
+        final TransactionManager transactionManager = pool.getTransactionManager();
+        final Optional<FuzzyCheckpoint> checkpoint = transactionManager.prepareFuzzyCheckpoint();
+        if (!checkpoint.isPresent()) {
+            // nothing has been logged since the last checkpoint
+            return false;
+        }
+
+        final long start = System.currentTimeMillis();
+        if (!flush((BTree) pool.getConfiguration().getProperty(DOMFile.getConfigKeyForFile()))
+                || !flush((BTree) pool.getConfiguration().getProperty(CollectionStore.getConfigKeyForFile()))) {
+            return false;
+        }
+
+        try {
+            transactionManager.fuzzyCheckpoint(checkpoint.get());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Fuzzy checkpoint at " + checkpoint.get().getRedoLsn() + " took " + (System.currentTimeMillis() - start) + "ms");
+            }
+            return true;
+        } catch (final TransactionException e) {
+            LOG.error("Failed to write fuzzy checkpoint: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the dirty pages of a journalled file to disk.
+     *
+     * @param file the file to flush, may be null if the file has not been opened.
+     *
+     * @return true if the file was flushed, false if the checkpoint has to be abandoned.
+     */
+    private boolean flush(final BTree file) {
+        if (file == null) {
+            return true;
+        }
+
+        try (final ManagedLock<ReentrantLock> fileLock = pool.getLockManager().acquireBtreeWriteLock(file.getLockName())) {
+            // flushing the file will first flush the journal, so that the WAL rule holds
+            file.flush();
+            return true;
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(file.getFile()) + ", skipping fuzzy checkpoint", e);
+        } catch (final DBException e) {
+            LOG.error("Error while flushing " + FileUtils.fileName(file.getFile()) + ": " + e.getMessage(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Shutdown the fuzzy checkpointer.
+     *
+     * A checkpoint which is in progress is completed
+     * before the checkpointer thread exits.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
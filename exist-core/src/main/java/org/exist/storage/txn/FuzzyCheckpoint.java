@@ -0,0 +1,117 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.txn;
+
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+
+/**
+ * A checkpoint which is written while transactions are running.
+ *
+ * It records the redo LSN: every change logged up to and including that LSN
+ * has been written to the data files, so a recovery run can start redoing after it.
+ * It also records the transactions which were running when the redo LSN was taken,
+ * so that a recovery run can undo them even though their start records precede it.
+ */
+public class FuzzyCheckpoint extends AbstractLoggable {
+
+    private static final int TIMESTAMP_LEN = 8;
+
+    private long timestamp;
+    private Lsn redoLsn;
+    private long[] activeTransactions;
+
+    private final DateFormat df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
+    public FuzzyCheckpoint(final DBBroker broker, final long transactionId) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+    }
+
+    public FuzzyCheckpoint(final long transactionId, final Lsn redoLsn, final long[] activeTransactions) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+        this.timestamp = new Date().getTime();
+        this.redoLsn = redoLsn;
+        this.activeTransactions = activeTransactions;
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        redoLsn.write(out);
+        out.putLong(timestamp);
+        out.putInt(activeTransactions.length);
+        for (final long txnId : activeTransactions) {
+            out.putLong(txnId);
+        }
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        redoLsn = Lsn.read(in);
+        timestamp = in.getLong();
+        activeTransactions = new long[in.getInt()];
+        for (int i = 0; i < activeTransactions.length; i++) {
+            activeTransactions[i] = in.getLong();
+        }
+    }
+
+    /**
+     * Returns the LSN of the last entry whose changes are known
+     * to have been written to the data files.
+     *
+     * @return the redo LSN
+     */
+    public Lsn getRedoLsn() {
+        return redoLsn;
+    }
+
+    /**
+     * Returns the ids of the transactions which were running
+     * when the redo LSN was taken.
+     *
+     * @return the transaction ids
+     */
+    public long[] getActiveTransactions() {
+        return activeTransactions;
+    }
+
+    @Override
+    public int getLogSize() {
+        return Lsn.RAW_LENGTH + TIMESTAMP_LEN + 4 + (8 * activeTransactions.length);
+    }
+
+    public String getDateString() {
+        return df.format(new Date(timestamp));
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - fuzzy checkpoint at " + df.format(new Date(timestamp)) + ", redo lsn: " + redoLsn +
+                ", active transactions: " + Arrays.toString(activeTransactions);
+    }
+}
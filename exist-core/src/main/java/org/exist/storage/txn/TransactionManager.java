@@ -474,6 +474,44 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Prepare a fuzzy checkpoint. Unlike {@link #checkpoint(boolean)}, a fuzzy checkpoint
+     * does not require the database to be in a stable state.
+     *
+     * The caller has to write the dirty pages of the journalled files to disk before
+     * passing the returned checkpoint to {@link #fuzzyCheckpoint(FuzzyCheckpoint)}.
+     *
+     * @return the checkpoint, or {@link Optional#empty()} if there is nothing to checkpoint.
+     */
+    public Optional<FuzzyCheckpoint> prepareFuzzyCheckpoint() {
+        if (state.get() == STATE_SHUTDOWN) {
+            throwShutdownException();
+        }
+
+        return journalManager.map(jm -> jm.prepareFuzzyCheckpoint(nextTxnId.getAndIncrement()));
+    }
+
+    /**
+     * Write a fuzzy checkpoint to the journal.
+     *
+     * @param checkpoint the checkpoint obtained from {@link #prepareFuzzyCheckpoint()}
+     *
+     * @throws TransactionException if an error occurs whilst writing the checkpoint.
+     */
+    public void fuzzyCheckpoint(final FuzzyCheckpoint checkpoint) throws TransactionException {
+        if (state.get() == STATE_SHUTDOWN) {
+            throwShutdownException();
+        }
+
+        if (journalManager.isPresent()) {
+            try {
+                journalManager.get().fuzzyCheckpoint(checkpoint);
+            } catch (final JournalException e) {
+                throw new TransactionException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @deprecated This mixes concerns and should not be here!
      * @param broker the  eXist-db DBBroker
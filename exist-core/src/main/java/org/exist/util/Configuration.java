@@ -56,6 +56,8 @@ import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.dom.DOMFile;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
@@ -382,6 +384,18 @@ public class Configuration implements ErrorHandler
         config.put( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration.parseBoolean( raiseErrorOnFailedRetrieval, XQueryContext.XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT ) );
         LOG.debug( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL + ": " + config.get( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
 
+        final String orderBySpillThreshold = getConfigAttributeValue( xquery, XQueryContext.ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE );
+        config.put( XQueryContext.PROPERTY_ORDER_BY_SPILL_THRESHOLD, parseInt( orderBySpillThreshold, XQueryContext.ORDER_BY_SPILL_THRESHOLD_DEFAULT ) );
+        LOG.debug( XQueryContext.PROPERTY_ORDER_BY_SPILL_THRESHOLD + ": " + config.get( XQueryContext.PROPERTY_ORDER_BY_SPILL_THRESHOLD ) );
+
+        final String groupBySpillThreshold = getConfigAttributeValue( xquery, XQueryContext.GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE );
+        config.put( XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD, parseInt( groupBySpillThreshold, XQueryContext.GROUP_BY_SPILL_THRESHOLD_DEFAULT ) );
+        LOG.debug( XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD + ": " + config.get( XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD ) );
+
+        final String compactMemTree = getConfigAttributeValue( xquery, XQueryContext.COMPACT_MEMTREE_ATTRIBUTE );
+        config.put( XQueryContext.PROPERTY_COMPACT_MEMTREE, Configuration.parseBoolean( compactMemTree, XQueryContext.COMPACT_MEMTREE_DEFAULT ) );
+        LOG.debug( XQueryContext.PROPERTY_COMPACT_MEMTREE + ": " + config.get( XQueryContext.PROPERTY_COMPACT_MEMTREE ) );
+
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
@@ -588,6 +602,13 @@ public class Configuration implements ErrorHandler
             config.put( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE, parseBoolean( cachingValue, false ) );
             LOG.debug( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE + ": " + config.get( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE ) );
         }
+
+        final String wrapSourceValue = getConfigAttributeValue( transformer, TransformerFactoryAllocator.TRANSFORMER_WRAP_SOURCE_ATTRIBUTE );
+
+        if( wrapSourceValue != null ) {
+            config.put( TransformerFactoryAllocator.PROPERTY_WRAP_SOURCE_ATTRIBUTE, parseBoolean( wrapSourceValue, true ) );
+            LOG.debug( TransformerFactoryAllocator.PROPERTY_WRAP_SOURCE_ATTRIBUTE + ": " + config.get( TransformerFactoryAllocator.PROPERTY_WRAP_SOURCE_ATTRIBUTE ) );
+        }
     }
 
     private void configureParser(final Element parser) {
@@ -906,6 +927,19 @@ public class Configuration implements ErrorHandler
             LOG.warn("Cannot convert " + DefaultCacheManager.SHRINK_THRESHOLD_PROPERTY + " value to integer: " + cacheShrinkThreshold, nfe);
         }
 
+        final String cachePolicy = getConfigAttributeValue( con, DefaultCacheManager.CACHE_POLICY_ATTRIBUTE );
+
+        if( cachePolicy != null ) {
+
+            try {
+                config.put( DefaultCacheManager.PROPERTY_CACHE_POLICY, DefaultCacheManager.CachePolicy.fromConfigValue(cachePolicy) );
+                LOG.debug( DefaultCacheManager.PROPERTY_CACHE_POLICY + ": " + config.get( DefaultCacheManager.PROPERTY_CACHE_POLICY ) );
+            }
+            catch( final IllegalArgumentException iae ) {
+                LOG.warn("Cannot convert " + DefaultCacheManager.PROPERTY_CACHE_POLICY + " value to a cache policy: " + cachePolicy, iae);
+            }
+        }
+
         String collectionCache = getConfigAttributeValue(con, CollectionCache.CACHE_SIZE_ATTRIBUTE);
         if(collectionCache != null) {
             collectionCache = collectionCache.toLowerCase();
@@ -952,6 +986,31 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String pageIO = getConfigAttributeValue( con, NativeBroker.PAGE_IO_ATTRIBUTE );
+
+        if( pageIO != null ) {
+
+            try {
+                config.put( BrokerPool.PROPERTY_PAGE_IO, Paged.IOMode.fromConfigValue(pageIO) );
+                LOG.debug( BrokerPool.PROPERTY_PAGE_IO + ": " + config.get( BrokerPool.PROPERTY_PAGE_IO ) );
+            }
+            catch( final IllegalArgumentException iae ) {
+                LOG.warn("Cannot convert " + BrokerPool.PROPERTY_PAGE_IO + " value to a page I/O mode: " + pageIO, iae);
+            }
+        }
+
+        final String domCompression = getConfigAttributeValue( con, NativeBroker.DOM_COMPRESSION_ATTRIBUTE );
+
+        if( domCompression != null ) {
+
+            if( DOMFile.COMPRESSION_NONE.equals(domCompression) || DOMFile.COMPRESSION_LZ4.equals(domCompression) ) {
+                config.put( BrokerPool.PROPERTY_DOM_COMPRESSION, domCompression );
+                LOG.debug( BrokerPool.PROPERTY_DOM_COMPRESSION + ": " + config.get( BrokerPool.PROPERTY_DOM_COMPRESSION ) );
+            } else {
+                LOG.warn("Unknown " + BrokerPool.PROPERTY_DOM_COMPRESSION + " value: " + domCompression);
+            }
+        }
+
         //Not clear : rather looks like a buffers count
         final String collCacheSize = getConfigAttributeValue( con, BrokerPool.COLLECTION_CACHE_SIZE_ATTRIBUTE );
 
@@ -1073,6 +1132,26 @@ public class Configuration implements ErrorHandler
         setProperty( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_BATCH_SIZE_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_BATCH_SIZE, parseInt( option, Journal.DEFAULT_GROUP_COMMIT_BATCH_SIZE ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_BATCH_SIZE + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_BATCH_SIZE ) );
+
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_LATENCY_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY, parseLong( option, Journal.DEFAULT_GROUP_COMMIT_LATENCY ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_LATENCY ) + "ms" );
+
+        option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE );
+        setProperty( BrokerPool.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, parseBoolean( option, false ) );
+        LOG.debug( BrokerPool.PROPERTY_RECOVERY_FUZZY_CHECKPOINT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_FUZZY_CHECKPOINT ) );
+
+        option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_PAGE_WRITER_INTERVAL_ATTRIBUTE );
+        setProperty( BrokerPool.PROPERTY_RECOVERY_PAGE_WRITER_INTERVAL, parseLong( option, BrokerPool.DEFAULT_PAGE_WRITER_INTERVAL ) );
+        LOG.debug( BrokerPool.PROPERTY_RECOVERY_PAGE_WRITER_INTERVAL + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_PAGE_WRITER_INTERVAL ) + "ms" );
+
+        option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_REDO_THREADS_ATTRIBUTE );
+        setProperty( BrokerPool.PROPERTY_RECOVERY_REDO_THREADS, parseInt( option, BrokerPool.DEFAULT_RECOVERY_REDO_THREADS ) );
+        LOG.debug( BrokerPool.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_REDO_THREADS ) );
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if(option != null) {
@@ -1379,6 +1458,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Math.max( 1, Integer.parseInt( reindexThreads ) ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
@@ -1393,6 +1485,13 @@ public class Configuration implements ErrorHandler
             LOG.debug( Indexer.PROPERTY_PRESERVE_WS_MIXED_CONTENT + ": " + config.get( Indexer.PROPERTY_PRESERVE_WS_MIXED_CONTENT ) );
         }
 
+        final String singlePassStore = getConfigAttributeValue( indexer, Indexer.SINGLE_PASS_STORE_ATTRIBUTE );
+
+        if( singlePassStore != null ) {
+            config.put( Indexer.PROPERTY_SINGLE_PASS_STORE, parseBoolean( singlePassStore, false ) );
+            LOG.debug( Indexer.PROPERTY_SINGLE_PASS_STORE + ": " + config.get( Indexer.PROPERTY_SINGLE_PASS_STORE ) );
+        }
+
         // index settings
         final NodeList cl = doc.getElementsByTagName( Indexer.CONFIGURATION_INDEX_ELEMENT_NAME );
 
@@ -1638,6 +1737,27 @@ public class Configuration implements ErrorHandler
         }
     }
 
+    /**
+     * Takes the passed string and converts it to a non-null <code>long</code> value. If value is null, the specified default value is used.
+     *
+     * @param   value         The string to parse
+     * @param   defaultValue  The default if the string is null or empty
+     *
+     * @return  The parsed <code>long</code>
+     */
+    public static long parseLong(@Nullable final String value, final long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            LOG.warn("Could not parse: " + value + ", as a long: " + e.getMessage());
+            return defaultValue;
+        }
+    }
+
     public int getInteger(final String name) {
         return Optional.ofNullable(getProperty(name))
                 .filter(v -> v instanceof Integer)
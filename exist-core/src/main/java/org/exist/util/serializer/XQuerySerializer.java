@@ -25,6 +25,7 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.serializers.Serializer;
 import org.exist.util.serializer.json.JSONSerializer;
+import org.exist.xquery.ItemStream;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.value.*;
 import org.xml.sax.SAXException;
@@ -77,6 +78,54 @@ public class XQuerySerializer {
         }
     }
 
+    /**
+     * Serializes the items of a stream as they are retrieved. Only the xml,
+     * xhtml, html and text methods write items one at a time; for json and
+     * adaptive output, the items from start are collected first.
+     *
+     * @param stream the stream of items
+     * @param start the position of the first item to serialize
+     * @param howmany the maximum number of items to serialize, or a value less than 1 for all items
+     * @param wrap true to wrap the items into an exist:result element
+     * @param typed true to annotate the items with their type
+     * @param compilationTime the time taken to compile the query
+     *
+     * @throws SAXException if an error occurs during serialization
+     * @throws XPathException if an error occurs whilst retrieving the items
+     */
+    public void serialize(final ItemStream stream, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime) throws SAXException, XPathException {
+        if (!normalize()) {
+            final ValueSequence sequence = new ValueSequence();
+            int position = 1;
+            Item item;
+            while ((howmany < 1 || sequence.getItemCount() < howmany) && (item = stream.next()) != null) {
+                if (position++ >= start) {
+                    sequence.add(item);
+                }
+            }
+            serialize(sequence, 1, sequence.getItemCount(), wrap, typed, compilationTime, 0);
+            return;
+        }
+
+        final Serializer serializer = broker.getSerializer();
+        serializer.reset();
+        SAXSerializer sax = null;
+        try {
+            sax = (SAXSerializer) SerializerPool.getInstance().borrowObject(
+                    SAXSerializer.class);
+            sax.setOutput(writer, outputProperties);
+            serializer.setProperties(outputProperties);
+            serializer.setSAXHandlers(sax, sax);
+            serializer.toSAX(stream, start, howmany, wrap, typed, compilationTime);
+        } catch (SAXNotSupportedException | SAXNotRecognizedException e) {
+            throw new SAXException(e.getMessage(), e);
+        } finally {
+            if (sax != null) {
+                SerializerPool.getInstance().returnObject(sax);
+            }
+        }
+    }
+
     public boolean normalize() {
         final String method = outputProperties.getProperty(OutputKeys.METHOD, "xml");
         return !("json".equals(method) || "adaptive".equals(method));
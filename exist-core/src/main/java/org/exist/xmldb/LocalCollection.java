@@ -29,6 +29,7 @@ import javax.xml.transform.OutputKeys;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.EXistException;
+import org.exist.Indexer;
 import org.exist.collections.Collection;
 import org.exist.collections.IndexInfo;
 import org.exist.dom.persistent.DocumentImpl;
@@ -630,6 +631,37 @@ public class LocalCollection extends AbstractLocal implements EXistCollection {
             try(final ManagedDocumentLock documentLock = broker.getBrokerPool().getLockManager().acquireDocumentWriteLock(collection.getURI().append(resURI))) {
                 XMLReader reader = null;
 
+                if (res.root == null && broker.getConfiguration().getProperty(Indexer.PROPERTY_SINGLE_PASS_STORE, false)) {
+                    final InputSource source;
+                    if (uri != null) {
+                        source = new InputSource(uri);
+                    } else if (res.inputSource != null) {
+                        source = res.inputSource;
+                    } else {
+                        source = new InputSource(new StringReader(res.content));
+                    }
+
+                    if (useHtmlReader(broker, transaction, res)) {
+                        reader = getHtmlReader();
+                    }
+
+                    final String mimeType = res.getMimeType(broker, transaction);
+                    collection.storeXMLResource(transaction, broker, resURI, source, reader, doc -> {
+                        doc.setMimeType(mimeType);
+                        if (res.datecreated != null) {
+                            doc.setCreated(res.datecreated.getTime());
+                        }
+                        if (res.datemodified != null) {
+                            doc.setLastModified(res.datemodified.getTime());
+                        }
+                    });
+
+                    // NOTE: early release of Collection lock inline with Asymmetrical Locking scheme
+                    collection.close();
+
+                    return null;
+                }
+
                 /* validate */
                 final IndexInfo info;
                 if (res.root != null) {
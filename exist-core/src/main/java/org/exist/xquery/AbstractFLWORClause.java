@@ -23,6 +23,7 @@ package org.exist.xquery;
 
 import org.exist.dom.QName;
 import org.exist.dom.QName.IllegalQNameException;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
 
@@ -67,6 +68,39 @@ public abstract class AbstractFLWORClause extends AbstractExpression implements
         return seq;
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return false;
+    }
+
+    @Override
+    public ItemStream openStream(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        return ItemStream.of(eval(contextSequence, contextItem));
+    }
+
+    /**
+     * Whether the return expression of this clause can be pipelined.
+     *
+     * @return true unless the return expression is a clause which cannot be pipelined
+     */
+    protected boolean isReturnPipelinable() {
+        return !(returnExpr instanceof FLWORClause) || ((FLWORClause) returnExpr).isPipelinable();
+    }
+
+    /**
+     * Opens a stream over the return expression for the current binding.
+     *
+     * @param contextSequence the context sequence
+     * @return a stream of the items returned by the return expression
+     * @throws XPathException if an error occurs whilst evaluating the return expression
+     */
+    protected ItemStream openReturnStream(final Sequence contextSequence) throws XPathException {
+        if (returnExpr instanceof FLWORClause) {
+            return ((FLWORClause) returnExpr).openStream(contextSequence, null);
+        }
+        return ItemStream.of(returnExpr.eval(contextSequence, null));
+    }
+
     @Override
     public void setReturnExpression(Expression expr) {
         this.returnExpr = expr;
@@ -47,6 +47,14 @@ public class DynamicCardinalityCheck extends AbstractExpression {
         setLocation(expression.getLine(), expression.getColumn());
     }
 
+    public Expression getExpression() {
+        return expression;
+    }
+
+    public Cardinality getRequiredCardinality() {
+        return requiredCardinality;
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
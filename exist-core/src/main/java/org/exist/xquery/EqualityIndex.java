@@ -0,0 +1,262 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.DecimalValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory hash index over atomic values, used to evaluate the general
+ * equality comparison ({@code =}) between large sequences without comparing
+ * every pair of values.
+ *
+ * A hash lookup is only equivalent to the pairwise comparison if all pairs of
+ * values are compared in the same way, i.e. as strings, as decimals or as doubles.
+ * {@link #keyType(int, int, boolean)} determines from the types of the values on
+ * both sides of the comparison if this is the case; otherwise the caller has to
+ * fall back to comparing each pair.
+ *
+ * Each value is added together with its position, so that a lookup can return
+ * the positions of all equal values.
+ */
+final class EqualityIndex {
+
+    static final int STRING_TYPES = 1;
+    static final int UNTYPED = 2;
+    static final int DECIMAL_TYPES = 4;
+    static final int FLOAT = 8;
+    static final int DOUBLE = 16;
+    static final int OTHER_TYPES = 32;
+
+    /**
+     * The type to which values are converted before they are compared.
+     */
+    enum KeyType {
+        STRING,
+        DECIMAL,
+        DOUBLE
+    }
+
+    private final List<AtomicValue> values = new ArrayList<>();
+    private final IntArrayList positions = new IntArrayList();
+    private int typeClasses = 0;
+
+    @Nullable private KeyType keyType = null;
+    @Nullable private Map<Object, IntArrayList> keys = null;
+
+    /**
+     * Adds a value to the index.
+     *
+     * @param value the value
+     * @param position the position associated with the value
+     */
+    void add(final AtomicValue value, final int position) {
+        values.add(value);
+        positions.add(position);
+        typeClasses |= typeClass(value.getType());
+        keyType = null;
+        keys = null;
+    }
+
+    boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Returns the type classes of the values in the index.
+     *
+     * @return a combination of the type class flags of all values
+     */
+    int getTypeClasses() {
+        return typeClasses;
+    }
+
+    /**
+     * Determines if there is a value in the index which is equal to the given value.
+     *
+     * @param keyType the type used for comparing values, see {@link #keyType(int, int, boolean)}
+     * @param value the value to look up
+     *
+     * @return true if an equal value was added to the index
+     *
+     * @throws XPathException if the value cannot be converted to the key type
+     */
+    boolean contains(final KeyType keyType, final AtomicValue value) throws XPathException {
+        final Object key = key(keyType, value);
+        return key != null && keys(keyType).containsKey(key);
+    }
+
+    /**
+     * Sets the positions of all values in the index which are equal to the given value.
+     *
+     * @param keyType the type used for comparing values, see {@link #keyType(int, int, boolean)}
+     * @param value the value to look up
+     * @param matches receives the positions of the equal values
+     *
+     * @throws XPathException if the value cannot be converted to the key type
+     */
+    void lookup(final KeyType keyType, final AtomicValue value, final BitSet matches) throws XPathException {
+        final Object key = key(keyType, value);
+        if (key == null) {
+            return;
+        }
+        final IntArrayList found = keys(keyType).get(key);
+        if (found != null) {
+            for (int i = 0; i < found.size(); i++) {
+                matches.set(found.getInt(i));
+            }
+        }
+    }
+
+    private Map<Object, IntArrayList> keys(final KeyType keyType) throws XPathException {
+        if (this.keyType != keyType || keys == null) {
+            final Map<Object, IntArrayList> newKeys = new HashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                final Object key = key(keyType, values.get(i));
+                if (key != null) {
+                    newKeys.computeIfAbsent(key, k -> new IntArrayList(1)).add(positions.getInt(i));
+                }
+            }
+            this.keys = newKeys;
+            this.keyType = keyType;
+        }
+        return keys;
+    }
+
+    /**
+     * Converts a value into a hash key, so that two values are equal
+     * when compared as the key type if and only if their keys are equal.
+     *
+     * @return the key, or null if the value is not equal to any value (NaN)
+     */
+    private static @Nullable Object key(final KeyType keyType, final AtomicValue value) throws XPathException {
+        switch (keyType) {
+            case STRING:
+                return value.getStringValue();
+
+            case DECIMAL:
+                final BigDecimal decimal = ((DecimalValue) value.convertTo(Type.DECIMAL)).getValue();
+                return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+
+            default:
+                final double d = ((DoubleValue) value.convertTo(Type.DOUBLE)).getValue();
+                if (Double.isNaN(d)) {
+                    return null;
+                }
+                // -0.0 and 0.0 are equal
+                return d == 0.0 ? 0.0 : d;
+        }
+    }
+
+    /**
+     * Returns the type class of an atomic type.
+     *
+     * @param type the atomic type
+     *
+     * @return one of the type class flags
+     */
+    static int typeClass(final int type) {
+        if (type == Type.UNTYPED_ATOMIC) {
+            return UNTYPED;
+        } else if (Type.subTypeOf(type, Type.STRING) || type == Type.ANY_URI) {
+            return STRING_TYPES;
+        } else if (Type.subTypeOf(type, Type.DECIMAL)) {
+            return DECIMAL_TYPES;
+        } else if (type == Type.FLOAT) {
+            return FLOAT;
+        } else if (type == Type.DOUBLE) {
+            return DOUBLE;
+        } else {
+            return OTHER_TYPES;
+        }
+    }
+
+    /**
+     * Returns the type classes of the values in an atomized sequence.
+     *
+     * @param atomized the atomized sequence
+     *
+     * @return a combination of the type class flags of all values
+     *
+     * @throws XPathException if the sequence cannot be iterated
+     */
+    static int typeClasses(final Sequence atomized) throws XPathException {
+        int classes = 0;
+        for (final SequenceIterator i = atomized.iterate(); i.hasNext(); ) {
+            classes |= typeClass(i.nextItem().getType());
+        }
+        return classes;
+    }
+
+    /**
+     * Determines how the values on both sides of a general equality comparison
+     * are compared, if all pairs are compared in the same way.
+     *
+     * @param left the type classes of the values on one side
+     * @param right the type classes of the values on the other side
+     * @param codepointCollation true if strings are compared by codepoint
+     *
+     * @return the key type, or null if the values cannot be compared through a hash lookup
+     */
+    static @Nullable KeyType keyType(final int left, final int right, final boolean codepointCollation) {
+        final int all = left | right;
+        if ((all & OTHER_TYPES) != 0) {
+            return null;
+        }
+
+        // strings, and untyped values compared with each other or with strings
+        if ((all & ~(STRING_TYPES | UNTYPED)) == 0) {
+            return codepointCollation ? KeyType.STRING : null;
+        }
+        if ((all & STRING_TYPES) != 0) {
+            // strings compared with numbers raise a type error
+            return null;
+        }
+
+        if (all == DECIMAL_TYPES) {
+            return KeyType.DECIMAL;
+        }
+
+        // untyped values are cast to xs:double when compared with numbers, but compared as strings with each other
+        if ((left & UNTYPED) != 0 && (right & UNTYPED) != 0) {
+            return null;
+        }
+        // numbers are only compared as xs:double if one of them is an xs:double
+        if ((left & (DECIMAL_TYPES | FLOAT)) != 0 && (right & (DECIMAL_TYPES | FLOAT)) != 0) {
+            return null;
+        }
+        return KeyType.DOUBLE;
+    }
+}
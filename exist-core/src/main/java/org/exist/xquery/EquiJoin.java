@@ -0,0 +1,252 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.Constants.StringTruncationOperator;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.ValueSequence;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Evaluates a nested "for" clause, which is directly followed by a "where" clause
+ * comparing a key of its bound item with a key of the outer bindings, as a hash join:
+ *
+ * <pre>
+ * for $x in A
+ * for $y in B
+ * where $x/@id = $y/@ref
+ * </pre>
+ *
+ * The input sequence of the inner clause is evaluated once for each evaluation of the
+ * whole FLWOR expression and indexed by the key of each item. For each outer binding,
+ * only the items whose key may be equal to the outer key are bound, instead of all
+ * items of the input sequence. The "where" clause is still evaluated for each of
+ * these items, so the result is the same as without the join.
+ *
+ * Created by the {@link Optimizer}, see {@link #create(ForExpr, WhereClause)}.
+ */
+final class EquiJoin {
+
+    private final ForExpr forExpr;
+    private final GeneralComparison comparison;
+    private final QName varName;
+    private final Expression innerKey;
+    private final Expression outerKey;
+
+    private boolean disabled = false;
+    @Nullable private LocalVariable indexOwner = null;
+    @Nullable private List<Item> items = null;
+    @Nullable private EqualityIndex index = null;
+
+    private EquiJoin(final ForExpr forExpr, final GeneralComparison comparison, final QName varName,
+            final Expression innerKey, final Expression outerKey) {
+        this.forExpr = forExpr;
+        this.comparison = comparison;
+        this.varName = varName;
+        this.innerKey = innerKey;
+        this.outerKey = outerKey;
+    }
+
+    /**
+     * Checks if a "for" clause and the "where" clause following it can be evaluated as a hash join.
+     *
+     * This is the case if the "for" clause is nested in another clause, has no positional variable,
+     * type declaration or "allowing empty", and the "where" clause is an equality comparison between
+     * a path starting at the variable of the "for" clause and a path starting at another variable.
+     *
+     * @param forExpr the inner "for" clause
+     * @param where the "where" clause following it
+     *
+     * @return the join, or null if the clauses cannot be evaluated as a join
+     */
+    static @Nullable EquiJoin create(final ForExpr forExpr, final WhereClause where) {
+        if (forExpr.getPreviousClause() == null || forExpr.getPositionalVariable() != null
+                || forExpr.isAllowingEmpty() || forExpr.sequenceType != null) {
+            return null;
+        }
+
+        final Expression whereExpr = QueryRewriter.unwrap(where.getWhereExpr());
+        if (!(whereExpr instanceof GeneralComparison)) {
+            return null;
+        }
+        final GeneralComparison comparison = (GeneralComparison) whereExpr;
+        if (comparison.getRelation() != Comparison.EQ || comparison.getTruncation() != StringTruncationOperator.NONE
+                || comparison.collationArg != null) {
+            return null;
+        }
+
+        final QName varName;
+        try {
+            varName = QName.parse(forExpr.getContext(), forExpr.getVariable(), null);
+        } catch (final QName.IllegalQNameException e) {
+            return null;
+        }
+
+        final QName left = keyVariable(comparison.getLeft());
+        final QName right = keyVariable(comparison.getRight());
+        if (left == null || right == null) {
+            return null;
+        }
+        if (varName.equals(left) && !varName.equals(right)) {
+            return new EquiJoin(forExpr, comparison, varName, comparison.getLeft(), comparison.getRight());
+        } else if (varName.equals(right) && !varName.equals(left)) {
+            return new EquiJoin(forExpr, comparison, varName, comparison.getRight(), comparison.getLeft());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the variable of a key expression, which must be a reference to a variable,
+     * optionally followed by location steps without predicates, e.g. {@code $y/@ref}.
+     */
+    private static @Nullable QName keyVariable(final Expression key) {
+        final Expression expr = QueryRewriter.unwrap(key);
+        if (expr instanceof VariableReference) {
+            return ((VariableReference) expr).getName();
+        }
+        if (expr.getClass() != PathExpr.class) {
+            return null;
+        }
+        final PathExpr path = (PathExpr) expr;
+        final Expression first = QueryRewriter.unwrap(path.getExpression(0));
+        if (!(first instanceof VariableReference)) {
+            return null;
+        }
+        for (int i = 1; i < path.getLength(); i++) {
+            final Expression step = path.getExpression(i);
+            if (!(step instanceof LocationStep) || ((LocationStep) step).hasPredicates()) {
+                return null;
+            }
+        }
+        return ((VariableReference) first).getName();
+    }
+
+    /**
+     * Evaluates the input sequence of the "for" clause, restricted to the items
+     * which may satisfy the "where" clause for the current outer bindings.
+     *
+     * @param contextSequence the context sequence
+     *
+     * @return the items to bind, in the order of the input sequence
+     *
+     * @throws XPathException if an error occurs whilst evaluating the input sequence or the keys
+     */
+    Sequence select(final Sequence contextSequence) throws XPathException {
+        final Expression inputSequence = forExpr.getInputSequence();
+        if (disabled) {
+            return inputSequence.eval(contextSequence, null);
+        }
+
+        // the index lasts as long as the current evaluation of the whole FLWOR expression
+        final LocalVariable owner = firstClause().getStartVariable();
+        if (index == null || owner == null || owner != indexOwner) {
+            if (owner == null || Dependency.dependsOnVar(inputSequence)
+                    || Dependency.dependsOn(inputSequence, Dependency.CONTEXT_ITEM)) {
+                // the input sequence changes with the outer bindings
+                disabled = true;
+                reset();
+                return inputSequence.eval(contextSequence, null);
+            }
+            buildIndex(inputSequence.eval(contextSequence, null));
+            indexOwner = owner;
+        }
+
+        final Sequence outerKeys = Atomize.atomize(outerKey.eval(null));
+        if (outerKeys.isEmpty() || index.isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final EqualityIndex.KeyType keyType = EqualityIndex.keyType(index.getTypeClasses(),
+                EqualityIndex.typeClasses(outerKeys), comparison.getCollator(null) == null);
+        if (keyType == null) {
+            // every item has to be compared
+            final ValueSequence all = new ValueSequence(items.size());
+            for (final Item item : items) {
+                all.add(item);
+            }
+            return all;
+        }
+
+        final BitSet matches = new BitSet(items.size());
+        for (final SequenceIterator i = outerKeys.iterate(); i.hasNext(); ) {
+            index.lookup(keyType, i.nextItem().atomize(), matches);
+        }
+        final ValueSequence selected = new ValueSequence(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            selected.add(items.get(i));
+        }
+        return selected;
+    }
+
+    private void buildIndex(final Sequence input) throws XPathException {
+        final XQueryContext context = forExpr.getContext();
+        final List<Item> newItems = new ArrayList<>(input.getItemCount());
+        final EqualityIndex newIndex = new EqualityIndex();
+
+        // bind the variable of the "for" clause to each item to compute its keys
+        final LocalVariable mark = context.markLocalVariables(false);
+        try {
+            final LocalVariable var = new LocalVariable(varName);
+            context.declareVariableBinding(var);
+            for (final SequenceIterator i = input.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                final int position = newItems.size();
+                newItems.add(item);
+                var.setValue(item.toSequence());
+                final Sequence keys = Atomize.atomize(innerKey.eval(null));
+                for (final SequenceIterator k = keys.iterate(); k.hasNext(); ) {
+                    newIndex.add(k.nextItem().atomize(), position);
+                }
+            }
+        } finally {
+            context.popLocalVariables(mark);
+        }
+
+        this.items = newItems;
+        this.index = newIndex;
+    }
+
+    private FLWORClause firstClause() {
+        FLWORClause clause = forExpr;
+        while (clause.getPreviousClause() != null) {
+            clause = clause.getPreviousClause();
+        }
+        return clause;
+    }
+
+    /**
+     * Releases the index, e.g. when the state of the query is reset.
+     */
+    void reset() {
+        indexOwner = null;
+        items = null;
+        index = null;
+    }
+}
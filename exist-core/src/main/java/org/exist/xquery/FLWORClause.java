@@ -21,6 +21,7 @@
  */
 package org.exist.xquery;
 
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 
 /**
@@ -94,6 +95,31 @@ public interface FLWORClause extends Expression {
      */
     Sequence postEval(Sequence seq) throws XPathException;
 
+    /**
+     * Whether this clause, and the clauses it returns to, can be evaluated
+     * as a pipeline by {@link #openStream(Sequence, Item)}. Clauses which must
+     * see all tuples before they can return anything, like "order by"
+     * and "group by", cannot be pipelined.
+     *
+     * @return true if the clause can be pipelined
+     */
+    boolean isPipelinable();
+
+    /**
+     * Opens a pull-based stream over the items returned by this clause.
+     * Bindings are produced one at a time, so that a consumer which closes
+     * the stream early does not cause the remaining bindings to be evaluated.
+     *
+     * Should only be called if {@link #isPipelinable()} returns true,
+     * otherwise the clause is evaluated eagerly.
+     *
+     * @param contextSequence the context sequence
+     * @param contextItem the context item
+     * @return a stream of the items returned by the clause
+     * @throws XPathException if an error occurs whilst opening the stream
+     */
+    ItemStream openStream(Sequence contextSequence, Item contextItem) throws XPathException;
+
     /**
      * Create a new local variable for the FLWOR clause.
      * Tracks the variables for this expression.
@@ -26,6 +26,8 @@ import org.exist.dom.persistent.NodeSet;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import javax.annotation.Nullable;
+
 /**
  * Represents an XQuery "for" expression.
  * 
@@ -36,6 +38,7 @@ public class ForExpr extends BindingExpression {
     private String positionalVariable = null;
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
+    @Nullable private EquiJoin equiJoin = null;
 
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
@@ -57,6 +60,23 @@ public class ForExpr extends BindingExpression {
         positionalVariable = var;
     }
 
+    public @Nullable String getPositionalVariable() {
+        return positionalVariable;
+    }
+
+    public boolean isAllowingEmpty() {
+        return allowEmpty;
+    }
+
+    /**
+     * Evaluate this clause together with the following "where" clause as a hash join.
+     *
+     * @param equiJoin the join, see {@link EquiJoin#create(ForExpr, WhereClause)}
+     */
+    void setEquiJoin(final EquiJoin equiJoin) {
+        this.equiJoin = equiJoin;
+    }
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
@@ -125,7 +145,7 @@ public class ForExpr extends BindingExpression {
         Sequence resultSequence = new ValueSequence(unordered);
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            in = evalInputSequence(contextSequence);
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -230,6 +250,17 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
+    /**
+     * Evaluates the "in" expression. If this clause is evaluated as a join, only
+     * the items which may satisfy the following "where" clause are returned.
+     */
+    private Sequence evalInputSequence(final Sequence contextSequence) throws XPathException {
+        if (equiJoin != null) {
+            return equiJoin.select(contextSequence);
+        }
+        return inputSequence.eval(contextSequence, null);
+    }
+
     private void processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
             at, int p) throws XPathException {
         context.proceed(this);
@@ -267,6 +298,173 @@ public class ForExpr extends BindingExpression {
         return true;
     }
 
+    @Override
+    public boolean isPipelinable() {
+        // the type checks of an "as" clause are made against the whole result
+        return sequenceType == null && isReturnPipelinable();
+    }
+
+    @Override
+    public ItemStream openStream(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        context.expressionStart(this);
+        final ForStream stream = new ForStream();
+        try {
+            stream.open(contextSequence);
+        } catch (final XPathException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * Iterates the bindings of the "for" clause on demand, and for each
+     * binding pulls the items returned by the following clauses.
+     */
+    private class ForStream implements ItemStream {
+        private boolean marked = false;
+        private LocalVariable mark = null;
+        private Sequence in = null;
+        private LocalVariable var = null;
+        private LocalVariable at = null;
+        private SequenceIterator inIterator = null;
+        private boolean bindEmpty = false;
+        private int p = 0;
+        private ItemStream current = null;
+        private Sequence currentResult = null;
+        private boolean closed = false;
+
+        void open(final Sequence contextSequence) throws XPathException {
+            // Save the local variable stack
+            mark = context.markLocalVariables(false);
+            marked = true;
+            // Evaluate the "in" expression
+            in = evalInputSequence(contextSequence);
+            clearContext(getExpressionId(), in);
+            // Declare the iteration variable
+            var = createVariable(varName);
+            context.declareVariableBinding(var);
+            registerUpdateListener(in);
+            // Declare positional variable
+            if (positionalVariable != null) {
+                try {
+                    at = new LocalVariable(QName.parse(context, positionalVariable, null));
+                } catch (final QName.IllegalQNameException e) {
+                    throw new XPathException(ErrorCodes.XPST0081, "No namespace defined for prefix " + positionalVariable);
+                }
+                at.setSequenceType(POSITIONAL_VAR_TYPE);
+                context.declareVariableBinding(at);
+            }
+            // Assign the whole input sequence to the bound variable, see eval
+            var.setValue(in);
+            if (in instanceof NodeSet) {
+                var.setContextDocs(in.getDocumentSet());
+            } else {
+                var.setContextDocs(null);
+            }
+            if (isOuterFor) {
+                if (returnExpr instanceof WhereClause) {
+                    if (at == null) {
+                        in = ((WhereClause) returnExpr).preEval(in);
+                    }
+                } else if (returnExpr instanceof FLWORClause) {
+                    in = ((FLWORClause) returnExpr).preEval(in);
+                }
+            }
+            bindEmpty = in.isEmpty() && allowEmpty;
+            inIterator = in.iterate();
+        }
+
+        @Override
+        public Item next() throws XPathException {
+            if (closed) {
+                return null;
+            }
+            while (true) {
+                if (current != null) {
+                    final Item item = current.next();
+                    if (item != null) {
+                        return item;
+                    }
+                    endBinding();
+                }
+                if (!nextBinding()) {
+                    return null;
+                }
+            }
+        }
+
+        private boolean nextBinding() throws XPathException {
+            final Item item;
+            if (bindEmpty) {
+                bindEmpty = false;
+                item = AtomicValue.EMPTY_VALUE;
+            } else if (inIterator.hasNext()) {
+                item = inIterator.nextItem();
+            } else {
+                return false;
+            }
+
+            context.proceed(ForExpr.this);
+            context.setContextSequencePosition(p, in);
+            if (at != null) {
+                at.setValue(new IntegerValue(p + 1));
+            }
+            // set variable value to current item
+            var.setValue(item.toSequence());
+            var.checkType(); //because it makes some conversions !
+            //Reset the context position
+            context.setContextSequencePosition(0, null);
+            p++;
+
+            if (returnExpr instanceof FLWORClause) {
+                current = ((FLWORClause) returnExpr).openStream(null, null);
+            } else {
+                currentResult = returnExpr.eval(null);
+                current = ItemStream.of(currentResult);
+            }
+            return true;
+        }
+
+        private void endBinding() {
+            current.close();
+            current = null;
+            if (currentResult != null) {
+                // free resources
+                var.destroy(context, currentResult);
+                currentResult = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+            } finally {
+                if (marked) {
+                    // restore the local variable stack, keeping the value of the variable which may have been returned
+                    context.popLocalVariables(mark, var != null ? var.getValue() : null);
+                }
+                try {
+                    clearContext(getExpressionId(), in);
+                    if (getPreviousClause() == null) {
+                        postEval(Sequence.EMPTY_SEQUENCE);
+                    }
+                } catch (final XPathException e) {
+                    LOG.error("Error whilst closing stream of for expression: {}", e.getMessage(), e);
+                }
+                context.expressionEnd(ForExpr.this);
+            }
+        }
+    }
+
     @Override
     public Sequence preEval(Sequence seq) throws XPathException {
         // if preEval gets called, we know we're inside another FOR
@@ -331,6 +529,9 @@ public class ForExpr extends BindingExpression {
     */
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        if (equiJoin != null) {
+            equiJoin.reset();
+        }
     }
 
     public void accept(ExpressionVisitor visitor) {
@@ -61,6 +61,9 @@ import java.util.List;
  */
 public class GeneralComparison extends BinaryOp implements Optimizable, IndexUseReporter
 {
+    /** Minimum number of value pairs for which an equality comparison between two sequences uses a hash table. */
+    private static final long HASH_COMPARE_THRESHOLD = 64;
+
     /** The type of operator used for the comparison, i.e. =, !=, &lt;, &gt; ... One of the constants declared in class {@link Constants}. */
     protected Comparison          relation              = Comparison.EQ;
 
@@ -553,6 +556,8 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
             }
         } else if( ls.hasOne() && rs.hasOne() && ls.itemAt(0).getType() != Type.ARRAY && rs.itemAt(0).getType() != Type.ARRAY) {
             result = BooleanValue.valueOf( compareAtomic( collator, ls.itemAt( 0 ).atomize(), rs.itemAt( 0 ).atomize() ) );
+        } else if( isHashComparable( ls, rs ) ) {
+            result = BooleanValue.valueOf( hashCompare( collator, Atomize.atomize( ls ), Atomize.atomize( rs ) ) );
         } else {
 
             for( final SequenceIterator i1 = Atomize.atomize(ls).iterate(); i1.hasNext(); ) {
@@ -592,6 +597,79 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
     }
 
 
+    /**
+     * Determines if the comparison of two sequences may be evaluated by {@link #hashCompare(Collator, Sequence, Sequence)}.
+     *
+     * @param ls the left sequence
+     * @param rs the right sequence
+     *
+     * @return true if this is an equality comparison between sequences large enough to benefit from a hash table
+     */
+    private boolean isHashComparable( final Sequence ls, final Sequence rs )
+    {
+        return( relation == Comparison.EQ && truncation == StringTruncationOperator.NONE && ls.hasMany() && rs.hasMany()
+                && ( (long) ls.getItemCount() * rs.getItemCount() ) >= HASH_COMPARE_THRESHOLD );
+    }
+
+
+    /**
+     * Evaluates an equality comparison between two atomized sequences by building a hash table
+     * on the smaller sequence and probing it with the values of the larger one, instead of
+     * comparing every pair of values. If the types of the values do not allow a hash lookup
+     * (see {@link EqualityIndex#keyType(int, int, boolean)}), every pair is compared.
+     *
+     * @param collator the collator to use for comparisons
+     * @param lseq the atomized left sequence
+     * @param rseq the atomized right sequence
+     *
+     * @return true if a value of the left sequence is equal to a value of the right sequence
+     *
+     * @throws XPathException in case of dynamic error
+     */
+    private boolean hashCompare( final Collator collator, final Sequence lseq, final Sequence rseq ) throws XPathException
+    {
+        final EqualityIndex.KeyType keyType = EqualityIndex.keyType( EqualityIndex.typeClasses( lseq ),
+                EqualityIndex.typeClasses( rseq ), collator == null );
+
+        if( keyType == null ) {
+
+            for( final SequenceIterator i1 = lseq.iterate(); i1.hasNext(); ) {
+                final AtomicValue lv = i1.nextItem().atomize();
+
+                for( final SequenceIterator i2 = rseq.iterate(); i2.hasNext(); ) {
+
+                    if( compareAtomic( collator, lv, i2.nextItem().atomize() ) ) {
+                        return( true );
+                    }
+                }
+            }
+            return( false );
+        }
+
+        if( context.getProfiler().isEnabled() ) {
+            context.getProfiler().message( this, Profiler.OPTIMIZATIONS, "OPTIMIZATION", "Using hash table for comparison as " + keyType );
+        }
+
+        final boolean  buildLeft = lseq.getItemCount() <= rseq.getItemCount();
+        final Sequence build     = buildLeft ? lseq : rseq;
+        final Sequence probe     = buildLeft ? rseq : lseq;
+
+        final EqualityIndex index = new EqualityIndex();
+        int position = 0;
+        for( final SequenceIterator i = build.iterate(); i.hasNext(); ) {
+            index.add( i.nextItem().atomize(), position++ );
+        }
+
+        for( final SequenceIterator i = probe.iterate(); i.hasNext(); ) {
+
+            if( index.contains( keyType, i.nextItem().atomize() ) ) {
+                return( true );
+            }
+        }
+        return( false );
+    }
+
+
     /**
      * Optimized implementation, which can be applied if the left operand returns a node set. In this case, the left expression is executed first. All
      * matching context nodes are then passed to the right expression.
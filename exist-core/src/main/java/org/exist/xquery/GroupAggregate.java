@@ -0,0 +1,302 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.xquery.functions.fn.FunAvg;
+import org.exist.xquery.functions.fn.FunCount;
+import org.exist.xquery.functions.fn.FunMax;
+import org.exist.xquery.functions.fn.FunMin;
+import org.exist.xquery.functions.fn.FunSum;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.ComputableValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.NumericValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.SpillFiles;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Describes how a {@link GroupByClause} collects the values of a non-grouping variable which is
+ * never used as a whole after grouping: either the variable is not referenced at all, or every
+ * reference is the argument of the same aggregate function, i.e. fn:count, fn:sum, fn:avg, fn:min
+ * or fn:max. Instead of the values, each group then just keeps an {@link Accumulator}, and the
+ * variable is bound to a sequence for which the aggregate function returns the same result as
+ * for the values of the group.
+ *
+ * fn:sum, fn:min and fn:max are computed by applying the function itself to the previous result
+ * followed by the values of the next tuple, so their semantics, e.g. type promotion and errors,
+ * are exactly those of the function.
+ */
+final class GroupAggregate {
+
+    enum Kind {
+        UNUSED, COUNT, AVG, FOLD
+    }
+
+    private final QName name;
+    private final Kind kind;
+    private final Function function;
+
+    private GroupAggregate(final QName name, final Kind kind, @Nullable final Function function) {
+        this.name = name;
+        this.kind = kind;
+        this.function = function;
+    }
+
+    /**
+     * Check how a non-grouping variable is used after grouping.
+     *
+     * @param name the name of the variable
+     * @param references the references to the variable in the clauses following the group by
+     * @return how to collect the values of the variable, or null if all values have to be kept
+     */
+    static @Nullable GroupAggregate create(final QName name, final List<VariableReference> references) {
+        if (references.isEmpty()) {
+            return new GroupAggregate(name, Kind.UNUSED, null);
+        }
+        Function function = null;
+        for (final VariableReference reference : references) {
+            final Function next = getAggregateFunction(reference);
+            if (next == null || (function != null && function.getClass() != next.getClass())) {
+                return null;
+            }
+            if (function == null) {
+                function = next;
+            }
+        }
+        if (function instanceof FunCount) {
+            return new GroupAggregate(name, Kind.COUNT, function);
+        } else if (function instanceof FunAvg) {
+            return new GroupAggregate(name, Kind.AVG, function);
+        } else {
+            return new GroupAggregate(name, Kind.FOLD, function);
+        }
+    }
+
+    /**
+     * Get the aggregate function the reference is the first argument of.
+     *
+     * @return the function or null if the reference is used in another way
+     */
+    private static @Nullable Function getAggregateFunction(final VariableReference reference) {
+        Expression arg = reference;
+        Expression parent = reference.getParent();
+        while (parent instanceof PathExpr && ((PathExpr) parent).getLength() == 1) {
+            arg = parent;
+            parent = parent.getParent();
+        }
+        if (!(parent instanceof Function) || ((Function) parent).getArgumentCount() == 0) {
+            return null;
+        }
+        final Function function = (Function) parent;
+        if (QueryRewriter.unwrap(function.getArgument(0)) != reference && function.getArgument(0) != arg) {
+            return null;
+        }
+        if (function instanceof FunCount || function instanceof FunAvg || function instanceof FunMin
+                || function instanceof FunMax) {
+            return function.getArgumentCount() == 1 ? function : null;
+        }
+        // the zero argument of fn:sum is only used if the values of all tuples are empty
+        return function instanceof FunSum ? function : null;
+    }
+
+    QName getName() {
+        return name;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Aggregates the values of the variable for one group.
+     */
+    final class Accumulator {
+
+        private long count = 0;
+
+        // the result of fn:sum, fn:min or fn:max, or the sum of the values for fn:avg
+        private Sequence value = Sequence.EMPTY_SEQUENCE;
+
+        private boolean isNaN = false;
+
+        /**
+         * Add the values of the variable for the next tuple of the group.
+         *
+         * @param context the query context
+         * @param values the values of the variable
+         * @throws XPathException if the values cannot be aggregated
+         */
+        void add(final XQueryContext context, final Sequence values) throws XPathException {
+            switch (kind) {
+                case COUNT:
+                    count += values.getItemCountLong();
+                    break;
+                case AVG:
+                    for (final SequenceIterator i = values.iterate(); i.hasNext(); ) {
+                        addToSum(i.nextItem().atomize(), true);
+                    }
+                    break;
+                case FOLD:
+                    value = fold(context, value, values);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Add the values aggregated by another accumulator of the same group, e.g. one which
+         * was written to disk before.
+         *
+         * @param context the query context
+         * @param other the other accumulator
+         * @throws XPathException if the values cannot be aggregated
+         */
+        void merge(final XQueryContext context, final Accumulator other) throws XPathException {
+            switch (kind) {
+                case COUNT:
+                    count += other.count;
+                    break;
+                case AVG:
+                    if (other.isNaN) {
+                        value = DoubleValue.NaN;
+                        isNaN = true;
+                    } else if (!other.value.isEmpty()) {
+                        addToSum((AtomicValue) other.value.itemAt(0), false);
+                    }
+                    count += other.count;
+                    break;
+                case FOLD:
+                    value = fold(context, value, other.value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Get the sequence the variable is bound to for the group.
+         *
+         * @return the sequence
+         * @throws XPathException if the average cannot be computed
+         */
+        Sequence getResult() throws XPathException {
+            switch (kind) {
+                case COUNT:
+                    return count == 0 ? Sequence.EMPTY_SEQUENCE : new RangeSequence(new IntegerValue(1), new IntegerValue(count));
+                case AVG:
+                    if (value.isEmpty() || isNaN) {
+                        return value;
+                    }
+                    return ((ComputableValue) value).div(new IntegerValue(count));
+                default:
+                    return value;
+            }
+        }
+
+        /**
+         * Mirrors the summation done by fn:avg.
+         */
+        private void addToSum(AtomicValue next, final boolean counted) throws XPathException {
+            if (counted) {
+                count++;
+            }
+            if (isNaN) {
+                return;
+            }
+            // any values of type xs:untypedAtomic are cast to xs:double
+            if (next.getType() == Type.UNTYPED_ATOMIC) {
+                next = next.convertTo(Type.DOUBLE);
+            }
+            if (!(next instanceof ComputableValue)) {
+                throw new XPathException(function, ErrorCodes.FORG0006,
+                        Type.getTypeName(next.getType()) + "(" + next + ") can not be an operand in a sum", next);
+            }
+            if (value.isEmpty()) {
+                value = next;
+                return;
+            }
+            if (Type.subTypeOfUnion(next.getType(), Type.NUMBER) && ((NumericValue) next).isNaN()) {
+                value = DoubleValue.NaN;
+                isNaN = true;
+                return;
+            }
+            try {
+                final ComputableValue sum = (ComputableValue) ((ComputableValue) value).promote(next);
+                value = sum.plus((ComputableValue) next);
+            } catch (final XPathException e) {
+                throw new XPathException(function, ErrorCodes.FORG0006, e.getMessage());
+            }
+        }
+
+        /**
+         * Apply the aggregate function to the previous result followed by the next values.
+         */
+        private Sequence fold(final XQueryContext context, final Sequence previous, final Sequence values) throws XPathException {
+            if (values.isEmpty()) {
+                return previous;
+            }
+            final ValueSequence input = new ValueSequence(previous.getItemCount() + values.getItemCount());
+            input.addAll(previous);
+            input.addAll(values);
+            final LocalVariable mark = context.markLocalVariables(false);
+            try {
+                final LocalVariable var = new LocalVariable(name);
+                var.setValue(input);
+                context.declareVariableBinding(var);
+                return function.eval(null, null);
+            } finally {
+                context.popLocalVariables(mark);
+            }
+        }
+
+        void write(final SpillFiles spill, final DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeBoolean(isNaN);
+            out.writeBoolean(!value.isEmpty());
+            if (!value.isEmpty()) {
+                spill.writeItem(out, value.itemAt(0));
+            }
+        }
+
+        void read(final SpillFiles spill, final DataInputStream in) throws IOException, XPathException {
+            count = in.readLong();
+            isNaN = in.readBoolean();
+            value = in.readBoolean() ? spill.readItem(in).toSequence() : Sequence.EMPTY_SEQUENCE;
+        }
+    }
+}
@@ -26,19 +26,35 @@ import org.exist.dom.QName;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Stream;
 
 /**
  * Implements a "group by" clause inside a FLWOR.
  *
+ * Non-grouping variables which are only used as the argument of fn:count, fn:sum, fn:avg,
+ * fn:min or fn:max after grouping, or not used at all, are aggregated while the tuples
+ * are collected instead of keeping all their values (see {@link GroupAggregate}). This is
+ * only done if none of the following clauses may evaluate code compiled at runtime, which
+ * could reference any of the variables (see {@link #keepNonGroupingValues(XQueryContext)}).
+ *
+ * If the groups hold more items than {@link XQueryContext#getGroupBySpillThreshold()},
+ * they are written to a number of partitions on disk by the hash code of their key. Once
+ * all tuples are known, the partitions are grouped and returned one at a time.
+ *
  * @author wolf
  */
 public class GroupByClause extends AbstractFLWORClause {
 
+    private static final int SPILL_PARTITIONS = 16;
+
     protected FLWORClause rootClause = null;
     private GroupSpec[] groupSpecs;
     private final Deque<GroupByData> stack = new ArrayDeque<>();
+    private Map<QName, GroupAggregate> aggregates = Collections.emptyMap();
 
     /**
      * Collect tuples and grouping vars. Because GroupByClause needs to keep
@@ -54,6 +70,13 @@ public class GroupByClause extends AbstractFLWORClause {
 
         private boolean initialized = false;
 
+        // number of items held by the tuples in groupedMap
+        private long itemsInMemory = 0;
+
+        // the partitions the groups are written to once there are too many items
+        private SpillFiles spill = null;
+        private DataOutputStream[] partitions = null;
+
         public GroupByData() {
             // check if we can use a hash map
             if (usesDefaultCollator()) {
@@ -62,9 +85,96 @@ public class GroupByClause extends AbstractFLWORClause {
                 // non-default collation: must use tree map
                 groupedMap = new TreeMap<>(GroupByClause.this::compareKeys);
             }
-            variables = new HashMap<>();
+            variables = new LinkedHashMap<>();
             groupingVars = new ArrayList<>();
         }
+
+        void close() {
+            if (partitions != null) {
+                for (final DataOutputStream out : partitions) {
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (final IOException e) {
+                        // nothing to do
+                    }
+                }
+                partitions = null;
+            }
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * A non-grouping variable whose values are aggregated.
+     *
+     * During static analysis, a copy of the variable in scope before the group by is declared
+     * for each non-grouping variable, so references to it from the following clauses are
+     * recorded. At runtime, the variable is bound to the aggregated values.
+     */
+    static class NonGroupingVariable extends LocalVariable {
+
+        private final List<VariableReference> references = new ArrayList<>();
+        private final GroupAggregate aggregate;
+        private boolean keepValues = false;
+
+        NonGroupingVariable(final LocalVariable other) {
+            super(other);
+            this.aggregate = null;
+        }
+
+        NonGroupingVariable(final QName qname, final GroupAggregate aggregate) {
+            super(qname);
+            this.aggregate = aggregate;
+        }
+
+        void referencedBy(final VariableReference reference) throws XPathException {
+            if (aggregate != null) {
+                // should not happen, as any expression which compiles code at runtime keeps the values
+                throw new XPathException(reference, ErrorCodes.XPDY0002, "Variable $" + getQName() +
+                        " was aggregated by a group by clause and cannot be referenced by a dynamically " +
+                        "compiled expression");
+            }
+            if (!references.contains(reference)) {
+                references.add(reference);
+            }
+        }
+
+        /**
+         * Called if the variable may be referenced by expressions which are not known
+         * during static analysis, e.g. the body of an inline function, which is only
+         * analyzed when the function is created.
+         */
+        void keepValues() {
+            keepValues = true;
+        }
+    }
+
+    /**
+     * Let the group by clauses whose non-grouping variables are in scope know that the
+     * variables may be referenced by expressions which are not known during static analysis,
+     * so they must keep all their values.
+     *
+     * Called during static analysis by inline functions and by functions which evaluate
+     * code compiled at runtime, e.g. util:eval.
+     *
+     * @param context the context of the expression being analyzed
+     * @throws XPathException if a variable cannot be resolved
+     */
+    public static void keepNonGroupingValues(final XQueryContext context) throws XPathException {
+        final List<ClosureVariable> localVars = context.getLocalStack();
+        if (localVars != null) {
+            for (final ClosureVariable localVar : localVars) {
+                final Variable var = context.resolveVariable(localVar.getQName());
+                if (var instanceof NonGroupingVariable) {
+                    ((NonGroupingVariable) var).keepValues();
+                }
+            }
+        }
     }
 
     public GroupByClause(XQueryContext context) {
@@ -108,25 +218,51 @@ public class GroupByClause extends AbstractFLWORClause {
         }
 
         // collect the current tuples into the grouping map
-        final Tuple tuple = data.groupedMap.computeIfAbsent(groupingKeys, ks -> new Tuple(groupingValues));
+        Tuple tuple = data.groupedMap.get(groupingKeys);
+        if (tuple == null) {
+            tuple = new Tuple(groupingValues);
+            data.groupedMap.put(groupingKeys, tuple);
+            data.itemsInMemory += groupingKeys.size();
+        }
 
         // scan in-scope variables to collect tuples
         LocalVariable nextVar = rootClause.getStartVariable();
         Objects.requireNonNull(nextVar);
+        final List<LocalVariable> inScope = new ArrayList<>();
         while(nextVar != null) {
-            tuple.add(nextVar.getQName(), nextVar.getValue());
+            inScope.add(nextVar);
             if (!data.initialized) {
                 // on first call: initialize non-grouping variable for later use
-                final LocalVariable var = new LocalVariable(nextVar.getQName());
-                var.setSequenceType(nextVar.getSequenceType());
-                var.setStaticType(nextVar.getStaticType());
+                final GroupAggregate aggregate = aggregates.get(nextVar.getQName());
+                final LocalVariable var;
+                if (aggregate != null) {
+                    var = new NonGroupingVariable(nextVar.getQName(), aggregate);
+                } else {
+                    var = new LocalVariable(nextVar.getQName());
+                    var.setSequenceType(nextVar.getSequenceType());
+                    var.setStaticType(nextVar.getStaticType());
+                }
                 var.setContextDocs(nextVar.getContextDocs());
                 data.variables.put(var.getQName(), var);
             }
             nextVar = nextVar.after;
         }
+        // aggregating may declare variables, so the in-scope variables are collected first
+        for (final LocalVariable var : inScope) {
+            final GroupAggregate aggregate = aggregates.get(var.getQName());
+            if (aggregate != null) {
+                tuple.accumulate(aggregate, var.getValue());
+            } else {
+                data.itemsInMemory += tuple.add(var.getQName(), var.getValue());
+            }
+        }
 
         data.initialized = true;
+
+        final int spillThreshold = context.getGroupBySpillThreshold();
+        if (spillThreshold > 0 && data.itemsInMemory >= spillThreshold && data.groupedMap instanceof HashMap) {
+            spill(data);
+        }
         return contextSequence;
     }
 
@@ -145,30 +281,23 @@ public class GroupByClause extends AbstractFLWORClause {
                 for (LocalVariable var : data.groupingVars) {
                     context.declareVariableBinding(var);
                 }
-                // iterate over each group
-                for (Tuple tuple : data.groupedMap.values()) {
-                    context.proceed();
-
-                    // set grouping variable values
-                    final Iterator<Sequence> siter = tuple.groupingValues.iterator();
-                    for (LocalVariable var : data.groupingVars) {
-                        if (siter.hasNext()) {
-                            Sequence val = siter.next();
-                            var.setValue(val);
-                        } else {
-                            throw new XPathException(this, "Internal error: missing grouping value");
-                        }
+                if (data.spill == null) {
+                    // iterate over each group
+                    for (Tuple tuple : data.groupedMap.values()) {
+                        evalGroup(data, tuple, result);
                     }
-                    // set values of non-grouping variables
-                    for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
-                        final LocalVariable var = data.variables.get(entry.getKey());
-                        var.setValue(entry.getValue());
+                } else {
+                    // write the remaining groups and iterate over each partition
+                    spill(data);
+                    for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                        for (Tuple tuple : readPartition(data, i).values()) {
+                            evalGroup(data, tuple, result);
+                        }
                     }
-                    final Sequence r = returnExpr.eval(null);
-                    result.addAll(r);
                 }
             } finally {
                 stack.pop();
+                data.close();
                 context.popLocalVariables(mark, result);
             }
 
@@ -181,6 +310,152 @@ public class GroupByClause extends AbstractFLWORClause {
         return seq;
     }
 
+    private void evalGroup(final GroupByData data, final Tuple tuple, final Sequence result) throws XPathException {
+        context.proceed();
+
+        // set grouping variable values
+        final Iterator<Sequence> siter = tuple.groupingValues.iterator();
+        for (LocalVariable var : data.groupingVars) {
+            if (siter.hasNext()) {
+                Sequence val = siter.next();
+                var.setValue(val);
+            } else {
+                throw new XPathException(this, "Internal error: missing grouping value");
+            }
+        }
+        // set values of non-grouping variables
+        for (Map.Entry<QName, Sequence> entry : tuple.entrySet()) {
+            final LocalVariable var = data.variables.get(entry.getKey());
+            var.setValue(entry.getValue());
+        }
+        for (Map.Entry<QName, GroupAggregate.Accumulator> entry : tuple.accumulators.entrySet()) {
+            final LocalVariable var = data.variables.get(entry.getKey());
+            var.setValue(entry.getValue().getResult());
+        }
+        final Sequence r = returnExpr.eval(null);
+        result.addAll(r);
+    }
+
+    /**
+     * Write the groups held in memory to the partitions on disk.
+     */
+    private void spill(final GroupByData data) throws XPathException {
+        try {
+            if (data.spill == null) {
+                data.spill = new SpillFiles();
+                data.partitions = new DataOutputStream[SPILL_PARTITIONS];
+                for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                    data.partitions[i] = data.spill.newFile();
+                }
+            }
+            for (final Map.Entry<List<AtomicValue>, Tuple> group : data.groupedMap.entrySet()) {
+                final DataOutputStream out = data.partitions[Math.floorMod(group.getKey().hashCode(), SPILL_PARTITIONS)];
+                out.writeBoolean(true);
+                writeTuple(data, group.getKey(), group.getValue(), out);
+            }
+            data.groupedMap.clear();
+            data.itemsInMemory = 0;
+        } catch (final IOException e) {
+            throw new XPathException(this, "Unable to write groups of group by clause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the groups of a partition, merging the tuples written for the same key.
+     */
+    private Map<List<AtomicValue>, Tuple> readPartition(final GroupByData data, final int partition) throws XPathException {
+        final Map<List<AtomicValue>, Tuple> groups = new HashMap<>();
+        try {
+            final DataOutputStream out = data.partitions[partition];
+            data.partitions[partition] = null;
+            out.writeBoolean(false);
+            out.close();
+
+            try (final DataInputStream in = data.spill.openFile(partition)) {
+                while (in.readBoolean()) {
+                    final int keyCount = in.readInt();
+                    final List<AtomicValue> keys = new ArrayList<>(keyCount);
+                    for (int i = 0; i < keyCount; i++) {
+                        keys.add((AtomicValue) data.spill.readItem(in));
+                    }
+                    final Tuple tuple = readTuple(data, in);
+                    final Tuple existing = groups.get(keys);
+                    if (existing == null) {
+                        groups.put(keys, tuple);
+                    } else {
+                        existing.merge(tuple);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new XPathException(this, "Unable to read groups of group by clause: " + e.getMessage(), e);
+        }
+        return groups;
+    }
+
+    private void writeTuple(final GroupByData data, final List<AtomicValue> keys, final Tuple tuple,
+            final DataOutputStream out) throws IOException {
+        out.writeInt(keys.size());
+        for (final AtomicValue key : keys) {
+            data.spill.writeItem(out, key);
+        }
+        out.writeInt(tuple.groupingValues.size());
+        for (final Sequence value : tuple.groupingValues) {
+            writeSequence(data.spill, value, out);
+        }
+        for (final QName name : data.variables.keySet()) {
+            final GroupAggregate.Accumulator accumulator = tuple.accumulators.get(name);
+            if (accumulator != null) {
+                accumulator.write(data.spill, out);
+            } else {
+                final Sequence value = tuple.get(name);
+                writeSequence(data.spill, value == null ? Sequence.EMPTY_SEQUENCE : value, out);
+            }
+        }
+    }
+
+    private Tuple readTuple(final GroupByData data, final DataInputStream in) throws IOException, XPathException {
+        final int count = in.readInt();
+        final List<Sequence> groupingValues = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            groupingValues.add(readSequence(data.spill, in));
+        }
+        final Tuple tuple = new Tuple(groupingValues);
+        for (final QName name : data.variables.keySet()) {
+            final GroupAggregate aggregate = aggregates.get(name);
+            if (aggregate != null) {
+                final GroupAggregate.Accumulator accumulator = aggregate.newAccumulator();
+                accumulator.read(data.spill, in);
+                tuple.accumulators.put(name, accumulator);
+            } else {
+                tuple.put(name, readSequence(data.spill, in));
+            }
+        }
+        return tuple;
+    }
+
+    private static void writeSequence(final SpillFiles spill, final Sequence seq, final DataOutputStream out)
+            throws IOException {
+        out.writeInt(seq.getItemCount());
+        try {
+            for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+                spill.writeItem(out, i.nextItem());
+            }
+        } catch (final XPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static ValueSequence readSequence(final SpillFiles spill, final DataInputStream in)
+            throws IOException, XPathException {
+        final int count = in.readInt();
+        final ValueSequence seq = new ValueSequence(count);
+        for (int i = 0; i < count; i++) {
+            seq.add(spill.readItem(in));
+        }
+        return seq;
+    }
+
     @Override
     public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
         contextInfo.setParent(this);
@@ -200,7 +475,31 @@ public class GroupByClause extends AbstractFLWORClause {
                 spec.analyze(newContextInfo);
             }
 
+            // declare the non-grouping variables again to find out how they are referenced
+            final List<NonGroupingVariable> nonGroupingVars = new ArrayList<>();
+            for (final QName name : getNonGroupingVariables()) {
+                final Variable outer = context.resolveVariable(name);
+                if (outer instanceof LocalVariable) {
+                    final NonGroupingVariable var = new NonGroupingVariable((LocalVariable) outer);
+                    context.declareVariableBinding(var);
+                    nonGroupingVars.add(var);
+                }
+            }
+
             returnExpr.analyze(newContextInfo);
+
+            aggregates = new HashMap<>();
+            if (!isFollowedByGroupBy()) {
+                for (final NonGroupingVariable var : nonGroupingVars) {
+                    if (var.keepValues) {
+                        continue;
+                    }
+                    final GroupAggregate aggregate = GroupAggregate.create(var.getQName(), var.references);
+                    if (aggregate != null) {
+                        aggregates.put(var.getQName(), aggregate);
+                    }
+                }
+            }
         } finally {
             // restore the local variable stack
             context.popLocalVariables(mark);
@@ -213,6 +512,59 @@ public class GroupByClause extends AbstractFLWORClause {
         }
     }
 
+    /**
+     * Get the names of the variables bound by the for and let clauses before this
+     * clause, which are not shadowed by a grouping variable.
+     *
+     * @return the names, or an empty set if other clauses precede this one
+     */
+    private Set<QName> getNonGroupingVariables() throws XPathException {
+        final Set<QName> names = new LinkedHashSet<>();
+        for (FLWORClause clause = getPreviousClause(); clause != null; clause = clause.getPreviousClause()) {
+            switch (clause.getType()) {
+                case FOR:
+                    final String positionalVariable = ((ForExpr) clause).getPositionalVariable();
+                    if (positionalVariable != null) {
+                        names.add(parseVariableName(positionalVariable));
+                    }
+                    // fall through
+                case LET:
+                    names.add(parseVariableName(((BindingExpression) clause).getVariable()));
+                    break;
+                case WHERE:
+                case ORDERBY:
+                    break;
+                default:
+                    return Collections.emptySet();
+            }
+        }
+        for (final GroupSpec spec : groupSpecs) {
+            names.remove(spec.getKeyVarName());
+        }
+        return names;
+    }
+
+    private QName parseVariableName(final String name) throws XPathException {
+        try {
+            return QName.parse(context, name, null);
+        } catch (final QName.IllegalQNameException e) {
+            throw new XPathException(this, ErrorCodes.XPST0081, "No namespace defined for prefix " + name);
+        }
+    }
+
+    /**
+     * A following group by clause regroups the aggregated values, for which
+     * the aggregate functions do not necessarily return the same result.
+     */
+    private boolean isFollowedByGroupBy() {
+        for (Expression next = returnExpr; next instanceof FLWORClause; next = ((FLWORClause) next).getReturnExpression()) {
+            if (next instanceof GroupByClause) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setGroupSpecs(final GroupSpec specs[]) {
         final List<GroupSpec> distinctSpecs = new ArrayList<>(specs.length);
         for (int i = 0; i < specs.length; i++) {
@@ -294,16 +646,22 @@ public class GroupByClause extends AbstractFLWORClause {
         return Stream.of(groupSpecs).allMatch(spec -> spec.getCollator() == null);
     }
 
-    static class Tuple extends HashMap<QName, Sequence> {
+    class Tuple extends HashMap<QName, Sequence> {
 
         private final List<Sequence> groupingValues;
+        private final Map<QName, GroupAggregate.Accumulator> accumulators = new HashMap<>();
 
         public Tuple(final List<Sequence> groupingValues) {
             super();
             this.groupingValues = groupingValues;
         }
 
-        public void add(final QName name, final Sequence val) throws XPathException {
+        /**
+         * Add the values of a non-grouping variable.
+         *
+         * @return the number of items added
+         */
+        public int add(final QName name, final Sequence val) throws XPathException {
             Sequence seq = get(name);
             if (seq == null) {
                 final ValueSequence temp = new ValueSequence(val.getItemCount());
@@ -312,6 +670,33 @@ public class GroupByClause extends AbstractFLWORClause {
             } else {
                 seq.addAll(val);
             }
+            return val.getItemCount();
+        }
+
+        public void accumulate(final GroupAggregate aggregate, final Sequence val) throws XPathException {
+            GroupAggregate.Accumulator accumulator = accumulators.get(aggregate.getName());
+            if (accumulator == null) {
+                accumulator = aggregate.newAccumulator();
+                accumulators.put(aggregate.getName(), accumulator);
+            }
+            accumulator.add(context, val);
+        }
+
+        /**
+         * Add the values of another tuple with the same grouping keys.
+         */
+        public void merge(final Tuple other) throws XPathException {
+            for (final Map.Entry<QName, Sequence> entry : other.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+            for (final Map.Entry<QName, GroupAggregate.Accumulator> entry : other.accumulators.entrySet()) {
+                final GroupAggregate.Accumulator accumulator = accumulators.get(entry.getKey());
+                if (accumulator == null) {
+                    accumulators.put(entry.getKey(), entry.getValue());
+                } else {
+                    accumulator.merge(context, entry.getValue());
+                }
+            }
         }
     }
 }
@@ -58,6 +58,10 @@ public class InlineFunction extends AbstractExpression {
         cachedContextInfo = new AnalyzeContextInfo(contextInfo);
         cachedContextInfo.addFlag(SINGLE_STEP_EXECUTION);
         cachedContextInfo.setParent(this);
+
+        // the body is analyzed when the function is created: let group by clauses
+        // know that their non-grouping variables may be referenced by it
+        GroupByClause.keepNonGroupingValues(context);
 	}
 
 	@Override
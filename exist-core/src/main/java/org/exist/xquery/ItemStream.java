@@ -0,0 +1,151 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+
+import javax.annotation.Nullable;
+
+/**
+ * A pull-based stream over the items produced by an expression.
+ *
+ * Unlike a {@link Sequence}, which is fully evaluated before it is returned,
+ * the items of a stream may be computed on demand, so that a consumer which
+ * only needs a few items, e.g. {@code fn:head} or {@code fn:subsequence}, can
+ * stop the evaluation early by closing the stream.
+ *
+ * A stream may keep variable bindings declared in the {@link XQueryContext}
+ * whilst it is open. It must therefore be consumed and closed by the
+ * expression which opened it, without evaluating any other expressions
+ * in between calls to {@link #next()}.
+ *
+ * @see FLWORClause#openStream(Sequence, Item)
+ */
+public interface ItemStream extends AutoCloseable {
+
+    ItemStream EMPTY_STREAM = new ItemStream() {
+        @Override
+        public Item next() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Retrieves the next item from the stream.
+     *
+     * @return the next item, or null if there are no more items
+     *
+     * @throws XPathException if an error occurs whilst evaluating the next item
+     */
+    @Nullable Item next() throws XPathException;
+
+    /**
+     * Closes the stream, discarding any items which have not yet been retrieved.
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates a stream over an already evaluated sequence.
+     *
+     * @param sequence the sequence
+     *
+     * @return a stream of the items of the sequence
+     */
+    static ItemStream of(final Sequence sequence) {
+        return new ItemStream() {
+            private SequenceIterator iterator = null;
+
+            @Override
+            public Item next() throws XPathException {
+                if (iterator == null) {
+                    iterator = sequence.iterate();
+                }
+                return iterator.hasNext() ? iterator.nextItem() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Opens a stream over the result of an expression.
+     *
+     * If the expression is a FLWOR expression which can be pipelined,
+     * its items are produced on demand, otherwise the expression
+     * is evaluated eagerly.
+     *
+     * @param expression the expression
+     * @param contextSequence the context sequence, or null
+     * @param contextItem the context item, or null
+     *
+     * @return a stream of the items returned by the expression
+     *
+     * @throws XPathException if an error occurs whilst evaluating the expression
+     */
+    static ItemStream open(final Expression expression, @Nullable final Sequence contextSequence, @Nullable final Item contextItem) throws XPathException {
+        if (isPipelinable(expression)) {
+            return ((FLWORClause) unwrap(expression)).openStream(contextSequence, contextItem);
+        }
+        return of(expression.eval(contextSequence, contextItem));
+    }
+
+    /**
+     * Determines if the items of an expression can be produced on demand.
+     *
+     * @param expression the expression
+     *
+     * @return true if the expression is a FLWOR expression which can be pipelined
+     */
+    static boolean isPipelinable(final Expression expression) {
+        final Expression unwrapped = unwrap(expression);
+        if (unwrapped instanceof FLWORClause) {
+            final FLWORClause clause = (FLWORClause) unwrapped;
+            return clause.getPreviousClause() == null && clause.isPipelinable();
+        }
+        return false;
+    }
+
+    /**
+     * Function arguments are wrapped into a cardinality check during analysis.
+     * A check for zero or more items accepts any sequence and can be skipped.
+     *
+     * @param expression the expression
+     *
+     * @return the expression without a cardinality check for zero or more items
+     */
+    static Expression unwrap(final Expression expression) {
+        if (expression instanceof DynamicCardinalityCheck
+                && ((DynamicCardinalityCheck) expression).getRequiredCardinality() == Cardinality.ZERO_OR_MORE) {
+            return ((DynamicCardinalityCheck) expression).getExpression();
+        }
+        return expression;
+    }
+}
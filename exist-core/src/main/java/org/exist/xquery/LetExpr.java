@@ -110,57 +110,7 @@ public class LetExpr extends BindingExpression {
                 resultSequence = returnExpr.eval(contextSequence, null);
 
                 if (sequenceType != null) {
-                    Cardinality actualCardinality;
-                    if (var.getValue().isEmpty()) {actualCardinality = Cardinality.EMPTY_SEQUENCE;}
-                    else if (var.getValue().hasMany()) {actualCardinality = Cardinality._MANY;}
-                    else {actualCardinality = Cardinality.EXACTLY_ONE;}
-                    //Type.EMPTY is *not* a subtype of other types ; checking cardinality first
-                    if (!sequenceType.getCardinality().isSuperCardinalityOrEqualOf(actualCardinality))
-                        {throw new XPathException(this, ErrorCodes.XPTY0004,
-                            "Invalid cardinality for variable $" + varName +
-                            ". Expected " +
-                            sequenceType.getCardinality().getHumanDescription() +
-                            ", got " + actualCardinality.getHumanDescription(), in);}
-                    //TODO : ignore nodes right now ; they are returned as xs:untypedAtomicType
-                    if (!Type.subTypeOf(sequenceType.getPrimaryType(), Type.NODE)) {
-                        if (!var.getValue().isEmpty() && !Type.subTypeOf(var.getValue()
-                                .getItemType(), sequenceType.getPrimaryType())) {
-                            throw new XPathException(this, ErrorCodes.XPTY0004,
-                                "Invalid type for variable $" + varName +
-                                ". Expected " + Type.getTypeName(sequenceType.getPrimaryType()) +
-                                ", got " +Type.getTypeName(var.getValue().getItemType()), in);
-                        }
-                    //Here is an attempt to process the nodes correctly
-                    } else {
-                        //Same as above : we probably may factorize 
-                        if (!var.getValue().isEmpty() && !sequenceType.checkType(var.getValue())) {
-                            final Sequence value = var.getValue();
-                            final SequenceType valueType = new SequenceType(value.getItemType(), value.getCardinality());
-                            if ((!value.isEmpty()) && sequenceType.getPrimaryType() == Type.DOCUMENT && value.getItemType() == Type.DOCUMENT) {
-                                // it's a document... we need to get the document element's name
-                                final NodeValue nvItem = (NodeValue) value.itemAt(0);
-                                final Document doc;
-                                if (nvItem instanceof Document) {
-                                    doc = (Document) nvItem;
-                                } else {
-                                    doc = nvItem.getOwnerDocument();
-                                }
-                                if (doc != null) {
-                                    final Element elem = doc.getDocumentElement();
-                                    if (elem != null) {
-                                        valueType.setNodeName(new QName(elem.getLocalName(), elem.getNamespaceURI()));
-                                    }
-                                }
-                            }
-
-                            throw new XPathException(
-                                    this,
-                                    ErrorCodes.XPTY0004,
-                                    "Invalid type for variable $" + varName + ". Expected " +
-                                    sequenceType.toString() + ", got " +
-                                    valueType.toString(), in);
-                        }
-                    }
+                    checkVariableType(var, in);
                 }
             } finally {
                 // Restore the local variable stack
@@ -184,6 +134,160 @@ public class LetExpr extends BindingExpression {
         }
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return isReturnPipelinable();
+    }
+
+    @Override
+    public ItemStream openStream(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        context.expressionStart(this);
+        context.pushDocumentContext();
+        final LetStream stream = new LetStream();
+        try {
+            stream.open(contextSequence);
+        } catch (final XPathException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * Binds the variable of the "let" clause once, and pulls
+     * the items returned by the following clauses.
+     */
+    private class LetStream implements ItemStream {
+        private boolean marked = false;
+        private LocalVariable mark = null;
+        private Sequence in = null;
+        private LocalVariable var = null;
+        private ItemStream returnStream = null;
+        private boolean closed = false;
+
+        void open(final Sequence contextSequence) throws XPathException {
+            //Save the local variable stack
+            mark = context.markLocalVariables(false);
+            marked = true;
+            // evaluate input sequence
+            in = inputSequence.eval(contextSequence, null);
+            clearContext(getExpressionId(), in);
+            // Declare the iteration variable
+            var = createVariable(varName);
+            var.setSequenceType(sequenceType);
+            context.declareVariableBinding(var);
+            var.setValue(in);
+            if (sequenceType == null) {
+                var.checkType(); //Just because it makes conversions !
+            }
+            var.setContextDocs(inputSequence.getContextDocSet());
+            registerUpdateListener(in);
+            if (sequenceType != null) {
+                checkVariableType(var, in);
+            }
+
+            returnStream = openReturnStream(contextSequence);
+        }
+
+        @Override
+        public Item next() throws XPathException {
+            if (closed) {
+                return null;
+            }
+            return returnStream.next();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (returnStream != null) {
+                    returnStream.close();
+                    returnStream = null;
+                }
+            } finally {
+                if (marked) {
+                    // Restore the local variable stack, keeping the value of the variable which may have been returned
+                    context.popLocalVariables(mark, var != null ? var.getValue() : null);
+                }
+                try {
+                    clearContext(getExpressionId(), in);
+                    if (getPreviousClause() == null) {
+                        postEval(Sequence.EMPTY_SEQUENCE);
+                    }
+                } catch (final XPathException e) {
+                    LOG.error("Error whilst closing stream of let expression: {}", e.getMessage(), e);
+                }
+                context.popDocumentContext();
+                context.expressionEnd(LetExpr.this);
+            }
+        }
+    }
+
+    /**
+     * Checks the value of the variable against the sequence type given in the "as" clause.
+     *
+     * @param var the variable
+     * @param in the input sequence
+     * @throws XPathException if the value does not match the sequence type
+     */
+    private void checkVariableType(final LocalVariable var, final Sequence in) throws XPathException {
+        Cardinality actualCardinality;
+        if (var.getValue().isEmpty()) {actualCardinality = Cardinality.EMPTY_SEQUENCE;}
+        else if (var.getValue().hasMany()) {actualCardinality = Cardinality._MANY;}
+        else {actualCardinality = Cardinality.EXACTLY_ONE;}
+        //Type.EMPTY is *not* a subtype of other types ; checking cardinality first
+        if (!sequenceType.getCardinality().isSuperCardinalityOrEqualOf(actualCardinality))
+            {throw new XPathException(this, ErrorCodes.XPTY0004,
+                "Invalid cardinality for variable $" + varName +
+                ". Expected " +
+                sequenceType.getCardinality().getHumanDescription() +
+                ", got " + actualCardinality.getHumanDescription(), in);}
+        //TODO : ignore nodes right now ; they are returned as xs:untypedAtomicType
+        if (!Type.subTypeOf(sequenceType.getPrimaryType(), Type.NODE)) {
+            if (!var.getValue().isEmpty() && !Type.subTypeOf(var.getValue()
+                    .getItemType(), sequenceType.getPrimaryType())) {
+                throw new XPathException(this, ErrorCodes.XPTY0004,
+                    "Invalid type for variable $" + varName +
+                    ". Expected " + Type.getTypeName(sequenceType.getPrimaryType()) +
+                    ", got " +Type.getTypeName(var.getValue().getItemType()), in);
+            }
+        //Here is an attempt to process the nodes correctly
+        } else {
+            //Same as above : we probably may factorize 
+            if (!var.getValue().isEmpty() && !sequenceType.checkType(var.getValue())) {
+                final Sequence value = var.getValue();
+                final SequenceType valueType = new SequenceType(value.getItemType(), value.getCardinality());
+                if ((!value.isEmpty()) && sequenceType.getPrimaryType() == Type.DOCUMENT && value.getItemType() == Type.DOCUMENT) {
+                    // it's a document... we need to get the document element's name
+                    final NodeValue nvItem = (NodeValue) value.itemAt(0);
+                    final Document doc;
+                    if (nvItem instanceof Document) {
+                        doc = (Document) nvItem;
+                    } else {
+                        doc = nvItem.getOwnerDocument();
+                    }
+                    if (doc != null) {
+                        final Element elem = doc.getDocumentElement();
+                        if (elem != null) {
+                            valueType.setNodeName(new QName(elem.getLocalName(), elem.getNamespaceURI()));
+                        }
+                    }
+                }
+
+                throw new XPathException(
+                        this,
+                        ErrorCodes.XPTY0004,
+                        "Invalid type for variable $" + varName + ". Expected " +
+                        sequenceType.toString() + ", got " +
+                        valueType.toString(), in);
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.exist.xquery.Expression#dump(org.exist.xquery.util.ExpressionDumper)
      */
@@ -61,6 +61,7 @@ public class ModuleContext extends XQueryContext {
     private String modulePrefix;
     private String moduleNamespace;
     private final String location;
+    private boolean selfContained = true;
 
     public ModuleContext(final XQueryContext parentContext, final String modulePrefix, final String moduleNamespace,
             final String location) {
@@ -158,6 +159,34 @@ public class ModuleContext extends XQueryContext {
         setRootModule(namespaceURI, module);
     }
 
+    /**
+     * Attaches the context of a pooled module to the context which imports it,
+     * or detaches it from the query which compiled it.
+     *
+     * Unlike when the module was first compiled, the module load path is
+     * left untouched, as the locations of the module's own imports have
+     * already been resolved.
+     *
+     * @param parentContext the context importing the module, or null to detach it.
+     */
+    public void updateParentContext(@Nullable final XQueryContext parentContext) {
+        this.parentContext = parentContext;
+        if (parentContext != null) {
+            this.db = parentContext.db;
+            this.baseURI = parentContext.baseURI;
+        }
+    }
+
+    /**
+     * Determines if the module only refers to the library modules which it imports itself,
+     * and not to any library module which it inherited from the context which imported it.
+     *
+     * @return true if the module does not depend on any inherited module.
+     */
+    public boolean isSelfContained() {
+        return selfContained;
+    }
+
     private XQueryContext getParentContext() {
         return parentContext;
     }
@@ -210,6 +239,9 @@ public class ModuleContext extends XQueryContext {
         // this so let's leave it for now.  (pkaminsk2)
         if (module == null) {
             module = parentContext.getModule(namespaceURI);
+            if (module != null && !module.isInternalModule() && !namespaceURI.equals(moduleNamespace)) {
+                selfContained = false;
+            }
         }
         return module;
     }
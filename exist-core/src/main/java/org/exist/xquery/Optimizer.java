@@ -23,11 +23,14 @@ package org.exist.xquery;
 
 import org.exist.dom.QName;
 import org.exist.xquery.functions.array.ArrayConstructor;
+import org.exist.xquery.functions.fn.FunPosition;
+import org.exist.xquery.functions.fn.FunSubSequence;
 import org.exist.xquery.pragmas.Optimize;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Type;
 
 import java.util.*;
@@ -150,6 +153,15 @@ public class Optimizer extends DefaultExpressionVisitor {
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
 
+        // check if only the first items of an ordered FLWOR are used: (for ... order by ... return ...)[position() le 10]
+        if (filtered.getPredicates().size() == 1) {
+            final long limit = getPositionalLimit(filtered.getPredicates().get(0));
+            if (limit > 0) {
+                limitOrderBy(filtered.getExpression(), limit);
+                rewriteLimitedFor(filtered.getExpression(), limit);
+            }
+        }
+
         // check if filtered expression can be simplified:
         // handles expressions like //foo/(baz)[...]
         if (filtered.getExpression() instanceof LocationStep) {
@@ -201,6 +213,144 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    @Override
+    public void visitBuiltinFunction(Function function) {
+        super.visitBuiltinFunction(function);
+
+        // check if only the first items of an ordered FLWOR are used: subsequence(for ... order by ... return ..., 1, 10)
+        if (function instanceof FunSubSequence && function.getArgumentCount() == 3) {
+            final double start = getNumericLiteral(function.getArgument(1));
+            final double length = getNumericLiteral(function.getArgument(2));
+            if (!Double.isNaN(start) && !Double.isNaN(length)) {
+                limitOrderBy(function.getArgument(0), Math.round(start) + Math.round(length) - 1);
+                rewriteLimitedFor(function.getArgument(0), Math.round(start) + Math.round(length) - 1);
+            }
+        }
+    }
+
+    /**
+     * If the expression is a FLWOR expression with a single "order by" clause, which is not
+     * followed by a "group by" clause, tell the "order by" clause that only the first items of
+     * its result are used, so it does not need to keep the others.
+     *
+     * @param expr the expression whose result is limited
+     * @param limit the number of items used from the result of the expression
+     */
+    private void limitOrderBy(final Expression expr, final long limit) {
+        if (limit < 1 || !(QueryRewriter.unwrap(expr) instanceof FLWORClause)) {
+            return;
+        }
+        OrderByClause orderBy = null;
+        Expression clause = QueryRewriter.unwrap(expr);
+        while (clause instanceof FLWORClause) {
+            if (clause instanceof OrderByClause) {
+                if (orderBy != null) {
+                    return;
+                }
+                orderBy = (OrderByClause) clause;
+            } else if (clause instanceof GroupByClause && orderBy != null) {
+                return;
+            }
+            clause = ((FLWORClause) clause).getReturnExpression();
+        }
+        if (orderBy != null && (orderBy.getLimit() < 0 || limit < orderBy.getLimit())) {
+            orderBy.setLimit(limit);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Limited order by clause to " + limit + " items: " + ExpressionDumper.dump(expr));
+            }
+        }
+    }
+
+    /**
+     * If the expression is a FLWOR expression starting with a single "for" clause, directly followed
+     * by a single order spec, whose return expression yields one item per binding, ask the query rewriters
+     * if they can restrict the input of the "for" clause to the items which sort first.
+     *
+     * @param expr the expression whose result is limited
+     * @param limit the number of items used from the result of the expression
+     */
+    private void rewriteLimitedFor(final Expression expr, final long limit) {
+        if (limit < 1 || limit > Integer.MAX_VALUE || !(QueryRewriter.unwrap(expr) instanceof ForExpr)) {
+            return;
+        }
+        final ForExpr forExpr = (ForExpr) QueryRewriter.unwrap(expr);
+        if (forExpr.getPositionalVariable() != null || !(forExpr.getReturnExpression() instanceof OrderByClause)) {
+            return;
+        }
+        final OrderByClause orderBy = (OrderByClause) forExpr.getReturnExpression();
+        if (orderBy.getOrderSpecs().length != 1 || !returnsOneItem(forExpr, orderBy.getReturnExpression())) {
+            return;
+        }
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                if (rewriter.rewriteLimitedFor(forExpr, orderBy.getOrderSpecs()[0], (int) limit)) {
+                    hasOptimized = true;
+                    break;
+                }
+            } catch (final XPathException e) {
+                LOG.warn("Exception called while rewriting for clause: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean returnsOneItem(final ForExpr forExpr, final Expression returnExpr) {
+        final Expression expr = QueryRewriter.unwrap(returnExpr);
+        if (expr instanceof ElementConstructor) {
+            return true;
+        }
+        if (expr instanceof VariableReference) {
+            try {
+                return ((VariableReference) expr).getName().equals(QName.parse(context, forExpr.getVariable(), null));
+            } catch (final QName.IllegalQNameException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of items needed to evaluate a positional predicate,
+     * i.e. [n], [position() = n], [position() lt n] or [position() le n].
+     *
+     * @param predicate the predicate
+     * @return the number of items, or -1 if the predicate is not a positional predicate
+     */
+    private long getPositionalLimit(final Predicate predicate) {
+        final Expression expr = QueryRewriter.unwrap(predicate);
+        final double literal = getNumericLiteral(expr);
+        if (!Double.isNaN(literal)) {
+            return literal == Math.floor(literal) ? (long) literal : -1;
+        }
+        if (!(expr instanceof GeneralComparison) || !(QueryRewriter.unwrap(((GeneralComparison) expr).getLeft()) instanceof FunPosition)) {
+            return -1;
+        }
+        final double position = getNumericLiteral(((GeneralComparison) expr).getRight());
+        if (Double.isNaN(position)) {
+            return -1;
+        }
+        switch (((GeneralComparison) expr).getRelation()) {
+            case EQ:
+            case LTEQ:
+                return (long) Math.floor(position);
+            case LT:
+                return (long) Math.ceil(position) - 1;
+            default:
+                return -1;
+        }
+    }
+
+    private double getNumericLiteral(final Expression expr) {
+        final Expression literal = QueryRewriter.unwrap(expr);
+        if (literal instanceof LiteralValue && ((LiteralValue) literal).getValue() instanceof NumericValue) {
+            try {
+                return ((NumericValue) ((LiteralValue) literal).getValue()).getDouble();
+            } catch (final XPathException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
     private boolean hasOptimizable(List<Predicate> preds) {
         // walk through the predicates attached to the current location step.
         // try to find a predicate containing an expression which is an instance
@@ -281,6 +431,22 @@ public class Optimizer extends DefaultExpressionVisitor {
         comparison.getRight().accept(this);
     }
 
+    @Override
+    public void visitForExpression(final ForExpr forExpr) {
+        super.visitForExpression(forExpr);
+
+        // check if a nested "for" clause and its "where" clause form an equi-join: for $x in A for $y in B where $x/@id = $y/@ref
+        if (forExpr.getReturnExpression() instanceof WhereClause) {
+            final EquiJoin equiJoin = EquiJoin.create(forExpr, (WhereClause) forExpr.getReturnExpression());
+            if (equiJoin != null) {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Evaluating for clause as hash join: " + ExpressionDumper.dump(forExpr));
+                }
+                forExpr.setEquiJoin(equiJoin);
+            }
+        }
+    }
+
     public void visitPredicate(Predicate predicate) {
         ++predicates;
         super.visitPredicate(predicate);
@@ -38,6 +38,9 @@ public class OrderByClause extends AbstractFLWORClause {
 
     protected OrderSpec[] orderSpecs = null;
 
+    // the number of items used from the sorted result, or -1 if all items are used
+    private long limit = -1;
+
     /*  OrderByClause needs to keep state between calls to eval and postEval. We thus need
         to track state in a stack to avoid overwrites if we're called recursively. */
     private final Deque<OrderedValueSequence> stack = new ArrayDeque<>();
@@ -51,6 +54,21 @@ public class OrderByClause extends AbstractFLWORClause {
         return orderSpecs;
     }
 
+    /**
+     * Set the number of items which are used from the sorted result, e.g. because
+     * the FLWOR expression is filtered by a positional predicate. Only the items
+     * which sort first are then kept while the result is collected.
+     *
+     * @param limit the number of items, or -1 if all items are used
+     */
+    public void setLimit(final long limit) {
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
     @Override
     public ClauseType getType() {
         return ClauseType.ORDERBY;
@@ -74,7 +92,7 @@ public class OrderByClause extends AbstractFLWORClause {
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         final OrderedValueSequence orderedResult;
         if (stack.isEmpty()) {
-            orderedResult = new OrderedValueSequence(orderSpecs, 100);
+            orderedResult = new OrderedValueSequence(orderSpecs, 100, limit, context.getOrderBySpillThreshold());
         } else {
             orderedResult = stack.pop();
         }
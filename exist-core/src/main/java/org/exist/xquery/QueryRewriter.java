@@ -48,6 +48,45 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Called for a "for" clause of which only the first items are used after they have been
+     * sorted by a single order spec, e.g. because the FLWOR expression is passed to fn:subsequence
+     * or filtered by a positional predicate. An index may rewrite the input sequence of the clause
+     * to only return the {@code limit} items which sort first.
+     *
+     * @param forExpr the for clause
+     * @param orderSpec the order spec applied to the bindings of the clause
+     * @param limit the number of items which are needed
+     * @return true if the input sequence of the clause was rewritten
+     * @throws XPathException in case of a static error
+     */
+    public boolean rewriteLimitedFor(ForExpr forExpr, OrderSpec orderSpec, int limit) throws XPathException {
+        return false;
+    }
+
+    /**
+     * Strip the wrappers around an expression which are not relevant for rewriting it,
+     * i.e. single step paths and the checks and conversions added to function arguments
+     * during analysis.
+     *
+     * @param expr the expression
+     * @return the wrapped expression
+     */
+    protected static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getFirst();
+            } else if (expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck
+                    || expr instanceof UntypedValueCheck || expr instanceof Atomize) {
+                expr = expr.getSubExpression(0);
+            } else if ((expr.getClass() == PathExpr.class || expr instanceof Predicate) && ((PathExpr) expr).getLength() == 1) {
+                expr = expr.getSubExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
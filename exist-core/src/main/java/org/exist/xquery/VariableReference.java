@@ -66,6 +66,8 @@ public class VariableReference extends AbstractExpression {
             {throw new XPathException(this, ErrorCodes.XQST0054,
                 "variable declaration of '$" + qname + "' cannot " +
                 "be executed because of a circularity.");}
+        if (var instanceof GroupByClause.NonGroupingVariable)
+            {((GroupByClause.NonGroupingVariable) var).referencedBy(this);}
         contextInfo.setStaticReturnType(var.getStaticType());
     }
 
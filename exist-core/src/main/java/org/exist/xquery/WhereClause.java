@@ -130,6 +130,19 @@ public class WhereClause extends AbstractFLWORClause {
         return Sequence.EMPTY_SEQUENCE;
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return isReturnPipelinable();
+    }
+
+    @Override
+    public ItemStream openStream(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        if (applyWhereExpression()) {
+            return openReturnStream(null);
+        }
+        return ItemStream.EMPTY_STREAM;
+    }
+
     @Override
     public Sequence postEval(Sequence seq) throws XPathException {
         fastTrack = false;
@@ -195,6 +195,73 @@ public class XQuery {
     }
     
     public Sequence execute(final DBBroker broker, final CompiledXQuery expression, Sequence contextSequence, final Properties outputProperties, final boolean resetContext) throws XPathException, PermissionDeniedException {
+        return execute(broker, expression, contextSequence, resetContext, (context, ctxSequence) -> {
+            final Sequence result = expression.eval(ctxSequence);
+            if(outputProperties != null) {
+                context.checkOptions(outputProperties); //must be done before context.reset!
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Executes the query and passes its result to the consumer as a stream of items.
+     *
+     * If the body of the query is a FLWOR expression which can be pipelined, its items
+     * are produced as the consumer pulls them, and closing the stream stops the evaluation.
+     * Otherwise the result is evaluated completely before it is passed on.
+     *
+     * The stream is only valid until the consumer returns, as the context is reset
+     * afterwards. Serialization options declared by the query are copied into the
+     * output properties before the consumer is called; options which are declared at
+     * runtime, e.g. by util:declare-option, are not seen.
+     *
+     * @param broker the database broker
+     * @param expression the compiled query
+     * @param contextSequence the context sequence, or null
+     * @param outputProperties the output properties to update with the options of the query, or null
+     * @param consumer the consumer of the result
+     *
+     * @throws XPathException if an error occurs whilst evaluating the query
+     * @throws PermissionDeniedException if the caller may not execute the query
+     */
+    public void execute(final DBBroker broker, final CompiledXQuery expression, final Sequence contextSequence, final Properties outputProperties, final ResultConsumer consumer) throws XPathException, PermissionDeniedException {
+        execute(broker, expression, contextSequence, true, (context, ctxSequence) -> {
+            try (final ItemStream stream = openStream(expression, ctxSequence)) {
+                if(outputProperties != null) {
+                    context.checkOptions(outputProperties);
+                }
+                consumer.accept(stream);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Opens a stream over the result of the query. Only the body of a main
+     * module whose prolog consists of variable declarations is pipelined.
+     */
+    private static ItemStream openStream(final CompiledXQuery expression, final Sequence contextSequence) throws XPathException {
+        if (contextSequence == null && expression instanceof PathExpr) {
+            final PathExpr path = (PathExpr) expression;
+            final int last = path.getSubExpressionCount() - 1;
+            if (last >= 0 && ItemStream.isPipelinable(path.getSubExpression(last))) {
+                boolean prologOnly = true;
+                for (int i = 0; i < last && prologOnly; i++) {
+                    prologOnly = path.getSubExpression(i) instanceof VariableDeclaration;
+                }
+                if (prologOnly) {
+                    for (int i = 0; i < last; i++) {
+                        path.getSubExpression(i).eval(null, null);
+                    }
+                    return ItemStream.open(path.getSubExpression(last), null, null);
+                }
+            }
+        }
+        return ItemStream.of(expression.eval(contextSequence));
+    }
+
+    private <T> T execute(final DBBroker broker, final CompiledXQuery expression, Sequence contextSequence, final boolean resetContext, final Evaluator<T> evaluator) throws XPathException, PermissionDeniedException {
     	
         //check execute permissions
         expression.getContext().getSource().validate(broker.getCurrentSubject(), Permission.EXECUTE);
@@ -258,16 +325,12 @@ public class XQuery {
                     }
                 }
 
-                final Sequence result = expression.eval(contextSequence);
+                final T result = evaluator.eval(context, contextSequence);
                 if(LOG.isDebugEnabled()) {
                     final NumberFormat nf = NumberFormat.getNumberInstance();
                     LOG.debug("Execution took "  +  nf.format(System.currentTimeMillis() - start) + " ms");
                 }
 
-                if(outputProperties != null) {
-                    context.checkOptions(outputProperties); //must be done before context.reset!
-                }
-
                 return result;
             } finally {
                 context.getProfiler().traceQueryEnd(context);
@@ -286,6 +349,27 @@ public class XQuery {
         }
     }
 
+    /**
+     * Receives the result of a query as a stream of items.
+     */
+    @FunctionalInterface
+    public interface ResultConsumer {
+
+        /**
+         * Consumes the result of the query.
+         *
+         * @param stream the items of the result
+         *
+         * @throws XPathException if an error occurs whilst evaluating or consuming the items
+         */
+        void accept(ItemStream stream) throws XPathException;
+    }
+
+    @FunctionalInterface
+    private interface Evaluator<T> {
+        T eval(XQueryContext context, Sequence contextSequence) throws XPathException;
+    }
+
     public Sequence execute(final DBBroker broker, final String expression, final Sequence contextSequence) throws XPathException, PermissionDeniedException {
         final XQueryContext context = new XQueryContext(broker.getBrokerPool());
         final CompiledXQuery compiled = compile(broker, context, expression);
@@ -80,6 +80,7 @@ import org.exist.source.*;
 import org.exist.stax.ExtendedXMLStreamReader;
 import org.exist.storage.DBBroker;
 import org.exist.storage.UpdateListener;
+import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.lock.LockedDocumentMap;
 import org.exist.storage.txn.Txn;
@@ -114,6 +115,9 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String XQUERY_BACKWARD_COMPATIBLE_ATTRIBUTE = "backwardCompatible";
     public static final String XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_ATTRIBUTE = "raise-error-on-failed-retrieval";
     public static final String ENFORCE_INDEX_USE_ATTRIBUTE = "enforce-index-use";
+    public static final String ORDER_BY_SPILL_THRESHOLD_ATTRIBUTE = "order-by-spill-threshold";
+    public static final String GROUP_BY_SPILL_THRESHOLD_ATTRIBUTE = "group-by-spill-threshold";
+    public static final String COMPACT_MEMTREE_ATTRIBUTE = "compact-memtree";
 
     //TODO : move elsewhere ?
     public static final String BUILT_IN_MODULE_URI_ATTRIBUTE = "uri";
@@ -125,6 +129,12 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL = "xquery.raise-error-on-failed-retrieval";
     public static final boolean XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT = false;
     public static final String PROPERTY_ENFORCE_INDEX_USE = "xquery.enforce-index-use";
+    public static final String PROPERTY_ORDER_BY_SPILL_THRESHOLD = "xquery.order-by-spill-threshold";
+    public static final int ORDER_BY_SPILL_THRESHOLD_DEFAULT = 500000;
+    public static final String PROPERTY_GROUP_BY_SPILL_THRESHOLD = "xquery.group-by-spill-threshold";
+    public static final int GROUP_BY_SPILL_THRESHOLD_DEFAULT = 500000;
+    public static final String PROPERTY_COMPACT_MEMTREE = "xquery.compact-memtree";
+    public static final boolean COMPACT_MEMTREE_DEFAULT = false;
 
     //TODO : move elsewhere ?
     public static final String PROPERTY_BUILT_IN_MODULES = "xquery.modules";
@@ -368,6 +378,12 @@ public class XQueryContext implements BinaryValueManager, Context {
 
     private boolean raiseErrorOnFailedRetrieval = XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT;
 
+    private int orderBySpillThreshold = ORDER_BY_SPILL_THRESHOLD_DEFAULT;
+
+    private int groupBySpillThreshold = GROUP_BY_SPILL_THRESHOLD_DEFAULT;
+
+    private boolean compactMemTree = COMPACT_MEMTREE_DEFAULT;
+
     private boolean isShared = false;
 
     private Source source = null;
@@ -1926,6 +1942,36 @@ public class XQueryContext implements BinaryValueManager, Context {
         return raiseErrorOnFailedRetrieval;
     }
 
+    /**
+     * Get the number of items an "order by" clause may hold in memory before
+     * it writes them to a sorted run on disk.
+     *
+     * @return the number of items, or a value less than 1 if order by clauses always sort in memory
+     */
+    public int getOrderBySpillThreshold() {
+        return orderBySpillThreshold;
+    }
+
+    /**
+     * Get the number of items a "group by" clause may hold in memory before
+     * it writes its groups to partitions on disk.
+     *
+     * @return the number of items, or a value less than 1 if group by clauses always group in memory
+     */
+    public int getGroupBySpillThreshold() {
+        return groupBySpillThreshold;
+    }
+
+    /**
+     * Should the in-memory documents constructed by the query use the
+     * compact representation, see {@link org.exist.dom.memtree.DocumentImpl}.
+     *
+     * @return true if constructed documents should be compact
+     */
+    public boolean isCompactMemTree() {
+        return compactMemTree;
+    }
+
     public Database getDatabase() {
         return db;
     }
@@ -2463,7 +2509,7 @@ public class XQueryContext implements BinaryValueManager, Context {
     }
 
     /**
-     * Compile of borrow an already compile module from the cache.
+     * Compile or borrow an already compiled module from the {@link XQueryPool}.
      *
      * @param prefix the module namespace prefix
      * @param namespaceURI the module namespace URI
@@ -2476,7 +2522,26 @@ public class XQueryContext implements BinaryValueManager, Context {
      */
     private ExternalModule compileOrBorrowModule(final String prefix, final String namespaceURI, final String location,
                                                  final Source source) throws XPathException {
-        final ExternalModule module = compileModule(prefix, namespaceURI, location, source);
+        final XQueryPool xqueryPool = getBroker().getBrokerPool().getXQueryPool();
+        ExternalModule module = xqueryPool.borrowModule(getBroker(), source, this);
+        if (module != null && namespaceURI != null && !namespaceURI.equals(module.getNamespaceURI())) {
+            // let the compilation report the mismatching namespace
+            module = null;
+        }
+
+        if (module != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Reusing compiled module from " + location);
+            }
+            attachModule(module);
+        } else {
+            module = compileModule(prefix, namespaceURI, location, source);
+            if (module != null) {
+                // other queries may borrow the module once this query is done with it
+                xqueryPool.shareModule(source, module, getRootContext());
+            }
+        }
+
         if (module != null) {
             setModule(module.getNamespaceURI(), module);
             declareModuleVars(module);
@@ -2484,6 +2549,50 @@ public class XQueryContext implements BinaryValueManager, Context {
         return module;
     }
 
+    /**
+     * Attaches a compiled module borrowed from the {@link XQueryPool} to this context.
+     *
+     * The modules imported by the borrowed module are made known to the root context,
+     * just as if they had been compiled for this query, and the state of all of them is
+     * reset so that their variables are instantiated again for this query. Each of them
+     * is attached to the context of a module which imports it, as it may have been
+     * imported by a module of the query which used it before.
+     *
+     * @param module the borrowed module
+     */
+    private void attachModule(final ExternalModule module) {
+        ((ModuleContext) module.getContext()).updateParentContext(this);
+
+        final Set<Module> attached = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Module> pending = new ArrayDeque<>();
+        pending.push(module);
+        while (!pending.isEmpty()) {
+            final Module current = pending.pop();
+            if (!attached.add(current)) {
+                continue;
+            }
+
+            if (current != module && getRootModule(current.getNamespaceURI()) == null) {
+                setRootModule(current.getNamespaceURI(), current);
+            }
+            current.reset(this, false);
+
+            if (!current.isInternalModule()) {
+                final XQueryContext currentContext = ((ExternalModule) current).getContext();
+                for (final Iterator<Module> i = currentContext.getModules(); i.hasNext(); ) {
+                    final Module imported = i.next();
+                    if (imported == null) {
+                        continue;
+                    }
+                    if (!imported.isInternalModule() && !attached.contains(imported)) {
+                        ((ModuleContext) ((ExternalModule) imported).getContext()).updateParentContext(currentContext);
+                    }
+                    pending.push(imported);
+                }
+            }
+        }
+    }
+
     /**
      * Compile an XQuery Module
      *
@@ -2904,6 +3013,18 @@ public class XQueryContext implements BinaryValueManager, Context {
         final Boolean option = ((Boolean) config.getProperty(PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL));
         raiseErrorOnFailedRetrieval = (option != null) && option;
 
+        // Number of items an order by clause sorts in memory
+        final Integer spillThreshold = (Integer) config.getProperty(PROPERTY_ORDER_BY_SPILL_THRESHOLD);
+        orderBySpillThreshold = spillThreshold != null ? spillThreshold : ORDER_BY_SPILL_THRESHOLD_DEFAULT;
+
+        // Number of items a group by clause groups in memory
+        final Integer groupBySpillThreshold = (Integer) config.getProperty(PROPERTY_GROUP_BY_SPILL_THRESHOLD);
+        this.groupBySpillThreshold = groupBySpillThreshold != null ? groupBySpillThreshold : GROUP_BY_SPILL_THRESHOLD_DEFAULT;
+
+        // Switch: compact in-memory documents
+        final Boolean compactMemTree = (Boolean) config.getProperty(PROPERTY_COMPACT_MEMTREE);
+        this.compactMemTree = compactMemTree != null ? compactMemTree : COMPACT_MEMTREE_DEFAULT;
+
         // Get map of built-in modules
         final Map<String, Class<Module>> builtInModules = (Map) config.getProperty(PROPERTY_BUILT_IN_MODULES);
 
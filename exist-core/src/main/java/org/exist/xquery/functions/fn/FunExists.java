@@ -26,6 +26,7 @@ import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.ItemStream;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -74,8 +75,16 @@ public class FunExists extends Function {
         //if(contextItem != null)
 			//contextSequence = contextItem.toSequence();
         
-		final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
-		final Sequence result = seq.isEmpty() ? BooleanValue.FALSE : BooleanValue.TRUE;
+		final Sequence result;
+		if (ItemStream.isPipelinable(getArgument(0))) {
+			// only evaluate the FLWOR expression up to its first item
+			try (final ItemStream stream = ItemStream.open(getArgument(0), contextSequence, contextItem)) {
+				result = stream.next() == null ? BooleanValue.FALSE : BooleanValue.TRUE;
+			}
+		} else {
+			final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+			result = seq.isEmpty() ? BooleanValue.FALSE : BooleanValue.TRUE;
+		}
         
         if (context.getProfiler().isEnabled()) 
             {context.getProfiler().end(this, "", result);} 
@@ -30,10 +30,12 @@ import org.exist.xquery.Cardinality;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.ItemStream;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
@@ -72,6 +74,18 @@ public class FunHeadTail extends BasicFunction {
 		}
 	}
 	
+	@Override
+	public Sequence eval(final Sequence contextSequence, final Item contextItem) throws XPathException {
+		if (isCalledAs("head") && ItemStream.isPipelinable(getArgument(0))) {
+			// only evaluate the FLWOR expression up to its first item
+			try (final ItemStream stream = ItemStream.open(getArgument(0), contextSequence, contextItem)) {
+				final Item first = stream.next();
+				return first == null ? Sequence.EMPTY_SEQUENCE : first.toSequence();
+			}
+		}
+		return super.eval(contextSequence, contextItem);
+	}
+
 	@Override
 	public Sequence eval(Sequence[] args, Sequence contextSequence)
 			throws XPathException {
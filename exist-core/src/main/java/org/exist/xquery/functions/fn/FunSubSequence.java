@@ -111,6 +111,20 @@ public class FunSubSequence extends Function {
         }
 
         final Sequence result;
+        if (getArgumentCount() == 3 && ItemStream.isPipelinable(getArgument(0))) {
+            // only evaluate as many items of the FLWOR expression as are needed
+            final DoubleValue startLoc = (DoubleValue) getArgument(1).eval(contextSequence, contextItem).convertTo(Type.DOUBLE);
+            final DoubleValue length = (DoubleValue) getArgument(2).eval(contextSequence, contextItem).convertTo(Type.DOUBLE);
+            try (final ItemStream stream = ItemStream.open(getArgument(0), contextSequence, contextItem)) {
+                result = subsequence(stream, startLoc, length);
+            }
+
+            if (context.getProfiler().isEnabled()) {
+                context.getProfiler().end(this, "", result);
+            }
+            return result;
+        }
+
         final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
         if (seq.isEmpty()) {
             result = Sequence.EMPTY_SEQUENCE;
@@ -138,6 +152,43 @@ public class FunSubSequence extends Function {
      * @return the subsequence
      */
     public static Sequence subsequence(final Sequence sequence, final DoubleValue startLoc, @Nullable final DoubleValue length) {
+        final long fromInclusive = fromInclusive(startLoc);
+        final long toExclusive = toExclusive(startLoc, length);
+        return new SubSequence(fromInclusive, toExclusive, sequence);
+    }
+
+    /**
+     * Creates a Subsequence from a stream, retrieving
+     * no more items from the stream than are needed.
+     *
+     * @param stream the input stream
+     * @param startLoc the starting location value as passed to {@code fn:subsequence}
+     * @param length the length value as passed to {@code fn:subsequence}, or null for all items
+     *
+     * @return the subsequence
+     *
+     * @throws XPathException if an error occurs whilst retrieving items from the stream
+     */
+    public static Sequence subsequence(final ItemStream stream, final DoubleValue startLoc, @Nullable final DoubleValue length) throws XPathException {
+        final long fromInclusive = fromInclusive(startLoc);
+        final long toExclusive = toExclusive(startLoc, length);
+        if (toExclusive <= fromInclusive) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final ValueSequence result = new ValueSequence();
+        long position = 1;
+        Item item;
+        while (position < toExclusive && (item = stream.next()) != null) {
+            if (position >= fromInclusive) {
+                result.add(item);
+            }
+            position++;
+        }
+        return result;
+    }
+
+    private static long toExclusive(final DoubleValue startLoc, @Nullable final DoubleValue length) {
         final long startArg = startLoc.getLong();
         final long toExclusive;
         if (length != null) {
@@ -158,6 +209,12 @@ public class FunSubSequence extends Function {
             toExclusive = Long.MAX_VALUE;   // we can't travel past Long.MAX_VALUE (...at the moment!)
         }
 
+        return toExclusive;
+    }
+
+    private static long fromInclusive(final DoubleValue startLoc) {
+        final long startArg = startLoc.getLong();
+
         //TODO(AR) are there shortcuts where we can determine that the result is an empty-sequence from the args
 
         // we can't start before the first item
@@ -167,7 +224,6 @@ public class FunSubSequence extends Function {
         } else {
             fromInclusive = startArg;
         }
-
-        return new SubSequence(fromInclusive, toExclusive, sequence);
+        return fromInclusive;
     }
 }
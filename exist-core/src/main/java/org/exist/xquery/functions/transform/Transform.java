@@ -37,6 +37,7 @@ import org.exist.util.serializer.ReceiverToSAX;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 import org.exist.xquery.value.*;
+import org.exist.xslt.SaxonSourceWrapper;
 import org.exist.xslt.Stylesheet;
 import org.exist.xslt.TemplatesFactory;
 import org.exist.xslt.TransformerFactoryAllocator;
@@ -209,26 +210,31 @@ public class Transform extends BasicFunction {
                 final SAXResult result = new SAXResult(builderReceiver);
                 result.setLexicalHandler(builderReceiver);        //preserve comments etc... from xslt output
                 handler.setResult(result);
+                final Optional<Source> source = wrapSource(inputNode, serializationProps, expandXIncludes, handler.getTransformer());
                 final Receiver receiver = new ReceiverToSAX(handler);
                 final Serializer serializer = context.getBroker().getSerializer();
                 serializer.reset();
 
                 try {
-                    serializer.setProperties(serializationProps);
-                    serializer.setReceiver(receiver, true);
-                    if (expandXIncludes) {
-                        String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
-                        if (xiPath != null && !xiPath.startsWith(XmldbURI.XMLDB_URI_PREFIX)) {
-                            final Path f = Paths.get(xiPath).normalize();
-                            if (!f.isAbsolute()) {
-                                xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                    if (source.isPresent()) {
+                        handler.getTransformer().transform(source.get(), result);
+                    } else {
+                        serializer.setProperties(serializationProps);
+                        serializer.setReceiver(receiver, true);
+                        if (expandXIncludes) {
+                            String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
+                            if (xiPath != null && !xiPath.startsWith(XmldbURI.XMLDB_URI_PREFIX)) {
+                                final Path f = Paths.get(xiPath).normalize();
+                                if (!f.isAbsolute()) {
+                                    xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                                }
+                            } else {
+                                xiPath = context.getModuleLoadPath();
                             }
-                        } else {
-                            xiPath = context.getModuleLoadPath();
+                            serializer.getXIncludeFilter().setModuleLoadPath(xiPath);
                         }
-                        serializer.getXIncludeFilter().setModuleLoadPath(xiPath);
+                        serializer.toSAX(inputNode, 1, inputNode.getItemCount(), false, false, 0, 0);
                     }
-                    serializer.toSAX(inputNode, 1, inputNode.getItemCount(), false, false, 0, 0);
 
                 } catch (final Exception e) {
                     throw new XPathException(this, "Exception while transforming node: " + e.getMessage(), e);
@@ -278,30 +284,35 @@ public class Transform extends BasicFunction {
                 final OutputStream os = new BufferedOutputStream(response.getOutputStream());
                 final StreamResult result = new StreamResult(os);
                 handler.setResult(result);
+                final Optional<Source> source = wrapSource(inputNode, serializationProps, expandXIncludes, handler.getTransformer());
                 final Serializer serializer = context.getBroker().getSerializer();
                 serializer.reset();
                 Receiver receiver = new ReceiverToSAX(handler);
 
                 try {
-                    serializer.setProperties(serializationProps);
-                    if (expandXIncludes) {
-                        XIncludeFilter xinclude = new XIncludeFilter(serializer, receiver);
-                        String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
-                        if (xiPath != null) {
-                            final Path f = Paths.get(xiPath).normalize();
-                            if (!f.isAbsolute()) {
-                                xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                    if (source.isPresent()) {
+                        handler.getTransformer().transform(source.get(), result);
+                    } else {
+                        serializer.setProperties(serializationProps);
+                        if (expandXIncludes) {
+                            XIncludeFilter xinclude = new XIncludeFilter(serializer, receiver);
+                            String xiPath = serializationProps.getProperty(EXistOutputKeys.XINCLUDE_PATH);
+                            if (xiPath != null) {
+                                final Path f = Paths.get(xiPath).normalize();
+                                if (!f.isAbsolute()) {
+                                    xiPath = Paths.get(context.getModuleLoadPath(), xiPath).normalize().toAbsolutePath().toString();
+                                }
+
+                            } else {
+                                xiPath = context.getModuleLoadPath();
                             }
 
-                        } else {
-                            xiPath = context.getModuleLoadPath();
+                            xinclude.setModuleLoadPath(xiPath);
+                            receiver = xinclude;
                         }
-
-                        xinclude.setModuleLoadPath(xiPath);
-                        receiver = xinclude;
+                        serializer.setReceiver(receiver);
+                        serializer.toSAX(inputNode);
                     }
-                    serializer.setReceiver(receiver);
-                    serializer.toSAX(inputNode);
 
                 } catch (final Exception e) {
                     throw new XPathException(this, "Exception while transforming node: " + e.getMessage(), e);
@@ -320,6 +331,40 @@ public class Transform extends BasicFunction {
         }
     }
 
+    /**
+     * Wraps a single input node, so that Saxon can navigate it in place.
+     *
+     * @param inputNode the input of the transformation
+     * @param serializationProps the serialization options of the call
+     * @param expandXIncludes true if XIncludes in the input have to be expanded
+     * @param transformer the transformer
+     * @return the wrapped node, or empty if the input has to be serialized to the transformer
+     * @throws XPathException if the input can not be accessed
+     */
+    private Optional<Source> wrapSource(final Sequence inputNode, final Properties serializationProps,
+            final boolean expandXIncludes, final Transformer transformer) throws XPathException {
+        boolean wrapSource = true;
+        final Object property = context.getBroker().getConfiguration().getProperty(TransformerFactoryAllocator.PROPERTY_WRAP_SOURCE_ATTRIBUTE);
+        if (property != null) {
+            wrapSource = (Boolean) property;
+        }
+        wrapSource = "yes".equals(serializationProps.getProperty(EXistOutputKeys.WRAP_SOURCE, wrapSource ? "yes" : "no"));
+        // a serialized element becomes the document element of a new tree, so only documents keep
+        // the same root when they are navigated in place
+        if (!wrapSource || !inputNode.hasOne() || inputNode.getItemType() != Type.DOCUMENT) {
+            return Optional.empty();
+        }
+
+        final NodeValue node = (NodeValue) inputNode.itemAt(0);
+        // full text matches are highlighted by the serializer
+        if (node.getImplementationType() == NodeValue.PERSISTENT_NODE && ((NodeProxy) node).getMatches() != null
+                && !"none".equals(serializationProps.getProperty(EXistOutputKeys.HIGHLIGHT_MATCHES, "elements"))) {
+            return Optional.empty();
+        }
+
+        return SaxonSourceWrapper.wrap(context, transformer, node, expandXIncludes).map(nodeInfo -> (Source) nodeInfo);
+    }
+
     /**
      * @param stylesheetItem
      * @param options
@@ -189,6 +189,13 @@ public class Eval extends BasicFunction {
         super(context, signature);
     }
 
+    @Override
+    public void analyze(final AnalyzeContextInfo contextInfo) throws XPathException {
+        super.analyze(contextInfo);
+        // the evaluated expression may reference any local variable in scope
+        GroupByClause.keepNonGroupingValues(context);
+    }
+
     @Override
     public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
         final boolean isEvalDisabled = ((UtilModule) getParentModule()).isEvalDisabled();
@@ -34,8 +34,13 @@ import org.exist.xquery.util.ExpressionDumper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.stream.Stream;
 
 /**
@@ -46,21 +51,55 @@ import java.util.stream.Stream;
  * all order expressions are evaluated once for each item in the sequence
  * <b>while</b> items are added.
  *
+ * If only the first items of the sorted sequence are used, a limit can be passed to
+ * the constructor: the sequence then just keeps the entries which sort first in
+ * a bounded heap. If the number of entries held in memory exceeds the spill threshold,
+ * they are sorted and written to a temporary file as a sorted run. {@link #sort()}
+ * merges the runs, so that the sort keys of all entries never have to be on the heap
+ * at the same time.
+ *
  * @author wolf
  */
 public class OrderedValueSequence extends AbstractSequence {
 
     private final OrderSpec[] orderSpecs;
+    private final long limit;
+    private final int spillThreshold;
     private Entry[] items;
     private int count = 0;
     private int state = 0;
 
+    // the position of the next item in the unsorted sequence
+    private int position = 0;
+
+    // the entries which sort first, if the sequence is limited
+    private PriorityQueue<Entry> topEntries = null;
+
+    // the sorted runs written to disk, if the spill threshold was exceeded
+    private SpillFiles runs = null;
+
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
 
     public OrderedValueSequence(final OrderSpec orderSpecs[], final int size) {
+        this(orderSpecs, size, -1, -1);
+    }
+
+    /**
+     * @param orderSpecs the order specs to sort by
+     * @param size the initial capacity
+     * @param limit the number of items which are used from the sorted sequence, or -1 to keep all items
+     * @param spillThreshold the number of entries which may be held in memory before they are written
+     *                       to a sorted run, or -1 to always sort in memory
+     */
+    public OrderedValueSequence(final OrderSpec orderSpecs[], final int size, final long limit, final int spillThreshold) {
         this.orderSpecs = orderSpecs;
+        this.limit = limit;
+        this.spillThreshold = spillThreshold;
         this.items = new Entry[size == 0 ? 1 : size];
+        if (limit > 0 && (spillThreshold <= 0 || limit <= spillThreshold)) {
+            this.topEntries = new PriorityQueue<>(Collections.reverseOrder());
+        }
     }
 
     @Override
@@ -97,6 +136,24 @@ public class OrderedValueSequence extends AbstractSequence {
             hasOne = true;
         }
         isEmpty = false;
+        final Entry entry = new Entry(item, position++);
+        checkItemType(item.getType());
+        setHasChanged();
+
+        if (topEntries != null) {
+            // keep the entries which sort first: the head of the heap is the last of them
+            if (topEntries.size() < limit) {
+                topEntries.add(entry);
+            } else if (entry.compareTo(topEntries.peek()) < 0) {
+                topEntries.poll();
+                topEntries.add(entry);
+            }
+            return;
+        }
+
+        if (spillThreshold > 0 && count >= spillThreshold) {
+            spill();
+        }
         if (count == 0 && items.length == 1) {
             items = new Entry[2];
         } else if (count == items.length) {
@@ -104,9 +161,7 @@ public class OrderedValueSequence extends AbstractSequence {
             System.arraycopy(items, 0, newItems, 0, count);
             items = newItems;
         }
-        items[count] = new Entry(item, count++);
-        checkItemType(item.getType());
-        setHasChanged();
+        items[count++] = entry;
     }
 
     @Override
@@ -123,11 +178,136 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
-    public void sort() {
+    /**
+     * Sort the entries and discard their sort keys.
+     *
+     * @throws XPathException if the sorted runs cannot be merged
+     */
+    public void sort() throws XPathException {
 //		FastQSort.sort(items, 0, count - 1);
 
+        if (topEntries != null) {
+            items = topEntries.toArray(new Entry[0]);
+            count = items.length;
+            topEntries = null;
+            Arrays.sort(items);
+            Arrays.stream(items).forEach(Entry::clear);
+        } else {
+            Arrays.parallelSort(items, 0, count);
+            if (runs != null) {
+                // clears the sort keys while merging
+                merge();
+            } else {
+                if (limit > 0 && count > limit) {
+                    Arrays.fill(items, (int) limit, count, null);
+                    count = (int) limit;
+                }
+                Arrays.stream(items, 0, count).parallel().forEach(Entry::clear);
+            }
+        }
+        isEmpty = count == 0;
+        hasOne = count == 1;
+    }
+
+    /**
+     * Sort the entries held in memory and write them to a new sorted run.
+     */
+    private void spill() throws XPathException {
         Arrays.parallelSort(items, 0, count);
-        Arrays.stream(items, 0, count).parallel().forEach(Entry::clear);
+        final int length = limit > 0 ? (int) Math.min(limit, count) : count;
+        if (runs == null) {
+            runs = new SpillFiles();
+        }
+        try (final DataOutputStream out = runs.newFile()) {
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                items[i].write(out);
+            }
+        } catch (final IOException e) {
+            runs.close();
+            runs = null;
+            throw new XPathException("Unable to write sorted run of order by clause: " + e.getMessage(), e);
+        }
+        Arrays.fill(items, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Merge the sorted runs and the sorted entries held in memory.
+     */
+    private void merge() throws XPathException {
+        final int runCount = runs.getFileCount();
+        final DataInputStream[] inputs = new DataInputStream[runCount];
+        // the number of entries left in each run, the entries held in memory being the last run
+        final int[] remaining = new int[runCount + 1];
+        final Entry[] memory = items;
+        remaining[runCount] = count;
+        try {
+            // each cursor holds the current entry of a run and the index of the run
+            final PriorityQueue<Object[]> cursors = new PriorityQueue<>(runCount + 1,
+                    (a, b) -> ((Entry) a[0]).compareTo((Entry) b[0]));
+            long total = count;
+            for (int i = 0; i < runCount; i++) {
+                inputs[i] = runs.openFile(i);
+                remaining[i] = inputs[i].readInt();
+                total += remaining[i];
+                if (remaining[i]-- > 0) {
+                    cursors.add(new Object[] { readEntry(inputs[i]), i });
+                }
+            }
+            if (remaining[runCount]-- > 0) {
+                cursors.add(new Object[] { memory[0], runCount });
+            }
+            if (limit > 0) {
+                total = Math.min(total, limit);
+            }
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new XPathException("Result of order by clause is too large: " + total + " items");
+            }
+
+            final Entry[] sorted = new Entry[(int) Math.max(total, 1)];
+            int merged = 0;
+            while (merged < total && !cursors.isEmpty()) {
+                final Object[] cursor = cursors.poll();
+                final Entry entry = (Entry) cursor[0];
+                // the entry is no longer compared: drop its sort keys, so only those of the
+                // current entry of each run are held on the heap
+                entry.clear();
+                sorted[merged++] = entry;
+
+                final int run = (Integer) cursor[1];
+                if (remaining[run]-- > 0) {
+                    cursor[0] = run == runCount ? memory[count - remaining[run] - 1] : readEntry(inputs[run]);
+                    cursors.add(cursor);
+                }
+            }
+            items = sorted;
+            count = merged;
+        } catch (final IOException e) {
+            throw new XPathException("Unable to merge sorted runs of order by clause: " + e.getMessage(), e);
+        } finally {
+            for (final DataInputStream input : inputs) {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (final IOException e) {
+                        // nothing to do
+                    }
+                }
+            }
+            runs.close();
+            runs = null;
+        }
+    }
+
+    private Entry readEntry(final DataInputStream in) throws IOException, XPathException {
+        final int pos = in.readInt();
+        final Item item = runs.readItem(in);
+        final AtomicValue[] values = new AtomicValue[orderSpecs.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (AtomicValue) runs.readItem(in);
+        }
+        return new Entry(item, values, pos);
     }
 
     @Override
@@ -317,6 +497,31 @@ public class OrderedValueSequence extends AbstractSequence {
             }
         }
 
+        /**
+         * @param item     the item in the sequence
+         * @param values   the values of the order expressions for the item
+         * @param position the original position of the item in the result sequence
+         */
+        Entry(final Item item, final AtomicValue[] values, final int position) {
+            this.item = item;
+            this.values = values;
+            this.pos = position;
+        }
+
+        /**
+         * Write the entry to a sorted run.
+         *
+         * @param out the run to write to
+         * @throws IOException if the run cannot be written
+         */
+        void write(final DataOutputStream out) throws IOException {
+            out.writeInt(pos);
+            runs.writeItem(out, item);
+            for (final AtomicValue value : values) {
+                runs.writeItem(out, value);
+            }
+        }
+
         @Override
         public int compareTo(final Entry other) {
             int cmp = 0;
@@ -0,0 +1,252 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.XPathException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Temporary files to which an expression writes the items it cannot keep in memory,
+ * e.g. the sorted runs of an {@link OrderedValueSequence} or the partitions of a
+ * group by clause.
+ *
+ * Strings, untyped atomic values, integers, decimals, doubles, floats, booleans and
+ * persistent nodes are written to the files. Any other item, e.g. an in-memory node, a map
+ * or a date, cannot be written without loss and is kept on the heap instead: the file just
+ * records its index into a list of pinned items.
+ */
+public final class SpillFiles implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final byte PINNED = 0;
+    private static final byte EMPTY = 1;
+    private static final byte STRING = 2;
+    private static final byte UNTYPED_ATOMIC = 3;
+    private static final byte INTEGER = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte NODE = 9;
+
+    private static final int DOCUMENT_NODE_ID = -1;
+
+    private final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+    private final List<Path> files = new ArrayList<>();
+    private final List<Item> pinned = new ArrayList<>();
+    private final Map<Integer, DocumentImpl> documents = new HashMap<>();
+
+    /**
+     * Create a new temporary file.
+     *
+     * @return the stream to write to the file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public DataOutputStream newFile() throws IOException {
+        final Path file = temporaryFileManager.getTemporaryFile();
+        files.add(file);
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Open a file for reading, after its output stream was closed.
+     *
+     * @param file the index of the file, in the order the files were created
+     * @return the stream to read from the file
+     * @throws IOException if the file cannot be opened
+     */
+    public DataInputStream openFile(final int file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(files.get(file)), BUFFER_SIZE));
+    }
+
+    /**
+     * Write an item or a key.
+     *
+     * @param out the file to write to
+     * @param item the item, or {@link AtomicValue#EMPTY_VALUE} for an empty key
+     * @throws IOException if the file cannot be written
+     */
+    public void writeItem(final DataOutput out, final Item item) throws IOException {
+        if (item == AtomicValue.EMPTY_VALUE) {
+            out.writeByte(EMPTY);
+        } else if (item instanceof StringValue && item.getType() == Type.STRING) {
+            out.writeByte(STRING);
+            writeString(out, ((StringValue) item).getStringValue());
+        } else if (item instanceof UntypedAtomicValue) {
+            out.writeByte(UNTYPED_ATOMIC);
+            final String value;
+            try {
+                value = item.getStringValue();
+            } catch (final XPathException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            writeString(out, value);
+        } else if (item instanceof IntegerValue && item.getType() == Type.INTEGER) {
+            out.writeByte(INTEGER);
+            final byte[] value = new BigInteger(((IntegerValue) item).getStringValue()).toByteArray();
+            out.writeShort(value.length);
+            out.write(value);
+        } else if (item instanceof DecimalValue) {
+            out.writeByte(DECIMAL);
+            writeString(out, ((DecimalValue) item).getValue().toString());
+        } else if (item instanceof DoubleValue) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((DoubleValue) item).getValue());
+        } else if (item instanceof FloatValue) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((FloatValue) item).getValue());
+        } else if (item instanceof BooleanValue) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(((BooleanValue) item).getValue());
+        } else if (item instanceof NodeProxy && isSelfContained((NodeProxy) item)) {
+            final NodeProxy node = (NodeProxy) item;
+            final DocumentImpl doc = node.getOwnerDocument();
+            documents.put(doc.getDocId(), doc);
+            out.writeByte(NODE);
+            out.writeInt(doc.getDocId());
+            out.writeShort(node.getNodeType());
+            out.writeLong(node.getInternalAddress());
+            final NodeId nodeId = node.getNodeId();
+            if (nodeId == NodeId.DOCUMENT_NODE) {
+                out.writeInt(DOCUMENT_NODE_ID);
+            } else {
+                final byte[] data = new byte[nodeId.size()];
+                nodeId.serialize(data, 0);
+                out.writeInt(nodeId.units());
+                out.writeShort(data.length);
+                out.write(data);
+            }
+        } else {
+            out.writeByte(PINNED);
+            out.writeInt(pinned.size());
+            pinned.add(item);
+        }
+    }
+
+    /**
+     * Read an item or a key written by {@link #writeItem(DataOutput, Item)}.
+     *
+     * @param in the file to read from
+     * @return the item
+     * @throws IOException if the file cannot be read
+     * @throws XPathException if a value cannot be restored
+     */
+    public Item readItem(final DataInput in) throws IOException, XPathException {
+        final byte kind = in.readByte();
+        switch (kind) {
+            case PINNED:
+                return pinned.get(in.readInt());
+            case EMPTY:
+                return AtomicValue.EMPTY_VALUE;
+            case STRING:
+                return new StringValue(readString(in));
+            case UNTYPED_ATOMIC:
+                return new UntypedAtomicValue(readString(in));
+            case INTEGER:
+                final byte[] value = new byte[in.readShort()];
+                in.readFully(value);
+                return new IntegerValue(new BigInteger(value));
+            case DECIMAL:
+                return new DecimalValue(new BigDecimal(readString(in)));
+            case DOUBLE:
+                return new DoubleValue(in.readDouble());
+            case FLOAT:
+                return new FloatValue(in.readFloat());
+            case BOOLEAN:
+                return BooleanValue.valueOf(in.readBoolean());
+            case NODE:
+                final DocumentImpl doc = documents.get(in.readInt());
+                final short nodeType = in.readShort();
+                final long address = in.readLong();
+                final int units = in.readInt();
+                final NodeId nodeId;
+                if (units == DOCUMENT_NODE_ID) {
+                    nodeId = NodeId.DOCUMENT_NODE;
+                } else {
+                    final byte[] data = new byte[in.readShort()];
+                    in.readFully(data);
+                    nodeId = doc.getBrokerPool().getNodeFactory().createFromData(units, data, 0);
+                }
+                return new NodeProxy(doc, nodeId, nodeType, address);
+            default:
+                throw new IOException("Unknown item kind in spill file: " + kind);
+        }
+    }
+
+    /**
+     * Nodes carrying full text matches or context information have to stay on the heap,
+     * as restoring them from a file would lose this information.
+     */
+    private static boolean isSelfContained(final NodeProxy node) {
+        return node.getMatches() == null && node.getContext() == null && node.getNodeId() != NodeId.END_OF_DOCUMENT;
+    }
+
+    private static void writeString(final DataOutput out, final String value) throws IOException {
+        final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delete the files and release the pinned items.
+     */
+    @Override
+    public void close() {
+        for (final Path file : files) {
+            temporaryFileManager.returnTemporaryFile(file);
+        }
+        files.clear();
+        pinned.clear();
+        documents.clear();
+    }
+}
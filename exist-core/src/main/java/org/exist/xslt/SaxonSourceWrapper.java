@@ -0,0 +1,148 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xslt;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.dom.DocumentWrapper;
+import net.sf.saxon.jaxp.TransformerImpl;
+import net.sf.saxon.om.NodeInfo;
+import org.exist.Namespaces;
+import org.exist.dom.memtree.NodeImpl;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.StringValue;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.Transformer;
+import java.util.Optional;
+
+/**
+ * Presents a stored or in-memory node to Saxon as a {@link NodeInfo}, so
+ * that a stylesheet navigates the node where it is instead of Saxon building
+ * its own tree from SAX events.
+ *
+ * The node is wrapped with Saxon's {@link DocumentWrapper} over the W3C DOM
+ * implementation of eXist. For stored nodes, children are read from dom.dbx
+ * by {@link org.exist.stax.EmbeddedXMLStreamReader} when Saxon first visits
+ * them, and the ids selected by <code>id()</code> are looked up in the value index.
+ */
+public class SaxonSourceWrapper {
+
+    private SaxonSourceWrapper() {
+        //no instances
+    }
+
+    /**
+     * Wraps the node for the given transformer.
+     *
+     * @param context the context of the calling query
+     * @param transformer the transformer which will process the node
+     * @param node the input node
+     * @param expandXIncludes true if XIncludes in the input have to be expanded
+     *
+     * @return the wrapped node, or empty if the transformer is not Saxon's or
+     *     the node needs to be serialized, i.e. it contains XIncludes to expand
+     *     or references to stored nodes
+     */
+    public static Optional<NodeInfo> wrap(final XQueryContext context, final Transformer transformer, final NodeValue node,
+            final boolean expandXIncludes) {
+        if (!(transformer instanceof TransformerImpl)) {
+            return Optional.empty();
+        }
+
+        final Document doc;
+        final Node domNode;
+        if (node.getImplementationType() == NodeValue.PERSISTENT_NODE) {
+            final NodeProxy proxy = (NodeProxy) node;
+            doc = proxy.getOwnerDocument();
+            domNode = proxy.getNode();
+        } else {
+            final NodeImpl memNode = (NodeImpl) node;
+            final org.exist.dom.memtree.DocumentImpl memDoc = memNode.getNodeType() == Node.DOCUMENT_NODE ?
+                    (org.exist.dom.memtree.DocumentImpl) memNode : memNode.getOwnerDocument();
+            if (memDoc.hasReferenceNodes()) {
+                return Optional.empty();
+            }
+            doc = memDoc;
+            domNode = memNode;
+        }
+
+        if (domNode == null) {
+            return Optional.empty();
+        }
+
+        // the check is per document and errs on the side of serializing
+        if (expandXIncludes && doc.getElementsByTagNameNS(Namespaces.XINCLUDE_NS, "include").getLength() > 0) {
+            return Optional.empty();
+        }
+
+        final Configuration config = ((TransformerImpl) transformer).getUnderlyingController().getConfiguration();
+        final DocumentWrapper wrapper;
+        if (doc instanceof DocumentImpl) {
+            wrapper = new StoredDocumentWrapper(context, (DocumentImpl) doc, config);
+        } else {
+            wrapper = new DocumentWrapper(doc, doc.getDocumentURI(), config);
+        }
+        return Optional.of(wrapper.wrap(domNode));
+    }
+
+    /**
+     * Wrapper of a stored document, which does not implement
+     * {@link Document#getElementById(String)}.
+     */
+    private static class StoredDocumentWrapper extends DocumentWrapper {
+        private final XQueryContext context;
+        private final DocumentImpl doc;
+
+        StoredDocumentWrapper(final XQueryContext context, final DocumentImpl doc, final Configuration config) {
+            super(doc, doc.getDocumentURI(), config);
+            this.context = context;
+            this.doc = doc;
+        }
+
+        @Override
+        public NodeInfo selectID(final String id, final boolean getParent) {
+            final DefaultDocumentSet docs = new DefaultDocumentSet(1);
+            docs.add(doc);
+            try {
+                final NodeSet attribs = context.getBroker().getValueIndex().find(context.getWatchDog(), Comparison.EQ,
+                        docs, null, -1, null, new StringValue(id, Type.ID));
+                for (final NodeProxy attr : attribs) {
+                    final NodeProxy element = new NodeProxy(doc, attr.getNodeId().getParentId(), Node.ELEMENT_NODE);
+                    return wrap(element.getNode());
+                }
+            } catch (final XPathException e) {
+                // not a valid id, or the lookup was terminated
+                return null;
+            }
+            return null;
+        }
+    }
+}
@@ -55,6 +55,9 @@ public class TransformerFactoryAllocator {
     public final static String TRANSFORMER_CACHING_ATTRIBUTE = "caching";
     public final static String PROPERTY_CACHING_ATTRIBUTE = "transformer.caching";
 
+    public final static String TRANSFORMER_WRAP_SOURCE_ATTRIBUTE = "wrap-source";
+    public final static String PROPERTY_WRAP_SOURCE_ATTRIBUTE = "transformer.wrap-source";
+
     public final static String PROPERTY_BROKER_POOL = "transformer.brokerPool";
 
     //private constructor
@@ -38,8 +38,11 @@ import org.exist.test.TestConstants;
 import org.exist.util.LockException;
 import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
 import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Sequence;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xmlunit.builder.DiffBuilder;
 import org.xmlunit.builder.Input;
@@ -48,6 +51,7 @@ import org.xmlunit.diff.Diff;
 import javax.xml.transform.Source;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.util.Optional;
 
@@ -56,6 +60,7 @@ import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 public class CollectionStoreTest {
 
@@ -65,6 +70,11 @@ public class CollectionStoreTest {
     private static final XmldbURI TEST_XML_DOC_URI = XmldbURI.create("test.xml");
     private static final String TEST_XML_DOC = "<test>" + System.currentTimeMillis() + "</test>";
 
+    private static final XmldbURI SINGLE_PASS_COLLECTION_URI = TestConstants.TEST_COLLECTION_URI.append("single-pass");
+    private static final XmldbURI SINGLE_PASS_DOC_URI = XmldbURI.create("single-pass.xml");
+    private static final XmldbURI SINGLE_PASS_REPLACE_DOC_URI = XmldbURI.create("single-pass-replace.xml");
+    private static final XmldbURI SINGLE_PASS_MALFORMED_DOC_URI = XmldbURI.create("single-pass-malformed.xml");
+
     private static final XmldbURI TEST_BIN_DOC_URI = XmldbURI.create("test.bin");
     private static final String TEST_BIN_DOC = "test " + System.currentTimeMillis();
 
@@ -102,6 +112,59 @@ public class CollectionStoreTest {
         }
     }
 
+    @Test
+    public void storeSinglePass() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException {
+        storeSinglePass(SINGLE_PASS_DOC_URI, "<items><item>1</item><item>2</item></items>");
+
+        assertEquals(2, countSinglePass("item"));
+    }
+
+    @Test
+    public void storeSinglePass_replace() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException {
+        storeSinglePass(SINGLE_PASS_REPLACE_DOC_URI, "<old><item>1</item></old>");
+        storeSinglePass(SINGLE_PASS_REPLACE_DOC_URI, "<new><item>1</item><item>2</item><item>3</item></new>");
+
+        assertEquals(0, countSinglePass("old"));
+        assertEquals(1, countSinglePass("new"));
+        assertEquals(3, countSinglePass("new/item"));
+    }
+
+    @Test
+    public void storeSinglePass_malformedKeepsOldDocument() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, XPathException {
+        storeSinglePass(SINGLE_PASS_MALFORMED_DOC_URI, "<kept><item>1</item></kept>");
+
+        try {
+            storeSinglePass(SINGLE_PASS_MALFORMED_DOC_URI, "<discarded><item>1</item><item>2</item>");
+            fail("Expected a parse error");
+        } catch (final SAXException e) {
+            // expected
+        }
+
+        assertEquals(1, countSinglePass("kept"));
+        assertEquals(0, countSinglePass("discarded"));
+    }
+
+    private static void storeSinglePass(final XmldbURI docUri, final String xml) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final BrokerPool pool =  existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            try (final Collection col = broker.getOrCreateCollection(transaction, SINGLE_PASS_COLLECTION_URI)) {
+                broker.saveCollection(transaction, col);
+                col.storeXMLResource(transaction, broker, docUri, new InputSource(new StringReader(xml)));
+            }
+
+            transaction.commit();
+        }
+    }
+
+    private static int countSinglePass(final String path) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool =  existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker, "count(collection('" + SINGLE_PASS_COLLECTION_URI + "')/" + path + ")", null);
+            return Integer.parseInt(result.getStringValue());
+        }
+    }
+
     @Test
     public void storeBinary() throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException {
         storeBinary(PreserveType.NO_PRESERVE);
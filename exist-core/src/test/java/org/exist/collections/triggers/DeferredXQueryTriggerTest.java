@@ -0,0 +1,129 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections.triggers;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationException;
+import org.exist.collections.IndexInfo;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests an {@link XQueryTrigger} configured with the <code>deferred</code> parameter.
+ */
+public class DeferredXQueryTriggerTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("testDeferredXQueryTrigger");
+    private static final XmldbURI MODULE_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("testDeferredXQueryTriggerModule");
+    private static final XmldbURI LOG_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("testDeferredXQueryTriggerLog");
+    private static final XmldbURI MODULE_NAME = XmldbURI.create("DeferredTrigger.xqm");
+
+    /** stores one log document for each call, with the URIs that were passed to the function */
+    private static final String MODULE =
+            "module namespace trigger='http://exist-db.org/xquery/trigger'; " +
+            "import module namespace xmldb='http://exist-db.org/xquery/xmldb'; " +
+            "declare function trigger:after-create-document($uri as xs:anyURI*) { " +
+            "  xmldb:store('" + LOG_COLLECTION_URI + "', (), " +
+            "    <created count='{count($uri)}'>{ for $u in $uri return <uri>{$u}</uri> }</created>) " +
+            "};";
+
+    private static final String COLLECTION_CONFIG =
+            "<exist:collection xmlns:exist='http://exist-db.org/collection-config/1.0'>" +
+            "  <exist:triggers>" +
+            "    <exist:trigger class='org.exist.collections.triggers.XQueryTrigger'>" +
+            "      <exist:parameter name='url' value='" + XmldbURI.LOCAL_DB + "/" + MODULE_COLLECTION_URI.lastSegment() + "/" + MODULE_NAME + "'/>" +
+            "      <exist:parameter name='deferred' value='yes'/>" +
+            "    </exist:trigger>" +
+            "  </exist:triggers>" +
+            "</exist:collection>";
+
+    @Test
+    public void afterEventsAreFiredOnceOnCommit() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, CollectionConfigurationException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection modules = broker.getOrCreateCollection(transaction, MODULE_COLLECTION_URI);
+                modules.addBinaryResource(transaction, broker, MODULE_NAME, MODULE.getBytes(UTF_8), "application/xquery");
+                broker.saveCollection(transaction, modules);
+
+                final Collection log = broker.getOrCreateCollection(transaction, LOG_COLLECTION_URI);
+                broker.saveCollection(transaction, log);
+
+                final Collection test = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+                broker.saveCollection(transaction, test);
+                pool.getConfigurationManager().addConfiguration(transaction, broker, test, COLLECTION_CONFIG);
+
+                transact.commit(transaction);
+            }
+
+            // store several documents in a single transaction
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection test = broker.getCollection(TEST_COLLECTION_URI);
+                for (int i = 0; i < 3; i++) {
+                    final XmldbURI docUri = XmldbURI.create("doc" + i + ".xml");
+                    final String content = "<doc n='" + i + "'/>";
+                    final IndexInfo info = test.validateXMLResource(transaction, broker, docUri, content);
+                    test.store(transaction, broker, info, content);
+                }
+
+                // nothing has been fired before the commit
+                assertEquals(0, count(broker, "count(collection('" + LOG_COLLECTION_URI + "')/created)"));
+
+                transact.commit(transaction);
+            }
+
+            assertEquals(1, count(broker, "count(collection('" + LOG_COLLECTION_URI + "')/created)"));
+            assertEquals(3, count(broker, "collection('" + LOG_COLLECTION_URI + "')/created/@count/xs:integer(.)"));
+        }
+    }
+
+    private static int count(final DBBroker broker, final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, query, null);
+        assertEquals(1, result.getItemCount());
+        return Integer.parseInt(result.itemAt(0).getStringValue());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.memtree;
+
+import org.exist.dom.QName;
+import org.exist.numbering.NodeId;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.xml.XMLConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a compact in-memory document presents the same
+ * nodes, node ids and attribute values as a regular one.
+ */
+public class CompactDocumentImplTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void sameNodeIds() {
+        final DocumentImpl regular = build(false);
+        final DocumentImpl compact = build(true);
+        assertEquals(regular.getSize(), compact.getSize());
+        assertEquals(regular.nextAttr, compact.nextAttr);
+
+        for (int i = 0; i < regular.getSize(); i++) {
+            final NodeId id = regular.getNode(i).getNodeId();
+            assertNotNull(id);
+            assertEquals(id, compact.getNode(i).getNodeId());
+            assertEquals(i, compact.getNodeById(id).getNodeNumber());
+        }
+
+        for (int i = 0; i < regular.nextAttr; i++) {
+            final AttrImpl attr = (AttrImpl) compact.getAttribute(i);
+            assertEquals(((AttrImpl) regular.getAttribute(i)).getNodeId(), attr.getNodeId());
+            assertEquals(((AttrImpl) regular.getAttribute(i)).getValue(), attr.getValue());
+        }
+    }
+
+    @Test
+    public void attributeValues() {
+        final DocumentImpl doc = build(true);
+        final ElementImpl root = (ElementImpl) doc.getDocumentElement();
+        assertEquals("1", root.getAttribute("id"));
+        assertEquals("", root.getAttribute("empty"));
+
+        final AttrImpl attr = (AttrImpl) root.getAttributeNode("id");
+        attr.setValue("changed");
+        assertEquals("changed", root.getAttribute("id"));
+        assertEquals("", root.getAttribute("empty"));
+
+        assertEquals("one two three", root.getStringValue());
+    }
+
+    @Test
+    public void unknownNodeId() {
+        final DocumentImpl doc = build(true);
+        final NodeId lastId = doc.getNode(doc.getSize() - 1).getNodeId();
+        assertNull(doc.getNodeById(lastId.nextSibling().nextSibling()));
+    }
+
+    @Test
+    public void nodeIdsAfterAddingNodes() {
+        final MemTreeBuilder builder = new MemTreeBuilder(null, true);
+        builder.startDocument();
+        builder.startElement(new QName("root", XMLConstants.NULL_NS_URI), null);
+        builder.startElement(new QName("first", XMLConstants.NULL_NS_URI), null);
+        builder.endElement();
+        final DocumentImpl doc = builder.getDocument();
+        final NodeId firstId = doc.getNodeIdFor(2);
+
+        // the node ids computed before must be recomputed for the nodes added since
+        builder.startElement(new QName("second", XMLConstants.NULL_NS_URI), null);
+        builder.addAttribute(new QName("n", XMLConstants.NULL_NS_URI), "2");
+        builder.endElement();
+        builder.endElement();
+        builder.endDocument();
+
+        assertEquals(firstId, doc.getNodeIdFor(2));
+        assertEquals(firstId.nextSibling(), doc.getNodeIdFor(3));
+        assertEquals(firstId.nextSibling().newChild(), doc.getAttributeNodeIdFor(0));
+    }
+
+    private static DocumentImpl build(final boolean compact) {
+        final MemTreeBuilder builder = new MemTreeBuilder(null, compact);
+        builder.startDocument();
+        builder.comment("before");
+        builder.startElement(new QName("root", XMLConstants.NULL_NS_URI), null);
+        builder.addAttribute(new QName("id", XMLConstants.NULL_NS_URI), "1");
+        builder.addAttribute(new QName("empty", XMLConstants.NULL_NS_URI), "");
+        builder.characters("one ");
+        for (int i = 0; i < 3; i++) {
+            builder.startElement(new QName("item", XMLConstants.NULL_NS_URI), null);
+            builder.addAttribute(new QName("n", XMLConstants.NULL_NS_URI), String.valueOf(i));
+            if (i == 1) {
+                builder.startElement(new QName("nested", XMLConstants.NULL_NS_URI), null);
+                builder.characters("two");
+                builder.endElement();
+            }
+            builder.endElement();
+        }
+        builder.characters(" three");
+        builder.endElement();
+        builder.processingInstruction("after", "pi");
+        builder.endDocument();
+        return builder.getDocument();
+    }
+}
@@ -55,6 +55,7 @@ public class DocumentBuilderReceiverTest {
         XQueryContext mockContext = EasyMock.createMock(XQueryContext.class);
         
         expect(mockContext.getDatabase()).andReturn(null);
+        expect(mockContext.isCompactMemTree()).andReturn(false);
         expect(mockContext.getSharedNamePool()).andReturn(new NamePool());
         //expect(mockContext.getPrefixForURI(ATOM_NS)).andReturn(ATOM_PREFIX).times(2);
         
@@ -97,6 +98,7 @@ public class DocumentBuilderReceiverTest {
         XQueryContext mockContext = EasyMock.createMock(XQueryContext.class);
 
         expect(mockContext.getDatabase()).andReturn(null);
+        expect(mockContext.isCompactMemTree()).andReturn(false);
         expect(mockContext.getSharedNamePool()).andReturn(new NamePool());
         // no namespace mapping in context
         expect(mockContext.getPrefixForURI(ATOM_NS)).andReturn(null);
@@ -132,6 +134,7 @@ public class DocumentBuilderReceiverTest {
         XQueryContext mockContext = EasyMock.createMock(XQueryContext.class);
 
         expect(mockContext.getDatabase()).andReturn(null);
+        expect(mockContext.isCompactMemTree()).andReturn(false);
         expect(mockContext.getSharedNamePool()).andReturn(new NamePool());
         // namespace mapping in context
         expect(mockContext.getPrefixForURI(ATOM_NS)).andReturn("a");
@@ -59,6 +59,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeThat;
@@ -606,6 +607,30 @@ try {
         }
     }
 
+    @Test
+    public void queryGetStream() throws IOException {
+        // the error is never raised, as evaluation stops after the requested items
+        final String uri = getCollectionUri()
+                + "?_query="
+                + URLEncoder.encode("for $i in 1 to 5 return if ($i eq 4) then error() else <i>{$i}</i>", UTF_8.displayName())
+                + "&_start=2&_howmany=2&_stream=yes&_wrap=no";
+        final HttpURLConnection connect = getConnection(uri);
+        try {
+            connect.setRequestMethod("GET");
+            connect.connect();
+
+            final int r = connect.getResponseCode();
+            assertEquals("Server returned response code " + r, HttpStatus.OK_200, r);
+
+            final String response = readResponse(connect.getInputStream());
+            assertTrue(response, response.contains("<i>2</i>"));
+            assertTrue(response, response.contains("<i>3</i>"));
+            assertFalse(response, response.contains("<i>1</i>"));
+        } finally {
+            connect.disconnect();
+        }
+    }
+
     @Test
     public void requestModule() throws IOException {
         String uri = getCollectionUri() + "?_query=request:get-uri()&_wrap=no";
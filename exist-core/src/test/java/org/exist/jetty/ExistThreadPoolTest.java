@@ -0,0 +1,73 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jetty;
+
+import org.eclipse.jetty.util.thread.ExecutionStrategy;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExistThreadPoolTest {
+
+    @Test
+    public void blockingJobHandlesRequests() {
+        assertTrue(ExistThreadPool.isRequestJob(() -> {}));
+    }
+
+    @Test
+    public void nonBlockingJobIsJettys() {
+        assertFalse(ExistThreadPool.isRequestJob(new NonBlockingJob()));
+    }
+
+    @Test
+    public void executionStrategyIsJettys() {
+        assertFalse(ExistThreadPool.isRequestJob(new Producer()));
+    }
+
+    private static class NonBlockingJob implements Invocable, Runnable {
+        @Override
+        public InvocationType getInvocationType() {
+            return InvocationType.NON_BLOCKING;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class Producer implements ExecutionStrategy, Runnable {
+        @Override
+        public void dispatch() {
+        }
+
+        @Override
+        public void produce() {
+        }
+
+        @Override
+        public void run() {
+            produce();
+        }
+    }
+}
@@ -35,6 +35,9 @@ import java.util.concurrent.*;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 /**
@@ -187,6 +190,65 @@ public class BrokerPoolTest {
         }
     }
 
+    /**
+     * Checks that a broker leased to a {@link BrokerLeaseScope}
+     * can be used and released from another thread bound to the scope.
+     */
+    @Test
+    public void leaseScopeReleasedOnAnotherThread() throws EXistException, InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final int active = pool.countActiveBrokers();
+
+        final BrokerLeaseScope scope;
+        final DBBroker broker;
+        try (final BrokerLeaseScope s = BrokerLeaseScope.open("leaseScopeReleasedOnAnotherThread")) {
+            scope = s;
+            broker = pool.getBroker();
+            assertSame(broker, pool.getActiveBroker());
+        }
+
+        // the broker is still leased to the scope, but not to this thread
+        assertNull(scope.getBoundThread());
+        assertEquals(active + 1, pool.countActiveBrokers());
+        try (final DBBroker other = pool.getBroker()) {
+            assertNotSame(broker, other);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                try (final BrokerLeaseScope.Binding binding = scope.bind()) {
+                    final DBBroker activeBroker = pool.getActiveBroker();
+                    assertSame(broker, activeBroker);
+                    assertSame(broker, pool.getActiveBrokers().get(Thread.currentThread()));
+                    activeBroker.close();
+                }
+                return null;
+            }).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(active, pool.countActiveBrokers());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void leaseScopeBoundToOneThread() throws Throwable {
+        try (final BrokerLeaseScope scope = BrokerLeaseScope.open("leaseScopeBoundToOneThread")) {
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                executor.submit(() -> {
+                    scope.bind().close();
+                    return null;
+                }).get();
+            } catch (final ExecutionException e) {
+                throw e.getCause();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     public static class BrokerUser implements Runnable {
 
         final BrokerPool brokerPool;
@@ -0,0 +1,191 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelReindexTest {
+
+    @ClassRule
+    public static ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(NativeBroker.PROPERTY_REINDEX_THREADS, 4)
+                    .build(),
+            true,
+            true);
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/parallel-reindex-test");
+    private static final int COLLECTIONS = 3;
+    private static final int DOCUMENTS_PER_COLLECTION = 20;
+
+    @Test
+    public void reindex() throws EXistException, PermissionDeniedException, IOException, LockException, XPathException {
+        checkIndexed();
+
+        reindex(TEST_COLLECTION);
+
+        checkIndexed();
+        assertFalse(Files.exists(getCheckpointFile(TEST_COLLECTION)));
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws EXistException, PermissionDeniedException, IOException, LockException, XPathException {
+        final int completedDocId;
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DocumentImpl doc = (DocumentImpl) broker.getXMLResource(TEST_COLLECTION.append("c0").append("doc0.xml"));
+            assertNotNull(doc);
+            completedDocId = doc.getDocId();
+        }
+
+        // simulate a reindex which was interrupted after the first document
+        Files.write(getCheckpointFile(TEST_COLLECTION), (TEST_COLLECTION.toString() + '\n' + completedDocId + '\n').getBytes(UTF_8));
+
+        reindex(TEST_COLLECTION);
+
+        checkIndexed();
+        assertFalse(Files.exists(getCheckpointFile(TEST_COLLECTION)));
+    }
+
+    @Test
+    public void keepCheckpointOfOtherCollection() throws EXistException, PermissionDeniedException, IOException, LockException, XPathException {
+        // an interrupted reindex of a single subcollection
+        final XmldbURI otherCollection = TEST_COLLECTION.append("c1");
+        final Path otherCheckpoint = getCheckpointFile(otherCollection);
+        Files.write(otherCheckpoint, (otherCollection.toString() + '\n').getBytes(UTF_8));
+        try {
+            reindex(TEST_COLLECTION);
+
+            checkIndexed();
+            assertFalse(Files.exists(getCheckpointFile(TEST_COLLECTION)));
+            assertTrue(Files.exists(otherCheckpoint));
+        } finally {
+            Files.deleteIfExists(otherCheckpoint);
+        }
+    }
+
+    private static void checkIndexed() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            Sequence result = xquery.execute(broker, "count(collection('" + TEST_COLLECTION + "')//item)", null);
+            assertEquals(COLLECTIONS * DOCUMENTS_PER_COLLECTION * 2, Integer.parseInt(result.getStringValue()));
+
+            result = xquery.execute(broker, "count(collection('" + TEST_COLLECTION + "')//item[@n = 'b'])", null);
+            assertEquals(COLLECTIONS * DOCUMENTS_PER_COLLECTION, Integer.parseInt(result.getStringValue()));
+        }
+    }
+
+    private static Path getCheckpointFile(final XmldbURI collectionUri) throws EXistException, PermissionDeniedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Path dataDir = (Path) pool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection = broker.getCollection(collectionUri);
+            assertNotNull(collection);
+            return ParallelReindex.getCheckpointFile(dataDir, collection);
+        }
+    }
+
+    private static void reindex(final XmldbURI collectionUri) throws EXistException, PermissionDeniedException, IOException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            broker.reindexCollection(transaction, collectionUri);
+            transaction.commit();
+        }
+    }
+
+    private static void storeDocument(final XmldbURI collectionUri,
+                                      final XmldbURI docName, final String doc)
+            throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            assertNotNull(collection);
+            broker.saveCollection(transaction, collection);
+
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, docName, doc);
+            assertNotNull(info);
+            collection.store(transaction, broker, info, doc);
+
+            transaction.commit();
+        }
+    }
+
+    @BeforeClass
+    public static void setup() throws LockException, SAXException, PermissionDeniedException, EXistException, IOException {
+        for (int i = 0; i < COLLECTIONS; i++) {
+            for (int j = 0; j < DOCUMENTS_PER_COLLECTION; j++) {
+                storeDocument(TEST_COLLECTION.append("c" + i), XmldbURI.create("doc" + j + ".xml"),
+                        "<items><item n='a'>" + j + "</item><item n='b'>" + j + "</item></items>");
+            }
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() throws LockException, TriggerException, PermissionDeniedException, EXistException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.openCollection(TEST_COLLECTION, Lock.LockMode.WRITE_LOCK)) {
+
+            if (collection != null) {
+                broker.removeCollection(transaction, collection);
+            }
+
+            transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.Module;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the reuse of compiled library modules by the {@link XQueryPool}.
+ */
+public class XQueryPoolModuleTest {
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("xquery-pool-test");
+    private static final XmldbURI MODULE_URI = TEST_COLLECTION_URI.append("module.xqm");
+    private static final XmldbURI MAIN_URI = TEST_COLLECTION_URI.append("main.xq");
+    private static final XmldbURI OTHER_MAIN_URI = TEST_COLLECTION_URI.append("other-main.xq");
+
+    private static final String MODULE_NS = "urn:xquery-pool-test";
+
+    private static final String MODULE =
+            "module namespace m = '" + MODULE_NS + "';\n" +
+            "declare variable $m:name external;\n" +
+            "declare function m:greet() { 'hello ' || $m:name };";
+
+    private static final String MAIN =
+            "import module namespace m = '" + MODULE_NS + "' at 'xmldb:exist://" + MODULE_URI.getCollectionPath() + "';\n" +
+            "m:greet()";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void reuseModuleOfDiscardedQuery() throws EXistException, PermissionDeniedException, IOException,
+            LockException, TriggerException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(broker, MODULE_URI, MODULE);
+            store(broker, MAIN_URI, MAIN);
+
+            final CompiledXQuery first = compile(broker, "first");
+            final Module firstModule = first.getContext().getRootModule(MODULE_NS);
+            assertNotNull(firstModule);
+            assertEquals("hello first", execute(broker, first));
+            xqueryPool.returnCompiledXQuery(first.getSource(), first);
+
+            // changing the main query discards the compiled query, but not its module
+            store(broker, MAIN_URI, MAIN + "\n(: changed :)");
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, source(broker, MAIN_URI)));
+
+            final CompiledXQuery second = compile(broker, "second");
+            assertSame(firstModule, second.getContext().getRootModule(MODULE_NS));
+            assertEquals("hello second", execute(broker, second));
+        }
+    }
+
+    @Test
+    public void reuseModuleOfPooledQuery() throws EXistException, PermissionDeniedException, IOException,
+            LockException, TriggerException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(broker, MODULE_URI, MODULE);
+            store(broker, MAIN_URI, MAIN);
+            store(broker, OTHER_MAIN_URI, "(: other :)\n" + MAIN);
+
+            final CompiledXQuery first = compile(broker, "first", MAIN_URI);
+            final Module firstModule = first.getContext().getRootModule(MODULE_NS);
+            assertEquals("hello first", execute(broker, first));
+            xqueryPool.returnCompiledXQuery(first.getSource(), first);
+
+            // a different query borrows the module from the query waiting in the pool
+            final CompiledXQuery other = compile(broker, "other", OTHER_MAIN_URI);
+            assertSame(firstModule, other.getContext().getRootModule(MODULE_NS));
+            assertEquals("hello other", execute(broker, other));
+
+            // the pooled query lost its module and has to be compiled again
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, source(broker, MAIN_URI)));
+            xqueryPool.returnCompiledXQuery(other.getSource(), other);
+
+            final CompiledXQuery second = compile(broker, "second", MAIN_URI);
+            assertSame(firstModule, second.getContext().getRootModule(MODULE_NS));
+            assertEquals("hello second", execute(broker, second));
+        }
+    }
+
+    @Test
+    public void moduleOfQueryInUseIsNotShared() throws EXistException, PermissionDeniedException, IOException,
+            LockException, TriggerException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(broker, MODULE_URI, MODULE);
+            store(broker, MAIN_URI, MAIN);
+            store(broker, OTHER_MAIN_URI, "(: other :)\n" + MAIN);
+
+            // the first query has not been returned to the pool
+            final CompiledXQuery first = compile(broker, "first", MAIN_URI);
+            final Module firstModule = first.getContext().getRootModule(MODULE_NS);
+
+            final CompiledXQuery other = compile(broker, "other", OTHER_MAIN_URI);
+            assertNotSame(firstModule, other.getContext().getRootModule(MODULE_NS));
+            assertEquals("hello other", execute(broker, other));
+            assertEquals("hello first", execute(broker, first));
+        }
+    }
+
+    @Test
+    public void changedModuleIsRecompiled() throws EXistException, PermissionDeniedException, IOException,
+            LockException, TriggerException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(broker, MODULE_URI, MODULE);
+            store(broker, MAIN_URI, MAIN);
+
+            final CompiledXQuery first = compile(broker, "first");
+            final Module firstModule = first.getContext().getRootModule(MODULE_NS);
+            assertEquals("hello first", execute(broker, first));
+            xqueryPool.returnCompiledXQuery(first.getSource(), first);
+
+            store(broker, MODULE_URI, MODULE.replace("hello", "hi"));
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, source(broker, MAIN_URI)));
+
+            final CompiledXQuery second = compile(broker, "second");
+            assertNotSame(firstModule, second.getContext().getRootModule(MODULE_NS));
+            assertEquals("hi second", execute(broker, second));
+        }
+    }
+
+    private CompiledXQuery compile(final DBBroker broker, final String name) throws PermissionDeniedException,
+            XPathException, IOException {
+        return compile(broker, name, MAIN_URI);
+    }
+
+    private CompiledXQuery compile(final DBBroker broker, final String name, final XmldbURI mainUri)
+            throws PermissionDeniedException, XPathException, IOException {
+        final XQueryContext context = new XQueryContext(broker.getBrokerPool());
+        context.declareNamespace("m", MODULE_NS);
+        context.declareVariable("m:name", name);
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        return xquery.compile(broker, context, source(broker, mainUri));
+    }
+
+    private static String execute(final DBBroker broker, final CompiledXQuery compiledXQuery)
+            throws PermissionDeniedException, XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final Sequence result = xquery.execute(broker, compiledXQuery, null);
+        return result.getStringValue();
+    }
+
+    private static Source source(final DBBroker broker, final XmldbURI uri) throws PermissionDeniedException {
+        try (final LockedDocument lockedDoc = broker.getXMLResource(uri, LockMode.READ_LOCK)) {
+            return new DBSource(broker, (BinaryDocument) lockedDoc.getDocument(), true);
+        }
+    }
+
+    private static void store(final DBBroker broker, final XmldbURI uri, final String content)
+            throws EXistException, PermissionDeniedException, IOException, LockException, TriggerException,
+            InterruptedException {
+        // make sure that the last modified time of a replaced resource changes
+        Thread.sleep(10);
+
+        final TransactionManager transact = broker.getBrokerPool().getTransactionManager();
+        try (final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, uri.removeLastSegment());
+            broker.saveCollection(transaction, collection);
+            collection.addBinaryResource(transaction, broker, uri.lastSegment(), content.getBytes(UTF_8),
+                    "application/xquery");
+            transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.exist.storage.BrokerPool;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the persistence of the free page map of a paged file,
+ * and the upgrade of files which still have a free page list.
+ */
+public class FreePageMapBTreeTest {
+
+    private final static byte BTREE_TEST_FILE_ID = 0x7F;
+    private final static short BTREE_TEST_FILE_VERSION = Short.MIN_VALUE;
+    private static final int PAGES = 10;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file = null;
+
+    @Before
+    public void initialize() throws IOException {
+        file = temporaryFolder.newFile("test.dbx").toPath();
+    }
+
+    @After
+    public void cleanUp() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void freePagesAreReusedAfterReopen() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final long[] pages = createPages(pool);
+
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            for (int i = 0; i < PAGES; i += 2) {
+                btree.unlinkPages(pages[i]);
+            }
+            assertEquals(PAGES / 2, btree.getFreePageCount());
+        }
+
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(PAGES / 2, btree.getFreePageCount());
+
+            // the free pages are reused in order
+            for (int i = 0; i < PAGES; i += 2) {
+                assertEquals(pages[i], btree.getFreePage(true).getPageNum());
+            }
+            assertEquals(0, btree.getFreePageCount());
+
+            // no more free pages: grows the file
+            assertTrue(btree.getFreePage(true).getPageNum() > pages[PAGES - 1]);
+        }
+    }
+
+    @Test
+    public void upgradeFromFreePageList() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final long[] pages = createPages(pool);
+
+        // rewrite the file as an older version would have: free pages are linked from the file header
+        final int pageSize = pool.getPageSize();
+        try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            writeFreeListPage(raf, pageSize, pages[2], pages[5]);
+            writeFreeListPage(raf, pageSize, pages[5], pages[7]);
+            writeFreeListPage(raf, pageSize, pages[7], Paged.Page.NO_PAGE);
+            raf.seek(Paged.OFFSET_FIRST_FREE_PAGE);
+            raf.writeLong(pages[2]);
+            raf.writeLong(pages[7]);
+            raf.seek(pageSize - Paged.OFFSET_FREE_PAGE_MAP_MAGIC_FROM_END);
+            raf.write(new byte[Paged.OFFSET_FREE_PAGE_MAP_MAGIC_FROM_END]);
+        }
+
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(3, btree.getFreePageCount());
+            assertEquals(Paged.Page.NO_PAGE, btree.getFileHeader().getFirstFreePage());
+            assertEquals(Paged.Page.NO_PAGE, btree.getFileHeader().getLastFreePage());
+
+            assertEquals(pages[2], btree.getFreePage(true).getPageNum());
+        }
+
+        // the upgraded file keeps its free page map
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(2, btree.getFreePageCount());
+            assertEquals(pages[5], btree.getFreePage(true).getPageNum());
+            assertEquals(pages[7], btree.getFreePage(true).getPageNum());
+        }
+    }
+
+    private long[] createPages(final BrokerPool pool) throws DBException, IOException {
+        final long[] pages = new long[PAGES];
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            for (int i = 0; i < PAGES; i++) {
+                pages[i] = btree.getFreePage(true).getPageNum();
+            }
+        }
+        return pages;
+    }
+
+    private static void writeFreeListPage(final RandomAccessFile raf, final int pageSize, final long pageNum,
+            final long nextPage) throws IOException {
+        // the file header occupies the first page
+        raf.seek((pageNum + 1) * pageSize);
+        raf.writeByte(0);
+        raf.writeInt(0);
+        raf.writeLong(nextPage);
+    }
+}
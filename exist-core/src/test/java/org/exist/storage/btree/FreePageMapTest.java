@@ -0,0 +1,115 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FreePageMapTest {
+
+    @Test
+    public void freeAndAllocate() {
+        final FreePageMap map = new FreePageMap();
+        assertEquals(0, map.getFreeCount());
+        assertEquals(Paged.Page.NO_PAGE, map.findFree(Paged.Page.NO_PAGE));
+
+        assertTrue(map.free(7));
+        assertFalse(map.free(7));
+        assertTrue(map.isFree(7));
+        assertEquals(1, map.getFreeCount());
+
+        assertTrue(map.allocate(7));
+        assertFalse(map.allocate(7));
+        assertFalse(map.isFree(7));
+        assertEquals(0, map.getFreeCount());
+
+        // never freed, and beyond the end of the map
+        assertFalse(map.allocate(1_000_000));
+        assertFalse(map.isFree(1_000_000));
+    }
+
+    @Test
+    public void nextFree() {
+        final FreePageMap map = new FreePageMap(64);
+        map.free(3);
+        map.free(64);
+        map.free(5000);
+        map.free(300_000);
+
+        assertEquals(3, map.nextFree(0));
+        assertEquals(3, map.nextFree(3));
+        assertEquals(64, map.nextFree(4));
+        assertEquals(5000, map.nextFree(65));
+        assertEquals(300_000, map.nextFree(5001));
+        assertEquals(Paged.Page.NO_PAGE, map.nextFree(300_001));
+
+        map.allocate(5000);
+        assertEquals(300_000, map.nextFree(65));
+    }
+
+    @Test
+    public void findFreePrefersPagesAfterHint() {
+        final FreePageMap map = new FreePageMap();
+        for (long pageNum = 100; pageNum < 110; pageNum++) {
+            map.free(pageNum);
+        }
+        map.free(10);
+
+        // a run of free pages is handed out sequentially
+        long hint = 105;
+        for (long expected = 105; expected < 110; expected++) {
+            final long pageNum = map.findFree(hint);
+            assertEquals(expected, pageNum);
+            map.allocate(pageNum);
+            hint = pageNum + 1;
+        }
+
+        // wraps around to the start of the map
+        assertEquals(10, map.findFree(hint));
+        assertEquals(10, map.findFree(Paged.Page.NO_PAGE));
+    }
+
+    @Test
+    public void words() {
+        final FreePageMap map = new FreePageMap();
+        map.free(1);
+        map.free(130);
+        assertEquals(3, map.getWordCount());
+
+        final FreePageMap copy = new FreePageMap();
+        for (int i = 0; i < map.getWordCount(); i++) {
+            copy.setWord(i, map.getWord(i));
+        }
+        assertEquals(2, copy.getFreeCount());
+        assertEquals(1, copy.findFree(0));
+        assertEquals(130, copy.findFree(2));
+
+        copy.setWord(2, 0);
+        assertEquals(1, copy.getFreeCount());
+        assertEquals(1, copy.findFree(2));
+
+        copy.clear();
+        assertEquals(0, copy.getFreeCount());
+        assertFalse(copy.isFree(1));
+    }
+}
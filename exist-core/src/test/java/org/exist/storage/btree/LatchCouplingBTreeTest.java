@@ -0,0 +1,178 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.exist.storage.BrokerPool;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.FileUtils;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests a B+tree with latch coupling enabled, which is used by several
+ * threads without any external lock.
+ */
+public class LatchCouplingBTreeTest {
+
+    private final static byte BTREE_TEST_FILE_ID = 0x7F;
+    private final static short BTREE_TEST_FILE_VERSION = Short.MIN_VALUE;
+    private static final int THREADS = 8;
+    private static final int COUNT = 2000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file = null;
+
+    @Before
+    public void initialize() throws IOException {
+        file = temporaryFolder.newFile("test.dbx").toPath();
+    }
+
+    @After
+    public void cleanUp() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void concurrentAddFindRemove() throws DBException, IOException, InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            btree.enableLatchCoupling();
+
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                final List<Future<Void>> results = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    final int thread = t;
+                    results.add(executor.submit(() -> {
+                        for (int i = 0; i < COUNT; i++) {
+                            final Value key = key(thread, i);
+                            assertEquals(-1, btree.addValue(key, i));
+                            assertEquals(i, btree.findValue(key));
+                            // remove every other key again
+                            if (i % 2 == 1) {
+                                assertEquals(i, btree.removeValue(key));
+                                assertEquals(-1, btree.findValue(key));
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (final Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            for (int t = 0; t < THREADS; t++) {
+                for (int i = 0; i < COUNT; i++) {
+                    assertEquals(i % 2 == 1 ? -1 : i, btree.findValue(key(t, i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concurrentRangeScans() throws DBException, IOException, InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            btree.enableLatchCoupling();
+
+            // thread 0 holds a fixed set of keys, which the scans must always see completely
+            for (int i = 0; i < COUNT; i++) {
+                btree.addValue(key(0, i), i);
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                final List<Future<Void>> results = new ArrayList<>();
+                for (int t = 1; t < THREADS; t++) {
+                    final int thread = t;
+                    if (thread % 2 == 0) {
+                        results.add(executor.submit(() -> {
+                            for (int i = 0; i < COUNT; i++) {
+                                btree.addValue(key(thread, i), i);
+                            }
+                            return null;
+                        }));
+                    } else {
+                        results.add(executor.submit(() -> {
+                            for (int i = 0; i < 20; i++) {
+                                final AtomicInteger found = new AtomicInteger();
+                                btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("k-0000-")), (value, pointer) -> {
+                                    found.incrementAndGet();
+                                    return true;
+                                });
+                                assertEquals(COUNT, found.get());
+                            }
+                            return null;
+                        }));
+                    }
+                }
+                for (final Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void modifyFromQueryCallback() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            btree.enableLatchCoupling();
+            btree.addValue(key(0, 0), 0);
+
+            btree.query(null, (value, pointer) -> {
+                try {
+                    btree.removeValue(value);
+                } catch (final IOException | BTreeException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            });
+        }
+    }
+
+    private static Value key(final int thread, final int i) {
+        return new Value(String.format("k-%04d-%08d", thread, i));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentedClockCacheTest {
+
+    @Test
+    public void addAndGet() {
+        final SegmentedClockCache<Page> cache = newCache(4);
+        final Page page = new Page(1);
+        cache.add(page);
+        assertSame(page, cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getFails());
+        assertEquals(1, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        final SegmentedClockCache<Page> cache = newCache(4);
+        final Page[] pages = new Page[5];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new Page(i);
+            cache.add(pages[i]);
+        }
+        assertEquals(4, cache.getUsedBuffers());
+        assertEquals(1, cache.getEvictions());
+
+        // the oldest page was evicted, and written before
+        assertNull(cache.get(0));
+        assertTrue(pages[0].synced);
+        assertSame(pages[4], cache.get(4));
+    }
+
+    @Test
+    public void scanDoesNotEvictReferencedPages() {
+        final SegmentedClockCache<Page> cache = newCache(10);
+        final Page hot1 = new Page(1);
+        final Page hot2 = new Page(2);
+        cache.add(hot1);
+        cache.add(hot2);
+        cache.get(1);
+        cache.get(2);
+
+        // scan many pages which are each accessed once
+        for (int i = 100; i < 1000; i++) {
+            cache.add(new Page(i));
+            assertSame(hot1, cache.get(1));
+            assertSame(hot2, cache.get(2));
+        }
+        assertEquals(10, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void scanDoesNotEvictProtectedPages() {
+        final SegmentedClockCache<Page> cache = newCache(10);
+        final Page inner = new Page(1);
+        cache.add(inner, 2);
+
+        for (int i = 100; i < 1000; i++) {
+            cache.add(new Page(i));
+        }
+        assertSame(inner, cache.get(1));
+    }
+
+    @Test
+    public void pinnedPagesAreNotEvicted() {
+        final SegmentedClockCache<Page> cache = newCache(2);
+        final Page pinned1 = new Page(1);
+        final Page pinned2 = new Page(2);
+        pinned1.allowUnload = false;
+        pinned2.allowUnload = false;
+        cache.add(pinned1);
+        cache.add(pinned2);
+
+        // the cache may temporarily overflow
+        cache.add(new Page(3));
+        assertEquals(3, cache.getUsedBuffers());
+        assertSame(pinned1, cache.get(1));
+        assertSame(pinned2, cache.get(2));
+        assertFalse(pinned1.synced);
+    }
+
+    @Test
+    public void remove() {
+        final SegmentedClockCache<Page> cache = newCache(4);
+        final Page page1 = new Page(1);
+        final Page page2 = new Page(2);
+        cache.add(page1);
+        cache.add(page2, 2);
+        cache.remove(page1);
+        cache.remove(page2);
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(0, cache.getUsedBuffers());
+
+        // the segments must still be consistent
+        for (int i = 0; i < 10; i++) {
+            cache.add(new Page(i));
+        }
+        assertEquals(4, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void shrink() {
+        final SegmentedClockCache<Page> cache = newCache(8);
+        for (int i = 0; i < 8; i++) {
+            cache.add(new Page(i), i % 2 == 0 ? 2 : 1);
+        }
+        cache.resize(4);
+        assertEquals(4, cache.getBuffers());
+        assertEquals(4, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void flush() {
+        final SegmentedClockCache<Page> cache = newCache(4);
+        final Page page = new Page(1);
+        page.dirty = true;
+        cache.add(page);
+        assertTrue(cache.hasDirtyItems());
+        assertTrue(cache.flush());
+        assertFalse(cache.hasDirtyItems());
+        assertSame(page, cache.get(1));
+    }
+
+    private static SegmentedClockCache<Page> newCache(final int size) {
+        return new SegmentedClockCache<>("test", size, 1.0, 0.0, Cache.CacheType.DATA);
+    }
+
+    private static class Page implements Cacheable {
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean allowUnload = true;
+        boolean dirty = false;
+        boolean synced = false;
+
+        Page(final long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return --refCount;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            synced = true;
+            final boolean wasDirty = dirty;
+            dirty = false;
+            return wasDirty;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return allowUnload;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.dom;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests storing documents in a dom.dbx with compressed data pages.
+ */
+public class CompressedDOMFileTest {
+
+    private static final XmldbURI DOC_URI = XmldbURI.create("compressed.xml");
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(BrokerPool.PROPERTY_DOM_COMPRESSION, DOMFile.COMPRESSION_LZ4)
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void storeRestartAndRemove() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, TriggerException, DatabaseConfigurationException {
+        final String stored = store(createDocument());
+
+        existEmbeddedServer.restart();
+
+        assertEquals(stored, read());
+        remove();
+    }
+
+    @Test
+    public void recoverContinuationPages() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, TriggerException, DatabaseConfigurationException {
+        // write the data pages and their continuation pages, without a checkpoint
+        store(createDocument());
+        sync();
+
+        // replace the pages: the continuation pages freed before are reused by the new ones
+        remove();
+        store(createDocument());
+        sync();
+
+        // leave the last version in the page cache only
+        remove();
+        final String stored = store(createDocument());
+        existEmbeddedServer.getBrokerPool().getJournalManager().get().flush(true, false);
+
+        // restart without a checkpoint, so that the journal is replayed
+        BrokerPool.FORCE_CORRUPTION = true;
+        try {
+            existEmbeddedServer.restart();
+        } finally {
+            BrokerPool.FORCE_CORRUPTION = false;
+        }
+        assertEquals(stored, read());
+
+        // pages allocated after the recovery must not overwrite the recovered continuation pages
+        remove();
+        final String restored = store(createDocument());
+        existEmbeddedServer.restart();
+        assertEquals(restored, read());
+        remove();
+    }
+
+    private String store(final String xml) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, TriggerException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertTrue(((NativeBroker) broker).getDOMFile().isCompressed());
+
+            try (final Txn transaction = transact.beginTransaction()) {
+                final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+                broker.saveCollection(transaction, root);
+
+                final IndexInfo info = root.validateXMLResource(transaction, broker, DOC_URI, xml);
+                root.store(transaction, broker, info, xml);
+                transact.commit(transaction);
+            }
+        }
+        return read();
+    }
+
+    private void sync() throws EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            broker.sync(Sync.MINOR);
+        }
+    }
+
+    private String read() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final LockedDocument lockedDoc = broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append(DOC_URI), LockMode.READ_LOCK)) {
+            assertNotNull(lockedDoc);
+
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            final String data = serializer.serialize(lockedDoc.getDocument());
+            assertTrue(data.contains("<p n=\"1999\">"));
+            return data;
+        }
+    }
+
+    private void remove() throws EXistException, PermissionDeniedException, IOException, LockException, TriggerException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction();
+                final Collection root = broker.openCollection(TestConstants.TEST_COLLECTION_URI, LockMode.WRITE_LOCK)) {
+            root.removeXMLResource(transaction, broker, DOC_URI);
+            transact.commit(transaction);
+        }
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final LockedDocument lockedDoc = broker.getXMLResource(TestConstants.TEST_COLLECTION_URI.append(DOC_URI), LockMode.READ_LOCK)) {
+            assertNull(lockedDoc);
+        }
+    }
+
+    /**
+     * Creates a document with repetitive markup, as well as random text
+     * which does not compress well, so that some pages need continuation pages.
+     */
+    private String createDocument() {
+        final Random random = new Random(42);
+        final StringBuilder buf = new StringBuilder("<text><body>");
+        for (int i = 0; i < 2000; i++) {
+            buf.append("<p n=\"").append(i).append("\">");
+            if (i % 10 == 0) {
+                for (int j = 0; j < 600; j++) {
+                    buf.append((char) ('a' + random.nextInt(26)));
+                }
+            } else {
+                buf.append("<hi rend=\"italic\">Lorem ipsum dolor sit amet</hi>, consectetur adipiscing elit.");
+            }
+            buf.append("</p>");
+        }
+        buf.append("</body></text>");
+        return buf.toString();
+    }
+}
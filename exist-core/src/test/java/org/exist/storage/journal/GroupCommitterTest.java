@@ -0,0 +1,183 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest {
+
+    private long lastOffset = 0;
+    private Lsn lastWritten = Lsn.LSN_INVALID;
+
+    private synchronized Lsn write() {
+        lastWritten = new Lsn((short) 1, ++lastOffset);
+        return lastWritten;
+    }
+
+    private synchronized Lsn flush() {
+        try {
+            // simulate an fsync
+            Thread.sleep(5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return lastWritten;
+    }
+
+    @Test
+    public void commitsAreGrouped() throws Exception {
+        final int threads = 16;
+        final int commitsPerThread = 20;
+
+        final GroupCommitter groupCommitter = new GroupCommitter(this::flush, threads, 10);
+        final Thread flusherThread = new Thread(groupCommitter, "group-commit-test");
+        flusherThread.start();
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < commitsPerThread; j++) {
+                        final Lsn lsn = write();
+                        groupCommitter.awaitFlushed(lsn);
+                        synchronized (this) {
+                            assertTrue(lastWritten.compareTo(lsn) >= 0);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+            groupCommitter.shutdown();
+            flusherThread.join(5000);
+        }
+
+        final GroupCommitter.Statistics statistics = groupCommitter.getStatistics();
+        assertEquals(threads * commitsPerThread, statistics.getCommitCount());
+        assertTrue(statistics.getGroupCount() < statistics.getCommitCount());
+        assertTrue(statistics.getMaxGroupSize() > 1);
+    }
+
+    @Test
+    public void failedFlushFailsItsGroup() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final GroupCommitter groupCommitter = new GroupCommitter(() -> {
+            if (failing.get()) {
+                throw new IllegalStateException("fsync failed");
+            }
+            return flush();
+        }, 1, 0);
+        final Thread flusherThread = new Thread(groupCommitter, "group-commit-test");
+        flusherThread.start();
+
+        try {
+            final Lsn failed = write();
+            try {
+                groupCommitter.awaitFlushed(failed);
+                fail("Expected the commit of a failed flush to fail");
+            } catch (final JournalException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+
+            // a later successful flush does not make the failed commit durable
+            failing.set(false);
+            final Lsn succeeded = write();
+            groupCommitter.awaitFlushed(succeeded);
+            try {
+                groupCommitter.awaitFlushed(failed);
+                fail("Expected the commit of a failed flush to fail");
+            } catch (final JournalException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            groupCommitter.shutdown();
+            flusherThread.join(5000);
+        }
+    }
+
+    @Test
+    public void consecutiveFailedFlushesFailTheirGroups() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final GroupCommitter groupCommitter = new GroupCommitter(() -> {
+            if (failing.get()) {
+                throw new IllegalStateException("fsync failed");
+            }
+            return flush();
+        }, 1, 0);
+        final Thread flusherThread = new Thread(groupCommitter, "group-commit-test");
+        flusherThread.start();
+
+        try {
+            final Lsn firstFailed = write();
+            assertFlushFails(groupCommitter, firstFailed);
+            final Lsn secondFailed = write();
+            assertFlushFails(groupCommitter, secondFailed);
+
+            failing.set(false);
+            groupCommitter.awaitFlushed(write());
+
+            // only the last failure is kept, but it covers both failed groups
+            assertFlushFails(groupCommitter, firstFailed);
+            assertFlushFails(groupCommitter, secondFailed);
+
+            final GroupCommitter.Statistics statistics = groupCommitter.getStatistics();
+            assertEquals(3, statistics.getGroupCount());
+            assertEquals(2, statistics.getFailedGroupCount());
+        } finally {
+            groupCommitter.shutdown();
+            flusherThread.join(5000);
+        }
+    }
+
+    private static void assertFlushFails(final GroupCommitter groupCommitter, final Lsn lsn) {
+        try {
+            groupCommitter.awaitFlushed(lsn);
+            fail("Expected the commit of a failed flush to fail");
+        } catch (final JournalException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = JournalException.class)
+    public void awaitAfterShutdown() throws Exception {
+        final GroupCommitter groupCommitter = new GroupCommitter(this::flush, 1, 0);
+        groupCommitter.shutdown();
+        groupCommitter.awaitFlushed(write());
+    }
+}
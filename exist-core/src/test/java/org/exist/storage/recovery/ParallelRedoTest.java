@@ -0,0 +1,157 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTAbstractLoggable;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelRedoTest {
+
+    private static final int ENTRIES_PER_FILE = 10_000;
+
+    @Test
+    public void preservesOrderPerFile() throws LogException {
+        final List<List<Integer>> replayed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            replayed.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        try (final ParallelRedo redo = new ParallelRedo(mockBrokerPool(), 4)) {
+            for (int seq = 0; seq < ENTRIES_PER_FILE; seq++) {
+                for (byte fileId = 0; fileId < 3; fileId++) {
+                    redo.redo(new RecordingLoggable(fileId, seq, replayed.get(fileId)));
+                }
+            }
+            redo.await();
+
+            assertEquals(3 * ENTRIES_PER_FILE, redo.getRedoneCount());
+            assertEquals(4, redo.getThreadCount());
+        }
+
+        for (final List<Integer> file : replayed) {
+            assertEquals(ENTRIES_PER_FILE, file.size());
+            for (int seq = 0; seq < ENTRIES_PER_FILE; seq++) {
+                assertEquals(seq, file.get(seq).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void unknownEntryWaitsForWorkers() throws LogException {
+        final List<Integer> replayed = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger seenByUnknown = new AtomicInteger(-1);
+
+        try (final ParallelRedo redo = new ParallelRedo(mockBrokerPool(), 2)) {
+            for (int seq = 0; seq < ENTRIES_PER_FILE; seq++) {
+                redo.redo(new RecordingLoggable((byte) 3, seq, replayed));
+            }
+            redo.redo(new AbstractLoggable((byte) 0x7F, 1) {
+                @Override
+                public void redo() {
+                    seenByUnknown.set(replayed.size());
+                }
+
+                @Override
+                public void write(final ByteBuffer out) {
+                }
+
+                @Override
+                public void read(final ByteBuffer in) {
+                }
+
+                @Override
+                public int getLogSize() {
+                    return 0;
+                }
+            });
+        }
+
+        assertEquals(ENTRIES_PER_FILE, seenByUnknown.get());
+    }
+
+    @Test
+    public void singleThreadReplaysInline() throws LogException {
+        final List<Integer> replayed = new ArrayList<>();
+        try (final ParallelRedo redo = new ParallelRedo(mockBrokerPool(), 1)) {
+            redo.redo(new RecordingLoggable((byte) 0, 0, replayed));
+            assertEquals(1, replayed.size());
+            assertEquals(1, redo.getThreadCount());
+        }
+    }
+
+    @Test
+    public void failureIsReported() throws LogException {
+        final RecordingLoggable failing = new RecordingLoggable((byte) 0, -1, null);
+        try (final ParallelRedo redo = new ParallelRedo(mockBrokerPool(), 4)) {
+            redo.redo(new RecordingLoggable((byte) 1, 0, new ArrayList<>()));
+            redo.redo(failing);
+            redo.await();
+            fail("Expected RedoException");
+        } catch (final ParallelRedo.RedoException e) {
+            assertSame(failing, e.getLoggable());
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static BrokerPool mockBrokerPool() {
+        final BrokerPool mockBrokerPool = createNiceMock(BrokerPool.class);
+        replay(mockBrokerPool);
+        return mockBrokerPool;
+    }
+
+    private static class RecordingLoggable extends BTAbstractLoggable {
+        private final int seq;
+        private final List<Integer> replayed;
+
+        RecordingLoggable(final byte fileId, final int seq, final List<Integer> replayed) {
+            super(BTree.LOG_INSERT_VALUE, null, 1);
+            read(ByteBuffer.wrap(new byte[] { fileId }));
+            this.seq = seq;
+            this.replayed = replayed;
+        }
+
+        @Override
+        public void redo() {
+            if (replayed == null) {
+                throw new IllegalStateException("redo failed");
+            }
+            replayed.add(seq);
+        }
+    }
+}
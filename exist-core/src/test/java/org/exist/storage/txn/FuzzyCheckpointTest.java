@@ -0,0 +1,164 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.txn;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.sync.FuzzyCheckpointer;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyCheckpointTest {
+
+    private static final XmldbURI COMMITTED_BEFORE = XmldbURI.create("committed-before.xml");
+    private static final XmldbURI UNCOMMITTED = XmldbURI.create("uncommitted.xml");
+    private static final XmldbURI COMMITTED_AFTER = XmldbURI.create("committed-after.xml");
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void writeRead() {
+        final Lsn redoLsn = new Lsn((short)3, 4711);
+        final long[] activeTransactions = { 12, 15, 99 };
+        final FuzzyCheckpoint checkpoint = new FuzzyCheckpoint(100, redoLsn, activeTransactions);
+        assertEquals(LogEntryTypes.FUZZY_CHECKPOINT, checkpoint.getLogType());
+
+        final ByteBuffer buf = ByteBuffer.allocate(checkpoint.getLogSize());
+        checkpoint.write(buf);
+        assertEquals(checkpoint.getLogSize(), buf.position());
+
+        buf.flip();
+        final FuzzyCheckpoint read = new FuzzyCheckpoint(null, 100);
+        read.read(buf);
+        assertEquals(0, buf.remaining());
+        assertEquals(redoLsn, read.getRedoLsn());
+        assertArrayEquals(activeTransactions, read.getActiveTransactions());
+        assertEquals(checkpoint.getDateString(), read.getDateString());
+    }
+
+    @Test
+    public void writeReadNoActiveTransactions() {
+        final FuzzyCheckpoint checkpoint = new FuzzyCheckpoint(1, new Lsn((short)1, 10), new long[0]);
+
+        final ByteBuffer buf = ByteBuffer.allocate(checkpoint.getLogSize());
+        checkpoint.write(buf);
+        buf.flip();
+
+        final FuzzyCheckpoint read = new FuzzyCheckpoint(null, 1);
+        read.read(buf);
+        assertEquals(new Lsn((short)1, 10), read.getRedoLsn());
+        assertEquals(0, read.getActiveTransactions().length);
+    }
+
+    @Test
+    public void recoverTransactionRunningAtCheckpoint() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, TriggerException, DatabaseConfigurationException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        store(COMMITTED_BEFORE, true);
+
+        // the checkpoint flushes the changes of the running transaction to disk
+        store(UNCOMMITTED, false);
+        assertTrue(new FuzzyCheckpointer(pool, 1).checkpoint());
+
+        store(COMMITTED_AFTER, true);
+        pool.getJournalManager().get().flush(true, false);
+
+        // restart without a checkpoint, so that the journal is replayed from the fuzzy checkpoint
+        BrokerPool.FORCE_CORRUPTION = true;
+        try {
+            existEmbeddedServer.restart();
+        } finally {
+            BrokerPool.FORCE_CORRUPTION = false;
+        }
+
+        assertStored(COMMITTED_BEFORE, true);
+        assertStored(UNCOMMITTED, false);
+        assertStored(COMMITTED_AFTER, true);
+    }
+
+    /**
+     * Stores a document.
+     *
+     * @param docUri the name of the document
+     * @param commit true if the transaction should be committed. false will leave the transaction
+     *      unfinished (i.e. neither committed, aborted, or closed)
+     */
+    private void store(final XmldbURI docUri, final boolean commit) throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, TriggerException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Txn transaction = transact.beginTransaction();
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+
+            final String xml = "<doc name='" + docUri + "'><p>text</p></doc>";
+            final IndexInfo info = root.validateXMLResource(transaction, broker, docUri, xml);
+            root.store(transaction, broker, info, xml);
+
+            if (commit) {
+                transact.commit(transaction);
+                transaction.close();
+            } else {
+                broker.removeCurrentTransaction(transaction);
+            }
+        }
+    }
+
+    private void assertStored(final XmldbURI docUri, final boolean shouldExist) throws EXistException, PermissionDeniedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XmldbURI uri = TestConstants.TEST_COLLECTION_URI.append(docUri);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final LockedDocument lockedDoc = broker.getXMLResource(uri, LockMode.READ_LOCK)) {
+            if (shouldExist) {
+                assertNotNull("Document should exist in the database: " + uri, lockedDoc);
+                assertEquals(1, lockedDoc.getDocument().getChildCount());
+            } else {
+                assertNull("Document should not exist in the database: " + uri, lockedDoc);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Groups more items than a group by clause may hold in memory, so the groups are
+ * written to partitions on disk.
+ */
+public class GroupByClauseTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer server = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(XQueryContext.PROPERTY_GROUP_BY_SPILL_THRESHOLD, 10)
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void spilledGroups() throws EXistException, PermissionDeniedException, XPathException {
+        final String query =
+                "string-join(\n" +
+                "    for $n in 1 to 1000\n" +
+                "    let $sum := $n\n" +
+                "    let $min := $n\n" +
+                "    let $max := -$n\n" +
+                "    group by $k := $n mod 7\n" +
+                "    order by $k\n" +
+                "    return\n" +
+                "        string-join(($k, count($n), sum($sum), min($min), max($max), $n[. lt 30]) ! string(.), ' '),\n" +
+                "    ';'\n" +
+                ")";
+
+        final StringJoiner expected = new StringJoiner(";");
+        for (int k = 0; k < 7; k++) {
+            final List<Integer> values = new ArrayList<>();
+            long sum = 0;
+            for (int n = 1; n <= 1000; n++) {
+                if (n % 7 == k) {
+                    values.add(n);
+                    sum += n;
+                }
+            }
+            final StringJoiner group = new StringJoiner(" ");
+            group.add(String.valueOf(k))
+                    .add(String.valueOf(values.size()))
+                    .add(String.valueOf(sum))
+                    .add(String.valueOf(values.get(0)))
+                    .add(String.valueOf(-values.get(0)));
+            for (final int n : values) {
+                if (n < 30) {
+                    group.add(String.valueOf(n));
+                }
+            }
+            expected.add(group.toString());
+        }
+
+        final XQuery xquery = server.getBrokerPool().getXQueryService();
+        try (final DBBroker broker = server.getBrokerPool().getBroker()) {
+            final Sequence result = xquery.execute(broker, query, null);
+            assertEquals(1, result.getItemCount());
+            assertEquals(expected.toString(), result.getStringValue());
+        }
+    }
+}
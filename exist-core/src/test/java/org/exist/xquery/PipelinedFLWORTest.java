@@ -0,0 +1,108 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.test.ExistXmldbEmbeddedServer;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the pipelined evaluation of FLWOR expressions
+ * by functions which only need some of their items.
+ */
+public class PipelinedFLWORTest {
+
+    @ClassRule
+    public static final ExistXmldbEmbeddedServer existEmbeddedServer = new ExistXmldbEmbeddedServer(false, true, true);
+
+    @Test
+    public void headStopsEarly() throws XMLDBException {
+        assertQuery("head(for $i in (1, 2) return if ($i eq 2) then error() else $i)", "1");
+    }
+
+    @Test
+    public void existsStopsEarly() throws XMLDBException {
+        assertQuery("exists(for $i in (1, 2) return if ($i eq 2) then error() else $i)", "true");
+        assertQuery("empty(for $i in (1, 2) return if ($i eq 2) then error() else $i)", "false");
+        assertQuery("exists(for $i in 1 to 10 where $i gt 10 return $i)", "false");
+    }
+
+    @Test
+    public void subsequenceStopsEarly() throws XMLDBException {
+        assertQuery("subsequence(for $i in 1 to 4 return if ($i eq 4) then error() else $i, 2, 2)", "2", "3");
+    }
+
+    @Test
+    public void subsequenceOfLetAndWhere() throws XMLDBException {
+        assertQuery("subsequence(for $i in 1 to 10 let $j := $i * 10 where $i mod 2 = 0 return $j, 2, 2)", "40", "60");
+        assertQuery("subsequence(let $s := (1 to 5) for $i in $s return $i, 4, 10)", "4", "5");
+        assertQuery("subsequence(for $i in 1 to 5 return $i, 0, 2)", "1");
+        assertQuery("subsequence(for $i in 1 to 5 return $i, 6, 2)");
+    }
+
+    @Test
+    public void nestedClauses() throws XMLDBException {
+        assertQuery("head(for $i in 1 to 3 for $j in (10, 20) return $i + $j)", "11");
+        assertQuery("subsequence(for $i in 1 to 3 for $j in (10, 20) return $i + $j, 3, 2)", "12", "22");
+        assertQuery("subsequence(for $i in 1 to 3 return for $j in (10, 20) return $i + $j, 3, 2)", "12", "22");
+    }
+
+    @Test
+    public void positionalAndAllowingEmpty() throws XMLDBException {
+        assertQuery("subsequence(for $i at $p in ('a', 'b', 'c') return $p || $i, 2, 2)", "2b", "3c");
+        assertQuery("head(for $i allowing empty in () return 'x')", "x");
+    }
+
+    @Test
+    public void orderByIsNotPipelined() throws XMLDBException {
+        assertQuery("subsequence(for $i in 1 to 5 order by $i descending return $i, 1, 2)", "5", "4");
+        assertQuery("head(for $i in 1 to 5 order by $i descending return $i)", "5");
+    }
+
+    @Test
+    public void variablesRestoredAfterStream() throws XMLDBException {
+        assertQuery("let $x := 1 return (head(for $x in (5, 6) return $x), $x)", "5", "1");
+        assertQuery("for $y in (1, 2) return head(for $x in (10, 20) return $x + $y)", "11", "12");
+    }
+
+    @Test
+    public void typedLet() throws XMLDBException {
+        assertQuery("head(let $x as xs:integer+ := (1, 2) for $i in $x return $i)", "1");
+    }
+
+    @Test(expected = XMLDBException.class)
+    public void typedLetChecked() throws XMLDBException {
+        existEmbeddedServer.executeQuery("head(let $x as xs:string := 1 for $i in $x return $i)");
+    }
+
+    private static void assertQuery(final String query, final String... expected) throws XMLDBException {
+        final ResourceSet result = existEmbeddedServer.executeQuery(query);
+        assertEquals(query, expected.length, result.getSize());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(query, expected[i], result.getResource(i).getContent());
+        }
+    }
+}
@@ -234,6 +234,138 @@ public class TransformTest {
         }
     }
 
+    private static final String WRAP_SOURCE_QUERY =
+            "import module namespace transform=\"http://exist-db.org/xquery/transform\";\n" +
+            "\n" +
+            "let $xsl :=\n" +
+            "    <xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"2.0\">\n" +
+            "        <xsl:template match=\"/\">\n" +
+            "            <r>\n" +
+            "                <xsl:for-each select=\"//ops\">\n" +
+            "                    <op id=\"{{@id}}\" pos=\"{{count(preceding-sibling::ops)}}\" parent=\"{{name(..)}}\"/>\n" +
+            "                </xsl:for-each>\n" +
+            "            </r>\n" +
+            "        </xsl:template>\n" +
+            "    </xsl:stylesheet>\n" +
+            "for $xml in (doc('" + TEST_IDS_COLLECTION.append(INPUT_LIST_XML_NAME).getRawCollectionPath() + "'), document { " + INPUT_XML + " })\n" +
+            "let $wrapped := transform:transform($xml, $xsl, (), (), 'wrap-source=yes')\n" +
+            "let $serialized := transform:transform($xml, $xsl, (), (), 'wrap-source=no')\n" +
+            "return\n" +
+            "    (count($wrapped/op[@parent = 'listOps']), deep-equal($wrapped, $serialized))";
+
+    /**
+     * Stored and in-memory input must give the same result, whether Saxon
+     * navigates it in place or receives it as SAX events.
+     */
+    @Test
+    public void wrapSource() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence sequence = xquery.execute(broker, WRAP_SOURCE_QUERY, null);
+
+            assertNotNull(sequence);
+            assertEquals(4, sequence.getItemCount());
+            for (int i = 0; i < 4; i += 2) {
+                assertEquals("4", sequence.itemAt(i).getStringValue());
+                assertEquals("true", sequence.itemAt(i + 1).getStringValue());
+            }
+        }
+    }
+
+    private static final XmldbURI TEST_WRAP_SOURCE_COLLECTION = XmldbURI.create("/db/transform-wrap-source-test");
+
+    private static final XmldbURI XML_IDS_XML_NAME = XmldbURI.create("xml-ids.xml");
+
+    private static final String XML_IDS_XML =
+            "<doc>\n" +
+            "    <sec xml:id=\"s1\"><p xml:id=\"p1\">one</p></sec>\n" +
+            "    <sec xml:id=\"s2\"><p xml:id=\"p2\">two</p></sec>\n" +
+            "</doc>";
+
+    private static final String XML_IDS_QUERY =
+            "import module namespace transform=\"http://exist-db.org/xquery/transform\";\n" +
+            "\n" +
+            "let $xsl :=\n" +
+            "    <xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"2.0\">\n" +
+            "        <xsl:template match=\"/\">\n" +
+            "            <r count=\"{{count(id(('s1', 'p2', 'missing')))}}\">\n" +
+            "                <xsl:copy-of select=\"id('p2')\"/>\n" +
+            "            </r>\n" +
+            "        </xsl:template>\n" +
+            "    </xsl:stylesheet>\n" +
+            "for $xml in (doc('" + TEST_WRAP_SOURCE_COLLECTION.append(XML_IDS_XML_NAME).getRawCollectionPath() + "'), document { " + XML_IDS_XML + " })\n" +
+            "let $wrapped := transform:transform($xml, $xsl, (), (), 'wrap-source=yes')\n" +
+            "let $serialized := transform:transform($xml, $xsl, (), (), 'wrap-source=no')\n" +
+            "return\n" +
+            "    (string($wrapped/@count), string($wrapped/p), deep-equal($wrapped, $serialized))";
+
+    /**
+     * <code>id()</code> must select the same elements of stored and in-memory
+     * input, whether Saxon navigates it in place or receives it as SAX events.
+     */
+    @Test
+    public void wrapSourceXmlIds() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence sequence = xquery.execute(broker, XML_IDS_QUERY, null);
+
+            assertNotNull(sequence);
+            assertEquals(6, sequence.getItemCount());
+            for (int i = 0; i < 6; i += 3) {
+                assertEquals("2", sequence.itemAt(i).getStringValue());
+                assertEquals("two", sequence.itemAt(i + 1).getStringValue());
+                assertEquals("true", sequence.itemAt(i + 2).getStringValue());
+            }
+        }
+    }
+
+    private static final XmldbURI LARGE_XML_NAME = XmldbURI.create("large.xml");
+
+    private static final int LARGE_XML_ITEMS = 50_000;
+
+    private static final String LARGE_XML_QUERY =
+            "import module namespace transform=\"http://exist-db.org/xquery/transform\";\n" +
+            "\n" +
+            "let $xsl :=\n" +
+            "    <xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"2.0\">\n" +
+            "        <xsl:template match=\"/\">\n" +
+            "            <r count=\"{{count(//item)}}\" sum=\"{{sum(//item/@n)}}\" last=\"{{(//item)[last()]/name}}\"/>\n" +
+            "        </xsl:template>\n" +
+            "    </xsl:stylesheet>\n" +
+            "let $xml := doc('" + TEST_WRAP_SOURCE_COLLECTION.append(LARGE_XML_NAME).getRawCollectionPath() + "')\n" +
+            "let $wrapped := transform:transform($xml, $xsl, (), (), 'wrap-source=yes')\n" +
+            "let $serialized := transform:transform($xml, $xsl, (), (), 'wrap-source=no')\n" +
+            "return\n" +
+            "    ($wrapped/@count/string(), $wrapped/@last/string(), deep-equal($wrapped, $serialized))";
+
+    /**
+     * A stored document spanning many pages is read in place from dom.dbx.
+     */
+    @Test
+    public void wrapSourceLargeDocument() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence sequence = xquery.execute(broker, LARGE_XML_QUERY, null);
+
+            assertNotNull(sequence);
+            assertEquals(3, sequence.getItemCount());
+            assertEquals(String.valueOf(LARGE_XML_ITEMS), sequence.itemAt(0).getStringValue());
+            assertEquals("item " + (LARGE_XML_ITEMS - 1), sequence.itemAt(1).getStringValue());
+            assertEquals("true", sequence.itemAt(2).getStringValue());
+        }
+    }
+
+    private static String createLargeXml() {
+        final StringBuilder builder = new StringBuilder("<items>");
+        for (int i = 0; i < LARGE_XML_ITEMS; i++) {
+            builder.append("<item n=\"").append(i).append("\"><name>item ").append(i).append("</name></item>");
+        }
+        return builder.append("</items>").toString();
+    }
+
     @Ignore("https://github.com/eXist-db/exist/issues/2096")
     @Test
     public void xslDocument() throws EXistException, PermissionDeniedException, XPathException {
@@ -411,6 +543,11 @@ public class TransformTest {
                     Tuple(COUNT_DESCENDANTS_TWO_NODES_XSLT_NAME, COUNT_DESCENDANTS_TWO_NODES_XSLT)
             );
 
+            createCollection(broker, transaction, TEST_WRAP_SOURCE_COLLECTION,
+                    Tuple(XML_IDS_XML_NAME, XML_IDS_XML),
+                    Tuple(LARGE_XML_NAME, createLargeXml())
+            );
+
             transaction.commit();
         }
     }
@@ -451,6 +588,7 @@ public class TransformTest {
             deleteCollection(broker, transaction, TEST_SIMPLE_XML_WITH_COMMENT_COLLECTION);
             deleteCollection(broker, transaction, TEST_SIMPLE_XML_WITH_TWO_COMMENTS_COLLECTION);
             deleteCollection(broker, transaction, TEST_TWO_NODES_COLLECTION);
+            deleteCollection(broker, transaction, TEST_WRAP_SOURCE_COLLECTION);
 
             transaction.commit();
         }
@@ -25,8 +25,13 @@ package org.exist.xquery.value;
 import org.exist.xquery.Expression;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
@@ -96,6 +101,50 @@ public class OrderedValueSequenceTest {
         assertEquals(69, count);
     }
 
+    @Test
+    public void sort_limited() throws XPathException {
+        assertSorted(1000, 10, -1);
+    }
+
+    @Test
+    public void sort_spilled() throws XPathException {
+        assertSorted(1000, -1, 64);
+    }
+
+    @Test
+    public void sort_spilled_limited() throws XPathException {
+        assertSorted(1000, 100, 64);
+    }
+
+    /**
+     * Sort the integers 0 to size - 1 by their value modulo 37, and check that
+     * items with the same sort key stay in their original order.
+     */
+    private static void assertSorted(final int size, final long limit, final int spillThreshold) throws XPathException {
+        final int[] currentKey = new int[1];
+        final Expression sortExpr = createMock(Expression.class);
+        expect(sortExpr.eval(null)).andAnswer(() -> new IntegerValue(currentKey[0])).anyTimes();
+        final XQueryContext context = createMock(XQueryContext.class);
+        expect(context.getDefaultCollator()).andReturn(null).anyTimes();
+        replay(sortExpr, context);
+
+        final OrderedValueSequence orderedValueSequence = new OrderedValueSequence(new OrderSpec[] { new OrderSpec(context, sortExpr) }, 100, limit, spillThreshold);
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            currentKey[0] = i % 37;
+            orderedValueSequence.add(new IntegerValue(i));
+            expected.add(i);
+        }
+        expected.sort(Comparator.comparingInt(i -> i % 37));
+        orderedValueSequence.sort();
+
+        final int expectedCount = limit > 0 ? (int) limit : size;
+        assertEquals(expectedCount, orderedValueSequence.getItemCount());
+        for (int i = 0; i < expectedCount; i++) {
+            assertEquals(expected.get(i).intValue(), ((IntegerValue) orderedValueSequence.itemAt(i)).getInt());
+        }
+    }
+
     private static OrderedValueSequence mockOrderedValueSequence(final int size) throws XPathException {
         final Expression mockSortExpr = createMock(Expression.class);
         expect(mockSortExpr.eval(null)).andReturn(Sequence.EMPTY_SEQUENCE).anyTimes();
@@ -31,6 +31,8 @@ import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -38,16 +40,20 @@ import org.exist.backup.RawDataBackup;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.util.ThreadUtils;
 import org.exist.xquery.XPathException;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -63,6 +69,15 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 	private static final String DIR_NAME = "lucene";
 	private static final String TAXONOMY_DIR_NAME = "taxonomy";
 
+    public static final String REFRESH_ATTRIBUTE = "refresh";
+    public static final String REFRESH_MAX_STALE_ATTRIBUTE = "refresh-max-stale";
+    public static final String REFRESH_MIN_STALE_ATTRIBUTE = "refresh-min-stale";
+    public static final String REFRESH_BLOCKING = "blocking";
+    public static final String REFRESH_BACKGROUND = "background";
+
+    public static final double DEFAULT_REFRESH_MAX_STALE = 1.0;
+    public static final double DEFAULT_REFRESH_MIN_STALE = 0.025;
+
     protected Directory directory;
     protected Directory taxoDirectory;
 
@@ -76,6 +91,20 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected SearcherTaxonomyManager searcherManager = null;
     protected ReaderManager readerManager = null;
 
+    /**
+     * If true, searchers and readers are refreshed by background threads and queries use the
+     * currently published ones. Otherwise every query refreshes them before searching.
+     */
+    protected boolean backgroundRefresh = false;
+    protected double targetMaxStale = DEFAULT_REFRESH_MAX_STALE;
+    protected double targetMinStale = DEFAULT_REFRESH_MIN_STALE;
+
+    protected TrackingIndexWriter trackingWriter = null;
+    private ControlledRealTimeReopenThread<SearcherTaxonomyManager.SearcherAndTaxonomy> searcherRefreshThread = null;
+    private ControlledRealTimeReopenThread<DirectoryReader> readerRefreshThread = null;
+
+    private LuceneIndexStatistics statistics;
+
     public String getDirName() {
         return DIR_NAME;
     }
@@ -96,6 +125,19 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        final String refreshParam = config.getAttribute(REFRESH_ATTRIBUTE);
+        if (refreshParam != null && !refreshParam.isEmpty()) {
+            if (REFRESH_BACKGROUND.equalsIgnoreCase(refreshParam)) {
+                backgroundRefresh = true;
+            } else if (!REFRESH_BLOCKING.equalsIgnoreCase(refreshParam)) {
+                LOG.warn("Invalid refresh setting for lucene index: " + refreshParam + ". Using: " + REFRESH_BLOCKING);
+            }
+        }
+        targetMaxStale = parseStaleness(config, REFRESH_MAX_STALE_ATTRIBUTE, DEFAULT_REFRESH_MAX_STALE);
+        targetMinStale = Math.min(targetMaxStale, parseStaleness(config, REFRESH_MIN_STALE_ATTRIBUTE, DEFAULT_REFRESH_MIN_STALE));
+        if (LOG.isDebugEnabled() && backgroundRefresh)
+            LOG.debug("Refreshing searchers in background, max stale: " + targetMaxStale + "s, min stale: " + targetMinStale + "s");
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -109,6 +151,28 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             LOG.debug("Using default analyzer: " + defaultAnalyzer.getClass().getName());
     }
 
+    /**
+     * Read a staleness given in milliseconds.
+     *
+     * @return the staleness in seconds
+     */
+    private static double parseStaleness(final Element config, final String attribute, final double defaultValue) {
+        final String param = config.getAttribute(attribute);
+        if (param == null || param.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            final double value = Double.parseDouble(param) / 1000;
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        LOG.warn("Invalid " + attribute + " setting for lucene index: " + param);
+        return defaultValue;
+    }
+
     @Override
     public void open() throws DatabaseConfigurationException {
         Path dir = getDataDir().resolve(getDirName());
@@ -136,6 +200,17 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
             searcherManager = new SearcherTaxonomyManager(cachedWriter, true, null, cachedTaxonomyWriter);
             readerManager = new ReaderManager(cachedWriter, true);
+
+            statistics = new LuceneIndexStatistics(pool.getId(), this);
+            searcherManager.addListener(statistics.searcherRefresh);
+            readerManager.addListener(statistics.readerRefresh);
+            registerMBean();
+
+            if (backgroundRefresh) {
+                trackingWriter = new TrackingIndexWriter(cachedWriter);
+                searcherRefreshThread = startRefreshThread(searcherManager, "lucene-index.searcher-refresh");
+                readerRefreshThread = startRefreshThread(readerManager, "lucene-index.reader-refresh");
+            }
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
@@ -144,9 +219,37 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    private <T> ControlledRealTimeReopenThread<T> startRefreshThread(final ReferenceManager<T> manager, final String name) {
+        final ControlledRealTimeReopenThread<T> thread =
+                new ControlledRealTimeReopenThread<>(trackingWriter, manager, targetMaxStale, targetMinStale);
+        thread.setName(ThreadUtils.nameInstanceThread(pool, name));
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void registerMBean() {
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(statistics);
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering JMX LuceneIndex MBean.", e);
+        }
+    }
+
     @Override
     public synchronized void close() throws DBException {
         try {
+            // stop refreshing before the managers are closed
+            if (searcherRefreshThread != null) {
+                searcherRefreshThread.close();
+                searcherRefreshThread = null;
+            }
+            if (readerRefreshThread != null) {
+                readerRefreshThread.close();
+                readerRefreshThread = null;
+            }
+            trackingWriter = null;
             if (searcherManager != null) {
                 searcherManager.close();
                 searcherManager = null;
@@ -244,8 +347,43 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    LuceneIndexStatistics getStatistics() {
+        return statistics;
+    }
+
+    public boolean isBackgroundRefresh() {
+        return backgroundRefresh;
+    }
+
+    /**
+     * @return the target maximum staleness of searchers in seconds
+     */
+    public double getTargetMaxStale() {
+        return targetMaxStale;
+    }
+
+    /**
+     * @return the target minimum staleness of searchers in seconds
+     */
+    public double getTargetMinStale() {
+        return targetMinStale;
+    }
+
+    /**
+     * Get the generation of the index, which covers all changes written so far.
+     * Pass it to {@link #withSearcher(long, Function2E)} to see those changes.
+     *
+     * @return the current generation, or -1 if searchers are refreshed on every query anyway
+     */
+    public long getGeneration() {
+        final TrackingIndexWriter writer = trackingWriter;
+        return writer == null ? -1 : writer.getGeneration();
+    }
+
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
+        if (!backgroundRefresh) {
+            readerManager.maybeRefreshBlocking();
+        }
         final DirectoryReader reader = readerManager.acquire();
         try {
             return fn.apply(reader);
@@ -255,7 +393,29 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withSearcher(Function2E<SearcherTaxonomyManager.SearcherAndTaxonomy, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
+        return withSearcher(-1, consumer);
+    }
+
+    /**
+     * Run a search. With background refresh, the currently published searcher is used, unless
+     * a generation is given: the search then waits until the searcher includes all changes
+     * up to this generation.
+     *
+     * @param generation the generation to wait for, see {@link #getGeneration()}, or -1 to not wait
+     * @param consumer the search to run
+     * @param <R> the type of the result
+     *
+     * @return the result of the search
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws XPathException if the search fails
+     */
+    public <R> R withSearcher(final long generation, Function2E<SearcherTaxonomyManager.SearcherAndTaxonomy, R, IOException, XPathException> consumer) throws IOException, XPathException {
+        if (!backgroundRefresh) {
+            searcherManager.maybeRefreshBlocking();
+        } else if (generation >= 0) {
+            waitForGeneration(generation);
+        }
         final SearcherTaxonomyManager.SearcherAndTaxonomy searcher = searcherManager.acquire();
         try {
             return consumer.apply(searcher);
@@ -264,6 +424,21 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    private void waitForGeneration(final long generation) throws IOException {
+        final ControlledRealTimeReopenThread<SearcherTaxonomyManager.SearcherAndTaxonomy> thread = searcherRefreshThread;
+        if (thread == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            thread.waitForGeneration(generation);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lucene searcher refresh");
+        }
+        statistics.readYourWritesWait(System.nanoTime() - start);
+    }
+
 	@Override
 	public void backupToArchive(final RawDataBackup backup) throws IOException {
 		for (final String name : directory.listAll()) {
@@ -0,0 +1,189 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.search.ReferenceManager;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the statistics on refreshing the searcher and reader of the
+ * {@link LuceneIndex}, and publishes them via JMX.
+ */
+public class LuceneIndexStatistics implements LuceneIndexMXBean {
+
+    private final String instanceId;
+    private final LuceneIndex index;
+
+    final RefreshStatistics searcherRefresh = new RefreshStatistics();
+    final RefreshStatistics readerRefresh = new RefreshStatistics();
+
+    private final LongAdder readYourWritesWaits = new LongAdder();
+    private final LongAdder readYourWritesWaitTime = new LongAdder();
+
+    public LuceneIndexStatistics(final String instanceId, final LuceneIndex index) {
+        this.instanceId = instanceId;
+        this.index = index;
+    }
+
+    public static String getAllInstancesQuery() {
+        return "org.exist.management." + '*' + ":type=LuceneIndex";
+    }
+
+    private static ObjectName getName(final String instanceId) throws MalformedObjectNameException {
+        return new ObjectName("org.exist.management." + instanceId + ":type=LuceneIndex");
+    }
+
+    @Override
+    public ObjectName getName() throws MalformedObjectNameException {
+        return getName(instanceId);
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    void readYourWritesWait(final long nanos) {
+        readYourWritesWaits.increment();
+        readYourWritesWaitTime.add(nanos);
+    }
+
+    @Override
+    public String getRefreshMode() {
+        return index.isBackgroundRefresh() ? LuceneIndex.REFRESH_BACKGROUND : LuceneIndex.REFRESH_BLOCKING;
+    }
+
+    @Override
+    public double getTargetMaxStale() {
+        return index.getTargetMaxStale() * 1000;
+    }
+
+    @Override
+    public double getTargetMinStale() {
+        return index.getTargetMinStale() * 1000;
+    }
+
+    @Override
+    public long getSearcherRefreshCount() {
+        return searcherRefresh.refreshes.sum();
+    }
+
+    @Override
+    public long getSearcherReopenCount() {
+        return searcherRefresh.reopens.sum();
+    }
+
+    @Override
+    public double getSearcherLastRefreshTime() {
+        return toMillis(searcherRefresh.lastTime);
+    }
+
+    @Override
+    public double getSearcherMaxRefreshTime() {
+        return toMillis(searcherRefresh.maxTime.get());
+    }
+
+    @Override
+    public double getSearcherAverageRefreshTime() {
+        return searcherRefresh.getAverageTime();
+    }
+
+    @Override
+    public long getReaderRefreshCount() {
+        return readerRefresh.refreshes.sum();
+    }
+
+    @Override
+    public long getReaderReopenCount() {
+        return readerRefresh.reopens.sum();
+    }
+
+    @Override
+    public double getReaderLastRefreshTime() {
+        return toMillis(readerRefresh.lastTime);
+    }
+
+    @Override
+    public double getReaderMaxRefreshTime() {
+        return toMillis(readerRefresh.maxTime.get());
+    }
+
+    @Override
+    public double getReaderAverageRefreshTime() {
+        return readerRefresh.getAverageTime();
+    }
+
+    @Override
+    public long getReadYourWritesWaitCount() {
+        return readYourWritesWaits.sum();
+    }
+
+    @Override
+    public double getReadYourWritesWaitTime() {
+        return toMillis(readYourWritesWaitTime.sum());
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Listens to the refreshes of a {@link ReferenceManager}. A manager never runs
+     * two refreshes at the same time, so the start time can be kept in a field.
+     */
+    static class RefreshStatistics implements ReferenceManager.RefreshListener {
+
+        private volatile long start;
+        private volatile long lastTime;
+        private final AtomicLong maxTime = new AtomicLong();
+        private final LongAdder totalTime = new LongAdder();
+        private final LongAdder refreshes = new LongAdder();
+        private final LongAdder reopens = new LongAdder();
+
+        @Override
+        public void beforeRefresh() {
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void afterRefresh(final boolean didRefresh) {
+            final long elapsed = System.nanoTime() - start;
+            lastTime = elapsed;
+            maxTime.accumulateAndGet(elapsed, Math::max);
+            totalTime.add(elapsed);
+            refreshes.increment();
+            if (didRefresh) {
+                reopens.increment();
+            }
+        }
+
+        private double getAverageTime() {
+            final long count = refreshes.sum();
+            return count == 0 ? 0 : toMillis(totalTime.sum()) / count;
+        }
+    }
+}
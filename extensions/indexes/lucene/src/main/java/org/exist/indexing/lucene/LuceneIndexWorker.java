@@ -63,6 +63,7 @@ import org.exist.util.Occurrences;
 import org.exist.util.pool.NodePool;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
+import org.exist.xquery.modules.lucene.LuceneQueryRewriter;
 import org.exist.xquery.modules.lucene.QueryOptions;
 import org.exist.xquery.value.*;
 import org.w3c.dom.*;
@@ -118,6 +119,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     
     private Analyzer analyzer;
 
+    private long writeGeneration = -1;
+
     public static final String FIELD_DOC_ID = "docId";
     public static final String FIELD_DOC_URI = "docUri";
 
@@ -133,12 +136,30 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return LuceneIndex.ID;
     }
 
+    /**
+     * Release the writer after changing the index and remember the index generation
+     * which covers the changes, so queries may wait for them to become visible.
+     */
+    private void releaseWriter(IndexWriter writer) {
+        if (writer != null) {
+            index.releaseWriter(writer);
+            writeGeneration = index.getGeneration();
+        }
+    }
+
+    /**
+     * Generation to wait for before running a query, so it sees the changes written by this worker.
+     */
+    private long getReadGeneration(QueryOptions options) {
+        return options.readYourWrites() ? writeGeneration : -1;
+    }
+
     public String getIndexName() {
         return index.getIndexName();
     }
 
     public QueryRewriter getQueryRewriter(XQueryContext context) {
-        return null;
+        return new LuceneQueryRewriter(context);
     }
 
     public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
@@ -316,7 +337,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
@@ -331,7 +352,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
@@ -353,7 +374,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException | PermissionDeniedException | LockException e) {
             LOG.error("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             if (reindex) {
                 try {
                     index.sync();
@@ -401,7 +422,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("Error while deleting lucene index entries: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             nodesToRemove = null;
         }
     }
@@ -429,10 +450,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet,
                          List<QName> qnames, String queryStr, int axis, QueryOptions options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(getReadGeneration(options), searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = options.getLimit() > 0 ? new TopHits(options.getLimit()) : null;
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 LuceneConfig config = getLuceneConfig(broker, docs);
@@ -450,7 +472,10 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     query = drilldown(facets.get(), query, config);
                 }
                 searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, options.getFields(), config);
+                        returnAncestor, searcher, query, options.getFields(), config, topHits);
+            }
+            if (topHits != null) {
+                topHits.addMatches();
             }
             return resultSet;
         });
@@ -479,10 +504,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet,
                          List<QName> qnames, Element queryRoot, int axis, QueryOptions options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(getReadGeneration(options), searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = options.getLimit() > 0 ? new TopHits(options.getLimit()) : null;
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 LuceneConfig config = getLuceneConfig(broker, docs);
@@ -494,9 +520,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 }
                 if (query != null) {
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, options.getFields(), config);
+                            returnAncestor, searcher, query, options.getFields(), config, topHits);
                 }
             }
+            if (topHits != null) {
+                topHits.addMatches();
+            }
             return resultSet;
         });
     }
@@ -504,7 +533,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet queryField(int contextId, DocumentSet docs, NodeSet contextSet,
                               String field, Element queryRoot, int axis, QueryOptions options)
             throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(getReadGeneration(options), searcher -> {
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
             final LuceneConfig config = getLuceneConfig(broker, docs);
@@ -512,7 +541,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, null, config);
+                        returnAncestor, searcher, query, null, config, options.getLimit());
             }
             return resultSet;
         });
@@ -530,10 +559,28 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
                                   NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
                                   SearcherTaxonomyManager.SearcherAndTaxonomy searcher, Query query,
-                                  @Nullable Set<String> fields, LuceneConfig config) throws IOException {
+                                  @Nullable Set<String> fields, LuceneConfig config, int limit) throws IOException {
+        final TopHits topHits = limit > 0 ? new TopHits(limit) : null;
+        searchAndProcess(contextId, qname, docs, contextSet, resultSet, returnAncestor, searcher, query, fields,
+                config, topHits);
+        if (topHits != null) {
+            topHits.addMatches();
+        }
+    }
+
+    /**
+     * Run the query and add the matching nodes to the result set. If top hits are given, matching
+     * nodes are only collected into the bounded queue, and the caller is responsible for adding
+     * the retained hits to the result set once all fields have been searched.
+     */
+    private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
+                                  NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
+                                  SearcherTaxonomyManager.SearcherAndTaxonomy searcher, Query query,
+                                  @Nullable Set<String> fields, LuceneConfig config,
+                                  @Nullable TopHits topHits) throws IOException {
         final LuceneFacets facets = new LuceneFacets();
         final FacetsCollector facetsCollector = new FacetsCollector();
-        final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, facets, facetsCollector, fields);
+        final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, facets, facetsCollector, fields, topHits);
         searcher.searcher.search(query, collector);
 
         // compute facets
@@ -585,7 +632,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, String queryString, int axis, QueryOptions options)
             throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(getReadGeneration(options), searcher -> {
             NodeSet resultSet = new NewArrayNodeSet();
             boolean returnAncestor = axis == NodeSet.ANCESTOR;
             LuceneConfig config = getLuceneConfig(context.getBroker(), docs);
@@ -595,7 +642,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             options.configureParser(parser.getConfiguration());
             Query query = parser.parse(queryString);
             searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                    returnAncestor, searcher, query, null, config);
+                    returnAncestor, searcher, query, null, config, options.getLimit());
             return resultSet;
         });
     }
@@ -682,7 +729,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
 
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             pendingDoc = null;
             cachedNodesSize = 0;
         }
@@ -922,8 +969,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final LuceneFacets facets;
         private final FacetsCollector chainedCollector;
         private final Set<String> fields;
+        private final TopHits topHits;
 
-        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor, int contextId, LuceneFacets facets, FacetsCollector nextCollector, @Nullable Set<String> fields) {
+        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor, int contextId, LuceneFacets facets, FacetsCollector nextCollector, @Nullable Set<String> fields, @Nullable TopHits topHits) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -934,6 +982,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.facets = facets;
             this.chainedCollector = nextCollector;
             this.fields = fields;
+            this.topHits = topHits;
         }
 
         @Override
@@ -963,6 +1012,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
                     return;
+                if (contextSet == null && topHits != null && !topHits.isCompetitive(score)) {
+                    // cannot make it into the top hits: only count it for the facets. Without a context set,
+                    // the hit is returned for its own node, which has no other hit to add its score to
+                    chainedCollector.collect(doc);
+                    return;
+                }
                 final BytesRef ref = this.nodeIdValues.get(doc);
                 int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
                 NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
@@ -980,25 +1035,15 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         NodeProxy parentNode = contextSet.get(storedNode);
                         // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
                         if (parentNode != null) {
-                            LuceneMatch match = createMatch(doc, score, nodeId);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
+                            addHit(reader, doc, score, storedNode, parentNode, sizeHint);
                             chainedCollector.collect(doc);
                         }
                     } else {
-                        LuceneMatch match = createMatch(doc, score, nodeId);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
+                        addHit(reader, doc, score, storedNode, null, sizeHint);
                         chainedCollector.collect(doc);
                     }
                 } else {
-                    LuceneMatch match = createMatch(doc, score, nodeId);
-                    storedNode.addMatch(match);
-                    resultSet.add(storedNode);
+                    addHit(reader, doc, score, storedNode, null, Constants.NO_SIZE_HINT);
                     chainedCollector.collect(doc);
                 }
             } catch (IOException e) {
@@ -1006,7 +1051,32 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             }
         }
 
-        private LuceneMatch createMatch(int docId, float score, NodeId nodeId) throws IOException {
+        private void addHit(AtomicReader reader, int doc, float score, NodeProxy storedNode,
+                @Nullable NodeProxy parentNode, int sizeHint) throws IOException {
+            if (topHits != null) {
+                topHits.offer(new TopHit(this, reader, doc, score, storedNode, parentNode, sizeHint));
+            } else {
+                addMatch(reader, doc, score, storedNode, parentNode, sizeHint);
+            }
+        }
+
+        private void addMatch(AtomicReader reader, int doc, float score, NodeProxy storedNode,
+                @Nullable NodeProxy parentNode, int sizeHint) throws IOException {
+            LuceneMatch match = createMatch(reader, doc, score, storedNode.getNodeId());
+            if (parentNode != null) {
+                parentNode.addMatch(match);
+                resultSet.add(parentNode, sizeHint);
+                if (Expression.NO_CONTEXT_ID != contextId) {
+                    parentNode.deepCopyContext(storedNode, contextId);
+                } else
+                    parentNode.copyContext(storedNode);
+            } else {
+                storedNode.addMatch(match);
+                resultSet.add(storedNode, sizeHint);
+            }
+        }
+
+        private LuceneMatch createMatch(AtomicReader reader, int docId, float score, NodeId nodeId) throws IOException {
             final LuceneMatch match = new LuceneMatch(contextId, nodeId, query, facets);
             match.setScore(score);
             if (fields != null && !fields.isEmpty()) {
@@ -1019,6 +1089,136 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * A hit retained by {@link TopHits}. Creating the {@link LuceneMatch} is deferred
+     * until the search has finished, so stored fields are only loaded for the hits
+     * which are actually returned.
+     */
+    private static class TopHit {
+
+        private final LuceneHitCollector collector;
+        private final AtomicReader reader;
+        private final int doc;
+        private final float score;
+        private final NodeProxy storedNode;
+        private final NodeProxy parentNode;
+        private final int sizeHint;
+
+        private TopHit(LuceneHitCollector collector, AtomicReader reader, int doc, float score,
+                NodeProxy storedNode, @Nullable NodeProxy parentNode, int sizeHint) {
+            this.collector = collector;
+            this.reader = reader;
+            this.doc = doc;
+            this.score = score;
+            this.storedNode = storedNode;
+            this.parentNode = parentNode;
+            this.sizeHint = sizeHint;
+        }
+
+        private NodeProxy getNode() {
+            return parentNode != null ? parentNode : storedNode;
+        }
+    }
+
+    /**
+     * Bounded queue keeping the best scoring hits of a top-k query. The queue is shared
+     * by all fields searched for a single query, so the limit applies to the query as a
+     * whole. Nodes with the same score are ranked in document order, matching the stable
+     * sort applied by an "order by ft:score($hit) descending" clause.
+     *
+     * The limit applies to the nodes returned rather than to the hits. The hits are grouped
+     * by the node they are returned for, and each node is ranked by the sum of the scores of
+     * its hits, which is what ft:score returns for it. A node is re-ranked whenever another
+     * hit is added to it. All the hits of a retained node are kept, so that its matches and
+     * its ft:score are not truncated.
+     */
+    private static class TopHits {
+
+        private static final Comparator<NodeHits> WORST_FIRST = (n1, n2) -> {
+            final int cmp = Float.compare(n1.score, n2.score);
+            return cmp != 0 ? cmp : n2.node.compareTo(n1.node);
+        };
+
+        private final int limit;
+
+        // the retained nodes, worst first
+        private final TreeSet<NodeHits> queue = new TreeSet<>(WORST_FIRST);
+
+        // the hits of each retained node
+        private final Map<NodeProxy, NodeHits> nodeHits = new TreeMap<>((n1, n2) -> n1.compareTo(n2));
+
+        private TopHits(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Check if a hit with the given score could still be added to the queue.
+         *
+         * @param score the score of the hit
+         * @return false if the hit would be rejected regardless of its position in the document order
+         */
+        private boolean isCompetitive(float score) {
+            return queue.size() < limit || score >= queue.first().score;
+        }
+
+        private void offer(TopHit hit) {
+            final NodeProxy node = hit.getNode();
+            final NodeHits retained = nodeHits.get(node);
+            if (retained != null) {
+                // the score of the node changes: take it out of the queue before re-ranking it
+                queue.remove(retained);
+                retained.add(hit);
+                queue.add(retained);
+                return;
+            }
+            final NodeHits candidate = new NodeHits(node, hit);
+            if (queue.size() >= limit) {
+                if (WORST_FIRST.compare(candidate, queue.first()) <= 0) {
+                    return;
+                }
+                nodeHits.remove(queue.pollFirst().node);
+            }
+            queue.add(candidate);
+            nodeHits.put(node, candidate);
+        }
+
+        /**
+         * Create the matches for the retained hits and add them to the result set
+         * of the collector which found them.
+         *
+         * @throws IOException if stored fields cannot be read
+         */
+        private void addMatches() throws IOException {
+            for (final NodeHits retained : nodeHits.values()) {
+                for (final TopHit hit : retained.hits) {
+                    hit.collector.addMatch(hit.reader, hit.doc, hit.score, hit.storedNode, hit.parentNode, hit.sizeHint);
+                }
+            }
+            queue.clear();
+            nodeHits.clear();
+        }
+    }
+
+    /**
+     * The hits of a node retained by {@link TopHits} and their summed score.
+     */
+    private static class NodeHits {
+
+        private final NodeProxy node;
+        private final List<TopHit> hits = new ArrayList<>(1);
+        private float score = 0.0f;
+
+        private NodeHits(NodeProxy node, TopHit hit) {
+            this.node = node;
+            add(hit);
+        }
+
+        private void add(TopHit hit) {
+            hits.add(hit);
+            score += hit.score;
+        }
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
@@ -1433,7 +1633,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (final IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             nodesToWrite = new ArrayList<>();
             cachedNodesSize = 0;
         }
@@ -1452,7 +1652,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("An exception was caught while optimizing the lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
         }
     }
 
@@ -0,0 +1,127 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.dom.QName;
+import org.exist.xquery.*;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Query rewriter for the Lucene index. Turns a full text query into a top-k query if only
+ * the best scoring results are used, as in
+ *
+ * <pre>
+ * subsequence(
+ *     for $hit in //p[ft:query(., "xml")]
+ *     order by ft:score($hit) descending
+ *     return $hit,
+ *     1, 10
+ * )
+ * </pre>
+ *
+ * The query will then only create nodes for the 10 best scoring matches instead of all of them.
+ */
+public class LuceneQueryRewriter extends QueryRewriter {
+
+    public LuceneQueryRewriter(XQueryContext context) {
+        super(context);
+    }
+
+    @Override
+    public boolean rewriteLimitedFor(ForExpr forExpr, OrderSpec orderSpec, int limit) throws XPathException {
+        if ((orderSpec.getModifiers() & OrderSpec.DESCENDING_ORDER) == 0 ||
+                !isScoreOf(orderSpec.getSortExpression(), forExpr.getVariable())) {
+            return false;
+        }
+        final Query query = getQuery(forExpr.getInputSequence());
+        if (query == null) {
+            return false;
+        }
+        query.setLimit(limit);
+        return true;
+    }
+
+    /**
+     * Check if the expression is a call to ft:score on the given variable.
+     */
+    private boolean isScoreOf(Expression expr, String varName) {
+        final Function function = getFunction(unwrap(expr));
+        if (!(function instanceof Score) || function.getArgumentCount() != 1) {
+            return false;
+        }
+        final Expression arg = unwrap(function.getArgument(0));
+        try {
+            return arg instanceof VariableReference &&
+                    ((VariableReference) arg).getName().equals(QName.parse(getContext(), varName, null));
+        } catch (final QName.IllegalQNameException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the full text query which determines the items of the input sequence. This is either
+     * a call to ft:query itself, or a path whose last step is filtered by a single predicate
+     * [ft:query(., ...)]. Any other filter might drop one of the best scoring matches after the
+     * query has been limited.
+     */
+    private @Nullable Query getQuery(Expression input) {
+        Expression expr = unwrapExtension(unwrap(input));
+        final Function function = getFunction(expr);
+        if (function instanceof Query) {
+            return (Query) function;
+        }
+        if (expr instanceof PathExpr && !(expr instanceof Function)) {
+            final PathExpr path = (PathExpr) expr;
+            expr = unwrapExtension(path.getSubExpression(path.getSubExpressionCount() - 1));
+        }
+        if (!(expr instanceof LocationStep)) {
+            return null;
+        }
+        final List<Predicate> predicates = ((LocationStep) expr).getPredicates();
+        if (predicates.size() != 1) {
+            return null;
+        }
+        final Function predicateFunction = getFunction(unwrap(predicates.get(0)));
+        if (!(predicateFunction instanceof Query)) {
+            return null;
+        }
+        final List<LocationStep> steps = BasicExpressionVisitor.findLocationSteps(predicateFunction.getArgument(0));
+        if (steps.size() != 1 || steps.get(0).getAxis() != Constants.SELF_AXIS || steps.get(0).hasPredicates()) {
+            return null;
+        }
+        return (Query) predicateFunction;
+    }
+
+    private static Expression unwrapExtension(Expression expr) {
+        // location steps may already be wrapped into an (#exist:optimize#) pragma
+        return expr instanceof ExtensionExpression ? ((ExtensionExpression) expr).getExpression() : expr;
+    }
+
+    private static @Nullable Function getFunction(Expression expr) {
+        if (expr instanceof InternalFunctionCall) {
+            return ((InternalFunctionCall) expr).getFunction();
+        }
+        return expr instanceof Function ? (Function) expr : null;
+    }
+}
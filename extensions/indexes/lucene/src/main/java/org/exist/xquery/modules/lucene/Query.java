@@ -88,6 +88,8 @@ public class Query extends Function implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
+                        "   <limit>number</limit>\n" +
+                        "   <read-your-writes>yes|no</read-your-writes>\n" +
                         "</options>")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
@@ -103,6 +105,7 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    private int limit = -1;
 
     public Query(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
@@ -181,7 +184,37 @@ public class Query extends Function implements Optimizable {
     }
 
     public boolean canOptimize(Sequence contextSequence) {
-        return contextQName != null;
+        // a top-k query must see the real context to decide which hits to keep,
+        // which is only the case if it is evaluated without pre-selection
+        return contextQName != null && limit <= 0 && getLimitOption(contextSequence) <= 0;
+    }
+
+    /**
+     * Only the given number of best scoring matches will be returned, as if the
+     * "limit" option had been passed to the query. Called by the query rewriter if
+     * the results of the query are ordered by score and only the first items are used.
+     * An explicit "limit" option takes precedence.
+     *
+     * @param limit the maximum number of matches to return
+     */
+    public void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    private int getLimitOption(final Sequence contextSequence) {
+        if (getArgumentCount() < 3) {
+            return -1;
+        }
+        try {
+            return parseOptions(this, contextSequence, null, 3).getLimit();
+        } catch (final XPathException e) {
+            // will be reported again when the query is evaluated
+            return -1;
+        }
     }
 
     public boolean optimizeOnSelf() {
@@ -259,6 +292,9 @@ public class Query extends Function implements Optimizable {
                     qnames.add(contextQName);
                 }
                 QueryOptions options = parseOptions(this, contextSequence, contextItem, 3);
+                if (limit > 0 && options.getLimit() <= 0) {
+                    options.setLimit(limit);
+                }
                 try {
                     if (key != null && Type.subTypeOf(key.getType(), Type.ELEMENT)) {
                         final Element queryXML = (Element) ((NodeValue) key).getNode();
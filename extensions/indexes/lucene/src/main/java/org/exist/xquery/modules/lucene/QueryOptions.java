@@ -54,6 +54,8 @@ public class QueryOptions {
     public static final String OPTION_FACETS = "facets";
     public static final String OPTION_FIELDS = "fields";
     public static final String OPTION_QUERY_ANALYZER_ID = "query-analyzer-id";
+    public static final String OPTION_LIMIT = "limit";
+    public static final String OPTION_READ_YOUR_WRITES = "read-your-writes";
 
     protected enum DefaultOperator {
         OR,
@@ -69,6 +71,8 @@ public class QueryOptions {
     protected boolean lowercaseExpandedTerms = false;
     protected Optional<Map<String, FacetQuery>> facets = Optional.empty();
     protected Set<String> fields = null;
+    protected int limit = -1;
+    protected boolean readYourWrites = false;
 
     public QueryOptions() {
         // default options
@@ -204,6 +208,33 @@ public class QueryOptions {
         return fields;
     }
 
+    /**
+     * Maximum number of matches to return. If set, only the best scoring
+     * matches are kept and all others are discarded without creating a
+     * node for them.
+     *
+     * @return the maximum number of matches, or a value &lt;= 0 if unlimited
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * If the index refreshes its searchers in the background, a query normally
+     * uses the currently published searcher, which may not yet include the
+     * latest changes. If this option is set, the query waits until the searcher
+     * includes all changes written by the current broker.
+     *
+     * @return true if the query should see the changes written by the current broker
+     */
+    public boolean readYourWrites() {
+        return readYourWrites;
+    }
+
     public boolean filterRewrite() {
         return filterRewrite;
     }
@@ -231,6 +262,16 @@ public class QueryOptions {
             case OPTION_LOWERCASE_EXPANDED_TERMS:
                 lowercaseExpandedTerms = value.equalsIgnoreCase("yes");
                 break;
+            case OPTION_LIMIT:
+                try {
+                    limit = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new XPathException(LuceneModule.EXXQDYFT0004, "Option " + OPTION_LIMIT + " must be an integer");
+                }
+                break;
+            case OPTION_READ_YOUR_WRITES:
+                readYourWrites = value.equalsIgnoreCase("yes") || value.equals("true");
+                break;
             case OPTION_QUERY_ANALYZER_ID:
                 queryAnalyzerId = value;
             default:
@@ -0,0 +1,163 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationException;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.collections.IndexInfo;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests a Lucene index configured with refresh="background".
+ */
+public class BackgroundRefreshTest {
+
+    // the id of the index module in conf.xml
+    private static final String INDEX_NAME = "lucene-index";
+
+    private static final XmldbURI DOC_URI = XmldbURI.create("refresh.xml");
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"p\"/>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    // much longer than refresh-max-stale, so that the test only fails if the searcher is never refreshed
+    private static final long TIMEOUT = 30_000;
+
+    private static Path configFile;
+
+    @BeforeClass
+    public static void prepare() throws URISyntaxException {
+        final ClassLoader loader = BackgroundRefreshTest.class.getClassLoader();
+        final char separator = System.getProperty("file.separator").charAt(0);
+        final String packagePath = BackgroundRefreshTest.class.getPackage().getName().replace('.', separator);
+
+        configFile = Paths.get(loader.getResource(packagePath + separator + "conf.xml").toURI());
+    }
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, configFile, null, true, true);
+
+    @Test
+    public void staleEntriesAreReplaced() throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, LockException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final LuceneIndex index = (LuceneIndex) pool.getIndexManager().getIndexByName(INDEX_NAME);
+        assertTrue(index.isBackgroundRefresh());
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            store(broker, true, "<doc><p>apple</p></doc>");
+            awaitCount(broker, "apple", 1);
+
+            // replace the document: the published searcher still has the old entries until it is refreshed
+            final long reopens = index.getStatistics().getSearcherReopenCount();
+            store(broker, false, "<doc><p>banana</p></doc>");
+            awaitCount(broker, "banana", 1);
+            assertEquals(0, count(broker, "apple", false));
+            assertTrue(index.getStatistics().getSearcherReopenCount() > reopens);
+        }
+    }
+
+    @Test
+    public void readYourWrites() throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, LockException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final LuceneIndex index = (LuceneIndex) pool.getIndexManager().getIndexByName(INDEX_NAME);
+            final long waits = index.getStatistics().getReadYourWritesWaitCount();
+
+            // refresh-max-stale is seconds, so the published searcher does not have the changes
+            // of this broker yet: the query has to wait for the generation which includes them
+            store(broker, true, "<doc><p>cherry</p></doc>");
+            assertEquals(1, count(broker, "cherry", true));
+
+            store(broker, false, "<doc><p>damson</p></doc>");
+            assertEquals(1, count(broker, "damson", true));
+            assertEquals(0, count(broker, "cherry", true));
+            assertTrue(index.getStatistics().getReadYourWritesWaitCount() >= waits + 2);
+        }
+    }
+
+    private void awaitCount(final DBBroker broker, final String term, final int expected) throws EXistException, PermissionDeniedException, XPathException, InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        int count;
+        while ((count = count(broker, term, false)) != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("Hits for '" + term + "' after the searcher was refreshed", expected, count);
+    }
+
+    private int count(final DBBroker broker, final String term, final boolean readYourWrites) throws EXistException, PermissionDeniedException, XPathException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        final String query = "count(collection('" + TestConstants.TEST_COLLECTION_URI + "')//p[ft:query(., '" + term + "', " +
+                "map { 'read-your-writes': " + readYourWrites + "() })])";
+        final Sequence result = xquery.execute(broker, query, null);
+        assertEquals(1, result.getItemCount());
+        return Integer.parseInt(result.itemAt(0).getStringValue());
+    }
+
+    private void store(final DBBroker broker, final boolean configure, final String data) throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, LockException {
+        final BrokerPool pool = broker.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, root);
+            if (configure) {
+                final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+                mgr.addConfiguration(transaction, broker, root, COLLECTION_CONFIG);
+            }
+
+            final IndexInfo info = root.validateXMLResource(transaction, broker, DOC_URI, data);
+            root.store(transaction, broker, info, data);
+            transact.commit(transaction);
+        }
+    }
+}
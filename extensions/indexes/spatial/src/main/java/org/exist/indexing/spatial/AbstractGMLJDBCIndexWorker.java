@@ -22,225 +22,42 @@
 package org.exist.indexing.spatial;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.WKBReader;
-import com.vividsolutions.jts.io.WKBWriter;
-import com.vividsolutions.jts.io.WKTReader;
-import com.vividsolutions.jts.io.WKTWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.collections.Collection;
 import org.exist.dom.persistent.*;
-import org.exist.indexing.AbstractStreamListener;
-import org.exist.indexing.Index;
-import org.exist.indexing.IndexController;
-import org.exist.indexing.IndexWorker;
-import org.exist.indexing.MatchListener;
-import org.exist.indexing.StreamListener;
 import org.exist.indexing.StreamListener.ReindexMode;
 import org.exist.numbering.NodeId;
 import org.exist.storage.DBBroker;
 import org.exist.storage.IndexSpec;
-import org.exist.storage.NodePath;
-import org.exist.storage.txn.Txn;
 import org.exist.util.*;
-import org.exist.util.serializer.Receiver;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
-import org.exist.xquery.value.NodeValue;
 import org.exist.xquery.value.ValueSequence;
-import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
-import org.geotools.gml.GMLFilterDocument;
-import org.geotools.gml.GMLFilterGeometry;
-import org.geotools.gml.GMLHandlerJTS;
-import org.geotools.gml.producer.GeometryTransformer;
-import org.geotools.referencing.CRS;
-import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.NoSuchAuthorityCodeException;
-import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.OperationNotFoundException;
-import org.opengis.referencing.operation.TransformException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLFilterImpl;
-
-import javax.xml.transform.TransformerException;
-import java.io.IOException;
-import java.io.StringReader;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
 
 /**
+ * Spatial index worker storing the geometries in a JDBC database.
+ *
  * @author <a href="mailto:pierrick.brihaye@free.fr">Pierrick Brihaye</a>
  */
-public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
-
-    public static final String GML_NS = "http://www.opengis.net/gml";
-    //The general configuration's element name to configure this kind of worker
-    protected final static String INDEX_ELEMENT = "gml";
-    
-    public static final String START_KEY = "start_key";
-    public static final String END_KEY = "end_key";
-    
+public abstract class AbstractGMLJDBCIndexWorker extends AbstractGMLIndexWorker {
+
     private static final Logger LOG = LogManager.getLogger(AbstractGMLJDBCIndexWorker.class);
 
-    protected IndexController controller;
-    protected AbstractGMLJDBCIndex index;
-    protected DBBroker broker;
-    protected ReindexMode currentMode = ReindexMode.UNKNOWN;
-    protected DocumentImpl currentDoc = null;  
-    private boolean isDocumentGMLAware = false;
-    protected Map<NodeId, SRSGeometry> geometries = new TreeMap<NodeId, SRSGeometry>();
-    NodeId currentNodeId = null;
-    Geometry streamedGeometry = null;
-    boolean documentDeleted = false;
-    int flushAfter = -1;
-    protected GMLHandlerJTS geometryHandler = new GeometryHandler(); 
-    protected GMLFilterGeometry geometryFilter = new GMLFilterGeometry(geometryHandler); 
-    protected GMLFilterDocument geometryDocument = new GMLFilterDocument(geometryFilter);
-    protected GMLStreamListener gmlStreamListener = new GMLStreamListener();
-    protected TreeMap<String, MathTransform> transformations = new TreeMap<String, MathTransform>();
-    protected boolean useLenientMode = false;
-    protected GeometryCoordinateSequenceTransformer coordinateTransformer = new GeometryCoordinateSequenceTransformer();
-    protected GeometryTransformer gmlTransformer = new GeometryTransformer();
-    protected WKBWriter wkbWriter = new WKBWriter();
-    protected WKBReader wkbReader = new WKBReader();
-    protected WKTWriter wktWriter = new WKTWriter();
-    protected WKTReader wktReader = new WKTReader();
+    protected AbstractGMLJDBCIndex jdbcIndex;
 
     public AbstractGMLJDBCIndexWorker(AbstractGMLJDBCIndex index, DBBroker broker) {
-        this.index = index;
-        this.broker = broker;
-    }
-
-    protected DBBroker getBroker() {
-        return broker;
-    }
-
-    @Override
-    public String getIndexId() {
-        return AbstractGMLJDBCIndex.ID;
-    }
-
-    @Override
-    public String getIndexName() {
-        return index.getIndexName();
-    }
-
-    public Index getIndex() {
-        return index;
-    }
-
-    @Override
-    public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
-        this.controller = controller;
-        Map<String, GMLIndexConfig> map = null;
-        for(int i = 0; i < configNodes.getLength(); i++) {
-            Node node = configNodes.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE &&
-                    INDEX_ELEMENT.equals(node.getLocalName())) { 
-                map = new TreeMap<String, GMLIndexConfig>();
-                GMLIndexConfig config = new GMLIndexConfig(namespaces, (Element)node);
-                map.put(AbstractGMLJDBCIndex.ID, config);
-            }
-        }
-        return map;
-    }
-
-    @Override
-    public void setDocument(DocumentImpl document) {
-        isDocumentGMLAware = false;
-        documentDeleted= false;
-        if (document != null) {
-            IndexSpec idxConf = document.getCollection().getIndexConfiguration(getBroker());
-            if (idxConf != null) {
-                Map collectionConfig = (Map) idxConf.getCustomIndexSpec(AbstractGMLJDBCIndex.ID);
-                if (collectionConfig != null) {
-                    isDocumentGMLAware = true;
-                    if (collectionConfig.get(AbstractGMLJDBCIndex.ID) != null)
-                        flushAfter = ((GMLIndexConfig)collectionConfig.get(AbstractGMLJDBCIndex.ID)).getFlushAfter();
-                }
-            }
-        }
-        if (isDocumentGMLAware) {
-            currentDoc = document;
-        } else {
-            currentDoc = null;
-            currentMode = ReindexMode.UNKNOWN;
-        }
-    } 
-
-    @Override
-    public void setMode(final ReindexMode newMode) {
-        currentMode = newMode; 
-    }
-
-    @Override
-    public void setDocument(DocumentImpl doc, ReindexMode mode) {
-        setDocument(doc);
-        setMode(mode);
-    }
-
-    /**
-     * Returns the document for the next operation.
-     * 
-     * @return the document
-     */
-    @Override
-    public DocumentImpl getDocument() {
-        return currentDoc;
-    }
-
-    /**
-     * Returns the mode for the next operation.
-     * 
-     * @return the document
-     */
-    @Override
-    public ReindexMode getMode() {
-        return currentMode;
-    }
-
-    @Override
-    public StreamListener getListener() {
-        //We won't listen to anything here
-        if (currentDoc == null || currentMode == ReindexMode.REMOVE_ALL_NODES)
-            return null;
-        return gmlStreamListener;
+        super(index, broker);
+        this.jdbcIndex = index;
     }
 
     @Override
-    public MatchListener getMatchListener(DBBroker broker, NodeProxy proxy) {
-        return null;
-    }
-
-    public StoredNode getReindexRoot(StoredNode node, NodePath path, boolean insert, boolean includeSelf) {
-        if (!isDocumentGMLAware)
-            //Not concerned
-            return null;
-        StoredNode relevantNode = null;
-        StoredNode currentNode = node;
-        for (int i = path.length() ; i > 0; i--) {
-            if (GML_NS.equals(currentNode.getNamespaceURI()))
-                relevantNode = currentNode;
-            //Stop below root
-            if (currentNode.getParentNode() instanceof DocumentImpl)
-                break;
-            currentNode = (StoredNode)currentNode.getParentNode();
-        }
-        return relevantNode;
-    }
-
     public void flush() {
         if (!isDocumentGMLAware)
             //Not concerned
@@ -414,6 +231,7 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    @Override
     public NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp)
             throws SpatialIndexException {
         Connection conn = null;
@@ -433,6 +251,7 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    @Override
     public Geometry getGeometryForNode(DBBroker broker, NodeProxy p, boolean getEPSG4326) 
             throws  SpatialIndexException {
         Connection conn = null;
@@ -471,6 +290,7 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    @Override
     public AtomicValue getGeometricPropertyForNode(XQueryContext context, NodeProxy p, String propertyName)
             throws  SpatialIndexException {
         Connection conn = null;
@@ -513,6 +333,7 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    @Override
     public boolean checkIndex(DBBroker broker) {
         Connection conn = null;
         try {
@@ -561,6 +382,7 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
 
     protected abstract void releaseConnection(Connection conn) throws SQLException;
 
+    @Override
     public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map hints) {
         //TODO : try to use contextSet
         Map<Geometry, Occurrences> occurences = new TreeMap<Geometry, Occurrences>();
@@ -610,244 +432,4 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         return result;
     }
 
-    public Geometry streamNodeToGeometry(XQueryContext context, NodeValue node) throws SpatialIndexException {
-        try {
-            context.pushDocumentContext();
-            try {
-                //TODO : get rid of the context dependency
-                node.toSAX(context.getBroker(), geometryDocument, null);
-            } finally {
-                context.popDocumentContext();
-            }
-        } catch (SAXException e) {
-            throw new SpatialIndexException(e);
-        }
-        return streamedGeometry;
-    }
-
-    public Element streamGeometryToElement(Geometry geometry, String srsName, Receiver receiver) throws SpatialIndexException {       
-        //YES !!!
-        String gmlString = null;
-        try {
-            //TODO : find a way to pass
-            //1) the SRS
-            //2) gmlPrefix
-            //3) other stuff...
-            //This will possibly require some changes in GeometryTransformer
-            gmlString = gmlTransformer.transform(geometry);
-        } catch (TransformerException e) {
-            throw new SpatialIndexException(e);
-        }
-
-        final XMLReaderPool parserPool = broker.getBrokerPool().getParserPool();
-        XMLReader reader = null;
-        try {
-            InputSource src = new InputSource(new StringReader(gmlString));
-            reader = parserPool.borrowXMLReader();
-            reader.setContentHandler((ContentHandler)receiver);
-            reader.parse(src);
-            Document doc = receiver.getDocument();
-            return doc.getDocumentElement();
-        } catch (final SAXException | IOException e) {
-            throw new SpatialIndexException(e);
-        } finally {
-            if (reader != null) {
-                parserPool.returnXMLReader(reader);
-            }
-        }
-    }
-
-    public Geometry transformGeometry(Geometry geometry, String sourceCRS, String targetCRS) throws SpatialIndexException {
-        //provisional workarounds
-        if ("osgb:BNG".equalsIgnoreCase(sourceCRS.trim()))
-            sourceCRS = "EPSG:27700";
-        if ("osgb:BNG".equalsIgnoreCase(targetCRS.trim()))
-            targetCRS = "EPSG:27700"; 
-        MathTransform transform = transformations.get(sourceCRS + "_" + targetCRS);
-        if (transform == null) {
-            try {
-
-                try {
-                    transform = CRS.findMathTransform(CRS.decode(sourceCRS), CRS.decode(targetCRS), useLenientMode);
-                } catch (final OperationNotFoundException e) {
-                    LOG.debug(e);
-                    LOG.info("Switching to lenient mode... beware of precision loss !");
-                    //Last parameter set to true ; won't bail out if it can't find the Bursa Wolf parameters
-                    //as it is the case in current gt2-epsg-wkt-2.4-M1.jar
-                    useLenientMode = true;
-                    transform = CRS.findMathTransform(CRS.decode(sourceCRS), CRS.decode(targetCRS), useLenientMode);
-                }
-                transformations.put(sourceCRS + "_" + targetCRS, transform);
-                LOG.debug("Instantiated transformation from '" + sourceCRS + "' to '" + targetCRS + "'");
-            } catch (NoSuchAuthorityCodeException e) {
-                LOG.error(e);
-            } catch (FactoryException e) {
-                LOG.error(e);
-            }
-        }
-        if (transform == null) {
-            throw new SpatialIndexException("Unable to get a transformation from '" + sourceCRS + "' to '" + targetCRS +"'");        		           	
-        }
-        coordinateTransformer.setMathTransform(transform);
-        try {
-        	return coordinateTransformer.transform(geometry);
-        } catch (TransformException e) {
-        	throw new SpatialIndexException(e);
-        }
-    }
-
-    private class GMLStreamListener extends AbstractStreamListener {
-
-        private final Stack<String> srsNamesStack = new Stack<>();
-        private ElementImpl deferredElement;
-
-        @Override
-        public IndexWorker getWorker() {
-        	return AbstractGMLJDBCIndexWorker.this;
-        }
-        
-        @Override
-        public void startElement(Txn transaction, ElementImpl element, NodePath path) { 
-            if (isDocumentGMLAware) {
-                //Release the deferred element if any
-                if (deferredElement != null)
-                    processDeferredElement();
-                //Retain this element
-                deferredElement = element;
-            }
-            //Forward the event to the next listener 
-            super.startElement(transaction, element, path);
-        }
-        
-        @Override
-        public void attribute(Txn transaction, AttrImpl attrib, NodePath path) { 
-            //Forward the event to the next listener 
-            super.attribute(transaction, attrib, path);
-        }
-
-        @Override
-        public void characters(Txn transaction, AbstractCharacterData text, NodePath path) {
-            if (isDocumentGMLAware) {
-                //Release the deferred element if any
-                if (deferredElement != null)
-                    processDeferredElement();
-                try {
-                    geometryDocument.characters(text.getData().toCharArray(), 0, text.getLength());
-                } catch (Exception e) {
-                    LOG.error(e);
-                }
-            }
-            //Forward the event to the next listener 
-            super.characters(transaction, text, path);
-        }
-
-        @Override
-        public void endElement(Txn transaction, ElementImpl element, NodePath path) {
-            if (isDocumentGMLAware) {
-                //Release the deferred element if any
-                if (deferredElement != null)
-                    processDeferredElement();
-                //Process the element 
-                processCurrentElement(element);
-            }
-            //Forward the event to the next listener 
-            super.endElement(transaction, element, path);
-        }
-        
-        private void processDeferredElement() {
-            //We need to collect the deferred element's attributes in order to feed the SAX handler
-            AttributesImpl attList = new AttributesImpl();
-            NamedNodeMap attrs = deferredElement.getAttributes();
-
-            String whatToPush = null;
-
-            for (int i = 0; i < attrs.getLength() ; i++) {
-                AttrImpl attrib = (AttrImpl)attrs.item(i);
-
-                //Store the srs
-                if (GML_NS.equals(deferredElement.getNamespaceURI())) {
-                    //Maybe we could assume a configurable default value here
-                    if (attrib.getName().equals("srsName")) {
-                        whatToPush = attrib.getValue();
-                    }
-                }
-
-                attList.addAttribute(attrib.getNamespaceURI(), 
-                        attrib.getLocalName(), 
-                        attrib.getQName().getStringValue(), 
-                        Integer.toString(attrib.getType()), 
-                        attrib.getValue());
-            }
-
-            srsNamesStack.push(whatToPush);
-
-            try {
-                geometryDocument.startElement(deferredElement.getNamespaceURI(), deferredElement.getLocalName(), deferredElement.getQName().getStringValue(), attList);
-            } catch (Exception e) {
-                e.printStackTrace();
-                LOG.error(e);
-            } finally {
-                deferredElement = null;
-            }
-        }
-
-        private void processCurrentElement(ElementImpl element) {
-            currentNodeId = element.getNodeId();
-            String currentSrsName = srsNamesStack.pop();
-            try {
-                geometryDocument.endElement(element.getNamespaceURI(), element.getLocalName(), element.getQName().getStringValue());
-                //Some invalid/(yet) incomplete geometries don't have a SRS
-                if (streamedGeometry != null && currentSrsName != null) {
-                    geometries.put(currentNodeId, new SRSGeometry(currentSrsName, streamedGeometry));
-                    if (flushAfter != -1 && geometries.size() >= flushAfter) {
-                        //Mmmh... doesn't flush since it is currently dependant from the
-                        //number of nodes in the DOM file ; would need refactorings
-                        //currentDoc.getBroker().checkAvailableMemory();
-                        ((AbstractGMLJDBCIndexWorker)getWorker()).getBroker().flush();
-                    }
-                }
-            } catch (Exception e) {
-                LOG.error("Unable to collect geometry for node: " + currentNodeId + ". Indexing will be skipped");
-            } finally {
-                streamedGeometry = null;
-            }
-        }
-    }
-
-    private class GeometryHandler extends XMLFilterImpl implements GMLHandlerJTS {
-        @Override
-        public void geometry(Geometry geometry) {
-            streamedGeometry = geometry;
-            //TODO : null geometries can be returned for many reasons, including a (too) strict
-            //topology check done by the Geotools SAX parser.
-            //It would be nice to have static classes extending Geometry to report such geometries
-            if (geometry == null) {
-                LOG.error("Collected null geometry for node: " + currentNodeId + ". Indexing will be skipped");
-            }
-        }
-    }
-
-    private class SRSGeometry {
-
-        private String SRSName;
-        private Geometry geometry;
-
-        public SRSGeometry(String SRSName, Geometry geometry) {
-            //TODO : implement a default, eventually configurable, SRS ?
-            if (SRSName == null)
-                throw new IllegalArgumentException("Got null SRS");
-            if (geometry == null)
-                throw new IllegalArgumentException("Got null geometry");
-            this.SRSName = SRSName;
-            this.geometry = geometry;
-        }
-
-        public String getSRSName() {
-            return SRSName;
-        }
-
-        public Geometry getGeometry() {
-            return geometry;
-        }
-    }
 }
@@ -46,7 +46,10 @@ import org.w3c.dom.Element;
 
 /**
  * @author <a href="mailto:pierrick.brihaye@free.fr">Pierrick Brihaye</a>
+ * @deprecated Use {@link GMLNativeIndex}, which keeps the geometries in the database
+ * files and answers searches from an R-tree instead of scanning an HSQLDB table.
  */
+@Deprecated
 public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSupport {
 
     private final static Logger LOG = LogManager.getLogger(GMLHSQLIndex.class);
@@ -30,7 +30,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.collections.Collection;
 import org.exist.dom.persistent.*;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
 import org.exist.numbering.DLN;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
@@ -218,12 +218,12 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
 
     @Override
     protected Connection acquireConnection() throws SQLException {
-        return index.acquireConnection(this.broker);
+        return jdbcIndex.acquireConnection(this.broker);
     }
 
     @Override
     protected void releaseConnection(Connection conn) throws SQLException {
-        index.releaseConnection(this.broker);
+        jdbcIndex.releaseConnection(this.broker);
     }
 
     @Override
@@ -235,7 +235,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 refine_query_on_doc = true;
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
@@ -463,7 +463,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
                 doc  = it.next();
@@ -572,7 +572,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         String docConstraint = "";
         boolean refine_query_on_doc = false;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
+            if(contextSet.getDocumentSet().getDocumentCount() <= jdbcIndex.getMaxDocsInContextToRefineQuery()) {
                 DocumentImpl doc;
                 Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
                 doc  = it.next();
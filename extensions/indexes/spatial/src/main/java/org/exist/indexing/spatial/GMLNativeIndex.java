@@ -0,0 +1,145 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.backup.RawDataBackup;
+import org.exist.indexing.IndexWorker;
+import org.exist.indexing.RawBackupSupport;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.index.BFile;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.util.LockException;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileUtils;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spatial index stored in a {@link BFile} of the database.
+ *
+ * The file holds a record for each indexed geometry, keyed by document id and node id,
+ * and an {@link RTree} over the EPSG:4326 bounding boxes of the geometries. Searches
+ * walk the tree and only read the records of the candidates to check their exact geometry.
+ */
+public class GMLNativeIndex extends AbstractGMLIndex implements RawBackupSupport {
+
+    public static final short FILE_FORMAT_VERSION_ID = 1;
+
+    private final static Logger LOG = LogManager.getLogger(GMLNativeIndex.class);
+
+    protected BFile db;
+    private RTree tree;
+    private Path dataFile = null;
+
+    @Override
+    public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
+        super.configure(pool, dataDir, config);
+        String fileName = "spatial.dbx";
+        if (config.hasAttribute("file"))
+            fileName = config.getAttribute("file");
+        dataFile = dataDir.resolve(fileName);
+    }
+
+    @Override
+    public void open() throws DatabaseConfigurationException {
+        try {
+            db = new BFile(pool, (byte) 0, FILE_FORMAT_VERSION_ID, false, dataFile, pool.getCacheManager(), 1.4, 0.07);
+        } catch (DBException e) {
+            throw new DatabaseConfigurationException("Failed to create index file: " + dataFile.toAbsolutePath().toString() + ": " +
+                e.getMessage());
+        }
+        tree = new RTree(db);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Created GML index: " + dataFile.toAbsolutePath().toString());
+    }
+
+    @Override
+    public void close() throws DBException {
+        try (final ManagedLock<ReentrantLock> dbLock = pool.getLockManager().acquireBtreeWriteLock(db.getLockName())) {
+            tree.finishBulkLoad();
+        } catch (final LockException e) {
+            throw new DBException("Failed to acquire lock for '" + FileUtils.fileName(db.getFile()) + "': " + e.getMessage());
+        }
+        db.close();
+    }
+
+    @Override
+    public void sync() throws DBException {
+        //Store the entries of a bulk load in progress, so that the tree matches the records
+        try (final ManagedLock<ReentrantLock> dbLock = pool.getLockManager().acquireBtreeWriteLock(db.getLockName())) {
+            tree.flushBulkLoad();
+        } catch (final LockException e) {
+            throw new DBException("Failed to acquire lock for '" + FileUtils.fileName(db.getFile()) + "': " + e.getMessage());
+        }
+        db.flush();
+    }
+
+    @Override
+    public void remove() throws DBException {
+        db.closeAndRemove();
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        return getWorker(broker).checkIndex(broker);
+    }
+
+    @Override
+    public IndexWorker getWorker(DBBroker broker) {
+        return new GMLNativeIndexWorker(this, broker);
+    }
+
+    @Override
+    public BTree getStorage() {
+        return db;
+    }
+
+    /**
+     * Returns the R-tree over the bounding boxes of the geometries. The caller
+     * has to hold the lock of {@link #getStorage()} while using it.
+     *
+     * @return the R-tree
+     */
+    RTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void backupToArchive(final RawDataBackup backup) throws IOException {
+        // do not use try-with-resources here, closing the OutputStream will close the entire backup
+        try {
+            final OutputStream os = backup.newEntry(FileUtils.fileName(db.getFile()));
+            db.backupToStream(os);
+        } finally {
+            backup.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,771 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.apache.commons.io.input.UnsynchronizedByteArrayInputStream;
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.*;
+import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.IndexSpec;
+import org.exist.storage.NodePath;
+import org.exist.storage.btree.BTreeException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.exist.util.Occurrences;
+import org.exist.util.ReadOnlyException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.QueryRewriter;
+import org.exist.xquery.TerminatedException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Base64BinaryValueType;
+import org.exist.xquery.value.BinaryValueFromInputStream;
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.StringValue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Index worker of the {@link GMLNativeIndex}.
+ *
+ * Each geometry is stored as a record keyed by {@link #RECORD_PREFIX}, the document id and the
+ * node id, so that the records of a document can be found with a prefix query. The record holds
+ * the geometry in its original SRS and in EPSG:4326, as WKB, together with the properties which
+ * are returned by the <code>spatial:</code> functions. The EPSG:4326 bounding boxes are indexed
+ * by the {@link RTree} of the index.
+ */
+public class GMLNativeIndexWorker extends AbstractGMLIndexWorker {
+
+    private static final Logger LOG = LogManager.getLogger(GMLNativeIndexWorker.class);
+
+    static final byte RECORD_PREFIX = 2;
+
+    private final GMLNativeIndex nativeIndex;
+
+    public GMLNativeIndexWorker(GMLNativeIndex index, DBBroker broker) {
+        super(index, broker);
+        this.nativeIndex = index;
+    }
+
+    @Override
+    public void flush() {
+        if (!isDocumentGMLAware)
+            //Not concerned
+            return;
+        //Is the job already done ?
+        if (currentMode == ReindexMode.REMOVE_ALL_NODES && documentDeleted)
+            return;
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeWriteLock(nativeIndex.db.getLockName())) {
+            switch (currentMode) {
+                case STORE :
+                    saveDocumentNodes();
+                    break;
+                case REMOVE_SOME_NODES :
+                    dropDocumentNodes();
+                    break;
+                case REMOVE_ALL_NODES:
+                    removeDocument(currentDoc);
+                    documentDeleted = true;
+                    break;
+            }
+        } catch (final LockException e) {
+            LOG.error("Failed to acquire lock for '" + FileUtils.fileName(nativeIndex.db.getFile()) + "'", e);
+        } catch (final ReadOnlyException e) {
+            LOG.error("Read-only error for file '" + FileUtils.fileName(nativeIndex.db.getFile()) + "'", e);
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            LOG.error("Document: " + currentDoc + " NodeID: " + currentNodeId, e);
+        } finally {
+            geometries.clear();
+            currentNodeId = null;
+        }
+    }
+
+    private void saveDocumentNodes() throws IOException, ReadOnlyException {
+        if (geometries.isEmpty())
+            return;
+        final RTree tree = nativeIndex.getTree();
+        for (final Map.Entry<NodeId, SRSGeometry> entry : geometries.entrySet()) {
+            final NodeId nodeId = entry.getKey();
+            final SRSGeometry srsGeometry = entry.getValue();
+            final GeometryRecord record;
+            try {
+                final Geometry EPSG4326_geometry = transformGeometry(srsGeometry.getGeometry(), srsGeometry.getSRSName(), "EPSG:4326");
+                record = new GeometryRecord(currentDoc.getURI(), srsGeometry.getSRSName(), srsGeometry.getGeometry(), EPSG4326_geometry, wkbWriter);
+            } catch (final SpatialIndexException e) {
+                LOG.error("Unable to save geometry for node: " + nodeId, e);
+                continue;
+            }
+
+            final byte[] key = recordKey(currentDoc.getDocId(), nodeId);
+            final Value keyValue = new Value(key);
+            final GeometryRecord previous = readRecord(keyValue);
+            if (previous != null && !previous.EPSG4326_envelope.isNull()) {
+                tree.remove(previous.EPSG4326_envelope, key);
+            }
+            nativeIndex.db.put(keyValue, record.serialize(), true);
+
+            //Empty geometries have no bounding box to index
+            //During a reindex of the whole index, the entries are collected and packed at the end
+            if (!record.EPSG4326_envelope.isNull()) {
+                tree.add(record.EPSG4326_envelope, key);
+            }
+        }
+    }
+
+    private void dropDocumentNodes() {
+        if (currentNodeId != null && !geometries.containsKey(currentNodeId)) {
+            dropDocumentNode(currentNodeId);
+        }
+        for (final NodeId nodeId : geometries.keySet()) {
+            dropDocumentNode(nodeId);
+        }
+    }
+
+    private void dropDocumentNode(final NodeId nodeId) {
+        final byte[] key = recordKey(currentDoc.getDocId(), nodeId);
+        final Value keyValue = new Value(key);
+        final GeometryRecord record = readRecord(keyValue);
+        if (record == null) {
+            LOG.error("No data dropped for node " + nodeId.toString() + " from GML index");
+            return;
+        }
+        if (!record.EPSG4326_envelope.isNull()) {
+            nativeIndex.getTree().remove(record.EPSG4326_envelope, key);
+        }
+        nativeIndex.db.remove(keyValue);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropped data for node " + nodeId.toString() + " from GML index");
+    }
+
+    /**
+     * Removes the records of a document and their entries in the R-tree.
+     * The caller has to hold the write lock of the index file.
+     */
+    private void removeDocument(final DocumentImpl doc) throws IOException, BTreeException, TerminatedException {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropping GML index for document " + doc.getURI());
+        final RTree tree = nativeIndex.getTree();
+        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(documentPrefix(doc.getDocId())));
+        final int[] nodeCount = new int[1];
+        //Collect the entries first : the tree is stored in the same file, which must not change while it is scanned
+        final List<Envelope> envelopes = new ArrayList<>();
+        final List<byte[]> keys = new ArrayList<>();
+        nativeIndex.db.find(query, (key, value) -> {
+            final GeometryRecord record = GeometryRecord.deserialize(value.getData());
+            if (!record.EPSG4326_envelope.isNull()) {
+                envelopes.add(record.EPSG4326_envelope);
+                keys.add(key.getData());
+            }
+            nodeCount[0]++;
+            return true;
+        });
+        for (int i = 0; i < envelopes.size(); i++) {
+            tree.remove(envelopes.get(i), keys.get(i));
+        }
+        nativeIndex.db.removeAll(null, query);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropped " + nodeCount[0] + " nodes from GML index");
+    }
+
+    @Override
+    public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
+        boolean isCollectionGMLAware = false;
+        IndexSpec idxConf = collection.getIndexConfiguration(broker);
+        if (idxConf != null) {
+            Map collectionConfig = (Map) idxConf.getCustomIndexSpec(AbstractGMLIndex.ID);
+            isCollectionGMLAware = (collectionConfig != null);
+        }
+        if (!isCollectionGMLAware)
+            return;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Dropping GML index for collection " + collection.getURI());
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeWriteLock(nativeIndex.db.getLockName())) {
+            for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                removeDocument(i.next());
+            }
+            //Rebuilding the whole index : pack the tree once all the documents have been stored
+            if (reindex && nativeIndex.getTree().startBulkLoad() && LOG.isDebugEnabled())
+                LOG.debug("Bulk loading the R-tree while reindexing collection " + collection.getURI());
+        } catch (final LockException e) {
+            LOG.error("Failed to acquire lock for '" + FileUtils.fileName(nativeIndex.db.getFile()) + "'", e);
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            LOG.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void reindexFinished() {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeWriteLock(nativeIndex.db.getLockName())) {
+            nativeIndex.getTree().finishBulkLoad();
+        } catch (final LockException e) {
+            LOG.error("Failed to acquire lock for '" + FileUtils.fileName(nativeIndex.db.getFile()) + "'", e);
+        }
+    }
+
+    @Override
+    public NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp)
+            throws SpatialIndexException {
+        final Envelope queryEnvelope = EPSG4326_geometry.getEnvelopeInternal();
+        final NodeSet result = new ExtArrayNodeSet();
+        final List<NodeProxy> candidates = new ArrayList<>();
+        final List<byte[]> candidateKeys = new ArrayList<>();
+        final int[] disjointPostFiltered = new int[1];
+
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeReadLock(nativeIndex.db.getLockName())) {
+            //Nothing much we can do with the BBox for disjoint geometries : visit them all
+            final Envelope searchEnvelope = spatialOp == SpatialOperator.DISJOINT ? null : queryEnvelope;
+            nativeIndex.getTree().search(searchEnvelope, (envelope, key) -> {
+                if (!matchesEnvelope(envelope, queryEnvelope, spatialOp))
+                    return;
+                final NodeProxy p = toNodeProxy(broker, contextSet, key);
+                if (p == null)
+                    return;
+                //No BBox intersection : obviously disjoint
+                if (spatialOp == SpatialOperator.DISJOINT && !envelope.intersects(queryEnvelope)) {
+                    result.add(p);
+                    disjointPostFiltered[0]++;
+                    return;
+                }
+                candidates.add(p);
+                candidateKeys.add(key);
+            });
+
+            //Possible matches : check the geometry
+            for (int i = 0; i < candidates.size(); i++) {
+                final GeometryRecord record = readRecord(new Value(candidateKeys.get(i)));
+                if (record == null)
+                    continue;
+                final Geometry geometry = wkbReader.read(record.EPSG4326_wkb);
+                if (matchesGeometry(geometry, EPSG4326_geometry, spatialOp))
+                    result.add(candidates.get(i));
+            }
+        } catch (final LockException | ParseException e) {
+            throw new SpatialIndexException(e);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(candidates.size() + disjointPostFiltered[0] + " eligible geometries, " + result.getItemCount() + " selected" +
+                (spatialOp == SpatialOperator.DISJOINT ? " (" + disjointPostFiltered[0] + " post filtered)" : ""));
+        }
+        return result;
+    }
+
+    /**
+     * Checks if an indexed bounding box may satisfy the spatial operator.
+     */
+    private static boolean matchesEnvelope(final Envelope envelope, final Envelope queryEnvelope, final int spatialOp) {
+        switch (spatialOp) {
+            //BBoxes are equal
+            case SpatialOperator.EQUALS:
+                return envelope.equals(queryEnvelope);
+            case SpatialOperator.DISJOINT:
+                return true;
+            //BBoxes intersect themselves
+            case SpatialOperator.INTERSECTS:
+            case SpatialOperator.TOUCHES:
+            case SpatialOperator.CROSSES:
+            case SpatialOperator.OVERLAPS:
+                return envelope.intersects(queryEnvelope);
+            //BBox is fully within
+            case SpatialOperator.WITHIN:
+                return queryEnvelope.contains(envelope);
+            //BBox fully contains
+            case SpatialOperator.CONTAINS:
+                return envelope.contains(queryEnvelope);
+            default:
+                throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
+        }
+    }
+
+    private static boolean matchesGeometry(final Geometry geometry, final Geometry EPSG4326_geometry, final int spatialOp) {
+        switch (spatialOp) {
+            case SpatialOperator.EQUALS:
+                return geometry.equals(EPSG4326_geometry);
+            case SpatialOperator.DISJOINT:
+                return geometry.disjoint(EPSG4326_geometry);
+            case SpatialOperator.INTERSECTS:
+                return geometry.intersects(EPSG4326_geometry);
+            case SpatialOperator.TOUCHES:
+                return geometry.touches(EPSG4326_geometry);
+            case SpatialOperator.CROSSES:
+                return geometry.crosses(EPSG4326_geometry);
+            case SpatialOperator.WITHIN:
+                return geometry.within(EPSG4326_geometry);
+            case SpatialOperator.CONTAINS:
+                return geometry.contains(EPSG4326_geometry);
+            case SpatialOperator.OVERLAPS:
+                return geometry.overlaps(EPSG4326_geometry);
+            default:
+                throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
+        }
+    }
+
+    /**
+     * Returns the node of a record key if it is in the context set, or
+     * null if it is not, or if the broker has no right on its document.
+     */
+    private NodeProxy toNodeProxy(final DBBroker broker, final NodeSet contextSet, final byte[] key) {
+        final ByteBuffer buf = ByteBuffer.wrap(key);
+        buf.get();
+        final int docId = buf.getInt();
+        final int units = buf.getShort();
+        final NodeId nodeId = new DLN(units, key, buf.position());
+
+        final DocumentImpl doc;
+        if (contextSet != null) {
+            doc = contextSet.getDocumentSet().getDoc(docId);
+            if (doc == null)
+                return null;
+        } else {
+            //contextSet == null should be used to scan the whole index
+            final GeometryRecord record = readRecord(new Value(key));
+            if (record == null)
+                return null;
+            try {
+                doc = (DocumentImpl) broker.getXMLResource(record.documentURI);
+            } catch (final PermissionDeniedException e) {
+                LOG.debug(e);
+                //Ignore since the broker has no right on the document
+                return null;
+            }
+            if (doc == null)
+                return null;
+        }
+        final NodeProxy p = new NodeProxy(doc, nodeId);
+        //Node is in the context : check if it is accurate
+        //contextSet.contains(p) would have made more sense but there is a problem with
+        //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
+        if (contextSet != null && contextSet.get(p) == null)
+            return null;
+        return p;
+    }
+
+    @Override
+    public Geometry getGeometryForNode(DBBroker broker, NodeProxy p, boolean getEPSG4326) throws SpatialIndexException {
+        final GeometryRecord record = readRecord(p);
+        if (record == null)
+            //Nothing indexed
+            return null;
+        try {
+            return wkbReader.read(getEPSG4326 ? record.EPSG4326_wkb : record.wkb);
+        } catch (final ParseException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    @Override
+    public AtomicValue getGeometricPropertyForNode(XQueryContext context, NodeProxy p, String propertyName)
+            throws SpatialIndexException {
+        final GeometryRecord record = readRecord(p);
+        if (record == null)
+            //Nothing indexed
+            return AtomicValue.EMPTY_VALUE;
+        try {
+            switch (propertyName) {
+                case "WKT":
+                    return new StringValue(wktWriter.write(wkbReader.read(record.wkb)));
+                case "WKB":
+                    return BinaryValueFromInputStream.getInstance(context, new Base64BinaryValueType(), new UnsynchronizedByteArrayInputStream(record.wkb));
+                case "MINX":
+                    return new DoubleValue(record.envelope.getMinX());
+                case "MAXX":
+                    return new DoubleValue(record.envelope.getMaxX());
+                case "MINY":
+                    return new DoubleValue(record.envelope.getMinY());
+                case "MAXY":
+                    return new DoubleValue(record.envelope.getMaxY());
+                case "CENTROID_X":
+                    return new DoubleValue(record.centroidX);
+                case "CENTROID_Y":
+                    return new DoubleValue(record.centroidY);
+                case "AREA":
+                    return new DoubleValue(record.area);
+                case "EPSG4326_WKT":
+                    return new StringValue(wktWriter.write(wkbReader.read(record.EPSG4326_wkb)));
+                case "EPSG4326_WKB":
+                    return BinaryValueFromInputStream.getInstance(context, new Base64BinaryValueType(), new UnsynchronizedByteArrayInputStream(record.EPSG4326_wkb));
+                case "EPSG4326_MINX":
+                    return new DoubleValue(record.EPSG4326_envelope.getMinX());
+                case "EPSG4326_MAXX":
+                    return new DoubleValue(record.EPSG4326_envelope.getMaxX());
+                case "EPSG4326_MINY":
+                    return new DoubleValue(record.EPSG4326_envelope.getMinY());
+                case "EPSG4326_MAXY":
+                    return new DoubleValue(record.EPSG4326_envelope.getMaxY());
+                case "EPSG4326_CENTROID_X":
+                    return new DoubleValue(record.EPSG4326_centroidX);
+                case "EPSG4326_CENTROID_Y":
+                    return new DoubleValue(record.EPSG4326_centroidY);
+                case "EPSG4326_AREA":
+                    return new DoubleValue(record.EPSG4326_area);
+                case "SRS_NAME":
+                    return new StringValue(record.srsName);
+                case "GEOMETRY_TYPE":
+                    return new StringValue(record.geometryType);
+                case "IS_CLOSED":
+                    return BooleanValue.valueOf(record.isClosed);
+                case "IS_SIMPLE":
+                    return BooleanValue.valueOf(record.isSimple);
+                case "IS_VALID":
+                    return BooleanValue.valueOf(record.isValid);
+                default:
+                    throw new SpatialIndexException("Unknown geometric property: " + propertyName);
+            }
+        } catch (final ParseException | XPathException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        final RTree tree = nativeIndex.getTree();
+        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(new byte[] { RECORD_PREFIX }));
+        final boolean[] consistent = { true };
+        final long[] indexedCount = new long[1];
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeReadLock(nativeIndex.db.getLockName())) {
+            nativeIndex.db.find(query, (key, value) -> {
+                final byte[] keyData = key.getData();
+                final GeometryRecord record = GeometryRecord.deserialize(value.getData());
+                try {
+                    if (!checkRecord(broker, tree, keyData, record)) {
+                        consistent[0] = false;
+                        return false;
+                    }
+                } catch (final ParseException | SpatialIndexException | PermissionDeniedException e) {
+                    LOG.error(e.getMessage(), e);
+                    consistent[0] = false;
+                    return false;
+                }
+                if (!record.EPSG4326_envelope.isNull())
+                    indexedCount[0]++;
+                return true;
+            });
+            if (!consistent[0])
+                return false;
+            if (indexedCount[0] != tree.size()) {
+                LOG.info("R-tree has " + tree.size() + " entries, " + indexedCount[0] + " were expected");
+                return false;
+            }
+            if (!tree.check()) {
+                LOG.info("Inconsistent R-tree");
+                return false;
+            }
+            return true;
+        } catch (final LockException | IOException | BTreeException | TerminatedException e) {
+            LOG.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private boolean checkRecord(final DBBroker broker, final RTree tree, final byte[] key, final GeometryRecord record)
+            throws ParseException, SpatialIndexException, PermissionDeniedException {
+        final Geometry original_geometry = wkbReader.read(record.wkb);
+        final Geometry EPSG4326_geometry = wkbReader.read(record.EPSG4326_wkb);
+        if (!original_geometry.getGeometryType().equals(record.geometryType)) {
+            LOG.info("Inconsistent geometry type: " + record.geometryType);
+            return false;
+        }
+        if (!original_geometry.getEnvelopeInternal().equals(record.envelope)) {
+            LOG.info("Inconsistent bounding box: " + record.envelope);
+            return false;
+        }
+        if (!EPSG4326_geometry.getEnvelopeInternal().equals(record.EPSG4326_envelope)) {
+            LOG.info("Inconsistent bounding box: " + record.EPSG4326_envelope);
+            return false;
+        }
+        if (!transformGeometry(original_geometry, record.srsName, "EPSG:4326").equals(EPSG4326_geometry)) {
+            LOG.info("Transformed original geometry inconsistent with stored tranformed one");
+            return false;
+        }
+        if (!record.EPSG4326_envelope.isNull()) {
+            final boolean[] found = new boolean[1];
+            tree.search(record.EPSG4326_envelope, (envelope, treeKey) -> {
+                if (Arrays.equals(key, treeKey) && envelope.equals(record.EPSG4326_envelope))
+                    found[0] = true;
+            });
+            if (!found[0]) {
+                LOG.info("Geometry of " + record.documentURI + " is missing from the R-tree");
+                return false;
+            }
+        }
+
+        final DocumentImpl doc = (DocumentImpl) broker.getXMLResource(record.documentURI);
+        if (doc == null) {
+            LOG.info("Document " + record.documentURI + " doesn't exist");
+            return false;
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(key);
+        buf.get();
+        buf.getInt();
+        final NodeId nodeId = new DLN(buf.getShort(), key, buf.position());
+        final IStoredNode node = broker.objectWith(new NodeProxy(doc, nodeId));
+        if (node == null) {
+            LOG.info("Node " + nodeId + "doesn't exist");
+            return false;
+        }
+        if (!AbstractGMLIndexWorker.GML_NS.equals(node.getNamespaceURI())) {
+            LOG.info("GML indexed node (" + node.getNodeId()+ ") is in the '" +
+                    node.getNamespaceURI() + "' namespace. '" +
+                    AbstractGMLIndexWorker.GML_NS + "' was expected !");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map hints) {
+        //TODO : try to use contextSet
+        final Map<Geometry, Occurrences> occurences = new TreeMap<>();
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeReadLock(nativeIndex.db.getLockName())) {
+            //Collect the (normalized) geometries for each document
+            for (final Iterator<DocumentImpl> iDoc = docs.getDocumentIterator(); iDoc.hasNext();) {
+                final DocumentImpl doc = iDoc.next();
+                final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(documentPrefix(doc.getDocId())));
+                final List<Geometry> documentGeometries = new ArrayList<>();
+                nativeIndex.db.find(query, (key, value) -> {
+                    try {
+                        documentGeometries.add(wkbReader.read(GeometryRecord.deserialize(value.getData()).EPSG4326_wkb));
+                    } catch (final ParseException e) {
+                        LOG.error(e.getMessage(), e);
+                    }
+                    return true;
+                });
+                //Aggregate the occurences between different documents
+                for (final Geometry key : documentGeometries) {
+                    //Do we already have an occurence for this geometry ?
+                    Occurrences oc = occurences.get(key);
+                    if (oc != null) {
+                        //Yes : increment occurence count
+                        oc.addOccurrences(oc.getOccurrences() + 1);
+                        //...and reference the document
+                        oc.addDocument(doc);
+                    } else {
+                        //No : create a new occurence with EPSG4326_WKT as "term"
+                        oc = new Occurrences(wktWriter.write(key));
+                        //... with a count set to 1
+                        oc.addOccurrences(1);
+                        //... and reference the document
+                        oc.addDocument(doc);
+                        occurences.put(key, oc);
+                    }
+                }
+            }
+        } catch (final LockException | IOException | BTreeException | TerminatedException e) {
+            LOG.error(e.getMessage(), e);
+            return null;
+        }
+        final Occurrences[] result = new Occurrences[occurences.size()];
+        occurences.values().toArray(result);
+        return result;
+    }
+
+    @Override
+    public <T extends IStoredNode> IStoredNode getReindexRoot(IStoredNode<T> node, NodePath path, boolean insert, boolean includeSelf) {
+        return null;
+    }
+
+    @Override
+    public QueryRewriter getQueryRewriter(XQueryContext context) {
+        return null;
+    }
+
+    private LockManager lockManager() {
+        return broker.getBrokerPool().getLockManager();
+    }
+
+    private GeometryRecord readRecord(final NodeProxy p) throws SpatialIndexException {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager().acquireBtreeReadLock(nativeIndex.db.getLockName())) {
+            return readRecord(new Value(recordKey(p.getOwnerDocument().getDocId(), p.getNodeId())));
+        } catch (final LockException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    private GeometryRecord readRecord(final Value key) {
+        final Value value = nativeIndex.db.get(key);
+        if (value == null)
+            return null;
+        return GeometryRecord.deserialize(value.getData());
+    }
+
+    private static byte[] documentPrefix(final int docId) {
+        return ByteBuffer.allocate(5).put(RECORD_PREFIX).putInt(docId).array();
+    }
+
+    static byte[] recordKey(final int docId, final NodeId nodeId) {
+        final byte[] key = new byte[7 + nodeId.size()];
+        ByteBuffer.wrap(key).put(RECORD_PREFIX).putInt(docId).putShort((short) nodeId.units());
+        nodeId.serialize(key, 7);
+        return key;
+    }
+
+    /**
+     * The indexed data of a geometry.
+     */
+    private static class GeometryRecord {
+        final XmldbURI documentURI;
+        final String srsName;
+        final String geometryType;
+        final byte[] wkb;
+        final Envelope envelope;
+        final double centroidX;
+        final double centroidY;
+        final double area;
+        final byte[] EPSG4326_wkb;
+        final Envelope EPSG4326_envelope;
+        final double EPSG4326_centroidX;
+        final double EPSG4326_centroidY;
+        final double EPSG4326_area;
+        final boolean isClosed;
+        final boolean isSimple;
+        final boolean isValid;
+
+        GeometryRecord(final XmldbURI documentURI, final String srsName, final Geometry geometry,
+                final Geometry EPSG4326_geometry, final WKBWriter wkbWriter) {
+            this.documentURI = documentURI;
+            this.srsName = srsName;
+            this.geometryType = geometry.getGeometryType();
+            this.wkb = wkbWriter.write(geometry);
+            this.envelope = geometry.getEnvelopeInternal();
+            this.centroidX = geometry.isEmpty() ? Double.NaN : geometry.getCentroid().getCoordinate().x;
+            this.centroidY = geometry.isEmpty() ? Double.NaN : geometry.getCentroid().getCoordinate().y;
+            this.area = geometry.getArea();
+            this.EPSG4326_wkb = wkbWriter.write(EPSG4326_geometry);
+            this.EPSG4326_envelope = EPSG4326_geometry.getEnvelopeInternal();
+            this.EPSG4326_centroidX = EPSG4326_geometry.isEmpty() ? Double.NaN : EPSG4326_geometry.getCentroid().getCoordinate().x;
+            this.EPSG4326_centroidY = EPSG4326_geometry.isEmpty() ? Double.NaN : EPSG4326_geometry.getCentroid().getCoordinate().y;
+            this.EPSG4326_area = EPSG4326_geometry.getArea();
+            //As discussed earlier, all instances of SFS geometry classes
+            //are topologically closed by definition.
+            //For empty Curves, isClosed is defined to have the value false.
+            this.isClosed = !geometry.isEmpty();
+            this.isSimple = geometry.isSimple();
+            //Should always be true (the GML SAX parser makes a too severe check)
+            this.isValid = geometry.isValid();
+        }
+
+        private GeometryRecord(final DataInputStream is) throws IOException {
+            this.documentURI = XmldbURI.create(is.readUTF());
+            this.srsName = is.readUTF();
+            this.geometryType = is.readUTF();
+            this.wkb = readBytes(is);
+            this.envelope = readEnvelope(is);
+            this.centroidX = is.readDouble();
+            this.centroidY = is.readDouble();
+            this.area = is.readDouble();
+            this.EPSG4326_wkb = readBytes(is);
+            this.EPSG4326_envelope = readEnvelope(is);
+            this.EPSG4326_centroidX = is.readDouble();
+            this.EPSG4326_centroidY = is.readDouble();
+            this.EPSG4326_area = is.readDouble();
+            this.isClosed = is.readBoolean();
+            this.isSimple = is.readBoolean();
+            this.isValid = is.readBoolean();
+        }
+
+        static GeometryRecord deserialize(final byte[] data) {
+            try (final DataInputStream is = new DataInputStream(new UnsynchronizedByteArrayInputStream(data))) {
+                return new GeometryRecord(is);
+            } catch (final IOException e) {
+                //Very unlikely to happen : we read from memory
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] serialize() throws IOException {
+            final UnsynchronizedByteArrayOutputStream buf = new UnsynchronizedByteArrayOutputStream();
+            try (final DataOutputStream os = new DataOutputStream(buf)) {
+                os.writeUTF(documentURI.toString());
+                os.writeUTF(srsName);
+                os.writeUTF(geometryType);
+                writeBytes(os, wkb);
+                writeEnvelope(os, envelope);
+                os.writeDouble(centroidX);
+                os.writeDouble(centroidY);
+                os.writeDouble(area);
+                writeBytes(os, EPSG4326_wkb);
+                writeEnvelope(os, EPSG4326_envelope);
+                os.writeDouble(EPSG4326_centroidX);
+                os.writeDouble(EPSG4326_centroidY);
+                os.writeDouble(EPSG4326_area);
+                os.writeBoolean(isClosed);
+                os.writeBoolean(isSimple);
+                os.writeBoolean(isValid);
+            }
+            return buf.toByteArray();
+        }
+
+        private static byte[] readBytes(final DataInputStream is) throws IOException {
+            final byte[] data = new byte[is.readInt()];
+            is.readFully(data);
+            return data;
+        }
+
+        private static void writeBytes(final DataOutputStream os, final byte[] data) throws IOException {
+            os.writeInt(data.length);
+            os.write(data);
+        }
+
+        private static Envelope readEnvelope(final DataInputStream is) throws IOException {
+            if (!is.readBoolean())
+                return new Envelope();
+            return new Envelope(is.readDouble(), is.readDouble(), is.readDouble(), is.readDouble());
+        }
+
+        private static void writeEnvelope(final DataOutputStream os, final Envelope envelope) throws IOException {
+            os.writeBoolean(!envelope.isNull());
+            if (!envelope.isNull()) {
+                os.writeDouble(envelope.getMinX());
+                os.writeDouble(envelope.getMaxX());
+                os.writeDouble(envelope.getMinY());
+                os.writeDouble(envelope.getMaxY());
+            }
+        }
+    }
+}
@@ -0,0 +1,709 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.exist.storage.btree.Value;
+import org.exist.storage.index.BFile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An R-tree over the bounding boxes of the indexed geometries, stored in a {@link BFile}.
+ *
+ * Each node of the tree is stored as one value of the BFile, keyed by {@link #NODE_PREFIX}
+ * followed by the node number. Leaf entries hold the key of the record which describes
+ * the geometry, the records themselves are not managed by the tree. Nodes are split
+ * with Guttman's quadratic algorithm, and under-full nodes are dissolved and their
+ * entries reinserted when entries are removed. An empty tree can be bulk loaded
+ * with the Sort-Tile-Recursive algorithm, which packs the nodes completely, either
+ * at once with {@link #load(List, List)} or by collecting the entries passed to
+ * {@link #add(Envelope, byte[])} between {@link #startBulkLoad()} and {@link #finishBulkLoad()}.
+ *
+ * The caller is responsible for locking the BFile.
+ */
+class RTree {
+
+    static final byte META_PREFIX = 0;
+    static final byte NODE_PREFIX = 1;
+
+    static final int MAX_ENTRIES = 64;
+    static final int MIN_ENTRIES = MAX_ENTRIES * 2 / 5;
+
+    private static final Value META_KEY = new Value(new byte[] { META_PREFIX });
+    private static final long NO_ROOT = -1;
+
+    private final BFile db;
+
+    private long root = NO_ROOT;
+    private int height = 0;
+    private long nextNode = 0;
+    private long size = 0;
+
+    // leaf entries added during a bulk load which are not packed into the tree yet, null if not bulk loading
+    private List<Entry> pending = null;
+
+    RTree(final BFile db) {
+        this.db = db;
+        final Value meta = db.get(META_KEY);
+        if (meta != null) {
+            final ByteBuffer buf = ByteBuffer.wrap(meta.getData());
+            root = buf.getLong();
+            height = buf.getInt();
+            nextNode = buf.getLong();
+            size = buf.getLong();
+        }
+    }
+
+    /**
+     * Returns the number of leaf entries in the tree.
+     *
+     * @return the number of entries
+     */
+    long size() {
+        return pending == null ? size : size + pending.size();
+    }
+
+    boolean isEmpty() {
+        return root == NO_ROOT && (pending == null || pending.isEmpty());
+    }
+
+    /**
+     * Starts a bulk load if the tree is empty. Until {@link #finishBulkLoad()} is called,
+     * the entries passed to {@link #add(Envelope, byte[])} are collected and packed together.
+     *
+     * @return true if a bulk load is in progress
+     */
+    boolean startBulkLoad() {
+        if (pending == null && root == NO_ROOT) {
+            pending = new ArrayList<>();
+        }
+        return pending != null;
+    }
+
+    /**
+     * Adds a leaf entry, or collects it if a bulk load is in progress.
+     *
+     * @param envelope the bounding box of the geometry
+     * @param key the key of the record of the geometry
+     */
+    void add(final Envelope envelope, final byte[] key) {
+        if (pending != null) {
+            pending.add(new Entry(envelope, key));
+        } else {
+            insert(envelope, key);
+        }
+    }
+
+    /**
+     * Packs the entries collected by the bulk load so far, together with the ones
+     * already in the tree, so that they are stored in the BFile. The bulk load goes on.
+     */
+    void flushBulkLoad() {
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        final List<Entry> entries = new ArrayList<>((int) size + pending.size());
+        if (root != NO_ROOT) {
+            collect(read(root), entries);
+        }
+        entries.addAll(pending);
+        pending = new ArrayList<>();
+        load(entries);
+    }
+
+    /**
+     * Packs the entries collected by the bulk load and ends it.
+     */
+    void finishBulkLoad() {
+        flushBulkLoad();
+        pending = null;
+    }
+
+    /**
+     * Adds a leaf entry.
+     *
+     * @param envelope the bounding box of the geometry
+     * @param key the key of the record of the geometry
+     */
+    void insert(final Envelope envelope, final byte[] key) {
+        if (root == NO_ROOT) {
+            final Node node = newNode(0);
+            node.add(new Entry(envelope, key));
+            write(node);
+            root = node.id;
+            height = 1;
+        } else {
+            insert(new Entry(envelope, key), 0);
+        }
+        size++;
+        writeMeta();
+    }
+
+    /**
+     * Removes a leaf entry.
+     *
+     * @param envelope the bounding box of the geometry, as it was inserted
+     * @param key the key of the record of the geometry
+     *
+     * @return true if the entry was found and removed
+     */
+    boolean remove(final Envelope envelope, final byte[] key) {
+        if (root == NO_ROOT) {
+            return removePending(key);
+        }
+        final List<Node> orphans = new ArrayList<>();
+        final Node rootNode = read(root);
+        if (!remove(rootNode, envelope, key, orphans)) {
+            return removePending(key);
+        }
+        size--;
+
+        // reinsert the entries of the dissolved nodes at their former level, highest level first
+        orphans.sort(Comparator.comparingInt((Node orphan) -> orphan.level).reversed());
+        final int orphanLevel = orphans.isEmpty() ? 0 : orphans.get(0).level;
+
+        // shorten the tree while the root has a single child, but keep
+        // the levels the orphaned entries have to be inserted into
+        Node newRoot = rootNode;
+        while (newRoot.level > orphanLevel && newRoot.entries.size() == 1) {
+            final Node child = read(newRoot.entries.get(0).child);
+            delete(newRoot);
+            newRoot = child;
+            height--;
+        }
+        if (newRoot.entries.isEmpty()) {
+            delete(newRoot);
+            root = NO_ROOT;
+            height = 0;
+        } else {
+            root = newRoot.id;
+        }
+
+        for (final Node orphan : orphans) {
+            for (final Entry entry : orphan.entries) {
+                if (root == NO_ROOT) {
+                    final Node node = newNode(orphan.level);
+                    node.add(entry);
+                    write(node);
+                    root = node.id;
+                    height = orphan.level + 1;
+                } else {
+                    insert(entry, orphan.level);
+                }
+            }
+        }
+        writeMeta();
+        return true;
+    }
+
+    /**
+     * Replaces the content of the tree with the given leaf entries, packing them with
+     * the Sort-Tile-Recursive algorithm.
+     *
+     * @param envelopes the bounding boxes of the geometries
+     * @param keys the keys of the records of the geometries, in the same order as the envelopes
+     */
+    void load(final List<Envelope> envelopes, final List<byte[]> keys) {
+        if (pending != null) {
+            pending = new ArrayList<>();
+        }
+        final List<Entry> entries = new ArrayList<>(envelopes.size());
+        for (int i = 0; i < envelopes.size(); i++) {
+            entries.add(new Entry(envelopes.get(i), keys.get(i)));
+        }
+        load(entries);
+    }
+
+    /**
+     * Removes all the entries of the tree, including the ones collected by a bulk load.
+     */
+    void clear() {
+        if (pending != null) {
+            pending = new ArrayList<>();
+        }
+        clearNodes();
+    }
+
+    /**
+     * Reports the leaf entries whose bounding box intersects the given envelope.
+     *
+     * @param envelope the envelope to search, or null to report all the entries
+     * @param visitor receives the matching entries
+     */
+    void search(final Envelope envelope, final Visitor visitor) {
+        if (root != NO_ROOT) {
+            search(read(root), envelope, visitor);
+        }
+        if (pending != null) {
+            for (final Entry entry : pending) {
+                if (envelope == null || envelope.intersects(entry.envelope)) {
+                    visitor.visit(entry.envelope, entry.key);
+                }
+            }
+        }
+    }
+
+    private void load(List<Entry> entries) {
+        clearNodes();
+        if (entries.isEmpty()) {
+            return;
+        }
+        size = entries.size();
+        int level = 0;
+        while (true) {
+            final List<Node> nodes = pack(entries, level);
+            if (nodes.size() == 1) {
+                root = nodes.get(0).id;
+                height = level + 1;
+                break;
+            }
+            entries = new ArrayList<>(nodes.size());
+            for (final Node node : nodes) {
+                entries.add(new Entry(node.envelope(), node.id));
+            }
+            level++;
+        }
+        writeMeta();
+    }
+
+    private void clearNodes() {
+        if (root != NO_ROOT) {
+            clear(read(root));
+        }
+        root = NO_ROOT;
+        height = 0;
+        size = 0;
+        writeMeta();
+    }
+
+    /**
+     * Checks that the bounding box of every node covers the ones of its children
+     * and that the leaves are all at the same depth. The entries collected by
+     * a bulk load in progress are not checked.
+     *
+     * @return true if the tree is consistent
+     */
+    boolean check() {
+        if (root == NO_ROOT) {
+            return size == 0;
+        }
+        final Node rootNode = read(root);
+        final long[] count = new long[1];
+        return rootNode.level == height - 1 && check(rootNode, null, count) && count[0] == size;
+    }
+
+    interface Visitor {
+        /**
+         * Called for each matching entry.
+         *
+         * @param envelope the bounding box of the geometry
+         * @param key the key of the record of the geometry
+         */
+        void visit(Envelope envelope, byte[] key);
+    }
+
+    private boolean check(final Node node, final Envelope parentEnvelope, final long[] count) {
+        if (node.entries.isEmpty() || node.entries.size() > MAX_ENTRIES) {
+            return false;
+        }
+        if (parentEnvelope != null && !parentEnvelope.equals(node.envelope())) {
+            return false;
+        }
+        for (final Entry entry : node.entries) {
+            if (node.level == 0) {
+                count[0]++;
+            } else {
+                final Node child = read(entry.child);
+                if (child == null || child.level != node.level - 1 || !check(child, entry.envelope, count)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void search(final Node node, final Envelope envelope, final Visitor visitor) {
+        for (final Entry entry : node.entries) {
+            if (envelope == null || envelope.intersects(entry.envelope)) {
+                if (node.level == 0) {
+                    visitor.visit(entry.envelope, entry.key);
+                } else {
+                    search(read(entry.child), envelope, visitor);
+                }
+            }
+        }
+    }
+
+    private void collect(final Node node, final List<Entry> entries) {
+        if (node.level == 0) {
+            entries.addAll(node.entries);
+        } else {
+            for (final Entry entry : node.entries) {
+                collect(read(entry.child), entries);
+            }
+        }
+    }
+
+    private boolean removePending(final byte[] key) {
+        if (pending != null) {
+            for (final Iterator<Entry> i = pending.iterator(); i.hasNext(); ) {
+                if (Arrays.equals(i.next().key, key)) {
+                    i.remove();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void clear(final Node node) {
+        if (node.level > 0) {
+            for (final Entry entry : node.entries) {
+                clear(read(entry.child));
+            }
+        }
+        delete(node);
+    }
+
+    /**
+     * Inserts an entry into a node of the given level, splitting the nodes
+     * on the path from the root as needed.
+     */
+    private void insert(final Entry entry, final int level) {
+        final Node rootNode = read(root);
+        final Node sibling = insert(rootNode, entry, level);
+        if (sibling != null) {
+            final Node newRoot = newNode(rootNode.level + 1);
+            newRoot.add(new Entry(rootNode.envelope(), rootNode.id));
+            newRoot.add(new Entry(sibling.envelope(), sibling.id));
+            write(newRoot);
+            root = newRoot.id;
+            height++;
+        }
+    }
+
+    /**
+     * @return the new sibling of the node if it had to be split, null otherwise
+     */
+    private Node insert(final Node node, final Entry entry, final int level) {
+        if (node.level == level) {
+            node.add(entry);
+        } else {
+            final int index = chooseSubtree(node, entry.envelope);
+            final Entry childEntry = node.entries.get(index);
+            final Node child = read(childEntry.child);
+            final Node sibling = insert(child, entry, level);
+            childEntry.envelope = child.envelope();
+            if (sibling != null) {
+                node.add(new Entry(sibling.envelope(), sibling.id));
+            }
+        }
+
+        Node sibling = null;
+        if (node.entries.size() > MAX_ENTRIES) {
+            sibling = split(node);
+            write(sibling);
+        }
+        write(node);
+        return sibling;
+    }
+
+    private boolean remove(final Node node, final Envelope envelope, final byte[] key, final List<Node> orphans) {
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Entry entry = node.entries.get(i);
+            if (node.level == 0) {
+                if (Arrays.equals(entry.key, key)) {
+                    node.entries.remove(i);
+                    write(node);
+                    return true;
+                }
+            } else if (entry.envelope.contains(envelope)) {
+                final Node child = read(entry.child);
+                if (remove(child, envelope, key, orphans)) {
+                    if (child.entries.size() < MIN_ENTRIES) {
+                        node.entries.remove(i);
+                        delete(child);
+                        if (!child.entries.isEmpty()) {
+                            orphans.add(child);
+                        }
+                    } else {
+                        entry.envelope = child.envelope();
+                    }
+                    write(node);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Selects the entry whose bounding box needs the least enlargement to include
+     * the envelope, resolving ties by choosing the entry with the smallest area.
+     */
+    private static int chooseSubtree(final Node node, final Envelope envelope) {
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Envelope candidate = node.entries.get(i).envelope;
+            final double area = area(candidate);
+            final double enlargement = area(union(candidate, envelope)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits an overflowing node with Guttman's quadratic algorithm.
+     *
+     * @return the new sibling, which receives part of the entries of the node
+     */
+    private Node split(final Node node) {
+        final List<Entry> remaining = new ArrayList<>(node.entries);
+
+        // pick the two entries which would waste the most area if grouped together
+        int seed1 = 0;
+        int seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < remaining.size(); i++) {
+            for (int j = i + 1; j < remaining.size(); j++) {
+                final Envelope a = remaining.get(i).envelope;
+                final Envelope b = remaining.get(j).envelope;
+                final double waste = area(union(a, b)) - area(a) - area(b);
+                if (waste > worst) {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+
+        final Node sibling = newNode(node.level);
+        node.entries.clear();
+        final Entry first = remaining.get(seed1);
+        final Entry second = remaining.get(seed2);
+        remaining.remove(seed2);
+        remaining.remove(seed1);
+        node.add(first);
+        sibling.add(second);
+        Envelope envelope1 = new Envelope(first.envelope);
+        Envelope envelope2 = new Envelope(second.envelope);
+
+        while (!remaining.isEmpty()) {
+            // make sure that both groups get the minimum number of entries
+            if (node.entries.size() + remaining.size() == MIN_ENTRIES) {
+                node.entries.addAll(remaining);
+                break;
+            }
+            if (sibling.entries.size() + remaining.size() == MIN_ENTRIES) {
+                sibling.entries.addAll(remaining);
+                break;
+            }
+
+            // assign the entry with the greatest preference for one group
+            int next = 0;
+            double maxDifference = Double.NEGATIVE_INFINITY;
+            double nextEnlargement1 = 0;
+            double nextEnlargement2 = 0;
+            for (int i = 0; i < remaining.size(); i++) {
+                final Envelope candidate = remaining.get(i).envelope;
+                final double enlargement1 = area(union(envelope1, candidate)) - area(envelope1);
+                final double enlargement2 = area(union(envelope2, candidate)) - area(envelope2);
+                final double difference = Math.abs(enlargement1 - enlargement2);
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    next = i;
+                    nextEnlargement1 = enlargement1;
+                    nextEnlargement2 = enlargement2;
+                }
+            }
+            final Entry entry = remaining.remove(next);
+            final boolean toFirst;
+            if (nextEnlargement1 != nextEnlargement2) {
+                toFirst = nextEnlargement1 < nextEnlargement2;
+            } else if (area(envelope1) != area(envelope2)) {
+                toFirst = area(envelope1) < area(envelope2);
+            } else {
+                toFirst = node.entries.size() <= sibling.entries.size();
+            }
+            if (toFirst) {
+                node.add(entry);
+                envelope1.expandToInclude(entry.envelope);
+            } else {
+                sibling.add(entry);
+                envelope2.expandToInclude(entry.envelope);
+            }
+        }
+        return sibling;
+    }
+
+    /**
+     * Packs entries into nodes of the given level: the entries are sorted by the x of their center
+     * and cut into vertical slices, then each slice is sorted by the y of the centers and cut into nodes.
+     */
+    private List<Node> pack(final List<Entry> entries, final int level) {
+        final int nodeCount = (entries.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        final int sliceSize = sliceCount * MAX_ENTRIES;
+
+        entries.sort(Comparator.comparingDouble(entry -> entry.envelope.getMinX() + entry.envelope.getMaxX()));
+        final List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < entries.size(); sliceStart += sliceSize) {
+            final List<Entry> slice = entries.subList(sliceStart, Math.min(sliceStart + sliceSize, entries.size()));
+            slice.sort(Comparator.comparingDouble(entry -> entry.envelope.getMinY() + entry.envelope.getMaxY()));
+            for (int nodeStart = 0; nodeStart < slice.size(); nodeStart += MAX_ENTRIES) {
+                final Node node = newNode(level);
+                node.entries.addAll(slice.subList(nodeStart, Math.min(nodeStart + MAX_ENTRIES, slice.size())));
+                write(node);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static Envelope union(final Envelope a, final Envelope b) {
+        final Envelope union = new Envelope(a);
+        union.expandToInclude(b);
+        return union;
+    }
+
+    private static double area(final Envelope envelope) {
+        return envelope.getWidth() * envelope.getHeight();
+    }
+
+    private Node newNode(final int level) {
+        return new Node(nextNode++, level);
+    }
+
+    private static Value nodeKey(final long id) {
+        return new Value(ByteBuffer.allocate(9).put(NODE_PREFIX).putLong(id).array());
+    }
+
+    private Node read(final long id) {
+        final Value value = db.get(nodeKey(id));
+        if (value == null) {
+            return null;
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(value.getData());
+        final Node node = new Node(id, buf.getShort());
+        final int count = buf.getShort();
+        for (int i = 0; i < count; i++) {
+            final Envelope envelope = new Envelope(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+            if (node.level == 0) {
+                final byte[] key = new byte[buf.getShort()];
+                buf.get(key);
+                node.add(new Entry(envelope, key));
+            } else {
+                node.add(new Entry(envelope, buf.getLong()));
+            }
+        }
+        return node;
+    }
+
+    private void write(final Node node) {
+        int length = 4;
+        for (final Entry entry : node.entries) {
+            length += 32 + (node.level == 0 ? 2 + entry.key.length : 8);
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putShort((short) node.level);
+        buf.putShort((short) node.entries.size());
+        for (final Entry entry : node.entries) {
+            buf.putDouble(entry.envelope.getMinX());
+            buf.putDouble(entry.envelope.getMaxX());
+            buf.putDouble(entry.envelope.getMinY());
+            buf.putDouble(entry.envelope.getMaxY());
+            if (node.level == 0) {
+                buf.putShort((short) entry.key.length);
+                buf.put(entry.key);
+            } else {
+                buf.putLong(entry.child);
+            }
+        }
+        db.put(nodeKey(node.id), buf.array(), true);
+    }
+
+    private void delete(final Node node) {
+        db.remove(nodeKey(node.id));
+    }
+
+    private void writeMeta() {
+        final ByteBuffer buf = ByteBuffer.allocate(28);
+        buf.putLong(root);
+        buf.putInt(height);
+        buf.putLong(nextNode);
+        buf.putLong(size);
+        db.put(META_KEY, buf.array(), true);
+    }
+
+    private static class Node {
+        final long id;
+        final int level;
+        final List<Entry> entries = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(final long id, final int level) {
+            this.id = id;
+            this.level = level;
+        }
+
+        void add(final Entry entry) {
+            entries.add(entry);
+        }
+
+        Envelope envelope() {
+            final Envelope envelope = new Envelope();
+            for (final Entry entry : entries) {
+                envelope.expandToInclude(entry.envelope);
+            }
+            return envelope;
+        }
+    }
+
+    private static class Entry {
+        Envelope envelope;
+        final long child;
+        final byte[] key;
+
+        Entry(final Envelope envelope, final byte[] key) {
+            this.envelope = envelope;
+            this.child = -1;
+            this.key = key;
+        }
+
+        Entry(final Envelope envelope, final long child) {
+            this.envelope = envelope;
+            this.child = child;
+            this.key = null;
+        }
+    }
+}
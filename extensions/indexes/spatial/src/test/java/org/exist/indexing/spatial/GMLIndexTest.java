@@ -28,10 +28,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Optional;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -44,10 +41,12 @@ import org.exist.collections.CollectionConfigurationException;
 import org.exist.collections.CollectionConfigurationManager;
 import org.exist.collections.IndexInfo;
 import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.DefaultDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.LockedDocument;
+import org.exist.dom.persistent.MutableDocumentSet;
 import org.exist.dom.persistent.NodeSet;
-import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.indexing.spatial.AbstractGMLIndex.SpatialOperator;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
@@ -55,8 +54,10 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.Txn;
 import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.ExistSAXParserFactory;
 import org.exist.util.LockException;
+import org.exist.util.Occurrences;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
@@ -65,6 +66,12 @@ import org.geotools.gml.GMLFilterDocument;
 import org.geotools.gml.GMLFilterGeometry;
 import org.geotools.gml.GMLHandlerJTS;
 import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.AfterParam;
+import org.junit.runners.Parameterized.BeforeParam;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 import org.xml.sax.*;
 import org.xml.sax.helpers.XMLFilterImpl;
 
@@ -73,12 +80,29 @@ import com.vividsolutions.jts.geom.Geometry;
 import static org.junit.Assert.*;
 
 /**
+ * Runs against both the native R-tree and the HSQL implementation of the spatial index,
+ * each configured by its own conf.xml.
+ *
  * @author <a href="mailto:pierrick.brihaye@free.fr">Pierrick Brihaye</a>
  */
+@RunWith(Parameterized.class)
 public class GMLIndexTest {
 
-    @ClassRule
-    public static final ExistEmbeddedServer server = new ExistEmbeddedServer(true, true);
+    @Parameters(name = "{0}")
+    public static java.util.Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { "native", "conf.xml" },
+                { "hsql", "conf-hsql.xml" }
+        });
+    }
+
+    @Parameter
+    public String indexImplementation;
+
+    @Parameter(1)
+    public String configFile;
+
+    private static ExistEmbeddedServer server;
 
     private static final String FILES[] = { "15385-SS7886-5i1.gml" };
 
@@ -110,8 +134,11 @@ public class GMLIndexTest {
 
     private Geometry currentGeometry;
 
-    @BeforeClass
-    public static void setup() throws EXistException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, URISyntaxException, LockException {
+    @BeforeParam
+    public static void setup(final String indexImplementation, final String configFile) throws EXistException, DatabaseConfigurationException, PermissionDeniedException, IOException, SAXException, CollectionConfigurationException, URISyntaxException, LockException {
+        server = new ExistEmbeddedServer(null, Paths.get(GMLIndexTest.class.getResource("/" + configFile).toURI()), null, true, true);
+        server.startDb();
+
         final BrokerPool pool = server.getBrokerPool();
         try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
              final Txn transaction = pool.getTransactionManager().beginTransaction();
@@ -139,23 +166,32 @@ public class GMLIndexTest {
         }
     }
 
-    @AfterClass
+    @AfterParam
     public static void tearDown() throws EXistException, PermissionDeniedException, IOException, TriggerException {
-        final BrokerPool pool = server.getBrokerPool();
-        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
-             final Txn transaction = pool.getTransactionManager().beginTransaction();
-             final Collection testCollection = broker.openCollection(TEST_COLLECTION_URI, Lock.LockMode.WRITE_LOCK)) {
+        if (server == null) {
+            return;
+        }
 
-            if (testCollection != null) {
-                broker.removeCollection(transaction, testCollection);
-            }
+        try {
+            final BrokerPool pool = server.getBrokerPool();
+            try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                 final Txn transaction = pool.getTransactionManager().beginTransaction();
+                 final Collection testCollection = broker.openCollection(TEST_COLLECTION_URI, Lock.LockMode.WRITE_LOCK)) {
 
-            transaction.commit();
+                if (testCollection != null) {
+                    broker.removeCollection(transaction, testCollection);
+                }
+
+                transaction.commit();
+            }
+        } finally {
+            server.stopDb();
+            server = null;
         }
     }
 
     @Test
-    public void indexDocument() throws EXistException, CollectionConfigurationException, PermissionDeniedException, IOException, SAXException, LockException, URISyntaxException, SQLException {
+    public void indexDocument() throws EXistException, CollectionConfigurationException, PermissionDeniedException, IOException, SAXException, LockException, URISyntaxException {
         final BrokerPool pool = server.getBrokerPool();
 
         try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
@@ -180,31 +216,18 @@ public class GMLIndexTest {
 //                }
 //            }
 
-            GMLHSQLIndexWorker indexWorker = (GMLHSQLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndexWorker indexWorker = (AbstractGMLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLIndex.ID);
             //Unplugged
             if (indexWorker != null) {
-                Connection conn = null;
-                try {
-                    conn = indexWorker.acquireConnection();
-                    for (int i = 0; i < FILES.length; i++) {
-                        try (final LockedDocument lockedDoc = broker.getXMLResource(TEST_COLLECTION_URI.append(FILES[i]), Lock.LockMode.READ_LOCK)) {
-                            final DocumentImpl doc = lockedDoc.getDocument();
-
-                            PreparedStatement ps = conn.prepareStatement(
-                                    "SELECT * FROM " + GMLHSQLIndex.TABLE_NAME + " WHERE DOCUMENT_URI = ?;"
-                            );
-                            ps.setString(1, testCollection.getURI().append(doc.getURI()).getRawCollectionPath());
-                            ResultSet rs = ps.executeQuery();
-                            while (rs.next()) {
-                                //Let be sure we have the right count
-                            }
-                            int count = rs.getRow();
-                            ps.close();
-                            assertEquals(0, count);
-                        }
+                for (int i = 0; i < FILES.length; i++) {
+                    try (final LockedDocument lockedDoc = broker.getXMLResource(TEST_COLLECTION_URI.append(FILES[i]), Lock.LockMode.READ_LOCK)) {
+                        final DocumentImpl doc = lockedDoc.getDocument();
+                        final MutableDocumentSet docs = new DefaultDocumentSet();
+                        docs.add(doc);
+                        final Occurrences[] occurrences = indexWorker.scanIndex(null, docs, null, null);
+                        assertNotNull(occurrences);
+                        assertTrue(occurrences.length > 0);
                     }
-                } finally {
-                    indexWorker.releaseConnection(conn);
                 }
             }
 
@@ -216,7 +239,7 @@ public class GMLIndexTest {
     public void checkIndex() throws EXistException {
         final BrokerPool pool = server.getBrokerPool();
         try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
-            AbstractGMLJDBCIndex index = (AbstractGMLJDBCIndex) pool.getIndexManager().getIndexById(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndex index = (AbstractGMLIndex) pool.getIndexManager().getIndexById(AbstractGMLIndex.ID);
             //Unplugged
             if (index != null) {
                 assertTrue(index.checkIndex(broker));
@@ -256,7 +279,7 @@ public class GMLIndexTest {
 
         final BrokerPool pool = server.getBrokerPool();
         try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
-            AbstractGMLJDBCIndexWorker indexWorker = (AbstractGMLJDBCIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLJDBCIndex.ID);
+            AbstractGMLIndexWorker indexWorker = (AbstractGMLIndexWorker) broker.getIndexController().getWorkerByIndexId(AbstractGMLIndex.ID);
             //Unplugged
             if (indexWorker != null) {
                 SAXParserFactory factory = ExistSAXParserFactory.getSAXParserFactory();
@@ -0,0 +1,205 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.index.BFile;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@link RTree} against a brute force search over the same entries.
+ */
+public class RTreeTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer server = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final long SEED = 20260917L;
+
+    private BFile db;
+    private RTree tree;
+
+    // the expected content of the tree
+    private final Map<Integer, Envelope> entries = new HashMap<>();
+
+    @Before
+    public void openTree() throws Exception {
+        final BrokerPool pool = server.getBrokerPool();
+        db = new BFile(pool, (byte) 0, GMLNativeIndex.FILE_FORMAT_VERSION_ID, false,
+                temporaryFolder.getRoot().toPath().resolve("rtree.dbx"), pool.getCacheManager(), 1.4, 0.07);
+        tree = new RTree(db);
+    }
+
+    @After
+    public void closeTree() throws DBException {
+        db.closeAndRemove();
+    }
+
+    @Test
+    public void randomInsertRemove() {
+        final Random random = new Random(SEED);
+        final List<Integer> ids = new ArrayList<>();
+        int nextId = 0;
+        for (int op = 0; op < 5000; op++) {
+            if (ids.isEmpty() || random.nextInt(3) > 0) {
+                final int id = nextId++;
+                final Envelope envelope = randomEnvelope(random);
+                tree.insert(envelope, key(id));
+                entries.put(id, envelope);
+                ids.add(id);
+            } else {
+                final int id = ids.remove(random.nextInt(ids.size()));
+                assertTrue(tree.remove(entries.remove(id), key(id)));
+            }
+            if (op % 250 == 0) {
+                assertConsistent(random);
+            }
+        }
+        assertConsistent(random);
+
+        // remove everything left
+        for (final int id : ids) {
+            assertTrue(tree.remove(entries.remove(id), key(id)));
+        }
+        assertTrue(tree.isEmpty());
+        assertConsistent(random);
+        assertFalse(tree.remove(new Envelope(0, 1, 0, 1), key(0)));
+    }
+
+    @Test
+    public void bulkLoad() {
+        final Random random = new Random(SEED);
+        assertTrue(tree.startBulkLoad());
+        int nextId = 0;
+        for (; nextId < 3000; nextId++) {
+            add(random, nextId);
+        }
+
+        // the entries collected so far are already found by searches
+        assertSearch(random);
+
+        tree.flushBulkLoad();
+        assertConsistent(random);
+
+        for (; nextId < 5000; nextId++) {
+            add(random, nextId);
+        }
+
+        // remove entries which are in the tree and entries which are still collected
+        for (int id = 0; id < nextId; id += 7) {
+            assertTrue(tree.remove(entries.remove(id), key(id)));
+        }
+        assertSearch(random);
+
+        tree.finishBulkLoad();
+        assertConsistent(random);
+
+        // the tree is updated entry by entry once the bulk load is over
+        assertFalse(tree.startBulkLoad());
+        add(random, nextId);
+        assertConsistent(random);
+    }
+
+    @Test
+    public void reopen() {
+        final Random random = new Random(SEED);
+        for (int id = 0; id < 1000; id++) {
+            final Envelope envelope = randomEnvelope(random);
+            tree.insert(envelope, key(id));
+            entries.put(id, envelope);
+        }
+        tree = new RTree(db);
+        assertConsistent(random);
+    }
+
+    private void add(final Random random, final int id) {
+        final Envelope envelope = randomEnvelope(random);
+        tree.add(envelope, key(id));
+        entries.put(id, envelope);
+    }
+
+    private void assertConsistent(final Random random) {
+        assertTrue(tree.check());
+        assertSearch(random);
+    }
+
+    private void assertSearch(final Random random) {
+        assertEquals(entries.size(), tree.size());
+        assertEquals(entries.keySet(), search(null));
+        for (int i = 0; i < 20; i++) {
+            final Envelope query = randomEnvelope(random);
+            final Set<Integer> expected = new HashSet<>();
+            for (final Map.Entry<Integer, Envelope> entry : entries.entrySet()) {
+                if (query.intersects(entry.getValue())) {
+                    expected.add(entry.getKey());
+                }
+            }
+            assertEquals(expected, search(query));
+        }
+    }
+
+    private Set<Integer> search(final Envelope query) {
+        final Set<Integer> found = new HashSet<>();
+        tree.search(query, (envelope, key) -> {
+            final int id = ByteBuffer.wrap(key).getInt();
+            assertTrue("entry " + id + " reported twice", found.add(id));
+            assertEquals(entries.get(id), envelope);
+        });
+        return found;
+    }
+
+    private static Envelope randomEnvelope(final Random random) {
+        final double x = random.nextDouble() * 360 - 180;
+        final double y = random.nextDouble() * 180 - 90;
+        // mostly small boxes, and a few points and large boxes
+        final double size = random.nextInt(10) == 0 ? random.nextDouble() * 60 : random.nextDouble();
+        return random.nextInt(20) == 0 ? new Envelope(x, x, y, y) : new Envelope(x, x + size, y, y + size);
+    }
+
+    private static byte[] key(final int id) {
+        return ByteBuffer.allocate(4).putInt(id).array();
+    }
+}
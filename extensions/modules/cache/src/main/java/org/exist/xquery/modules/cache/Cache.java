@@ -22,14 +22,32 @@
 package org.exist.xquery.modules.cache;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.exist.dom.memtree.DocumentImpl;
+import org.exist.dom.memtree.NodeImpl;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NodeValue;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.StringValue;
+import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The cache itself.
@@ -39,15 +57,34 @@ import java.util.concurrent.TimeUnit;
  */
 class Cache {
 
+    // rough estimates of the memory used by an item, for weighing entries
+    private static final int ITEM_WEIGHT = 64;
+    private static final int MEMTREE_NODE_WEIGHT = 64;
+
 	private final CacheConfig config;
-	private final com.github.benmanes.caffeine.cache.Cache<String, Sequence> store;
+	private final com.github.benmanes.caffeine.cache.Cache<String, Entry> store;
+
+    // keys which are being loaded by {@link #memoize(String, Loader, long)}
+    private final Map<String, Load> loads = new ConcurrentHashMap<>();
+
+    // the loads of any cache which threads are waiting for, to detect loads which wait for each other
+    private static final Map<Thread, Load> waiting = new ConcurrentHashMap<>();
+
+    // incremented whenever the cache is invalidated, so that loads which started before are not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
 
 	public Cache(final CacheConfig config) {
 		this.config = config;
-        final Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder();
+        final Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder().recordStats();
 
         config.getMaximumSize().map(cacheBuilder::maximumSize);
-        config.getExpireAfterAccess().map(ms -> cacheBuilder.expireAfterAccess(ms, TimeUnit.MILLISECONDS));
+        config.getMaximumWeight().map(weight -> cacheBuilder.maximumWeight(weight).weigher((String key, Entry entry) -> entry.weight));
+        cacheBuilder.expireAfter(new EntryExpiry(config));
 
         this.store = cacheBuilder.build();
 	}
@@ -56,8 +93,127 @@ class Cache {
 		return config;
 	}
 
+    /**
+     * Clears the cache if the resource or collection which changed is in, or
+     * contains, one of the collections of the configuration.
+     *
+     * @param uri the URI of the document or collection which changed
+     */
+    void invalidate(final XmldbURI uri) {
+        for (final XmldbURI collection : config.getInvalidateCollections()) {
+            if (uri.startsWith(collection) || collection.startsWith(uri)) {
+                invalidationCount.increment();
+                clear();
+                return;
+            }
+        }
+    }
+
     public Sequence put(final String key, final Sequence value) {
-	    return store.asMap().put(key, value);
+	    return put(key, value, -1);
+    }
+
+    /**
+     * @param key the key
+     * @param value the value
+     * @param ttl the time in milliseconds after which the entry expires, or -1 to use the configuration of the cache
+     *
+     * @return the previous value
+     */
+    public Sequence put(final String key, final Sequence value, final long ttl) {
+	    final Entry prevEntry = store.asMap().put(key, new Entry(value, ttl));
+	    return prevEntry == null ? null : prevEntry.value;
+    }
+
+    /**
+     * Returns the value of the key, and loads and stores it if it is missing.
+     *
+     * If several callers ask for the same missing key at the same time,
+     * only the first calls the loader and the others wait for its value.
+     *
+     * @param key the key
+     * @param loader computes the missing value
+     * @param ttl the time in milliseconds after which the entry expires, or -1 to use the configuration of the cache
+     *
+     * @return the value of the key
+     *
+     * @throws XPathException if the loader fails, or requires the value of the same key,
+     *     either itself or through the loaders of other callers
+     */
+    public Sequence memoize(final String key, final Loader loader, final long ttl) throws XPathException {
+        while (true) {
+            final Entry entry = store.getIfPresent(key);
+            if (entry != null) {
+                return entry.value;
+            }
+
+            final Load load = new Load();
+            final Load existing = loads.putIfAbsent(key, load);
+            if (existing == null) {
+                return load(key, load, loader, ttl);
+            }
+
+            final Thread current = Thread.currentThread();
+            waiting.put(current, existing);
+            try {
+                if (waitsFor(existing, current)) {
+                    throw new XPathException(CacheModule.RECURSIVE_LOAD, "The value for key '" + key + "' depends on itself");
+                }
+                return existing.future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XPathException(CacheModule.LOAD_INTERRUPTED, "Interrupted while waiting for the value of key '" + key + "'", e);
+            } catch (final ExecutionException e) {
+                // the loader of the other caller failed, so try to load it ourselves
+            } finally {
+                waiting.remove(current);
+            }
+        }
+    }
+
+    /**
+     * Follows the loads which the loading threads are waiting for, starting at the given load.
+     *
+     * @return true if the thread is among the loading threads, i.e. waiting for the load would never end
+     */
+    private static boolean waitsFor(Load load, final Thread thread) {
+        final Set<Thread> visited = new HashSet<>();
+        while (load != null && visited.add(load.thread)) {
+            if (load.thread == thread) {
+                return true;
+            }
+            load = waiting.get(load.thread);
+        }
+        return false;
+    }
+
+    private Sequence load(final String key, final Load load, final Loader loader, final long ttl) throws XPathException {
+        final long loadGeneration = generation.get();
+        final long start = System.nanoTime();
+        Sequence value = null;
+        Throwable failure = null;
+        try {
+            value = loader.load();
+            loadCount.increment();
+            totalLoadTime.add(System.nanoTime() - start);
+            if (generation.get() == loadGeneration) {
+                store.put(key, new Entry(value, ttl));
+            }
+            return value;
+        } catch (final XPathException | RuntimeException | Error e) {
+            loadFailureCount.increment();
+            totalLoadTime.add(System.nanoTime() - start);
+            failure = e;
+            throw e;
+        } finally {
+            // remove the load before completing it, so that failed waiters do not find it again
+            loads.remove(key, load);
+            if (failure == null) {
+                load.future.complete(value);
+            } else {
+                load.future.completeExceptionally(failure);
+            }
+        }
     }
 
     public Sequence list(final String[] keys) throws XPathException {
@@ -65,15 +221,15 @@ class Cache {
 
 	    if(keys.length == 0) {
 	        // all keys
-            for(final Sequence value : store.asMap().values()) {
-                values.addAll(value);
+            for(final Entry entry : store.asMap().values()) {
+                values.addAll(entry.value);
             }
         } else {
 	        // just the specified keys
-            final Map<String, Sequence> entries = store.getAllPresent(Arrays.asList(keys));
+            final Map<String, Entry> entries = store.getAllPresent(Arrays.asList(keys));
 
-            for (final Sequence value : entries.values()) {
-                values.addAll(value);
+            for (final Entry entry : entries.values()) {
+                values.addAll(entry.value);
             }
         }
 
@@ -89,28 +245,157 @@ class Cache {
     }
 
     public Sequence get(final String key) {
-	    final Sequence value = store.getIfPresent(key);
-	    if(value == null) {
+	    final Entry entry = store.getIfPresent(key);
+	    if(entry == null) {
 	        return Sequence.EMPTY_SEQUENCE;
         } else {
-	        return value;
+	        return entry.value;
         }
     }
 
     public Sequence remove(final String key) {
-        final Sequence prevValue = store.asMap().remove(key);
-        if(prevValue == null) {
+        final Entry prevEntry = store.asMap().remove(key);
+        if(prevEntry == null) {
             return Sequence.EMPTY_SEQUENCE;
         } else {
-            return prevValue;
+            return prevEntry.value;
         }
     }
 
     public void clear() {
+        generation.incrementAndGet();
         store.invalidateAll();
     }
 
     public void cleanup() {
 	    store.cleanUp();
     }
+
+    /**
+     * Clears the cache.
+     */
+    public void destroy() {
+        clear();
+    }
+
+    public CacheStats getStats() {
+        return store.stats();
+    }
+
+    public long getEstimatedSize() {
+        return store.estimatedSize();
+    }
+
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    public long getTotalLoadTime() {
+        return totalLoadTime.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    /**
+     * Estimates the memory used by a sequence in bytes.
+     */
+    static int weigh(final Sequence value) {
+        long weight = 0;
+        final Set<DocumentImpl> memtreeDocs = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            for (final SequenceIterator i = value.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                weight += ITEM_WEIGHT;
+                if (Type.subTypeOf(item.getType(), Type.NODE)) {
+                    if (((NodeValue) item).getImplementationType() == NodeValue.IN_MEMORY_NODE) {
+                        final NodeImpl node = (NodeImpl) item;
+                        final DocumentImpl doc = node.getNodeType() == org.w3c.dom.Node.DOCUMENT_NODE ? (DocumentImpl) node : node.getOwnerDocument();
+                        if (memtreeDocs.add(doc)) {
+                            weight += (long) doc.getSize() * MEMTREE_NODE_WEIGHT;
+                        }
+                    }
+                } else if (Type.subTypeOf(item.getType(), Type.ATOMIC)) {
+                    weight += 2L * item.getStringValue().length();
+                }
+            }
+        } catch (final XPathException e) {
+            // keep the estimate so far
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes a value which is missing from the cache.
+     */
+    @FunctionalInterface
+    interface Loader {
+        Sequence load() throws XPathException;
+    }
+
+    private static class Load {
+        final Thread thread = Thread.currentThread();
+        final CompletableFuture<Sequence> future = new CompletableFuture<>();
+    }
+
+    private static class Entry {
+        final Sequence value;
+        final int weight;
+        // time to live in nanoseconds, or -1
+        final long ttl;
+        // set by the expiry when the entry is stored
+        volatile long writeTime;
+
+        Entry(final Sequence value, final long ttl) {
+            this.value = value;
+            this.weight = weigh(value);
+            this.ttl = ttl < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(ttl);
+        }
+    }
+
+    /**
+     * Combines the expiry after write, either of the entry or of the configuration,
+     * with the expiry after access of the configuration.
+     */
+    private static class EntryExpiry implements Expiry<String, Entry> {
+        private final long expireAfterWrite;
+        private final long expireAfterAccess;
+
+        EntryExpiry(final CacheConfig config) {
+            this.expireAfterWrite = config.getExpireAfterWrite().map(TimeUnit.MILLISECONDS::toNanos).orElse(Long.MAX_VALUE);
+            this.expireAfterAccess = config.getExpireAfterAccess().map(TimeUnit.MILLISECONDS::toNanos).orElse(Long.MAX_VALUE);
+        }
+
+        private long afterWrite(final Entry entry) {
+            return entry.ttl >= 0 ? entry.ttl : expireAfterWrite;
+        }
+
+        @Override
+        public long expireAfterCreate(final String key, final Entry entry, final long currentTime) {
+            entry.writeTime = currentTime;
+            return Math.min(afterWrite(entry), expireAfterAccess);
+        }
+
+        @Override
+        public long expireAfterUpdate(final String key, final Entry entry, final long currentTime, final long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final String key, final Entry entry, final long currentTime, final long currentDuration) {
+            if (expireAfterAccess == Long.MAX_VALUE) {
+                return currentDuration;
+            }
+            final long afterWrite = afterWrite(entry);
+            if (afterWrite == Long.MAX_VALUE) {
+                return expireAfterAccess;
+            }
+            return Math.max(0, Math.min(entry.writeTime + afterWrite - currentTime, expireAfterAccess));
+        }
+    }
 }
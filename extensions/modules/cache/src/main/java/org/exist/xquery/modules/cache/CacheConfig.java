@@ -21,6 +21,10 @@
  */
 package org.exist.xquery.modules.cache;
 
+import org.exist.xmldb.XmldbURI;
+
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -32,7 +36,10 @@ public class CacheConfig {
 
     private final Optional<Permissions> permissions;
     private final Optional<Long> maximumSize;
+    private final Optional<Long> maximumWeight;
     private final Optional<Long> expireAfterAccess;
+    private final Optional<Long> expireAfterWrite;
+    private final List<XmldbURI> invalidateCollections;
 
     public CacheConfig() {
         this(Optional.empty(), Optional.empty(), Optional.empty());
@@ -44,9 +51,27 @@ public class CacheConfig {
      * @param expireAfterAccess The time in milliseconds after the entry is last accessed, that it should expire
      */
     public CacheConfig(final Optional<Permissions> permissions, final Optional<Long> maximumSize, final Optional<Long> expireAfterAccess) {
+        this(permissions, maximumSize, Optional.empty(), expireAfterAccess, Optional.empty(), Collections.emptyList());
+    }
+
+    /**
+     * @param permissions Any restrictions on cache operations
+     * @param maximumSize The maximimum number of entries in the cache
+     * @param maximumWeight The maximum estimated memory in bytes used by the entries of the cache
+     * @param expireAfterAccess The time in milliseconds after the entry is last accessed, that it should expire
+     * @param expireAfterWrite The time in milliseconds after the entry is stored, that it should expire
+     * @param invalidateCollections The collections whose documents the entries depend upon, the cache is cleared
+     *     when a document or collection in one of these collections is added, updated, moved or removed
+     */
+    public CacheConfig(final Optional<Permissions> permissions, final Optional<Long> maximumSize,
+            final Optional<Long> maximumWeight, final Optional<Long> expireAfterAccess,
+            final Optional<Long> expireAfterWrite, final List<XmldbURI> invalidateCollections) {
         this.permissions = permissions;
         this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
         this.expireAfterAccess = expireAfterAccess;
+        this.expireAfterWrite = expireAfterWrite;
+        this.invalidateCollections = invalidateCollections;
     }
 
     public Optional<Permissions> getPermissions() {
@@ -57,10 +82,22 @@ public class CacheConfig {
         return maximumSize;
     }
 
+    public Optional<Long> getMaximumWeight() {
+        return maximumWeight;
+    }
+
     public Optional<Long> getExpireAfterAccess() {
         return expireAfterAccess;
     }
 
+    public Optional<Long> getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    public List<XmldbURI> getInvalidateCollections() {
+        return invalidateCollections;
+    }
+
     public static class Permissions {
         private final Optional<String> putGroup;
         private final Optional<String> getGroup;
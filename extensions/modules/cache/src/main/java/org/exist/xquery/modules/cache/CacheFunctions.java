@@ -22,7 +22,10 @@
 package org.exist.xquery.modules.cache;
 
 import org.exist.storage.serializers.Serializer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.BasicFunction;
+import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -33,7 +36,10 @@ import org.xml.sax.SAXException;
 
 import javax.xml.transform.OutputKeys;
 
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -55,6 +61,7 @@ public class CacheFunctions extends BasicFunction {
 
     private static final FunctionParameterSequenceType FS_PARAM_CACHE_NAME = param("cache-name", Type.STRING, "The name of the cache");
     private static final FunctionParameterSequenceType FS_PARAM_KEY = manyParam("key", Type.ANY_TYPE, "The key");
+    private static final FunctionParameterSequenceType FS_PARAM_TTL = optParam("ttl", Type.INTEGER, "The time in milliseconds after which the entry expires. If empty, the expiry configured for the cache applies");
 
     private static final String FS_CREATE_NAME = "create";
     static final FunctionSignature FS_CREATE_CACHE = functionSignature(
@@ -62,7 +69,7 @@ public class CacheFunctions extends BasicFunction {
             "Explicitly create a cache with a specific configuration",
             returns(Type.BOOLEAN, "true if the cache was created, false if the cache already exists"),
             FS_PARAM_CACHE_NAME,
-            param("config", Type.MAP, "A map with configuration for the cache. At present cache LRU and permission groups may be specified, for operations on the cache. `maximumSize` is optional and specifies the maximum number of entries. `expireAfterAccess` is optional and specified the expiry period for infrequently accessed entries (in milliseconds). If a permission group is not specified for an operation, then permissions are not checked for that operation. Should have the format: map { \"maximumSize\": 1000, \"expireAfterAccess\": 120000, \"permissions\": map { \"put-group\": \"group1\", \"get-group\": \"group2\", \"remove-group\": \"group3\", \"clear-group\": \"group4\"} }")
+            param("config", Type.MAP, "A map with configuration for the cache. At present cache LRU and permission groups may be specified, for operations on the cache. `maximumSize` is optional and specifies the maximum number of entries. `maximumWeight` is optional and specifies the maximum estimated memory used by the entries (in bytes), it cannot be combined with `maximumSize`. `expireAfterAccess` is optional and specified the expiry period for infrequently accessed entries (in milliseconds). `expireAfterWrite` is optional and specifies the expiry period for entries after they have been stored (in milliseconds). `invalidateCollections` is optional and specifies the collections whose documents the entries depend upon, the cache is cleared when a document in one of these collections is stored, updated, copied, moved or removed, or when one of these collections is created, copied, moved or removed. If a permission group is not specified for an operation, then permissions are not checked for that operation. Should have the format: map { \"maximumSize\": 1000, \"expireAfterAccess\": 120000, \"expireAfterWrite\": 600000, \"invalidateCollections\": (\"/db/apps/data\"), \"permissions\": map { \"put-group\": \"group1\", \"get-group\": \"group2\", \"remove-group\": \"group3\", \"clear-group\": \"group4\"} }")
     );
 
     private static final String FS_NAMES_NAME = "names";
@@ -73,13 +80,45 @@ public class CacheFunctions extends BasicFunction {
     );
 
     private static final String FS_PUT_NAME = "put";
-    static final FunctionSignature FS_PUT = functionSignature(
+    private static final FunctionParameterSequenceType FS_PARAM_VALUE = optManyParam("value", Type.ITEM, "The value");
+    static final FunctionSignature[] FS_PUT = functionSignatures(
             FS_PUT_NAME,
             "Put data with a key into the identified cache. Returns the previous value associated with the key",
             returnsOptMany(Type.ITEM, "The previous value associated with the key"),
-            FS_PARAM_CACHE_NAME,
-            FS_PARAM_KEY,
-            optManyParam("value", Type.ITEM, "The value")
+            arities(
+                    arity(
+                            FS_PARAM_CACHE_NAME,
+                            FS_PARAM_KEY,
+                            FS_PARAM_VALUE
+                    ),
+                    arity(
+                            FS_PARAM_CACHE_NAME,
+                            FS_PARAM_KEY,
+                            FS_PARAM_VALUE,
+                            FS_PARAM_TTL
+                    )
+            )
+    );
+
+    private static final String FS_MEMOIZE_NAME = "memoize";
+    private static final FunctionParameterSequenceType FS_PARAM_LOADER = param("loader", Type.FUNCTION_REFERENCE, "A function without parameters which computes the value, if the key is not in the cache");
+    static final FunctionSignature[] FS_MEMOIZE = functionSignatures(
+            FS_MEMOIZE_NAME,
+            "Get data from the identified cache by key. If the key is not in the cache, the value is computed by calling the loader function and put into the cache. If the value of the same key is requested concurrently, only one caller computes it and the others wait for its value. Requires both 'get' and 'put' permissions.",
+            returnsOptMany(Type.ITEM, "The value associated with the key"),
+            arities(
+                    arity(
+                            FS_PARAM_CACHE_NAME,
+                            FS_PARAM_KEY,
+                            FS_PARAM_LOADER
+                    ),
+                    arity(
+                            FS_PARAM_CACHE_NAME,
+                            FS_PARAM_KEY,
+                            FS_PARAM_LOADER,
+                            FS_PARAM_TTL
+                    )
+            )
     );
 
     private static final String FS_LIST_NAME = "list";
@@ -146,10 +185,18 @@ public class CacheFunctions extends BasicFunction {
             FS_PARAM_CACHE_NAME
     );
 
+    private AnalyzeContextInfo cachedContextInfo;
+
     public CacheFunctions(final XQueryContext context, final FunctionSignature signature) {
         super(context, signature);
     }
 
+    @Override
+    public void analyze(final AnalyzeContextInfo contextInfo) throws XPathException {
+        cachedContextInfo = new AnalyzeContextInfo(contextInfo);
+        super.analyze(cachedContextInfo);
+    }
+
     @Override
     public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
         final String cacheName;
@@ -177,7 +224,16 @@ public class CacheFunctions extends BasicFunction {
                 }
                 final String putKey = toMapKey(args[1]);
                 final Sequence value = args[2];
-                return put(cacheName, putKey, value);
+                return put(cacheName, putKey, value, args.length > 3 ? toTtl(args[3]) : -1);
+
+            case FS_MEMOIZE_NAME:
+                // lazy create cache if it doesn't exist
+                if(!CacheModule.caches.containsKey(cacheName)) {
+                    createCache(cacheName, new CacheConfig());
+                }
+                final String memoizeKey = toMapKey(args[1]);
+                final FunctionReference loader = (FunctionReference) args[2].itemAt(0);
+                return memoize(cacheName, memoizeKey, loader, args.length > 3 ? toTtl(args[3]) : -1);
 
             case FS_LIST_NAME:
                 // lazy create cache if it doesn't exist
@@ -235,7 +291,7 @@ public class CacheFunctions extends BasicFunction {
                 final Cache oldCache = CacheModule.caches.remove(cacheName);
                 if(oldCache != null) {
                     // only clear the cache after we have removed it
-                    oldCache.clear();
+                    oldCache.destroy();
                 }
                 return Sequence.EMPTY_SEQUENCE;
 
@@ -259,25 +315,45 @@ public class CacheFunctions extends BasicFunction {
             permissions = Optional.empty();
         }
 
-        final Sequence maximumSizeSeq = configMap.get(new StringValue("maximumSize"));
-        final Optional<Long> maximumSize;
-        if(maximumSizeSeq != null && maximumSizeSeq.getItemCount() == 1) {
-            final long l = maximumSizeSeq.itemAt(0).toJavaObject(Long.class);
-            maximumSize = Optional.of(l);
-        } else {
-            maximumSize = Optional.empty();
+        final Optional<Long> maximumSize = getLongValue("maximumSize", configMap);
+        final Optional<Long> maximumWeight = getLongValue("maximumWeight", configMap);
+        if (maximumSize.isPresent() && maximumWeight.isPresent()) {
+            throw new XPathException(this, INVALID_CONFIG, "Only one of maximumSize and maximumWeight may be specified");
         }
 
-        final Sequence expireAfterAccessSeq = configMap.get(new StringValue("expireAfterAccess"));
-        final Optional<Long> expireAfterAccess;
-        if(expireAfterAccessSeq != null && expireAfterAccessSeq.getItemCount() == 1) {
-            final long l = expireAfterAccessSeq.itemAt(0).toJavaObject(Long.class);
-            expireAfterAccess = Optional.of(l);
+        final Optional<Long> expireAfterAccess = getLongValue("expireAfterAccess", configMap);
+        final Optional<Long> expireAfterWrite = getLongValue("expireAfterWrite", configMap);
+
+        final Sequence invalidateCollectionsSeq = configMap.get(new StringValue("invalidateCollections"));
+        final List<XmldbURI> invalidateCollections = new ArrayList<>();
+        if(invalidateCollectionsSeq != null) {
+            for (final SequenceIterator i = invalidateCollectionsSeq.iterate(); i.hasNext(); ) {
+                try {
+                    invalidateCollections.add(XmldbURI.xmldbUriFor(i.nextItem().getStringValue()));
+                } catch (final URISyntaxException e) {
+                    throw new XPathException(this, INVALID_CONFIG, "Invalid collection in invalidateCollections: " + e.getMessage());
+                }
+            }
+        }
+
+        return new CacheConfig(permissions, maximumSize, maximumWeight, expireAfterAccess, expireAfterWrite, invalidateCollections);
+    }
+
+    private Optional<Long> getLongValue(final String key, final AbstractMapType map) throws XPathException {
+        final Sequence seq = map.get(new StringValue(key));
+        if(seq != null && seq.getItemCount() == 1) {
+            final long l = seq.itemAt(0).toJavaObject(Long.class);
+            return Optional.of(l);
         } else {
-            expireAfterAccess = Optional.empty();
+            return Optional.empty();
         }
+    }
 
-        return new CacheConfig(permissions, maximumSize, expireAfterAccess);
+    private long toTtl(final Sequence ttl) throws XPathException {
+        if (ttl.isEmpty()) {
+            return -1;
+        }
+        return ttl.itemAt(0).toJavaObject(Long.class);
     }
 
     private Optional<String> getStringValue(final String key, final AbstractMapType map) {
@@ -287,6 +363,10 @@ public class CacheFunctions extends BasicFunction {
     private boolean createCache(final String cacheName, final CacheConfig config) {
         // we must test for preemption, i.e the cache may have already been created
         final Cache newOrExisting = CacheModule.caches.computeIfAbsent(cacheName, key -> new Cache(config));
+        CacheModule.registerStatistics(context.getBroker().getBrokerPool());
+        if (!config.getInvalidateCollections().isEmpty()) {
+            CacheModule.registerInvalidationTrigger(context.getBroker().getBrokerPool());
+        }
 
         // is new
         return newOrExisting.getConfig() == config;
@@ -300,7 +380,7 @@ public class CacheFunctions extends BasicFunction {
         return result;
     }
 
-    private Sequence put(final String cacheName, final String key, final Sequence value) throws XPathException {
+    private Sequence put(final String cacheName, final String key, final Sequence value, final long ttl) throws XPathException {
         final Cache cache = CacheModule.caches.get(cacheName);
 
         // check permissions
@@ -313,7 +393,30 @@ public class CacheFunctions extends BasicFunction {
             }
         }
 
-        return cache.put(key, value);
+        return cache.put(key, value, ttl);
+    }
+
+    private Sequence memoize(final String cacheName, final String key, final FunctionReference loaderRef, final long ttl) throws XPathException {
+        final Cache cache = CacheModule.caches.get(cacheName);
+
+        // check permissions
+        if(!context.getEffectiveUser().hasDbaRole()) {
+            final Optional<String> getGroup = cache.getConfig().getPermissions().flatMap(CacheConfig.Permissions::getGetGroup);
+            final Optional<String> putGroup = cache.getConfig().getPermissions().flatMap(CacheConfig.Permissions::getPutGroup);
+            if ((getGroup.isPresent() && !context.getEffectiveUser().hasGroup(getGroup.get()))
+                    || (putGroup.isPresent() && !context.getEffectiveUser().hasGroup(putGroup.get()))) {
+                throw new XPathException(this, INSUFFICIENT_PERMISSIONS, "User does not have the appropriate permissions to get and put data in this cache");
+            }
+        }
+
+        try (final FunctionReference loader = loaderRef) {
+            loader.analyze(cachedContextInfo);
+            if (loader.getSignature().getArgumentCount() != 0) {
+                throw new XPathException(this, ErrorCodes.XPTY0004,
+                        "The supplied function (" + loader.getStringValue() + ") has " + loader.getSignature().getArgumentCount() + " arguments - expected 0");
+            }
+            return cache.memoize(key, () -> loader.evalFunction(null, null, new Sequence[0]), ttl);
+        }
     }
 
     private Sequence list(final String cacheName, final String[] keys) throws XPathException {
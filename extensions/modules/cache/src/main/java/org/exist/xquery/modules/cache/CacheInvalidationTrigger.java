@@ -0,0 +1,139 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.cache;
+
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.CollectionTrigger;
+import org.exist.collections.triggers.SAXTrigger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+
+/**
+ * Clears the caches configured with <code>invalidateCollections</code> when a
+ * document or collection which they depend upon changes.
+ *
+ * The trigger is registered for all collections of the database once the first
+ * such cache is created, so it sees the changes of XML and binary documents made
+ * through any API, including XQuery Update.
+ */
+public class CacheInvalidationTrigger extends SAXTrigger implements CollectionTrigger {
+
+    private static void invalidate(final XmldbURI uri) {
+        for (final Cache cache : CacheModule.caches.values()) {
+            cache.invalidate(uri);
+        }
+    }
+
+    @Override
+    public void beforeCreateDocument(final DBBroker broker, final Txn txn, final XmldbURI uri) {
+    }
+
+    @Override
+    public void afterCreateDocument(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+        invalidate(document.getURI());
+    }
+
+    @Override
+    public void beforeUpdateDocument(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+    }
+
+    @Override
+    public void afterUpdateDocument(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+        invalidate(document.getURI());
+    }
+
+    @Override
+    public void beforeUpdateDocumentMetadata(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+    }
+
+    @Override
+    public void afterUpdateDocumentMetadata(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+        invalidate(document.getURI());
+    }
+
+    @Override
+    public void beforeCopyDocument(final DBBroker broker, final Txn txn, final DocumentImpl document, final XmldbURI newUri) {
+    }
+
+    @Override
+    public void afterCopyDocument(final DBBroker broker, final Txn txn, final DocumentImpl document, final XmldbURI oldUri) {
+        invalidate(document.getURI());
+    }
+
+    @Override
+    public void beforeMoveDocument(final DBBroker broker, final Txn txn, final DocumentImpl document, final XmldbURI newUri) {
+    }
+
+    @Override
+    public void afterMoveDocument(final DBBroker broker, final Txn txn, final DocumentImpl document, final XmldbURI oldUri) {
+        invalidate(oldUri);
+        invalidate(document.getURI());
+    }
+
+    @Override
+    public void beforeDeleteDocument(final DBBroker broker, final Txn txn, final DocumentImpl document) {
+    }
+
+    @Override
+    public void afterDeleteDocument(final DBBroker broker, final Txn txn, final XmldbURI uri) {
+        invalidate(uri);
+    }
+
+    @Override
+    public void beforeCreateCollection(final DBBroker broker, final Txn txn, final XmldbURI uri) {
+    }
+
+    @Override
+    public void afterCreateCollection(final DBBroker broker, final Txn txn, final Collection collection) {
+        invalidate(collection.getURI());
+    }
+
+    @Override
+    public void beforeCopyCollection(final DBBroker broker, final Txn txn, final Collection collection, final XmldbURI newUri) {
+    }
+
+    @Override
+    public void afterCopyCollection(final DBBroker broker, final Txn txn, final Collection collection, final XmldbURI oldUri) {
+        invalidate(collection.getURI());
+    }
+
+    @Override
+    public void beforeMoveCollection(final DBBroker broker, final Txn txn, final Collection collection, final XmldbURI newUri) {
+    }
+
+    @Override
+    public void afterMoveCollection(final DBBroker broker, final Txn txn, final Collection collection, final XmldbURI oldUri) {
+        invalidate(oldUri);
+        invalidate(collection.getURI());
+    }
+
+    @Override
+    public void beforeDeleteCollection(final DBBroker broker, final Txn txn, final Collection collection) {
+    }
+
+    @Override
+    public void afterDeleteCollection(final DBBroker broker, final Txn txn, final XmldbURI uri) {
+        invalidate(uri);
+    }
+}
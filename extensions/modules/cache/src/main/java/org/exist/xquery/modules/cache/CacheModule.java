@@ -21,11 +21,19 @@
  */
 package org.exist.xquery.modules.cache;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
+import org.exist.management.AgentFactory;
+import org.exist.storage.BrokerPool;
+import org.exist.util.DatabaseConfigurationException;
 import org.exist.xquery.*;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
@@ -42,6 +50,8 @@ import static org.exist.xquery.FunctionDSL.functionDefs;
  */
 public class CacheModule extends AbstractInternalModule {
 
+    private static final Logger LOG = LogManager.getLogger(CacheModule.class);
+
     public final static String NAMESPACE_URI = "http://exist-db.org/xquery/cache";
 
     public final static String PREFIX = "cache";
@@ -52,7 +62,10 @@ public class CacheModule extends AbstractInternalModule {
             CacheFunctions.class,
             CacheFunctions.FS_CREATE_CACHE,
             CacheFunctions.FS_NAMES,
-            CacheFunctions.FS_PUT,
+            CacheFunctions.FS_PUT[0],
+            CacheFunctions.FS_PUT[1],
+            CacheFunctions.FS_MEMOIZE[0],
+            CacheFunctions.FS_MEMOIZE[1],
             CacheFunctions.FS_LIST,
             CacheFunctions.FS_KEYS,
             CacheFunctions.FS_GET,
@@ -65,6 +78,12 @@ public class CacheModule extends AbstractInternalModule {
 
     static final Map<String, Cache> caches = new ConcurrentHashMap<>();
 
+    // ids of the database instances for which the statistics have been registered with JMX
+    private static final Set<String> statisticsInstances = ConcurrentHashMap.newKeySet();
+
+    // database instances for which the CacheInvalidationTrigger has been registered, a restarted instance has to register it again
+    private static final Set<BrokerPool> invalidationInstances = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
     public CacheModule(final Map<String, List<?>> parameters) {
         super(functions, parameters);
     }
@@ -89,6 +108,35 @@ public class CacheModule extends AbstractInternalModule {
         return RELEASED_IN_VERSION;
     }
 
+    /**
+     * Publishes the statistics of the caches via JMX for the database instance,
+     * if that has not been done yet.
+     *
+     * @param pool the database instance
+     */
+    static void registerStatistics(final BrokerPool pool) {
+        if (statisticsInstances.add(pool.getId())) {
+            try {
+                AgentFactory.getInstance().addMBean(new CacheModuleStatistics(pool.getId()));
+            } catch (final DatabaseConfigurationException e) {
+                LOG.warn("Exception while registering JMX CacheModule MBean.", e);
+            }
+        }
+    }
+
+    /**
+     * Registers the {@link CacheInvalidationTrigger} for all collections
+     * of the database instance, if that has not been done yet.
+     *
+     * @param pool the database instance
+     */
+    static void registerInvalidationTrigger(final BrokerPool pool) {
+        if (invalidationInstances.add(pool)) {
+            pool.registerDocumentTrigger(CacheInvalidationTrigger.class);
+            pool.registerCollectionTrigger(CacheInvalidationTrigger.class);
+        }
+    }
+
     static FunctionSignature functionSignature(final String name, final String description, final FunctionReturnSequenceType returnType, final FunctionParameterSequenceType... paramTypes) {
         return FunctionDSL.functionSignature(new QName(name, NAMESPACE_URI, PREFIX), description, returnType, paramTypes);
     }
@@ -105,4 +153,7 @@ public class CacheModule extends AbstractInternalModule {
 
     static final ErrorCodes.ErrorCode INSUFFICIENT_PERMISSIONS = new CacheModuleErrorCode("insufficient-permissions", "The calling user does not have sufficient permissions to operate on the cache.");
     static final ErrorCodes.ErrorCode KEY_SERIALIZATION = new CacheModuleErrorCode("key-serialization", "Unable to serialize the provided key.");
+    static final ErrorCodes.ErrorCode INVALID_CONFIG = new CacheModuleErrorCode("invalid-config", "The configuration of the cache is invalid.");
+    static final ErrorCodes.ErrorCode RECURSIVE_LOAD = new CacheModuleErrorCode("recursive-load", "The function computing the value of a key requires the value of the same key.");
+    static final ErrorCodes.ErrorCode LOAD_INTERRUPTED = new CacheModuleErrorCode("load-interrupted", "Interrupted while waiting for another caller to compute the value of a key.");
 }
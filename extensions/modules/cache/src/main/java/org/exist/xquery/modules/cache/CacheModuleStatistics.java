@@ -0,0 +1,67 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.cache;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes the statistics of the caches of the cache module via JMX.
+ */
+public class CacheModuleStatistics implements CacheModuleMXBean {
+
+    private final String instanceId;
+
+    public CacheModuleStatistics(final String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public static String getAllInstancesQuery() {
+        return "org.exist.management." + '*' + ":type=CacheModule";
+    }
+
+    private static ObjectName getName(final String instanceId) throws MalformedObjectNameException {
+        return new ObjectName("org.exist.management." + instanceId + ":type=CacheModule");
+    }
+
+    @Override
+    public ObjectName getName() throws MalformedObjectNameException {
+        return getName(instanceId);
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public List<CacheStatistics> getCaches() {
+        final List<CacheStatistics> statistics = new ArrayList<>();
+        for (final Map.Entry<String, Cache> cache : CacheModule.caches.entrySet()) {
+            statistics.add(CacheStatistics.of(cache.getKey(), cache.getValue()));
+        }
+        return statistics;
+    }
+}
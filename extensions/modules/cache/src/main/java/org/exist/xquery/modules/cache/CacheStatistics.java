@@ -0,0 +1,109 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.cache;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of a cache, as published by {@link CacheModuleMXBean}.
+ * Times are reported in milliseconds.
+ */
+public class CacheStatistics {
+
+    private final String name;
+    private final long size;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long loadCount;
+    private final long loadFailureCount;
+    private final double averageLoadTime;
+    private final long invalidationCount;
+
+    @ConstructorProperties({"name", "size", "hitCount", "missCount", "evictionCount", "loadCount",
+            "loadFailureCount", "averageLoadTime", "invalidationCount"})
+    public CacheStatistics(final String name, final long size, final long hitCount, final long missCount,
+            final long evictionCount, final long loadCount, final long loadFailureCount,
+            final double averageLoadTime, final long invalidationCount) {
+        this.name = name;
+        this.size = size;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.loadCount = loadCount;
+        this.loadFailureCount = loadFailureCount;
+        this.averageLoadTime = averageLoadTime;
+        this.invalidationCount = invalidationCount;
+    }
+
+    static CacheStatistics of(final String name, final Cache cache) {
+        final CacheStats stats = cache.getStats();
+        final long loads = cache.getLoadCount() + cache.getLoadFailureCount();
+        final double averageLoadTime = loads == 0 ? 0 : cache.getTotalLoadTime() / (double) loads / 1_000_000;
+        return new CacheStatistics(name, cache.getEstimatedSize(), stats.hitCount(), stats.missCount(),
+                stats.evictionCount(), cache.getLoadCount(), cache.getLoadFailureCount(), averageLoadTime,
+                cache.getInvalidationCount());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public double getHitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : hitCount / (double) requests;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public double getAverageLoadTime() {
+        return averageLoadTime;
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+}
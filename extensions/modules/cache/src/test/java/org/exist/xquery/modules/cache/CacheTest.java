@@ -0,0 +1,186 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.cache;
+
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.StringValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests loading and evicting the values of a {@link Cache}.
+ */
+public class CacheTest {
+
+    private static final long TIMEOUT = 30;
+
+    @Test(timeout = 60_000)
+    public void memoizeLoadsOnce() throws Exception {
+        final Cache cache = new Cache(new CacheConfig());
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Sequence value = new IntegerValue(42);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final Future<Sequence> first = executor.submit(() -> cache.memoize("key", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return value;
+            }, -1));
+            loading.await();
+
+            final List<Future<Sequence>> others = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                others.add(executor.submit(() -> cache.memoize("key", () -> {
+                    loads.incrementAndGet();
+                    return new IntegerValue(0);
+                }, -1)));
+            }
+            release.countDown();
+
+            assertSame(value, first.get(TIMEOUT, TimeUnit.SECONDS));
+            for (final Future<Sequence> other : others) {
+                assertSame(value, other.get(TIMEOUT, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertEquals(1, cache.getLoadCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void memoizeWaiterLoadsAfterError() throws Exception {
+        final Cache cache = new Cache(new CacheConfig());
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Sequence> failing = executor.submit(() -> cache.memoize("key", () -> {
+                loading.countDown();
+                await(release);
+                throw new AssertionError("failed to load");
+            }, -1));
+            loading.await();
+
+            final Future<Sequence> waiter = executor.submit(() -> cache.memoize("key", () -> new IntegerValue(1), -1));
+            release.countDown();
+
+            try {
+                failing.get(TIMEOUT, TimeUnit.SECONDS);
+                fail("the error of the loader was not thrown");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            assertEquals(new IntegerValue(1), waiter.get(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(1, cache.getLoadFailureCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void memoizeDetectsCycleAcrossThreads() throws Exception {
+        final Cache cache = new Cache(new CacheConfig());
+        final CountDownLatch bothLoading = new CountDownLatch(2);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Sequence> first = executor.submit(dependentLoad(cache, "k1", "k2", bothLoading));
+            final Future<Sequence> second = executor.submit(dependentLoad(cache, "k2", "k1", bothLoading));
+
+            final List<Throwable> failures = new ArrayList<>();
+            for (final Future<Sequence> future : Arrays.asList(first, second)) {
+                try {
+                    future.get(TIMEOUT, TimeUnit.SECONDS);
+                } catch (final ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+
+            assertTrue("at least one of the loads must fail", !failures.isEmpty());
+            for (final Throwable failure : failures) {
+                assertTrue(failure instanceof XPathException);
+                assertEquals(CacheModule.RECURSIVE_LOAD, ((XPathException) failure).getErrorCode());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void evictByWeight() {
+        final Cache cache = new Cache(new CacheConfig(Optional.empty(), Optional.empty(), Optional.of(10_000L),
+                Optional.empty(), Optional.empty(), Collections.emptyList()));
+        final String value = String.join("", Collections.nCopies(1_000, "x"));
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, new StringValue(value));
+        }
+        cache.cleanup();
+
+        // each entry weighs a little over 2,000, so only a few of them fit
+        final long size = cache.getEstimatedSize();
+        assertTrue("expected some entries, found " + size, size >= 1);
+        assertTrue("expected at most 4 entries, found " + size, size <= 4);
+    }
+
+    private static Callable<Sequence> dependentLoad(final Cache cache, final String key, final String dependency, final CountDownLatch bothLoading) {
+        return () -> cache.memoize(key, () -> {
+            bothLoading.countDown();
+            await(bothLoading);
+            return cache.memoize(dependency, () -> new IntegerValue(0), -1);
+        }, -1);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
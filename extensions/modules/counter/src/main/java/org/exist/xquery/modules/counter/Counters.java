@@ -21,17 +21,22 @@
  */
 package org.exist.xquery.modules.counter;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Hashtable;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -42,6 +47,25 @@ import org.exist.indexing.RawBackupSupport;
 import org.exist.util.FileUtils;
 
 /**
+ * Persistent counters.
+ *
+ * Each counter is incremented without locking. The counter store does not
+ * record every value: a counter reserves a block of {@link #RESERVE_BLOCK}
+ * values at a time and only the highest reserved value is written to the
+ * store. After a restart, a counter continues after the highest value
+ * reserved for it, so values are never handed out twice, but values which
+ * were reserved and not used before the restart are skipped.
+ *
+ * The store is an append-only log of lines <code>name;value;checksum</code>,
+ * where an empty value records the removal of a counter, and the checksum is
+ * the CRC32 of <code>name;value</code>. The highest value of a counter since
+ * it was last created counts. Every line is forced to disk before the values
+ * it reserves are handed out, so a line which is incomplete, or fails its
+ * checksum, at the end of the store was written when the database stopped
+ * unexpectedly and is ignored. Lines without a checksum, written by older
+ * versions, are still read. The log is compacted when it is loaded and when
+ * it has grown by {@link #COMPACT_THRESHOLD} lines.
+ *
  * @author <a href="mailto:jasper.linthorst@gmail.com">Jasper Linthorst</a>
  */
 public class Counters implements RawBackupSupport {
@@ -53,10 +77,23 @@ public class Counters implements RawBackupSupport {
     public final static String COUNTERSTORE = "counters";
     public final static String DELIMITER = ";";
 
-    private Path store = null;
-    private Map<String, Long> counters = new Hashtable<>();
+    /**
+     * Number of values a counter reserves with one write to the store.
+     */
+    public final static int RESERVE_BLOCK = 1000;
+
+    /**
+     * Number of lines appended to the store after which it is compacted.
+     */
+    public final static int COMPACT_THRESHOLD = 10000;
+
+    private final Path store;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private FileChannel log = null;
+    private int appended = 0;
 
-    private Counters(final Optional<Path> dataDir) throws EXistException {
+    Counters(final Optional<Path> dataDir) throws EXistException {
         this.store = FileUtils.resolve(dataDir, COUNTERSTORE);
         loadStore();
     }
@@ -69,25 +106,88 @@ public class Counters implements RawBackupSupport {
     private void loadStore() throws EXistException {
         try {
             if(Files.exists(store)) {
-                try(final BufferedReader br = Files.newBufferedReader(store, StandardCharsets.UTF_8)) {
-                    String line = "";
-                    while ((line = br.readLine()) != null) {
-                        //Use ; as a DELIMITER, counter names must be tested and rejected when they contain this character!
-                        final String[] tokens = line.split(DELIMITER);
-
-                        try {
-                            counters.put(tokens[0], Long.parseLong(tokens[1]));
-                        } catch (final NumberFormatException e) {
-                            throw new EXistException("Corrupt counter store file: " + store.toAbsolutePath().toString());
+                final byte[] data = Files.readAllBytes(store);
+
+                // a last line without a line separator was not completely written
+                int end = data.length;
+                while (end > 0 && data[end - 1] != '\n') {
+                    end--;
+                }
+                if (end < data.length) {
+                    LOG.warn("Ignoring the incomplete last line of the counter store file: {}", store.toAbsolutePath().toString());
+                }
+
+                final String[] lines = new String(data, 0, end, StandardCharsets.UTF_8).split("\r?\n");
+                String invalidLine = null;
+                for (final String line : lines) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (!readLine(line)) {
+                        if (invalidLine == null) {
+                            invalidLine = line;
                         }
+                    } else if (invalidLine != null) {
+                        // only the lines at the end of the store may have been torn by a crash
+                        throw new EXistException("Corrupt counter store file: " + store.toAbsolutePath().toString() + ", invalid line: " + invalidLine);
                     }
                 }
+                if (invalidLine != null) {
+                    LOG.warn("Ignoring the invalid last lines of the counter store file: {}", store.toAbsolutePath().toString());
+                }
             }
+            compact();
         } catch (final IOException e) {
             throw new EXistException("IOException occurred when reading counter store file.");
         }
     }
 
+    /**
+     * Applies a line of the store.
+     *
+     * @return false if the line is invalid
+     */
+    private boolean readLine(final String line) {
+        if (line.indexOf('\u0000') >= 0) {
+            return false;
+        }
+
+        //Use ; as a DELIMITER, counter names must be tested and rejected when they contain this character!
+        final String[] tokens = line.split(DELIMITER, -1);
+        if (tokens.length < 2 || tokens.length > 3 || tokens[0].isEmpty()) {
+            return false;
+        }
+        if (tokens.length == 3 && !tokens[2].equals(checksum(tokens[0], tokens[1]))) {
+            return false;
+        }
+
+        if (tokens[1].isEmpty()) {
+            counters.remove(tokens[0]);
+            return true;
+        }
+        final long value;
+        try {
+            value = Long.parseLong(tokens[1]);
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+        final Counter previous = counters.get(tokens[0]);
+        if (previous == null || previous.reserved < value) {
+            counters.put(tokens[0], new Counter(value));
+        }
+        return true;
+    }
+
+    private static String checksum(final String counterName, final String value) {
+        final CRC32 crc = new CRC32();
+        crc.update((counterName + DELIMITER + value).getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static String line(final String counterName, final String value) {
+        return counterName + DELIMITER + value + DELIMITER + checksum(counterName, value);
+    }
+
     /**
      * Get singleton of Counters object.
      *
@@ -134,18 +234,18 @@ public class Counters implements RawBackupSupport {
      * @throws EXistException if an error occurs
      */
     public synchronized long createCounter(final String counterName, final long initValue) throws EXistException {
-        if (counters.containsKey(counterName)) {
-            return counters.get(counterName);
+        final Counter counter = counters.get(counterName);
+        if (counter != null) {
+            return counter.value.get();
         } else {
-            counters.put(counterName, initValue);
-
             try {
-                serializeTable();
+                append(counterName, Long.toString(initValue));
             } catch (final IOException e) {
                 throw new EXistException("Unable to save to counter store file.", e);
             }
 
-            return counters.get(counterName);
+            counters.put(counterName, new Counter(initValue));
+            return initValue;
         }
     }
 
@@ -159,11 +259,9 @@ public class Counters implements RawBackupSupport {
      * @throws EXistException if an error occurs
      */
     public synchronized boolean destroyCounter(final String counterName) throws EXistException {
-        if (counters.containsKey(counterName)) {
-            counters.remove(counterName);
-
+        if (counters.remove(counterName) != null) {
             try {
-                serializeTable();
+                append(counterName, "");
             } catch (final IOException e) {
                 throw new EXistException("Unable to remove counter from counter store file.", e);
             }
@@ -183,23 +281,37 @@ public class Counters implements RawBackupSupport {
      *
      * @throws EXistException if an error occurs
      */
-    public synchronized long nextValue(final String counterName) throws EXistException {
-        if (!counters.containsKey(counterName)) {
+    public long nextValue(final String counterName) throws EXistException {
+        final Counter counter = counters.get(counterName);
+        if (counter == null) {
             return -1;
         }
 
-        long c = counters.get(counterName);
-        c++;
+        final long c = counter.value.incrementAndGet();
+        if (c > counter.reserved) {
+            reserve(counterName, counter, c);
+        }
+        return c;
+    }
 
-        counters.put(counterName, c);
+    /**
+     * Reserves the next block of values for a counter, which includes the given value.
+     *
+     * @throws EXistException if the reservation cannot be written to the store
+     */
+    private synchronized void reserve(final String counterName, final Counter counter, final long value) throws EXistException {
+        if (value <= counter.reserved || counters.get(counterName) != counter) {
+            // reserved by another thread meanwhile, or the counter has been destroyed
+            return;
+        }
 
+        final long reserved = Math.max(counter.reserved + RESERVE_BLOCK, value);
         try {
-            serializeTable();
+            append(counterName, Long.toString(reserved));
         } catch (final IOException e) {
             throw new EXistException("Unable to save to counter store file.", e);
         }
-
-        return c;
+        counter.reserved = reserved;
     }
 
     /**
@@ -212,20 +324,60 @@ public class Counters implements RawBackupSupport {
     }
 
     /**
-     * Serializes the Map with counters to the filesystem.
-     * 
+     * Appends a line to the store and forces it to disk.
+     *
      * @throws IOException
      */
-    private synchronized void serializeTable() throws IOException {
-        try(final PrintWriter pw = new PrintWriter(Files.newBufferedWriter(store, StandardCharsets.UTF_8))) {
-            for(final Map.Entry<String, Long> counter : counters.entrySet()) {
-                pw.println(counter.getKey() + DELIMITER + counter.getValue().toString());
+    private void append(final String counterName, final String value) throws IOException {
+        if (appended >= COMPACT_THRESHOLD) {
+            try {
+                compact();
+            } catch (final IOException e) {
+                // the log has been reopened, retry once it has grown again
+                LOG.warn("Unable to compact counter store file: {}", e.getMessage(), e);
+                appended = 0;
             }
         }
+        final ByteBuffer line = StandardCharsets.UTF_8.encode(line(counterName, value) + System.lineSeparator());
+        while (line.hasRemaining()) {
+            log.write(line);
+        }
+        log.force(false);
+        appended++;
+    }
+
+    /**
+     * Replaces the store with one line for each counter, which holds the
+     * highest value reserved for the counter. If the store cannot be
+     * replaced, the existing one is reopened to append to it.
+     *
+     * @throws IOException
+     */
+    private synchronized void compact() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+
+        try {
+            final Path tempStore = store.resolveSibling(FileUtils.fileName(store) + ".tmp");
+            try(final PrintWriter pw = new PrintWriter(Files.newBufferedWriter(tempStore, StandardCharsets.UTF_8))) {
+                for(final Map.Entry<String, Counter> counter : counters.entrySet()) {
+                    pw.println(line(counter.getKey(), Long.toString(counter.getValue().reserved)));
+                }
+            }
+            try (final FileChannel channel = FileChannel.open(tempStore, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempStore, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            log = FileChannel.open(store, StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+        }
+        appended = 0;
     }
 
     @Override
-    public void backupToArchive(final RawDataBackup backup) throws IOException {
+    public synchronized void backupToArchive(final RawDataBackup backup) throws IOException {
         if (!Files.exists(store)) {
             return;
         }
@@ -239,4 +391,16 @@ public class Counters implements RawBackupSupport {
             backup.closeEntry();
         }
     }
+
+    private static class Counter {
+        final AtomicLong value;
+
+        // the highest value which has been written to the store
+        volatile long reserved;
+
+        Counter(final long value) {
+            this.value = new AtomicLong(value);
+            this.reserved = value;
+        }
+    }
 }
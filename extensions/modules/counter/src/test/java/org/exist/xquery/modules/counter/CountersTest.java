@@ -0,0 +1,143 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.counter;
+
+import org.exist.EXistException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reloading the counter store.
+ */
+public class CountersTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void reloadSkipsReservedValues() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        assertEquals(10, counters.createCounter("a", 10));
+        for (int i = 1; i <= Counters.RESERVE_BLOCK + 5; i++) {
+            assertEquals(10 + i, counters.nextValue("a"));
+        }
+        counters.createCounter("b");
+        assertTrue(counters.destroyCounter("b"));
+
+        final Counters reloaded = new Counters(Optional.of(dataDir));
+        assertFalse(reloaded.availableCounters().contains("b"));
+        assertEquals(10 + 2 * Counters.RESERVE_BLOCK + 1, reloaded.nextValue("a"));
+        assertEquals(-1, reloaded.nextValue("b"));
+    }
+
+    @Test
+    public void createAfterReload() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        counters.createCounter("a", 5);
+
+        final Counters reloaded = new Counters(Optional.of(dataDir));
+        assertEquals(5, reloaded.createCounter("a", 0));
+        assertEquals(6, reloaded.nextValue("a"));
+    }
+
+    @Test
+    public void ignoreIncompleteLastLine() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        counters.createCounter("a", 5);
+
+        // a crash while appending a reservation, which would read as a removal
+        appendToStore(dataDir, "a;");
+
+        final Counters reloaded = new Counters(Optional.of(dataDir));
+        assertEquals(6, reloaded.nextValue("a"));
+    }
+
+    @Test
+    public void ignoreInvalidLastLines() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        counters.createCounter("a", 5);
+
+        appendToStore(dataDir, "a;1000;0\n\u0000\u0000\u0000\u0000\n");
+
+        final Counters reloaded = new Counters(Optional.of(dataDir));
+        assertEquals(6, reloaded.nextValue("a"));
+    }
+
+    @Test
+    public void failOnCorruptLine() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        counters.createCounter("a", 5);
+
+        appendToStore(dataDir, "a;1000;0\nb;1\n");
+
+        try {
+            new Counters(Optional.of(dataDir));
+            fail("A corrupt line followed by valid ones must not be ignored");
+        } catch (final EXistException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void keepHighestValue() throws EXistException, IOException {
+        final Path dataDir = temporaryFolder.newFolder().toPath();
+
+        // lines written by an older version, without a checksum
+        appendToStore(dataDir, "a;100\na;50\nb;100\nb;\nb;50\n");
+
+        final Counters counters = new Counters(Optional.of(dataDir));
+        assertEquals(101, counters.nextValue("a"));
+        assertEquals(51, counters.nextValue("b"));
+
+        // the compacted store keeps the values
+        final Counters reloaded = new Counters(Optional.of(dataDir));
+        assertEquals(100 + Counters.RESERVE_BLOCK + 1, reloaded.nextValue("a"));
+    }
+
+    private static void appendToStore(final Path dataDir, final String data) throws IOException {
+        Files.write(dataDir.resolve(Counters.COUNTERSTORE), data.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}